@@ -23,6 +23,7 @@ import android.preference.PreferenceManager;
 
 import org.smssecure.smssecure.crypto.PRNGFixes;
 import org.smssecure.smssecure.dependencies.InjectableType;
+import org.smssecure.smssecure.jobs.JobScheduler;
 import org.smssecure.smssecure.jobs.persistence.EncryptingJobSerializer;
 import org.smssecure.smssecure.jobs.requirements.MasterSecretRequirementProvider;
 import org.smssecure.smssecure.jobs.requirements.MediaNetworkRequirementProvider;
@@ -49,11 +50,15 @@ import dagger.ObjectGraph;
  */
 public class ApplicationContext extends Application implements DependencyInjector {
 
-  private JobManager  jobManager;
-  private ObjectGraph objectGraph;
+  private static final int FOREGROUND_CONSUMERS = 3;
+  private static final int BACKGROUND_CONSUMERS = 2;
+
+  private JobScheduler jobManager;
+  private ObjectGraph  objectGraph;
   private static Context context;
 
-  private MediaNetworkRequirementProvider mediaNetworkRequirementProvider = new MediaNetworkRequirementProvider();
+  private MediaNetworkRequirementProvider foregroundMediaNetworkRequirementProvider = new MediaNetworkRequirementProvider();
+  private MediaNetworkRequirementProvider backgroundMediaNetworkRequirementProvider = new MediaNetworkRequirementProvider();
 
   public static ApplicationContext getInstance(Context context) {
     return (ApplicationContext)context.getApplicationContext();
@@ -79,7 +84,7 @@ public class ApplicationContext extends Application implements DependencyInjecto
     }
   }
 
-  public JobManager getJobManager() {
+  public JobScheduler getJobManager() {
     return jobManager;
   }
 
@@ -92,20 +97,30 @@ public class ApplicationContext extends Application implements DependencyInjecto
   }
 
   private void initializeJobManager() {
-    this.jobManager = JobManager.newBuilder(this)
-                                .withName("SMSSecureJobs")
-                                .withDependencyInjector(this)
-                                .withJobSerializer(new EncryptingJobSerializer())
-                                .withRequirementProviders(new MasterSecretRequirementProvider(this),
-                                                          new ServiceRequirementProvider(this),
-                                                          new NetworkRequirementProvider(this),
-                                                          mediaNetworkRequirementProvider)
-                                .withConsumerThreads(5)
-                                .build();
+    this.jobManager = new JobScheduler(createJobManager("SMSSecureJobs", FOREGROUND_CONSUMERS,
+                                                        foregroundMediaNetworkRequirementProvider),
+                                       createJobManager("SMSSecureBackgroundJobs", BACKGROUND_CONSUMERS,
+                                                        backgroundMediaNetworkRequirementProvider));
+  }
+
+  private JobManager createJobManager(String name, int consumers,
+                                      MediaNetworkRequirementProvider mediaNetworkRequirementProvider)
+  {
+    return JobManager.newBuilder(this)
+                     .withName(name)
+                     .withDependencyInjector(this)
+                     .withJobSerializer(new EncryptingJobSerializer())
+                     .withRequirementProviders(new MasterSecretRequirementProvider(this),
+                                               new ServiceRequirementProvider(this),
+                                               new NetworkRequirementProvider(this),
+                                               mediaNetworkRequirementProvider)
+                     .withConsumerThreads(consumers)
+                     .build();
   }
 
   public void notifyMediaControlEvent() {
-    mediaNetworkRequirementProvider.notifyMediaControlEvent();
+    foregroundMediaNetworkRequirementProvider.notifyMediaControlEvent();
+    backgroundMediaNetworkRequirementProvider.notifyMediaControlEvent();
   }
 
 }
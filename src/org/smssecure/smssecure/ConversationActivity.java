@@ -1193,7 +1193,7 @@ public class ConversationActivity extends PassphraseRequiredActionBarActivity
       @Override
       protected Void doInBackground(Long... params) {
         DatabaseFactory.getThreadDatabase(ConversationActivity.this).setRead(params[0]);
-        MessageNotifier.updateNotification(ConversationActivity.this, masterSecret);
+        MessageNotifier.updateNotificationForReadThreads(ConversationActivity.this, masterSecret, params[0]);
         return null;
       }
     }.execute(threadId);
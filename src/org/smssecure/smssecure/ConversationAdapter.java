@@ -33,20 +33,18 @@ import org.smssecure.smssecure.util.Conversions;
 import org.smssecure.smssecure.crypto.MasterSecret;
 import org.smssecure.smssecure.database.CursorRecyclerViewAdapter;
 import org.smssecure.smssecure.database.DatabaseFactory;
+import org.smssecure.smssecure.database.MessageRecordPrefetcher;
 import org.smssecure.smssecure.database.MmsSmsColumns;
 import org.smssecure.smssecure.database.MmsSmsDatabase;
 import org.smssecure.smssecure.database.SmsDatabase;
 import org.smssecure.smssecure.database.model.MessageRecord;
 import org.smssecure.smssecure.recipients.Recipients;
-import org.smssecure.smssecure.util.LRUCache;
 
-import java.lang.ref.SoftReference;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Locale;
-import java.util.Map;
 import java.util.Set;
 
 import org.smssecure.smssecure.util.ViewUtil;
@@ -64,10 +62,6 @@ public class ConversationAdapter <V extends View & BindableConversationItem>
     extends CursorRecyclerViewAdapter<ConversationAdapter.ViewHolder>
 {
 
-  private static final int MAX_CACHE_SIZE = 40;
-  private final Map<String,SoftReference<MessageRecord>> messageRecordCache =
-      Collections.synchronizedMap(new LRUCache<String, SoftReference<MessageRecord>>(MAX_CACHE_SIZE));
-
   public static final int MESSAGE_TYPE_OUTGOING = 0;
   public static final int MESSAGE_TYPE_INCOMING = 1;
   public static final int MESSAGE_TYPE_UPDATE   = 2;
@@ -82,6 +76,8 @@ public class ConversationAdapter <V extends View & BindableConversationItem>
   private final @NonNull  LayoutInflater    inflater;
   private final @NonNull  MessageDigest     digest;
 
+  private final @Nullable MessageRecordPrefetcher prefetcher;
+
   protected static class ViewHolder extends RecyclerView.ViewHolder {
     public <V extends View & BindableConversationItem> ViewHolder(final @NonNull V itemView) {
       super(itemView);
@@ -110,6 +106,7 @@ public class ConversationAdapter <V extends View & BindableConversationItem>
       this.inflater      = null;
       this.db            = null;
       this.digest        = MessageDigest.getInstance("SHA1");
+      this.prefetcher    = null;
     } catch (NoSuchAlgorithmException nsae) {
       throw new AssertionError("SHA1 isn't supported!");
     }
@@ -131,6 +128,7 @@ public class ConversationAdapter <V extends View & BindableConversationItem>
       this.inflater      = LayoutInflater.from(context);
       this.db            = DatabaseFactory.getMmsSmsDatabase(context);
       this.digest        = MessageDigest.getInstance("SHA1");
+      this.prefetcher    = new MessageRecordPrefetcher(context, masterSecret);
 
       setHasStableIds(true);
     } catch (NoSuchAlgorithmException nsae) {
@@ -140,16 +138,21 @@ public class ConversationAdapter <V extends View & BindableConversationItem>
 
   @Override
   public void changeCursor(Cursor cursor) {
-    messageRecordCache.clear();
+    if (prefetcher != null) prefetcher.setCursor(cursor);
     super.changeCursor(cursor);
   }
 
+  public @Nullable MessageRecordPrefetcher getPrefetcher() {
+    return prefetcher;
+  }
+
   @Override
   public void onBindItemViewHolder(ViewHolder viewHolder, @NonNull Cursor cursor) {
     long          id            = cursor.getLong(cursor.getColumnIndexOrThrow(SmsDatabase.ID));
     String        type          = cursor.getString(cursor.getColumnIndexOrThrow(MmsSmsDatabase.TRANSPORT));
     MessageRecord messageRecord = getMessageRecord(id, cursor, type);
 
+    if (prefetcher != null) prefetcher.prefetch(cursor, cursor.getPosition());
     viewHolder.getView().bind(masterSecret, messageRecord, locale, batchSelected, recipients);
   }
 
@@ -208,14 +211,11 @@ public class ConversationAdapter <V extends View & BindableConversationItem>
   }
 
   private MessageRecord getMessageRecord(long messageId, Cursor cursor, String type) {
-    final SoftReference<MessageRecord> reference = messageRecordCache.get(type + messageId);
-    if (reference != null) {
-      final MessageRecord record = reference.get();
-      if (record != null) return record;
-    }
+    final MessageRecord record = prefetcher != null ? prefetcher.get(type, messageId) : null;
+    if (record != null) return record;
 
     final MessageRecord messageRecord = db.readerFor(cursor, masterSecret).getCurrent();
-    messageRecordCache.put(type + messageId, new SoftReference<>(messageRecord));
+    if (prefetcher != null) prefetcher.put(type, messageId, messageRecord);
 
     return messageRecord;
   }
@@ -49,6 +49,7 @@ import android.widget.Toast;
 import org.smssecure.smssecure.ConversationAdapter.ItemClickListener;
 import org.smssecure.smssecure.crypto.MasterSecret;
 import org.smssecure.smssecure.database.DatabaseFactory;
+import org.smssecure.smssecure.database.MessageRecordPrefetcher;
 import org.smssecure.smssecure.database.MmsSmsDatabase;
 import org.smssecure.smssecure.database.loaders.ConversationLoader;
 import org.smssecure.smssecure.database.model.MediaMmsMessageRecord;
@@ -108,9 +109,7 @@ public class ConversationFragment extends Fragment
     loadMoreView.setOnClickListener(new OnClickListener() {
       @Override
       public void onClick(View v) {
-        Bundle args = new Bundle();
-        args.putLong("limit", 0);
-        getLoaderManager().restartLoader(0, args, ConversationFragment.this);
+        loadOlderPage();
       }
     });
     return view;
@@ -170,6 +169,14 @@ public class ConversationFragment extends Fragment
     }
   }
 
+  private void loadOlderPage() {
+    Loader<Cursor> loader = getLoaderManager().getLoader(0);
+
+    if (loader instanceof ConversationLoader) {
+      ((ConversationLoader)loader).loadOlderPage();
+    }
+  }
+
   private void setCorrectMenuVisibility(Menu menu) {
     Set<MessageRecord> messageRecords = getListAdapter().getSelectedItems();
 
@@ -357,17 +364,23 @@ public class ConversationFragment extends Fragment
 
   @Override
   public Loader<Cursor> onCreateLoader(int id, Bundle args) {
-    return new ConversationLoader(getActivity(), threadId, args.getLong("limit", PARTIAL_CONVERSATION_LIMIT));
+    MessageRecordPrefetcher prefetcher = list.getAdapter() != null ? getListAdapter().getPrefetcher() : null;
+    return new ConversationLoader(getActivity(), threadId, args.getLong("limit", PARTIAL_CONVERSATION_LIMIT), prefetcher);
   }
 
   @Override
   public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
     if (list.getAdapter() != null) {
-      if (cursor.getCount() >= PARTIAL_CONVERSATION_LIMIT && ((ConversationLoader)loader).hasLimit()) {
-        getListAdapter().setFooterView(loadMoreView);
+      ConversationLoader conversationLoader = (ConversationLoader)loader;
+      boolean            hasMore;
+
+      if (conversationLoader.hasOlderPages()) {
+        hasMore = !conversationLoader.isOlderPagesExhausted();
       } else {
-        getListAdapter().setFooterView(null);
+        hasMore = cursor.getCount() >= PARTIAL_CONVERSATION_LIMIT && conversationLoader.hasLimit();
       }
+
+      getListAdapter().setFooterView(hasMore ? loadMoreView : null);
       getListAdapter().changeCursor(cursor);
     }
   }
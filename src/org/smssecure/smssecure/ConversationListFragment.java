@@ -257,7 +257,7 @@ public class ConversationListFragment extends Fragment
             @Override
             protected Void doInBackground(Void... params) {
               DatabaseFactory.getThreadDatabase(getActivity()).deleteConversations(selectedConversations);
-              MessageNotifier.updateNotification(getActivity(), masterSecret);
+              MessageNotifier.updateNotificationForReadThreads(getActivity(), masterSecret, Util.toLongArray(selectedConversations));
               return null;
             }
 
@@ -457,7 +457,7 @@ public class ConversationListFragment extends Fragment
 
             if (!read) {
               DatabaseFactory.getThreadDatabase(getActivity()).setRead(threadId);
-              MessageNotifier.updateNotification(getActivity(), masterSecret);
+              MessageNotifier.updateNotificationForReadThreads(getActivity(), masterSecret, threadId);
             }
           }
 
@@ -467,7 +467,7 @@ public class ConversationListFragment extends Fragment
 
             if (!read) {
               DatabaseFactory.getThreadDatabase(getActivity()).setUnread(threadId);
-              MessageNotifier.updateNotification(getActivity(), masterSecret);
+              MessageNotifier.updateNotificationForThreads(getActivity(), masterSecret, threadId);
             }
           }
         }.execute(threadId);
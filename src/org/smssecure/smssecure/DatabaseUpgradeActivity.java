@@ -195,7 +195,8 @@ public class DatabaseUpgradeActivity extends BaseActivity {
           while ((record = smsReader.getNext()) != null) {
             ApplicationContext.getInstance(getApplicationContext())
                               .getJobManager()
-                              .add(new SmsDecryptJob(getApplicationContext(), record.getId()));
+                              .add(new SmsDecryptJob(getApplicationContext(), record.getId(),
+                                                     record.getIndividualRecipient().getNumber()));
           }
         } finally {
           if (smsReader != null)
@@ -6,6 +6,7 @@ import android.support.v7.app.ActionBarActivity;
 import android.view.MenuItem;
 import android.widget.Toast;
 
+import org.smssecure.smssecure.jobs.JobStatistics;
 import org.whispersystems.libpastelog.SubmitLogFragment;
 
 /**
@@ -19,6 +20,7 @@ public class LogSubmitActivity extends BaseActionBarActivity implements SubmitLo
     super.onCreate(icicle);
     setContentView(R.layout.log_submit_activity);
     getSupportActionBar().setDisplayHomeAsUpEnabled(true);
+    JobStatistics.log();
     SubmitLogFragment fragment = SubmitLogFragment.newInstance();
     FragmentTransaction transaction = getSupportFragmentManager().beginTransaction();
     transaction.replace(R.id.fragment_container, fragment);
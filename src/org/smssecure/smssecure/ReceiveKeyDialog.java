@@ -205,7 +205,8 @@ public class ReceiveKeyDialog extends AlertDialog {
           } else {
             ApplicationContext.getInstance(getContext())
                     .getJobManager()
-                    .add(new SmsDecryptJob(context, messageRecord.getId(), true));
+                    .add(new SmsDecryptJob(context, messageRecord.getId(),
+                                              messageRecord.getIndividualRecipient().getNumber(), true));
           }
           return null;
         }
@@ -18,11 +18,27 @@ import android.widget.ImageView;
 import com.bumptech.glide.DrawableRequestBuilder;
 import com.bumptech.glide.GenericRequestBuilder;
 import com.bumptech.glide.Glide;
+import com.bumptech.glide.load.ResourceDecoder;
+import com.bumptech.glide.load.ResourceEncoder;
+import com.bumptech.glide.load.engine.DiskCacheStrategy;
+import com.bumptech.glide.load.engine.bitmap_recycle.BitmapPool;
+import com.bumptech.glide.load.resource.bitmap.BitmapEncoder;
+import com.bumptech.glide.load.resource.bitmap.FileDescriptorBitmapDecoder;
+import com.bumptech.glide.load.resource.bitmap.ImageVideoBitmapDecoder;
+import com.bumptech.glide.load.resource.bitmap.StreamBitmapDecoder;
+import com.bumptech.glide.load.resource.gif.GifResourceDecoder;
+import com.bumptech.glide.load.resource.gif.GifResourceEncoder;
+import com.bumptech.glide.load.resource.gifbitmap.GifBitmapWrapper;
+import com.bumptech.glide.load.resource.gifbitmap.GifBitmapWrapperResourceDecoder;
+import com.bumptech.glide.load.resource.gifbitmap.GifBitmapWrapperResourceEncoder;
+import com.bumptech.glide.load.resource.gifbitmap.GifBitmapWrapperStreamResourceDecoder;
 
 import org.smssecure.smssecure.R;
 import org.smssecure.smssecure.crypto.MasterSecret;
 import org.smssecure.smssecure.database.AttachmentDatabase;
 import org.smssecure.smssecure.mms.DecryptableStreamUriLoader.DecryptableUri;
+import org.smssecure.smssecure.mms.EncryptedCacheDecoder;
+import org.smssecure.smssecure.mms.EncryptedCacheEncoder;
 import org.smssecure.smssecure.mms.RoundedCorners;
 import org.smssecure.smssecure.mms.Slide;
 import org.smssecure.smssecure.mms.SlideClickListener;
@@ -30,6 +46,8 @@ import org.smssecure.smssecure.util.Util;
 import org.smssecure.smssecure.util.ViewUtil;
 import org.whispersystems.libaxolotl.util.guava.Optional;
 
+import java.io.InputStream;
+
 public class ThumbnailView extends FrameLayout {
 
   private static final String TAG = ThumbnailView.class.getSimpleName();
@@ -126,10 +144,9 @@ public class ThumbnailView extends FrameLayout {
   public void setImageResource(@NonNull MasterSecret masterSecret, @NonNull Uri uri) {
     if (transferControls.isPresent()) getTransferControls().setVisibility(View.GONE);
 
-    Glide.with(getContext()).load(new DecryptableUri(masterSecret, uri))
-         .crossFade()
-         .transform(new RoundedCorners(getContext(), true, radius, backgroundColorHint))
-         .into(image);
+    buildEncryptedCacheRequest(masterSecret, uri).crossFade()
+                                                 .transform(new RoundedCorners(getContext(), true, radius, backgroundColorHint))
+                                                 .into(image);
   }
 
   public void setThumbnailClickListener(SlideClickListener listener) {
@@ -160,17 +177,40 @@ public class ThumbnailView extends FrameLayout {
 
   private GenericRequestBuilder buildThumbnailGlideRequest(@NonNull Slide slide, @NonNull MasterSecret masterSecret) {
     @SuppressWarnings("ConstantConditions")
-    DrawableRequestBuilder<DecryptableUri> builder = Glide.with(getContext()).load(new DecryptableUri(masterSecret, slide.getThumbnailUri()))
-                                                                             .crossFade()
-                                                                             .transform(new RoundedCorners(getContext(), true, radius, backgroundColorHint));
+    DrawableRequestBuilder<DecryptableUri> builder = buildEncryptedCacheRequest(masterSecret, slide.getThumbnailUri())
+                                                                 .crossFade()
+                                                                 .transform(new RoundedCorners(getContext(), true, radius, backgroundColorHint));
 
     if (slide.isInProgress()) return builder;
     else                      return builder.error(R.drawable.ic_missing_thumbnail_picture);
   }
 
+  /**
+   * Thumbnails are kept in the disk cache once they're resized and rounded,
+   * encrypted with the same encoders Glide would otherwise use in plaintext.
+   */
+  private DrawableRequestBuilder<DecryptableUri> buildEncryptedCacheRequest(@NonNull MasterSecret masterSecret, @NonNull Uri uri) {
+    Context    context = getContext();
+    BitmapPool pool    = Glide.get(context).getBitmapPool();
+
+    ResourceDecoder<InputStream, GifBitmapWrapper> decoder =
+        new GifBitmapWrapperStreamResourceDecoder(new GifBitmapWrapperResourceDecoder(new ImageVideoBitmapDecoder(new StreamBitmapDecoder(context),
+                                                                                                                  new FileDescriptorBitmapDecoder(context)),
+                                                                                      new GifResourceDecoder(context, pool),
+                                                                                      pool));
+    ResourceEncoder<GifBitmapWrapper> encoder =
+        new GifBitmapWrapperResourceEncoder(new BitmapEncoder(), new GifResourceEncoder(pool));
+
+    return Glide.with(context).load(new DecryptableUri(masterSecret, uri))
+                .diskCacheStrategy(DiskCacheStrategy.RESULT)
+                .cacheDecoder(new EncryptedCacheDecoder<>(masterSecret, decoder))
+                .encoder(new EncryptedCacheEncoder<>(masterSecret, encoder));
+  }
+
   private GenericRequestBuilder buildPlaceholderGlideRequest(Slide slide) {
     return Glide.with(getContext()).load(slide.getPlaceholderRes(getContext().getTheme()))
                                    .asBitmap()
+                                   .diskCacheStrategy(DiskCacheStrategy.NONE)
                                    .fitCenter();
   }
 
@@ -7,6 +7,7 @@ import android.util.AttributeSet;
 import android.widget.ImageView;
 
 import com.bumptech.glide.Glide;
+import com.bumptech.glide.load.engine.DiskCacheStrategy;
 import com.bumptech.glide.load.resource.drawable.GlideDrawable;
 import com.bumptech.glide.request.target.BitmapImageViewTarget;
 import com.bumptech.glide.request.target.GlideDrawableImageViewTarget;
@@ -34,6 +35,7 @@ public class ZoomingImageView extends ImageView {
   public void setImageUri(MasterSecret masterSecret, Uri uri) {
     Glide.with(getContext())
          .load(new DecryptableUri(masterSecret, uri))
+         .diskCacheStrategy(DiskCacheStrategy.NONE)
          .dontTransform()
          .dontAnimate()
          .into(new GlideDrawableImageViewTarget(this) {
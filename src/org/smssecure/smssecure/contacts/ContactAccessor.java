@@ -114,7 +114,7 @@ public class ContactAccessor {
     try {
       cursor = context.getContentResolver().query(Uri.withAppendedPath(Phone.CONTENT_FILTER_URI,
                                                                        Uri.encode(constraint)),
-                                                  null, null, null, null);
+                                                  new String[] {Phone.NUMBER}, null, null, null);
 
       while (cursor != null && cursor.moveToNext()) {
         numberList.add(cursor.getString(cursor.getColumnIndexOrThrow(Phone.NUMBER)));
@@ -10,6 +10,7 @@ import android.support.annotation.Nullable;
 import android.text.TextUtils;
 
 import com.bumptech.glide.Glide;
+import com.bumptech.glide.load.engine.DiskCacheStrategy;
 
 import org.smssecure.smssecure.R;
 import org.smssecure.smssecure.mms.ContactPhotoUriLoader.ContactPhotoUri;
@@ -42,6 +43,7 @@ public class ContactPhotoFactory {
       int targetSize = context.getResources().getDimensionPixelSize(R.dimen.contact_photo_target_size);
       Bitmap bitmap = Glide.with(context)
                            .load(new ContactPhotoUri(uri)).asBitmap()
+                           .diskCacheStrategy(DiskCacheStrategy.NONE)
                            .centerCrop().into(targetSize, targetSize).get();
       return new BitmapContactPhoto(bitmap);
     } catch (ExecutionException e) {
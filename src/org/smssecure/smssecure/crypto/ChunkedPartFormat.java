@@ -0,0 +1,175 @@
+package org.smssecure.smssecure.crypto;
+
+import android.support.annotation.NonNull;
+
+import org.smssecure.smssecure.util.Conversions;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The second version of the on-disk part layout, which can be read from any
+ * offset:
+ *
+ *   header = magic (8) || chunk size (4) || nonce (8)
+ *   chunk  = AES-CTR(plaintext) || HMAC-SHA1(header || index || final || ciphertext)
+ *
+ * Every chunk but the last holds exactly chunk size bytes of plaintext, and
+ * the last holds anywhere from none to chunk size.  Each chunk is
+ * authenticated on its own and its counter is derived from the nonce and its
+ * index, so a chunk can be decrypted without the ones before it.  The MAC
+ * covers the chunk's index and whether it is the last, so chunks can't be
+ * reordered and the file can't be truncated at a chunk boundary.
+ *
+ * The first version is IV || AES-CBC || HMAC-SHA1 with no header, and is
+ * told apart by the magic, which a random IV matches with probability 2^-64.
+ *
+ * @see EncryptingPartOutputStream
+ * @see SeekableDecryptingChannel
+ */
+class ChunkedPartFormat {
+
+  static final int CHUNK_SIZE    = 64 * 1024;
+  static final int NONCE_LENGTH  = 8;
+  static final int HEADER_LENGTH = 8 + 4 + NONCE_LENGTH;
+  static final int MAC_LENGTH    = 20;
+  static final int BLOCK_SIZE    = 16;
+
+  private static final int    MAX_CHUNK_SIZE = 1024 * 1024;
+  private static final byte[] MAGIC          = {'S', 'M', 'S', 'S', 'P', 'R', 'T', 2};
+
+  private final byte[] header;
+  private final int    chunkSize;
+  private final byte[] nonce;
+
+  ChunkedPartFormat(int chunkSize, @NonNull byte[] nonce) {
+    this.chunkSize = chunkSize;
+    this.nonce     = nonce;
+    this.header    = new byte[HEADER_LENGTH];
+
+    System.arraycopy(MAGIC, 0, header, 0, MAGIC.length);
+    Conversions.intToByteArray(header, MAGIC.length, chunkSize);
+    System.arraycopy(nonce, 0, header, MAGIC.length + 4, NONCE_LENGTH);
+  }
+
+  static @NonNull ChunkedPartFormat parse(@NonNull byte[] header) throws IOException {
+    if (!isChunked(header)) throw new IOException("Not a chunked part");
+
+    int chunkSize = Conversions.byteArrayToInt(header, MAGIC.length);
+
+    if (chunkSize <= 0 || chunkSize > MAX_CHUNK_SIZE || chunkSize % BLOCK_SIZE != 0) {
+      throw new IOException("Bad chunk size: " + chunkSize);
+    }
+
+    return new ChunkedPartFormat(chunkSize, Arrays.copyOfRange(header, MAGIC.length + 4, HEADER_LENGTH));
+  }
+
+  static boolean isChunked(@NonNull File file) throws IOException {
+    FileInputStream in = new FileInputStream(file);
+
+    try {
+      byte[] header = new byte[MAGIC.length];
+      int    offset = 0;
+      int    read;
+
+      while (offset < header.length && (read = in.read(header, offset, header.length - offset)) != -1) {
+        offset += read;
+      }
+
+      return offset == header.length && isChunked(header);
+    } finally {
+      in.close();
+    }
+  }
+
+  private static boolean isChunked(@NonNull byte[] header) {
+    if (header.length < MAGIC.length) return false;
+
+    for (int i=0;i<MAGIC.length;i++) {
+      if (header[i] != MAGIC[i]) return false;
+    }
+
+    return true;
+  }
+
+  @NonNull byte[] getHeader() {
+    return header;
+  }
+
+  int getChunkSize() {
+    return chunkSize;
+  }
+
+  /**
+   * @return the counter block for the start of the chunk at {@code index}.
+   */
+  @NonNull IvParameterSpec getIv(long index) {
+    byte[] iv = new byte[BLOCK_SIZE];
+
+    System.arraycopy(nonce, 0, iv, 0, NONCE_LENGTH);
+    Conversions.longToByteArray(iv, NONCE_LENGTH, index * (chunkSize / BLOCK_SIZE));
+
+    return new IvParameterSpec(iv);
+  }
+
+  /**
+   * Computes the MAC of a chunk's ciphertext into {@code output}.
+   */
+  void getMac(@NonNull Mac mac, long index, boolean last,
+              @NonNull byte[] ciphertext, int offset, int length,
+              @NonNull byte[] output, int outputOffset)
+  {
+    byte[] position = new byte[9];
+
+    Conversions.longToByteArray(position, 0, index);
+    position[8] = (byte)(last ? 1 : 0);
+
+    try {
+      mac.update(header);
+      mac.update(position);
+      mac.update(ciphertext, offset, length);
+      mac.doFinal(output, outputOffset);
+    } catch (ShortBufferException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  static @NonNull Cipher initializeCipher() {
+    try {
+      return Cipher.getInstance("AES/CTR/NoPadding");
+    } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  static @NonNull Mac initializeMac(@NonNull SecretKeySpec key) {
+    try {
+      Mac mac = Mac.getInstance("HmacSHA1");
+      mac.init(key);
+
+      return mac;
+    } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  void initChunk(@NonNull Cipher cipher, int mode, @NonNull SecretKeySpec key, long index) {
+    try {
+      cipher.init(mode, key, getIv(index));
+    } catch (InvalidKeyException | InvalidAlgorithmParameterException e) {
+      throw new AssertionError(e);
+    }
+  }
+}
@@ -20,6 +20,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
@@ -38,7 +39,9 @@ import javax.crypto.spec.SecretKeySpec;
 import android.util.Log;
 
 /**
- * Class for streaming an encrypted MMS "part" off the disk.
+ * Class for streaming an encrypted MMS "part" off the disk, in the first
+ * version of the layout.  Parts are opened with {@link #createFor}, which
+ * also reads the seekable chunked layout.
  *
  * @author Moxie Marlinspike
  */
@@ -57,6 +60,20 @@ public class DecryptingPartInputStream extends FileInputStream {
   private long totalDataSize;
   private long totalRead;
   private byte[] overflowBuffer;
+  private byte[] skipBuffer;
+
+  public static InputStream createFor(File file, MasterSecret masterSecret) throws FileNotFoundException {
+    try {
+      if (SeekableDecryptingChannel.isSeekable(file)) {
+        return new SeekableDecryptingChannel(file, masterSecret).getInputStream();
+      }
+    } catch (IOException e) {
+      Log.w(TAG, e);
+      throw new FileNotFoundException("IOException while reading header!");
+    }
+
+    return new DecryptingPartInputStream(file, masterSecret);
+  }
 
   public DecryptingPartInputStream(File file, MasterSecret masterSecret) throws FileNotFoundException {
     super(file);
@@ -102,11 +119,13 @@ public class DecryptingPartInputStream extends FileInputStream {
 
   @Override
   public long skip(long byteCount) throws IOException {
+    if (skipBuffer == null) skipBuffer = new byte[4096];
+
     long skipped = 0L;
     while (skipped < byteCount) {
-      byte[] buf  = new byte[Math.min(4096, (int)(byteCount-skipped))];
-      int    read = read(buf);
+      int read = read(skipBuffer, 0, (int)Math.min(skipBuffer.length, byteCount - skipped));
 
+      if (read == -1) break;
       skipped += read;
     }
 
@@ -20,49 +20,68 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.Mac;
-import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.SecretKeySpec;
 
 import android.util.Log;
 
 /**
- * A class for streaming an encrypted MMS "part" to disk.
+ * A class for streaming an encrypted MMS "part" to disk, in independently
+ * authenticated chunks that can later be read from any offset.
  *
+ * @see ChunkedPartFormat
  * @author Moxie Marlinspike
  */
 
 public class EncryptingPartOutputStream extends FileOutputStream {
 
-  private Cipher cipher;
-  private Mac mac;
+  private final ChunkedPartFormat format;
+  private final SecretKeySpec     key;
+  private final Cipher            cipher;
+  private final Mac               mac;
+  private final byte[]            chunk;
+  private final byte[]            output;
+
+  private int     chunkLength;
+  private long    chunkIndex;
   private boolean closed;
 
   public EncryptingPartOutputStream(File file, MasterSecret masterSecret) throws FileNotFoundException {
+    this(file, masterSecret, ChunkedPartFormat.CHUNK_SIZE);
+  }
+
+  EncryptingPartOutputStream(File file, MasterSecret masterSecret, int chunkSize) throws FileNotFoundException {
     super(file);
 
+    byte[] nonce = new byte[ChunkedPartFormat.NONCE_LENGTH];
+    new SecureRandom().nextBytes(nonce);
+
+    this.format = new ChunkedPartFormat(chunkSize, nonce);
+    this.key    = masterSecret.getEncryptionKey();
+    this.cipher = ChunkedPartFormat.initializeCipher();
+    this.mac    = ChunkedPartFormat.initializeMac(masterSecret.getMacKey());
+    this.chunk  = new byte[chunkSize];
+    this.output = new byte[chunkSize + ChunkedPartFormat.MAC_LENGTH];
+
     try {
-      mac    = initializeMac(masterSecret.getMacKey());
-      cipher = initializeCipher(mac, masterSecret.getEncryptionKey());
-      closed = false;
+      super.write(format.getHeader(), 0, ChunkedPartFormat.HEADER_LENGTH);
     } catch (IOException ioe) {
       Log.w("EncryptingPartOutputStream", ioe);
-      throw new FileNotFoundException("Couldn't write IV");
-    } catch (InvalidKeyException e) {
-      throw new AssertionError(e);
-    } catch (NoSuchAlgorithmException e) {
-      throw new AssertionError(e);
-    } catch (NoSuchPaddingException e) {
-      throw new AssertionError(e);
+      throw new FileNotFoundException("Couldn't write header");
     }
   }
 
+  @Override
+  public void write(int b) throws IOException {
+    this.write(new byte[] {(byte)b}, 0, 1);
+  }
+
   @Override
   public void write(byte[] buffer) throws IOException {
     this.write(buffer, 0, buffer.length);
@@ -70,53 +89,46 @@ public class EncryptingPartOutputStream extends FileOutputStream {
 
   @Override
   public void write(byte[] buffer, int offset, int length) throws IOException {
-    byte[] encryptedBuffer = cipher.update(buffer, offset, length);
+    while (length > 0) {
+      // A full chunk is only written once more data arrive, since the last
+      // chunk has to be marked as such.
+      if (chunkLength == chunk.length) {
+        writeChunk(false);
+      }
+
+      int copied = Math.min(length, chunk.length - chunkLength);
+      System.arraycopy(buffer, offset, chunk, chunkLength, copied);
 
-    if (encryptedBuffer != null) {
-      mac.update(encryptedBuffer);
-      super.write(encryptedBuffer, 0, encryptedBuffer.length);
+      chunkLength += copied;
+      offset      += copied;
+      length      -= copied;
     }
   }
 
   @Override
   public void close() throws IOException {
-    try {
-      if (!closed) {
-        byte[] encryptedRemainder = cipher.doFinal();
-        mac.update(encryptedRemainder);
-
-        byte[] macBytes = mac.doFinal();
-
-        super.write(encryptedRemainder, 0, encryptedRemainder.length);
-        super.write(macBytes, 0, macBytes.length);
-
-        closed = true;
-      }
-
-      super.close();
-    } catch (BadPaddingException bpe) {
-      throw new AssertionError(bpe);
-    } catch (IllegalBlockSizeException e) {
-      throw new AssertionError(e);
+    if (!closed) {
+      writeChunk(true);
+      closed = true;
     }
-  }
-
-  private Mac initializeMac(SecretKeySpec key) throws NoSuchAlgorithmException, InvalidKeyException {
-    Mac hmac = Mac.getInstance("HmacSHA1");
-    hmac.init(key);
 
-    return hmac;
+    super.close();
   }
 
-  private Cipher initializeCipher(Mac mac, SecretKeySpec key) throws IOException, InvalidKeyException, NoSuchAlgorithmException, NoSuchPaddingException {
-    Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-    cipher.init(Cipher.ENCRYPT_MODE, key);
+  private void writeChunk(boolean last) throws IOException {
+    try {
+      format.initChunk(cipher, Cipher.ENCRYPT_MODE, key, chunkIndex);
+
+      int encrypted = cipher.doFinal(chunk, 0, chunkLength, output, 0);
+      format.getMac(mac, chunkIndex, last, output, 0, encrypted, output, encrypted);
 
-    byte[] ivBytes = cipher.getIV();
-    mac.update(ivBytes);
-    super.write(ivBytes, 0, ivBytes.length);
+      super.write(output, 0, encrypted + ChunkedPartFormat.MAC_LENGTH);
 
-    return cipher;
+      chunkIndex++;
+      chunkLength = 0;
+    } catch (ShortBufferException | IllegalBlockSizeException | BadPaddingException e) {
+      throw new AssertionError(e);
+    }
   }
 
 }
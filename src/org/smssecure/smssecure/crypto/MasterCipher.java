@@ -32,12 +32,15 @@ import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
-import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.Mac;
 import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
@@ -55,19 +58,78 @@ import javax.crypto.spec.SecretKeySpec;
 
 public class MasterCipher {
 
+  private static final String TAG = MasterCipher.class.getSimpleName();
+
+  private static final AtomicInteger GENERATION = new AtomicInteger();
+
+  private static final Set<CipherHolder> HOLDERS =
+      Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<CipherHolder, Boolean>()));
+
+  private static final ThreadLocal<CipherHolder> THREAD_CIPHER = new ThreadLocal<CipherHolder>() {
+    @Override
+    protected CipherHolder initialValue() {
+      CipherHolder holder = new CipherHolder();
+      HOLDERS.add(holder);
+      return holder;
+    }
+  };
+
   private final MasterSecret masterSecret;
-  private final Cipher encryptingCipher;
-  private final Cipher decryptingCipher;
-  private final Mac hmac;
+  private final Cipher       encryptingCipher;
+  private final Cipher       decryptingCipher;
+  private final Mac          hmac;
+  private final byte[]       localMac;
+  private final int          generationCreated;
 
   public MasterCipher(MasterSecret masterSecret) {
     try {
-      this.masterSecret = masterSecret;
-      this.encryptingCipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-      this.decryptingCipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-      this.hmac             = Mac.getInstance("HmacSHA1");
+      this.masterSecret      = masterSecret;
+      this.encryptingCipher  = Cipher.getInstance("AES/CBC/PKCS5Padding");
+      this.decryptingCipher  = Cipher.getInstance("AES/CBC/PKCS5Padding");
+      this.hmac              = Mac.getInstance("HmacSHA1");
+      this.localMac          = new byte[hmac.getMacLength()];
+      this.generationCreated = GENERATION.get();
+
+      this.hmac.init(masterSecret.getMacKey());
     } catch (NoSuchPaddingException | NoSuchAlgorithmException nspe) {
       throw new AssertionError(nspe);
+    } catch (InvalidKeyException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  /**
+   * Returns an initialized MasterCipher confined to the calling thread, so
+   * that hot paths don't go through the provider lookups for every row.
+   * The instance must not be handed to other threads.
+   */
+  public static MasterCipher getInstance(@NonNull MasterSecret masterSecret) {
+    CipherHolder holder = THREAD_CIPHER.get();
+    MasterCipher cipher = holder.cipher;
+
+    if (cipher == null || cipher.generationCreated != GENERATION.get() || !cipher.isFor(masterSecret)) {
+      cipher        = new MasterCipher(masterSecret);
+      holder.cipher = cipher;
+
+      if (cipher.generationCreated != GENERATION.get()) {
+        holder.cipher = null;
+      }
+    }
+
+    return cipher;
+  }
+
+  /**
+   * Drops every thread's cached instance, called when the master secret is
+   * cleared from memory, so idle threads don't keep the keys alive.
+   */
+  public static void clearInstances() {
+    GENERATION.incrementAndGet();
+
+    synchronized (HOLDERS) {
+      for (CipherHolder holder : HOLDERS) {
+        holder.cipher = null;
+      }
     }
   }
 
@@ -95,32 +157,75 @@ public class MasterCipher {
 
   public byte[] decryptBytes(@NonNull byte[] decodedBody) throws InvalidMessageException {
     try {
-      Mac mac              = getMac(masterSecret.getMacKey());
-      byte[] encryptedBody = verifyMacBody(mac, decodedBody);
+      int    bodyLength = verifyMacBody(decodedBody, 0, decodedBody.length);
+      Cipher cipher     = getDecryptingCipher(masterSecret.getEncryptionKey(), decodedBody, 0);
 
-      Cipher cipher        = getDecryptingCipher(masterSecret.getEncryptionKey(), encryptedBody);
-      byte[] encrypted     = getDecryptedBody(cipher, encryptedBody);
+      return cipher.doFinal(decodedBody, cipher.getBlockSize(), bodyLength - cipher.getBlockSize());
+    } catch (GeneralSecurityException ge) {
+      throw new InvalidMessageException(ge);
+    }
+  }
+
+  /**
+   * Verifies and decrypts {@code len} bytes of {@code in} starting at {@code off}
+   * into {@code out}, which must hold at least {@link #getMaxDecryptedSize(int)} bytes.
+   *
+   * @return The number of plaintext bytes written to {@code out}.
+   */
+  public int decryptBytes(@NonNull byte[] in, int off, int len, @NonNull byte[] out)
+      throws InvalidMessageException
+  {
+    try {
+      int    bodyLength = verifyMacBody(in, off, len);
+      Cipher cipher     = getDecryptingCipher(masterSecret.getEncryptionKey(), in, off);
 
-      return encrypted;
+      return cipher.doFinal(in, off + cipher.getBlockSize(), bodyLength - cipher.getBlockSize(), out, 0);
     } catch (GeneralSecurityException ge) {
       throw new InvalidMessageException(ge);
     }
   }
 
+  public int getMaxDecryptedSize(int encryptedLength) {
+    return Math.max(0, encryptedLength - decryptingCipher.getBlockSize() - hmac.getMacLength());
+  }
+
   public byte[] encryptBytes(byte[] body) {
+    byte[] encrypted = new byte[getEncryptedSize(body.length)];
+    int    length    = encryptBytes(body, 0, body.length, encrypted);
+
+    if      (length == -1)               return null;
+    else if (length == encrypted.length) return encrypted;
+    else                                 return Arrays.copyOf(encrypted, length);
+  }
+
+  /**
+   * Encrypts and MACs {@code len} bytes of {@code in} starting at {@code off}
+   * into {@code out}, which must hold at least {@link #getEncryptedSize(int)} bytes.
+   *
+   * @return The number of bytes written to {@code out}, or -1 on failure.
+   */
+  public int encryptBytes(@NonNull byte[] in, int off, int len, @NonNull byte[] out) {
     try {
-      Cipher cipher              = getEncryptingCipher(masterSecret.getEncryptionKey());
-      Mac    mac                 = getMac(masterSecret.getMacKey());
+      Cipher cipher = getEncryptingCipher(masterSecret.getEncryptionKey());
+      byte[] iv     = cipher.getIV();
+
+      System.arraycopy(iv, 0, out, 0, iv.length);
 
-      byte[] encryptedBody       = getEncryptedBody(cipher, body);
-      byte[] encryptedAndMacBody = getMacBody(mac, encryptedBody);
+      int encryptedLength = iv.length + cipher.doFinal(in, off, len, out, iv.length);
 
-      return encryptedAndMacBody;
+      hmac.update(out, 0, encryptedLength);
+      hmac.doFinal(out, encryptedLength);
+
+      return encryptedLength + hmac.getMacLength();
     } catch (GeneralSecurityException ge) {
-      Log.w("bodycipher", ge);
-      return null;
+      Log.w(TAG, ge);
+      return -1;
     }
+  }
 
+  public int getEncryptedSize(int length) {
+    int blockSize = encryptingCipher.getBlockSize();
+    return blockSize + ((length / blockSize) + 1) * blockSize + hmac.getMacLength();
   }
 
   public boolean verifyMacFor(String content, byte[] theirMac) {
@@ -132,12 +237,13 @@ public class MasterCipher {
 
   public byte[] getMacFor(String content) {
     Log.w("MasterCipher", "Macing: " + content);
-    try {
-      Mac mac = getMac(masterSecret.getMacKey());
-      return mac.doFinal(content.getBytes());
-    } catch (GeneralSecurityException ike) {
-      throw new AssertionError(ike);
-    }
+    return hmac.doFinal(content.getBytes());
+  }
+
+  private boolean isFor(MasterSecret masterSecret) {
+    return this.masterSecret == masterSecret ||
+           (this.masterSecret.getEncryptionKey().equals(masterSecret.getEncryptionKey()) &&
+            this.masterSecret.getMacKey().equals(masterSecret.getMacKey()));
   }
 
   private byte[] decodeAndDecryptBytes(String body) throws InvalidMessageException {
@@ -154,70 +260,53 @@ public class MasterCipher {
     return Base64.encodeBytes(encryptedAndMacBody);
   }
 
-  private byte[] verifyMacBody(@NonNull Mac hmac, @NonNull byte[] encryptedAndMac) throws InvalidMessageException {
-    if (encryptedAndMac.length < hmac.getMacLength()) {
-      throw new InvalidMessageException("length(encrypted body + MAC) < length(MAC)");
-    }
-
-    byte[] encrypted = new byte[encryptedAndMac.length - hmac.getMacLength()];
-    System.arraycopy(encryptedAndMac, 0, encrypted, 0, encrypted.length);
-
-    byte[] remoteMac = new byte[hmac.getMacLength()];
-    System.arraycopy(encryptedAndMac, encryptedAndMac.length - remoteMac.length, remoteMac, 0, remoteMac.length);
-
-    byte[] localMac  = hmac.doFinal(encrypted);
-
-    if (!Arrays.equals(remoteMac, localMac))
-      throw new InvalidMessageException("MAC doesen't match.");
-
-    return encrypted;
-  }
-
-  private byte[] getDecryptedBody(Cipher cipher, byte[] encryptedBody) throws IllegalBlockSizeException, BadPaddingException {
-    return cipher.doFinal(encryptedBody, cipher.getBlockSize(), encryptedBody.length - cipher.getBlockSize());
-  }
-
-  private byte[] getEncryptedBody(Cipher cipher, byte[] body) throws IllegalBlockSizeException, BadPaddingException {
-    byte[] encrypted = cipher.doFinal(body);
-    byte[] iv        = cipher.getIV();
+  /**
+   * Checks the trailing MAC in place.
+   *
+   * @return The length of the IV and ciphertext preceding the MAC.
+   */
+  private int verifyMacBody(@NonNull byte[] encryptedAndMac, int off, int len)
+      throws InvalidMessageException, ShortBufferException
+  {
+    int macLength = hmac.getMacLength();
 
-    byte[] ivAndBody = new byte[iv.length + encrypted.length];
-    System.arraycopy(iv, 0, ivAndBody, 0, iv.length);
-    System.arraycopy(encrypted, 0, ivAndBody, iv.length, encrypted.length);
+    if (len < macLength + decryptingCipher.getBlockSize()) {
+      throw new InvalidMessageException("length(encrypted body + MAC) < length(IV + MAC)");
+    }
 
-    return ivAndBody;
-  }
+    int bodyLength = len - macLength;
 
-  private Mac getMac(SecretKeySpec key) throws NoSuchAlgorithmException, InvalidKeyException {
-    //		Mac hmac = Mac.getInstance("HmacSHA1");
-    hmac.init(key);
+    hmac.update(encryptedAndMac, off, bodyLength);
+    hmac.doFinal(localMac, 0);
 
-    return hmac;
-  }
+    int difference = 0;
 
-  private byte[] getMacBody(Mac hmac, byte[] encryptedBody) {
-    byte[] mac             = hmac.doFinal(encryptedBody);
-    byte[] encryptedAndMac = new byte[encryptedBody.length + mac.length];
+    for (int i=0;i<macLength;i++) {
+      difference |= localMac[i] ^ encryptedAndMac[off + bodyLength + i];
+    }
 
-    System.arraycopy(encryptedBody, 0, encryptedAndMac, 0, encryptedBody.length);
-    System.arraycopy(mac, 0, encryptedAndMac, encryptedBody.length, mac.length);
+    if (difference != 0)
+      throw new InvalidMessageException("MAC doesen't match.");
 
-    return encryptedAndMac;
+    return bodyLength;
   }
 
-  private Cipher getDecryptingCipher(SecretKeySpec key, byte[] encryptedBody) throws InvalidKeyException, InvalidAlgorithmParameterException, NoSuchAlgorithmException, NoSuchPaddingException {
-    //		Cipher cipher      = Cipher.getInstance("AES/CBC/PKCS5Padding");
-    IvParameterSpec iv = new IvParameterSpec(encryptedBody, 0, decryptingCipher.getBlockSize());
+  private Cipher getDecryptingCipher(SecretKeySpec key, byte[] encryptedBody, int offset)
+      throws InvalidKeyException, InvalidAlgorithmParameterException
+  {
+    IvParameterSpec iv = new IvParameterSpec(encryptedBody, offset, decryptingCipher.getBlockSize());
     decryptingCipher.init(Cipher.DECRYPT_MODE, key, iv);
 
     return decryptingCipher;
   }
 
-  private Cipher getEncryptingCipher(SecretKeySpec key) throws InvalidKeyException, NoSuchAlgorithmException, NoSuchPaddingException {
-    //		Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+  private Cipher getEncryptingCipher(SecretKeySpec key) throws InvalidKeyException {
     encryptingCipher.init(Cipher.ENCRYPT_MODE, key);
 
     return encryptingCipher;
   }
 
+  private static class CipherHolder {
+    private volatile MasterCipher cipher;
+  }
 }
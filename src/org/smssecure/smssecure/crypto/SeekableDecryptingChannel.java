@@ -0,0 +1,270 @@
+package org.smssecure.smssecure.crypto;
+
+import android.support.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Reads the plaintext of a chunked part from any position.  Seeking costs
+ * at most the decryption of one chunk, however far into the part it lands.
+ *
+ * Only the chunk being read is decrypted and authenticated, so a tampered
+ * chunk fails when it is read rather than when the part is opened.
+ *
+ * @see ChunkedPartFormat
+ */
+public class SeekableDecryptingChannel implements ReadableByteChannel {
+
+  private final RandomAccessFile  file;
+  private final FileChannel       channel;
+  private final ChunkedPartFormat format;
+  private final SecretKeySpec     key;
+  private final Cipher            cipher;
+  private final Mac               mac;
+  private final long              chunkCount;
+  private final int               lastChunkLength;
+  private final long              size;
+  private final byte[]            ciphertext;
+  private final byte[]            plaintext;
+  private final byte[]            ourMac;
+
+  private long    position;
+  private long    loadedChunk = -1;
+  private boolean endVerified;
+  private boolean closed;
+
+  public SeekableDecryptingChannel(@NonNull File file, @NonNull MasterSecret masterSecret) throws IOException {
+    this.file    = new RandomAccessFile(file, "r");
+    this.channel = this.file.getChannel();
+
+    try {
+      byte[] header = new byte[ChunkedPartFormat.HEADER_LENGTH];
+      this.file.readFully(header);
+
+      this.format = ChunkedPartFormat.parse(header);
+    } catch (IOException e) {
+      this.file.close();
+      throw e;
+    }
+
+    int  chunkSize   = format.getChunkSize();
+    long chunkOnDisk = chunkSize + ChunkedPartFormat.MAC_LENGTH;
+    long body        = channel.size() - ChunkedPartFormat.HEADER_LENGTH;
+    long remainder   = body % chunkOnDisk;
+
+    if (remainder == 0 && body > 0) {
+      this.chunkCount      = body / chunkOnDisk;
+      this.lastChunkLength = chunkSize;
+    } else if (remainder >= ChunkedPartFormat.MAC_LENGTH) {
+      this.chunkCount      = body / chunkOnDisk + 1;
+      this.lastChunkLength = (int)(remainder - ChunkedPartFormat.MAC_LENGTH);
+    } else {
+      this.file.close();
+      throw new IOException("Truncated part: " + channel.size() + " bytes");
+    }
+
+    this.size       = (chunkCount - 1) * chunkSize + lastChunkLength;
+    this.key        = masterSecret.getEncryptionKey();
+    this.cipher     = ChunkedPartFormat.initializeCipher();
+    this.mac        = ChunkedPartFormat.initializeMac(masterSecret.getMacKey());
+    this.ciphertext = new byte[chunkSize + ChunkedPartFormat.MAC_LENGTH];
+    this.plaintext  = new byte[chunkSize];
+    this.ourMac     = new byte[ChunkedPartFormat.MAC_LENGTH];
+  }
+
+  public static boolean isSeekable(@NonNull File file) throws IOException {
+    return ChunkedPartFormat.isChunked(file);
+  }
+
+  /**
+   * @return the length of the plaintext.
+   */
+  public long size() {
+    return size;
+  }
+
+  public long position() {
+    return position;
+  }
+
+  public SeekableDecryptingChannel position(long position) {
+    if (position < 0) throw new IllegalArgumentException("Negative position: " + position);
+
+    this.position = position;
+    return this;
+  }
+
+  @Override
+  public int read(@NonNull ByteBuffer destination) throws IOException {
+    if (destination.hasArray()) {
+      int read = read(destination.array(), destination.arrayOffset() + destination.position(), destination.remaining());
+      if (read > 0) destination.position(destination.position() + read);
+
+      return read;
+    }
+
+    int available = readChunk();
+
+    if (available == -1) return -1;
+
+    int length = Math.min(available, destination.remaining());
+    destination.put(plaintext, (int)(position % plaintext.length), length);
+    position += length;
+
+    return length;
+  }
+
+  public int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
+    if (length == 0) return 0;
+
+    int available = readChunk();
+
+    if (available == -1) return -1;
+
+    length = Math.min(available, length);
+    System.arraycopy(plaintext, (int)(position % plaintext.length), buffer, offset, length);
+    position += length;
+
+    return length;
+  }
+
+  /**
+   * @return a stream reading from the current position, whose skip() seeks.
+   *         Closing the stream closes this channel.
+   */
+  public @NonNull InputStream getInputStream() {
+    return new ChannelInputStream();
+  }
+
+  @Override
+  public boolean isOpen() {
+    return !closed;
+  }
+
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    file.close();
+  }
+
+  /**
+   * Decrypts the chunk holding the current position, if it isn't already.
+   *
+   * @return the number of plaintext bytes from the position to the end of
+   *         the chunk, or -1 at the end of the part.
+   */
+  private int readChunk() throws IOException {
+    if (closed) throw new ClosedChannelException();
+
+    if (position >= size) {
+      // Reaching the end authenticates the final chunk, so that a part cut
+      // back to an empty last chunk doesn't read as a shorter one.
+      if (!endVerified) {
+        loadChunk(chunkCount - 1);
+        endVerified = true;
+      }
+
+      return -1;
+    }
+
+    long index = position / plaintext.length;
+    int  start = (int)(position % plaintext.length);
+
+    return loadChunk(index) - start;
+  }
+
+  /**
+   * @return the plaintext length of the chunk, now in {@link #plaintext}.
+   */
+  private int loadChunk(long index) throws IOException {
+    int chunkSize = plaintext.length;
+    int length    = index == chunkCount - 1 ? lastChunkLength : chunkSize;
+
+    if (index == loadedChunk) return length;
+
+    loadedChunk = -1;
+
+    long       start  = ChunkedPartFormat.HEADER_LENGTH + index * (chunkSize + ChunkedPartFormat.MAC_LENGTH);
+    ByteBuffer buffer = ByteBuffer.wrap(ciphertext, 0, length + ChunkedPartFormat.MAC_LENGTH);
+
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, start + buffer.position()) == -1) {
+        throw new IOException("Truncated part");
+      }
+    }
+
+    format.getMac(mac, index, index == chunkCount - 1, ciphertext, 0, length, ourMac, 0);
+
+    if (!isEqual(ourMac, ciphertext, length)) {
+      throw new IOException("MAC doesn't match! Potential tampering?");
+    }
+
+    try {
+      format.initChunk(cipher, Cipher.DECRYPT_MODE, key, index);
+      cipher.doFinal(ciphertext, 0, length, plaintext, 0);
+    } catch (ShortBufferException | IllegalBlockSizeException | BadPaddingException e) {
+      throw new AssertionError(e);
+    }
+
+    loadedChunk = index;
+    return length;
+  }
+
+  private static boolean isEqual(byte[] mac, byte[] buffer, int offset) {
+    int difference = 0;
+
+    for (int i=0;i<mac.length;i++) {
+      difference |= mac[i] ^ buffer[offset + i];
+    }
+
+    return difference == 0;
+  }
+
+  private class ChannelInputStream extends InputStream {
+
+    @Override
+    public int read() throws IOException {
+      byte[] buffer = new byte[1];
+      return SeekableDecryptingChannel.this.read(buffer, 0, 1) == -1 ? -1 : buffer[0] & 0xFF;
+    }
+
+    @Override
+    public int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
+      return SeekableDecryptingChannel.this.read(buffer, offset, length);
+    }
+
+    @Override
+    public long skip(long count) {
+      if (count <= 0 || position >= size) return 0;
+
+      long skipped = Math.min(count, size - position);
+      position += skipped;
+
+      return skipped;
+    }
+
+    @Override
+    public int available() {
+      return (int)Math.max(0, Math.min(Integer.MAX_VALUE, size - position));
+    }
+
+    @Override
+    public void close() throws IOException {
+      SeekableDecryptingChannel.this.close();
+    }
+  }
+}
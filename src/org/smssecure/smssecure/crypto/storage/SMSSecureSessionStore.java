@@ -5,36 +5,61 @@ import android.util.Log;
 
 import org.smssecure.smssecure.crypto.MasterCipher;
 import org.smssecure.smssecure.crypto.MasterSecret;
-import org.smssecure.smssecure.recipients.Recipient;
+import org.smssecure.smssecure.database.DatabaseFactory;
+import org.smssecure.smssecure.database.KeyRecordDatabase;
 import org.smssecure.smssecure.recipients.RecipientFactory;
-import org.smssecure.smssecure.util.Conversions;
+import org.smssecure.smssecure.service.KeyCachingService;
+import org.smssecure.smssecure.util.LRUCache;
+import org.smssecure.smssecure.util.ObjectLongCache;
 import org.whispersystems.libaxolotl.AxolotlAddress;
 import org.whispersystems.libaxolotl.InvalidMessageException;
 import org.whispersystems.libaxolotl.state.SessionRecord;
 import org.whispersystems.libaxolotl.state.SessionState;
 import org.whispersystems.libaxolotl.state.SessionStore;
 
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.whispersystems.libaxolotl.state.StorageProtos.SessionStructure;
 
+/**
+ * Sessions are kept encrypted in the {@link KeyRecordDatabase}, and their
+ * decrypted form is cached in memory until the master secret is cleared.
+ * The cache holds serialized records rather than SessionRecords, since
+ * callers mutate the records they load.  A record read or written while
+ * the cache is being cleared, or while the master secret is locked, isn't
+ * put back into it.  The cache is bounded, evicting the sessions that were
+ * cached first.
+ *
+ * Each session is guarded by one of a set of striped locks, so sessions
+ * with different addresses are loaded and stored concurrently.
+ */
 public class SMSSecureSessionStore implements SessionStore {
 
-  private static final String TAG                   = SMSSecureSessionStore.class.getSimpleName();
-  private static final String SESSIONS_DIRECTORY_V2 = "sessions-v2";
-  private static final Object FILE_LOCK             = new Object();
+  private static final String TAG          = SMSSecureSessionStore.class.getSimpleName();
+  private static final int    LOCK_STRIPES = 32;
+  private static final int    MAX_SESSIONS = 500;
+  private static final byte[] NO_SESSION   = new byte[0];
+
+  private static final Object[]                LOCKS        = new Object[LOCK_STRIPES];
+  private static final Map<String, byte[]>     sessionCache = new LRUCache<>(MAX_SESSIONS);
+  private static final ObjectLongCache<String> recipientIds = new ObjectLongCache<>();
+  private static final AtomicInteger           GENERATION   = new AtomicInteger();
 
   private static final int SINGLE_STATE_VERSION   = 1;
   private static final int ARCHIVE_STATES_VERSION = 2;
   private static final int CURRENT_VERSION        = 2;
 
+  static {
+    for (int i=0;i<LOCK_STRIPES;i++) {
+      LOCKS[i] = new Object();
+    }
+  }
+
   private final Context      context;
   private final MasterSecret masterSecret;
 
@@ -45,31 +70,27 @@ public class SMSSecureSessionStore implements SessionStore {
 
   @Override
   public SessionRecord loadSession(AxolotlAddress address) {
-    synchronized (FILE_LOCK) {
-      try {
-        MasterCipher    cipher = new MasterCipher(masterSecret);
-        FileInputStream in     = new FileInputStream(getSessionFile(address));
+    long   recipientId = getRecipientId(address.getName());
+    String name        = getSessionName(recipientId, address.getDeviceId());
 
-        int versionMarker  = readInteger(in);
+    synchronized (getLock(name)) {
+      int    generation = GENERATION.get();
+      byte[] serialized;
 
-        if (versionMarker > CURRENT_VERSION) {
-          throw new AssertionError("Unknown version: " + versionMarker);
-        }
+      synchronized (sessionCache) {
+        serialized = sessionCache.get(name);
+      }
 
-        byte[] serialized = cipher.decryptBytes(readBlob(in));
-        in.close();
-
-        if (versionMarker == SINGLE_STATE_VERSION) {
-          SessionStructure sessionStructure = SessionStructure.parseFrom(serialized);
-          SessionState     sessionState     = new SessionState(sessionStructure);
-          return new SessionRecord(sessionState);
-        } else if (versionMarker == ARCHIVE_STATES_VERSION) {
-          return new SessionRecord(serialized);
-        } else {
-          throw new AssertionError("Unknown version: " + versionMarker);
-        }
-      } catch (InvalidMessageException | IOException e) {
-        Log.w(TAG, "No existing session information found.");
+      if (serialized == null) {
+        serialized = readSession(recipientId, address.getDeviceId());
+        cacheSession(name, serialized, generation);
+      }
+
+      try {
+        if (serialized == NO_SESSION) return new SessionRecord();
+        else                          return new SessionRecord(serialized);
+      } catch (IOException e) {
+        Log.w(TAG, e);
         return new SessionRecord();
       }
     }
@@ -77,118 +98,153 @@ public class SMSSecureSessionStore implements SessionStore {
 
   @Override
   public void storeSession(AxolotlAddress address, SessionRecord record) {
-    synchronized (FILE_LOCK) {
-      try {
-        MasterCipher     masterCipher = new MasterCipher(masterSecret);
-        RandomAccessFile sessionFile  = new RandomAccessFile(getSessionFile(address), "rw");
-        FileChannel      out          = sessionFile.getChannel();
+    long   recipientId = getRecipientId(address.getName());
+    String name        = getSessionName(recipientId, address.getDeviceId());
 
-        out.position(0);
-        writeInteger(CURRENT_VERSION, out);
-        writeBlob(masterCipher.encryptBytes(record.serialize()), out);
-        out.truncate(out.position());
+    synchronized (getLock(name)) {
+      int          generation   = GENERATION.get();
+      byte[]       serialized   = record.serialize();
+      MasterCipher masterCipher = MasterCipher.getInstance(masterSecret);
 
-        sessionFile.close();
-      } catch (IOException e) {
-        throw new AssertionError(e);
-      }
+      DatabaseFactory.getKeyRecordDatabase(context)
+                     .setRecord(KeyRecordDatabase.SESSION, recipientId,
+                                new KeyRecordDatabase.Record(address.getDeviceId(), CURRENT_VERSION,
+                                                             masterCipher.encryptBytes(serialized)));
+
+      cacheSession(name, serialized, generation);
     }
   }
 
   @Override
   public boolean containsSession(AxolotlAddress address) {
-    return getSessionFile(address).exists() &&
-           loadSession(address).getSessionState().hasSenderChain();
+    return loadSession(address).getSessionState().hasSenderChain();
   }
 
   @Override
   public void deleteSession(AxolotlAddress address) {
-    getSessionFile(address).delete();
+    long   recipientId = getRecipientId(address.getName());
+    String name        = getSessionName(recipientId, address.getDeviceId());
+
+    synchronized (getLock(name)) {
+      DatabaseFactory.getKeyRecordDatabase(context)
+                     .deleteRecord(KeyRecordDatabase.SESSION, recipientId, address.getDeviceId());
+
+      synchronized (sessionCache) {
+        sessionCache.put(name, NO_SESSION);
+      }
+    }
   }
 
-  @Override
-  public void deleteAllSessions(String name) {
-    List<Integer> devices = getSubDeviceSessions(name);
+  /**
+   * Drops every decrypted session.  Called when the master secret is cleared.
+   */
+  public static void clearCache() {
+    GENERATION.incrementAndGet();
 
-    deleteSession(new AxolotlAddress(name, 1));
+    for (int i=0;i<LOCK_STRIPES;i++) {
+      synchronized (LOCKS[i]) {
+        synchronized (sessionCache) {
+          Iterator<String> names = sessionCache.keySet().iterator();
 
-    for (int device : devices) {
-      deleteSession(new AxolotlAddress(name, device));
+          while (names.hasNext()) {
+            if (getStripe(names.next()) == i) names.remove();
+          }
+        }
+      }
     }
   }
 
   @Override
-  public List<Integer> getSubDeviceSessions(String name) {
-    long          recipientId = RecipientFactory.getRecipientsFromString(context, name, true).getPrimaryRecipient().getRecipientId();
-    List<Integer> results     = new LinkedList<>();
-    File          parent      = getSessionDirectory();
-    String[]      children    = parent.list();
+  public void deleteAllSessions(String name) {
+    long              recipientId = getRecipientId(name);
+    KeyRecordDatabase database    = DatabaseFactory.getKeyRecordDatabase(context);
+    List<Integer>     devices     = database.getRecordIds(KeyRecordDatabase.SESSION, recipientId);
 
-    if (children == null) return results;
+    database.deleteRecords(KeyRecordDatabase.SESSION, recipientId);
 
-    for (String child : children) {
-      try {
-        String[] parts              = child.split("[.]", 2);
-        long     sessionRecipientId = Long.parseLong(parts[0]);
+    for (int device : devices) {
+      String sessionName = getSessionName(recipientId, device);
 
-        if (sessionRecipientId == recipientId && parts.length > 1) {
-          results.add(Integer.parseInt(parts[1]));
+      synchronized (getLock(sessionName)) {
+        synchronized (sessionCache) {
+          sessionCache.put(sessionName, NO_SESSION);
         }
-      } catch (NumberFormatException e) {
-        Log.w(TAG, e);
       }
     }
+  }
+
+  @Override
+  public List<Integer> getSubDeviceSessions(String name) {
+    List<Integer> devices = DatabaseFactory.getKeyRecordDatabase(context)
+                                           .getRecordIds(KeyRecordDatabase.SESSION, getRecipientId(name));
+    List<Integer> results = new LinkedList<>();
+
+    for (int device : devices) {
+      if (device != 1) results.add(device);
+    }
 
     return results;
   }
 
-  private File getSessionFile(AxolotlAddress address) {
-    return new File(getSessionDirectory(), getSessionName(address));
+  private void cacheSession(String name, byte[] serialized, int generation) {
+    if (KeyCachingService.isLocked(context)) return;
+
+    synchronized (sessionCache) {
+      if (GENERATION.get() == generation) sessionCache.put(name, serialized);
+    }
   }
 
-  private File getSessionDirectory() {
-    File directory = new File(context.getFilesDir(), SESSIONS_DIRECTORY_V2);
+  private byte[] readSession(long recipientId, int deviceId) {
+    KeyRecordDatabase.Record record = DatabaseFactory.getKeyRecordDatabase(context)
+                                                     .getRecord(KeyRecordDatabase.SESSION, recipientId, deviceId);
 
-    if (!directory.exists()) {
-      if (!directory.mkdirs()) {
-        Log.w(TAG, "Session directory creation failed!");
-      }
+    if (record == null) {
+      Log.w(TAG, "No existing session information found.");
+      return NO_SESSION;
     }
 
-    return directory;
-  }
+    if (record.getVersion() > CURRENT_VERSION) {
+      throw new AssertionError("Unknown version: " + record.getVersion());
+    }
 
-  private String getSessionName(AxolotlAddress axolotlAddress) {
-    Recipient recipient   = RecipientFactory.getRecipientsFromString(context, axolotlAddress.getName(), true)
-                                          .getPrimaryRecipient();
-    long      recipientId = recipient.getRecipientId();
-    int       deviceId    = axolotlAddress.getDeviceId();
+    try {
+      byte[] serialized = MasterCipher.getInstance(masterSecret).decryptBytes(record.getRecord());
+
+      if (record.getVersion() == SINGLE_STATE_VERSION) {
+        SessionStructure sessionStructure = SessionStructure.parseFrom(serialized);
+        SessionState     sessionState     = new SessionState(sessionStructure);
+        return new SessionRecord(sessionState).serialize();
+      } else if (record.getVersion() == ARCHIVE_STATES_VERSION) {
+        return serialized;
+      } else {
+        throw new AssertionError("Unknown version: " + record.getVersion());
+      }
+    } catch (InvalidMessageException | IOException e) {
+      Log.w(TAG, e);
+      return NO_SESSION;
+    }
+  }
 
+  private static String getSessionName(long recipientId, int deviceId) {
     return recipientId + (deviceId == 1 ? "" : "." + deviceId);
   }
 
-  private byte[] readBlob(FileInputStream in) throws IOException {
-    int length       = readInteger(in);
-    byte[] blobBytes = new byte[length];
+  private long getRecipientId(String name) {
+    long recipientId = recipientIds.get(name, -1);
 
-    in.read(blobBytes, 0, blobBytes.length);
-    return blobBytes;
-  }
+    if (recipientId == -1) {
+      recipientId = RecipientFactory.getRecipientsFromString(context, name, true).getPrimaryRecipient().getRecipientId();
+      recipientIds.put(name, recipientId);
+    }
 
-  private void writeBlob(byte[] blobBytes, FileChannel out) throws IOException {
-    writeInteger(blobBytes.length, out);
-    out.write(ByteBuffer.wrap(blobBytes));
+    return recipientId;
   }
 
-  private int readInteger(FileInputStream in) throws IOException {
-    byte[] integer = new byte[4];
-    in.read(integer, 0, integer.length);
-    return Conversions.byteArrayToInt(integer);
+  private static Object getLock(String name) {
+    return LOCKS[getStripe(name)];
   }
 
-  private void writeInteger(int value, FileChannel out) throws IOException {
-    byte[] valueBytes = Conversions.intToByteArray(value);
-    out.write(ByteBuffer.wrap(valueBytes));
+  private static int getStripe(String name) {
+    return (name.hashCode() & Integer.MAX_VALUE) % LOCK_STRIPES;
   }
-
 }
@@ -37,6 +37,7 @@ import org.smssecure.smssecure.crypto.EncryptingPartOutputStream;
 import org.smssecure.smssecure.crypto.MasterSecret;
 import org.smssecure.smssecure.mms.MediaStream;
 import org.smssecure.smssecure.mms.PartAuthority;
+import org.smssecure.smssecure.util.BitmapDecodingException;
 import org.smssecure.smssecure.util.MediaUtil;
 import org.smssecure.smssecure.util.MediaUtil.ThumbnailData;
 import org.smssecure.smssecure.util.Util;
@@ -47,11 +48,14 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import ws.com.google.android.mms.MmsException;
 
@@ -102,7 +106,10 @@ public class AttachmentDatabase extends Database {
     "CREATE INDEX IF NOT EXISTS pending_push_index ON " + TABLE_NAME + " (" + TRANSFER_STATE + ");",
   };
 
-  private final ExecutorService thumbnailExecutor = Util.newSingleThreadedLifoExecutor();
+  private static final int THUMBNAIL_WORKERS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+  private final ExecutorService                    thumbnailExecutor = Util.newLifoExecutor(THUMBNAIL_WORKERS);
+  private final Map<AttachmentId, Future<Boolean>> pendingThumbnails = new HashMap<>();
 
   public AttachmentDatabase(Context context, SQLiteOpenHelper databaseHelper) {
     super(context, databaseHelper);
@@ -128,10 +135,12 @@ public class AttachmentDatabase extends Database {
     }
 
     try {
-      InputStream generatedStream = thumbnailExecutor.submit(new ThumbnailFetchCallable(masterSecret, attachmentId)).get();
+      if (generateThumbnail(masterSecret, attachmentId).get()) {
+        dataStream = getDataStream(masterSecret, attachmentId, THUMBNAIL);
+      }
 
-      if (generatedStream == null) throw new FileNotFoundException("No thumbnail stream available: " + attachmentId);
-      else                         return generatedStream;
+      if (dataStream == null) throw new FileNotFoundException("No thumbnail stream available: " + attachmentId);
+      else                    return dataStream;
     } catch (InterruptedException ie) {
       throw new AssertionError("interrupted");
     } catch (ExecutionException ee) {
@@ -271,7 +280,7 @@ public class AttachmentDatabase extends Database {
       notifyConversationListListeners();
     }
 
-    thumbnailExecutor.submit(new ThumbnailFetchCallable(masterSecret, attachmentId));
+    generateThumbnail(masterSecret, attachmentId);
     return partData.second;
   }
 
@@ -360,7 +369,7 @@ public class AttachmentDatabase extends Database {
     File dataFile = getAttachmentDataFile(attachmentId, dataType);
 
     try {
-      if (dataFile != null) return new DecryptingPartInputStream(dataFile, masterSecret);
+      if (dataFile != null) return DecryptingPartInputStream.createFor(dataFile, masterSecret);
       else                  return null;
     } catch (FileNotFoundException e) {
       Log.w(TAG, e);
@@ -486,7 +495,7 @@ public class AttachmentDatabase extends Database {
       ThumbnailData data = new ThumbnailData(attachment.getThumbnail());
       updateAttachmentThumbnail(masterSecret, attachmentId, data.toDataStream(), data.getAspectRatio());
     } else if (!attachment.isInProgress()) {
-      thumbnailExecutor.submit(new ThumbnailFetchCallable(masterSecret, attachmentId));
+      generateThumbnail(masterSecret, attachmentId);
     }
 
     return attachmentId;
@@ -511,8 +520,27 @@ public class AttachmentDatabase extends Database {
   }
 
 
+  /**
+   * Queues generation of a thumbnail, unless one is already being generated
+   * for the attachment, in which case that request is returned.
+   *
+   * @return a future for whether the attachment now has a thumbnail.
+   */
+  private Future<Boolean> generateThumbnail(MasterSecret masterSecret, AttachmentId attachmentId) {
+    synchronized (pendingThumbnails) {
+      Future<Boolean> pending = pendingThumbnails.get(attachmentId);
+
+      if (pending == null) {
+        pending = thumbnailExecutor.submit(new ThumbnailFetchCallable(masterSecret, attachmentId));
+        pendingThumbnails.put(attachmentId, pending);
+      }
+
+      return pending;
+    }
+  }
+
   @VisibleForTesting
-  class ThumbnailFetchCallable implements Callable<InputStream> {
+  class ThumbnailFetchCallable implements Callable<Boolean> {
     private final MasterSecret masterSecret;
     private final AttachmentId attachmentId;
 
@@ -522,28 +550,48 @@ public class AttachmentDatabase extends Database {
     }
 
     @Override
-    public @Nullable InputStream call() throws Exception {
-      final InputStream stream = getDataStream(masterSecret, attachmentId, THUMBNAIL);
+    public Boolean call() throws Exception {
+      try {
+        return hasThumbnail() || createThumbnail();
+      } finally {
+        synchronized (pendingThumbnails) {
+          pendingThumbnails.remove(attachmentId);
+        }
+      }
+    }
+
+    private boolean hasThumbnail() {
+      SQLiteDatabase database = databaseHelper.getReadableDatabase();
+      Cursor         cursor   = database.query(TABLE_NAME, new String[] {THUMBNAIL}, PART_ID_WHERE,
+                                               attachmentId.toStrings(), null, null, null);
 
-      if (stream != null) {
-        return stream;
+      try {
+        return cursor.moveToFirst() && !cursor.isNull(0);
+      } finally {
+        cursor.close();
       }
+    }
 
+    private boolean createThumbnail() throws BitmapDecodingException, MmsException {
       DatabaseAttachment attachment = getAttachment(attachmentId);
 
       if (attachment == null || !attachment.hasData()) {
-        return null;
+        return false;
       }
 
       ThumbnailData data = MediaUtil.generateThumbnail(context, masterSecret, attachment.getContentType(), attachment.getDataUri());
 
       if (data == null) {
-        return null;
+        return false;
       }
 
-      updateAttachmentThumbnail(masterSecret, attachmentId, data.toDataStream(), data.getAspectRatio());
+      try {
+        updateAttachmentThumbnail(masterSecret, attachmentId, data.toDataStream(), data.getAspectRatio());
+      } finally {
+        data.getBitmap().recycle();
+      }
 
-      return getDataStream(masterSecret, attachmentId, THUMBNAIL);
+      return true;
     }
   }
 }
@@ -0,0 +1,215 @@
+package org.smssecure.smssecure.database;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.smssecure.smssecure.crypto.MasterCipher;
+import org.smssecure.smssecure.crypto.MasterSecret;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Inserts imported messages in batches.  While one batch is inserted, the
+ * bodies of the next are encrypted on a pool of workers, and each batch is
+ * written with the same prepared statement and committed on its own.
+ *
+ * Thread summaries aren't touched; {@link #finish()} returns the threads
+ * that need updating once the import is done.
+ */
+class BulkSmsInserter {
+
+  private static final int BATCH_SIZE = 500;
+  private static final int WORKERS    = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+  private final SQLiteDatabase  db;
+  private final SQLiteStatement statement;
+  private final MasterSecret    masterSecret;
+  private final ExecutorService executor;
+  private final Set<Long>       threadIds = new HashSet<>();
+
+  private List<Row>    batch = new ArrayList<>(BATCH_SIZE);
+  private PendingBatch pending;
+  private int          insertedCount;
+
+  BulkSmsInserter(@NonNull SQLiteDatabase db, @NonNull MasterSecret masterSecret) {
+    this.db           = db;
+    this.statement    = SmsDatabase.createInsertStatement(db);
+    this.masterSecret = masterSecret;
+    this.executor     = Executors.newFixedThreadPool(WORKERS);
+  }
+
+  void add(@NonNull Row row) {
+    batch.add(row);
+
+    if (batch.size() >= BATCH_SIZE) {
+      flush();
+    }
+  }
+
+  /**
+   * Inserts whatever is still queued, and releases the workers.
+   *
+   * @return the ids of the threads messages were inserted into.
+   */
+  @NonNull Set<Long> finish() {
+    try {
+      if (!batch.isEmpty()) flush();
+      if (pending != null)  insert(pending);
+
+      pending = null;
+      return threadIds;
+    } finally {
+      executor.shutdownNow();
+      statement.close();
+    }
+  }
+
+  int getInsertedCount() {
+    return insertedCount;
+  }
+
+  private void flush() {
+    PendingBatch next = new PendingBatch(batch, encrypt(batch));
+
+    if (pending != null) insert(pending);
+
+    pending = next;
+    batch   = new ArrayList<>(BATCH_SIZE);
+  }
+
+  private List<Future<Void>> encrypt(List<Row> rows) {
+    List<Future<Void>> futures = new LinkedList<>();
+    int                slice   = (rows.size() + WORKERS - 1) / WORKERS;
+
+    for (int start=0;start<rows.size();start+=slice) {
+      final List<Row> part = rows.subList(start, Math.min(rows.size(), start + slice));
+
+      futures.add(executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() {
+          MasterCipher masterCipher = MasterCipher.getInstance(masterSecret);
+
+          for (Row row : part) {
+            if (row.body != null) row.encryptedBody = masterCipher.encryptBody(row.body);
+          }
+
+          return null;
+        }
+      }));
+    }
+
+    return futures;
+  }
+
+  private void insert(PendingBatch pending) {
+    try {
+      for (Future<Void> future : pending.encryption) {
+        future.get();
+      }
+    } catch (InterruptedException | ExecutionException e) {
+      throw new AssertionError(e);
+    }
+
+    db.beginTransaction();
+
+    try {
+      for (Row row : pending.rows) {
+        bind(1, row.address);
+        bind(2, row.person);
+        statement.bindLong(3, row.dateSent);
+        statement.bindLong(4, row.dateReceived);
+        bind(5, row.protocol);
+        bind(6, row.read);
+        bind(7, row.status);
+        statement.bindLong(8, row.type);
+        bind(9, row.replyPathPresent);
+        bind(10, row.subject);
+        bind(11, row.encryptedBody);
+        bind(12, row.serviceCenter);
+        statement.bindLong(13, row.threadId);
+        statement.executeInsert();
+
+        threadIds.add(row.threadId);
+      }
+
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+
+    insertedCount += pending.rows.size();
+  }
+
+  private void bind(int index, @Nullable String value) {
+    if (value == null) statement.bindNull(index);
+    else               statement.bindString(index, value);
+  }
+
+  private void bind(int index, @Nullable Long value) {
+    if (value == null) statement.bindNull(index);
+    else               statement.bindLong(index, value);
+  }
+
+  private static class PendingBatch {
+    private final List<Row>          rows;
+    private final List<Future<Void>> encryption;
+
+    private PendingBatch(List<Row> rows, List<Future<Void>> encryption) {
+      this.rows       = rows;
+      this.encryption = encryption;
+    }
+  }
+
+  /**
+   * A message to insert, with its type already translated from the system
+   * type, and its body in plaintext.
+   */
+  static class Row {
+    private final String address;
+    private final Long   person;
+    private final long   dateSent;
+    private final long   dateReceived;
+    private final Long   protocol;
+    private final Long   read;
+    private final Long   status;
+    private final long   type;
+    private final Long   replyPathPresent;
+    private final String subject;
+    private final String body;
+    private final String serviceCenter;
+    private final long   threadId;
+
+    private String encryptedBody;
+
+    Row(@Nullable String address, @Nullable Long person, long dateSent, long dateReceived,
+        @Nullable Long protocol, @Nullable Long read, @Nullable Long status, long type,
+        @Nullable Long replyPathPresent, @Nullable String subject, @Nullable String body,
+        @Nullable String serviceCenter, long threadId)
+    {
+      this.address          = address;
+      this.person           = person;
+      this.dateSent         = dateSent;
+      this.dateReceived     = dateReceived;
+      this.protocol         = protocol;
+      this.read             = read;
+      this.status           = status;
+      this.type             = type;
+      this.replyPathPresent = replyPathPresent;
+      this.subject          = subject;
+      this.body             = body;
+      this.serviceCenter    = serviceCenter;
+      this.threadId         = threadId;
+    }
+  }
+}
@@ -33,16 +33,20 @@ import com.google.i18n.phonenumbers.Phonenumber;
 import com.google.i18n.phonenumbers.ShortNumberInfo;
 
 import org.smssecure.smssecure.util.GroupUtil;
+import org.smssecure.smssecure.util.LongObjectCache;
+import org.smssecure.smssecure.util.ObjectLongCache;
 import org.smssecure.smssecure.util.ShortCodeUtil;
 import org.smssecure.smssecure.util.SMSSecurePreferences;
+import org.smssecure.smssecure.util.Util;
 import org.smssecure.smssecure.util.VisibleForTesting;
 import org.whispersystems.textsecure.api.util.InvalidNumberException;
 import org.whispersystems.textsecure.api.util.PhoneNumberFormatter;
 
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
 
 public class CanonicalAddressDatabase {
 
@@ -62,8 +66,8 @@ public class CanonicalAddressDatabase {
   private        DatabaseHelper           databaseHelper;
   private final  Context                  context;
 
-  private final Map<String, Long> addressCache = new ConcurrentHashMap<>();
-  private final Map<Long, String> idCache      = new ConcurrentHashMap<>();
+  private final ObjectLongCache<String> addressCache = new ObjectLongCache<>();
+  private final LongObjectCache<String> idCache      = new LongObjectCache<>();
 
   public synchronized static CanonicalAddressDatabase getInstance(Context context) {
     if (instance == null)
@@ -146,27 +150,88 @@ public class CanonicalAddressDatabase {
   }
 
   public long getCanonicalAddressId(@NonNull String address) {
-    try {
-      long canonicalAddressId;
+    long canonicalAddressId;
 
-      if (isNumberAddress(address) && SMSSecurePreferences.isPushRegistered(context)) {
-        String localNumber = SMSSecurePreferences.getLocalNumber(context);
+    address = getFormattedAddress(address);
 
-        if (!ShortCodeUtil.isShortCode(localNumber, address)) {
-          address = PhoneNumberFormatter.formatNumber(address, localNumber);
-        }
+    if ((canonicalAddressId = getCanonicalAddressFromCache(address)) != -1) {
+      return canonicalAddressId;
+    }
+
+    canonicalAddressId = getCanonicalAddressIdFromDatabase(address);
+
+    idCache.put(canonicalAddressId, address);
+    addressCache.put(address, canonicalAddressId);
+
+    return canonicalAddressId;
+  }
+
+  /**
+   * Resolves addresses to the ids they already have, without allocating ids
+   * for addresses that have never been seen.  Addresses that aren't cached
+   * are matched together in batched queries instead of one query each.
+   */
+  public @NonNull Set<Long> getExistingCanonicalAddressIds(@NonNull Collection<String> addresses) {
+    Set<Long>    canonicalAddressIds = new HashSet<>();
+    List<String> uncachedNumbers     = new LinkedList<>();
+    List<String> uncachedOthers      = new LinkedList<>();
+
+    for (String address : addresses) {
+      String formattedAddress   = getFormattedAddress(address);
+      long   canonicalAddressId = getCanonicalAddressFromCache(formattedAddress);
+
+      if      (canonicalAddressId != -1)          canonicalAddressIds.add(canonicalAddressId);
+      else if (isNumberAddress(formattedAddress)) uncachedNumbers.add(formattedAddress);
+      else                                        uncachedOthers.add(formattedAddress);
+    }
+
+    queryCanonicalAddressIds(SELECTION_NUMBER, uncachedNumbers, canonicalAddressIds);
+    queryCanonicalAddressIds(SELECTION_OTHER, uncachedOthers, canonicalAddressIds);
+
+    return canonicalAddressIds;
+  }
+
+  private void queryCanonicalAddressIds(String selection, List<String> addresses, Set<Long> results) {
+    if (addresses.isEmpty()) return;
+
+    Log.w(TAG, "Hitting DB on batched query [ADDRESS]: " + addresses.size());
+
+    SQLiteDatabase db = databaseHelper.getReadableDatabase();
+
+    for (List<String> partition : Util.partition(addresses, 900)) {
+      StringBuilder where  = new StringBuilder();
+      Cursor        cursor = null;
+
+      for (int i=0;i<partition.size();i++) {
+        if (i > 0) where.append(" OR ");
+        where.append(selection);
       }
 
-      if ((canonicalAddressId = getCanonicalAddressFromCache(address)) != -1) {
-        return canonicalAddressId;
+      try {
+        cursor = db.query(TABLE, new String[] {ID_COLUMN}, where.toString(),
+                          partition.toArray(new String[partition.size()]), null, null, null);
+
+        while (cursor != null && cursor.moveToNext()) {
+          results.add(cursor.getLong(0));
+        }
+      } finally {
+        if (cursor != null)
+          cursor.close();
       }
+    }
+  }
 
-      canonicalAddressId = getCanonicalAddressIdFromDatabase(address);
+  private @NonNull String getFormattedAddress(@NonNull String address) {
+    try {
+      if (isNumberAddress(address) && SMSSecurePreferences.isPushRegistered(context)) {
+        String localNumber = SMSSecurePreferences.getLocalNumber(context);
 
-      idCache.put(canonicalAddressId, address);
-      addressCache.put(address, canonicalAddressId);
+        if (!ShortCodeUtil.isShortCode(localNumber, address)) {
+          return PhoneNumberFormatter.formatNumber(address, localNumber);
+        }
+      }
 
-      return canonicalAddressId;
+      return address;
     } catch (InvalidNumberException e) {
       throw new AssertionError(e);
     }
@@ -183,8 +248,7 @@ public class CanonicalAddressDatabase {
   }
 
   private long getCanonicalAddressFromCache(String address) {
-    Long cachedAddress = addressCache.get(address);
-    return cachedAddress == null ? -1L : cachedAddress;
+    return addressCache.get(address, -1L);
   }
 
   private long getCanonicalAddressIdFromDatabase(@NonNull String address) {
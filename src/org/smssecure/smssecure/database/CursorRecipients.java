@@ -0,0 +1,146 @@
+package org.smssecure.smssecure.database;
+
+import android.content.Context;
+import android.database.AbstractWindowedCursor;
+import android.database.Cursor;
+import android.database.CursorWindow;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+
+import org.smssecure.smssecure.recipients.Recipient;
+import org.smssecure.smssecure.recipients.RecipientFactory;
+import org.smssecure.smssecure.recipients.Recipients;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Resolves the recipients of a cursor's rows, sharing one {@link Recipients}
+ * between every row with the same address or recipient ids.  The distinct
+ * values of the rows in the cursor's window around the one asked for are
+ * resolved together, rather than row by row as the rows are read, so a bind
+ * resolves at most a screenful of rows ahead.
+ *
+ * Instances are kept per cursor, so the readers adapters create for each
+ * bind share them as well.
+ */
+class CursorRecipients {
+
+  private static final String UNKNOWN_ADDRESS = "insert-address-token";
+  private static final int    NEARBY_ROWS     = 20;
+
+  private static final Map<Cursor, CursorRecipients> addressRecipients     = new WeakHashMap<>();
+  private static final Map<Cursor, CursorRecipients> recipientIdRecipients = new WeakHashMap<>();
+
+  private final Context                 context;
+  private final String                  column;
+  private final boolean                 recipientIds;
+  private final Map<String, Recipients> resolved = new HashMap<>();
+
+  private int resolvedFrom = -1;
+  private int resolvedTo   = -1;
+
+  private CursorRecipients(Context context, String column, boolean recipientIds) {
+    this.context      = context.getApplicationContext();
+    this.column       = column;
+    this.recipientIds = recipientIds;
+  }
+
+  /**
+   * @param column the column holding a message's address, which may be a
+   *               comma separated list.
+   */
+  static synchronized CursorRecipients forAddresses(@NonNull Context context, @NonNull Cursor cursor, @NonNull String column) {
+    CursorRecipients instance = addressRecipients.get(cursor);
+
+    if (instance == null) {
+      instance = new CursorRecipients(context, column, false);
+      addressRecipients.put(cursor, instance);
+    }
+
+    return instance;
+  }
+
+  /**
+   * @param column the column holding a space separated list of recipient ids.
+   */
+  static synchronized CursorRecipients forRecipientIds(@NonNull Context context, @NonNull Cursor cursor, @NonNull String column) {
+    CursorRecipients instance = recipientIdRecipients.get(cursor);
+
+    if (instance == null) {
+      instance = new CursorRecipients(context, column, true);
+      recipientIdRecipients.put(cursor, instance);
+    }
+
+    return instance;
+  }
+
+  synchronized @NonNull Recipients get(@NonNull Cursor cursor, @Nullable String value) {
+    String     key        = value == null ? "" : value;
+    Recipients recipients = resolved.get(key);
+
+    if (recipients == null) {
+      resolveWindow(cursor);
+      recipients = resolved.get(key);
+    }
+
+    if (recipients == null || recipients.isStale()) {
+      recipients = resolve(key);
+      resolved.put(key, recipients);
+    }
+
+    return recipients;
+  }
+
+  private void resolveWindow(Cursor cursor) {
+    if (!(cursor instanceof AbstractWindowedCursor)) return;
+
+    CursorWindow window   = ((AbstractWindowedCursor)cursor).getWindow();
+    int          position = cursor.getPosition();
+
+    if (window == null || (position >= resolvedFrom && position < resolvedTo)) return;
+
+    int         columnIndex = cursor.getColumnIndexOrThrow(column);
+    int         start       = Math.max(window.getStartPosition(), position - NEARBY_ROWS);
+    int         end         = Math.min(window.getStartPosition() + window.getNumRows(), position + NEARBY_ROWS);
+    Set<String> values      = new HashSet<>();
+
+    for (int row=start;row<end;row++) {
+      String value = window.getString(row, columnIndex);
+      values.add(value == null ? "" : value);
+    }
+
+    for (String value : values) {
+      Recipients recipients = resolved.get(value);
+
+      if (recipients == null || recipients.isStale()) {
+        resolved.put(value, resolve(value));
+      }
+    }
+
+    resolvedFrom = start;
+    resolvedTo   = end;
+  }
+
+  private @NonNull Recipients resolve(@NonNull String value) {
+    if (recipientIds) {
+      return RecipientFactory.getRecipientsForIds(context, value, true);
+    }
+
+    if (TextUtils.isEmpty(value) || value.equals(UNKNOWN_ADDRESS)) {
+      return RecipientFactory.getRecipientsFor(context, Recipient.getUnknownRecipient(), true);
+    }
+
+    Recipients recipients = RecipientFactory.getRecipientsFromString(context, value, true);
+
+    if (recipients == null || recipients.isEmpty()) {
+      return RecipientFactory.getRecipientsFor(context, Recipient.getUnknownRecipient(), true);
+    }
+
+    return recipients;
+  }
+}
@@ -33,6 +33,7 @@ import org.smssecure.smssecure.crypto.MasterSecret;
 import org.smssecure.smssecure.crypto.MasterSecretUtil;
 import org.smssecure.smssecure.notifications.MessageNotifier;
 import org.smssecure.smssecure.util.Base64;
+import org.smssecure.smssecure.util.SMSSecurePreferences;
 import org.smssecure.smssecure.util.Util;
 import org.whispersystems.libaxolotl.IdentityKey;
 import org.whispersystems.libaxolotl.InvalidMessageException;
@@ -75,7 +76,9 @@ public class DatabaseFactory {
   private static final int INTRODUCED_INVITE_REMINDERS_VERSION             = 27;
   private static final int INTRODUCED_SUBSCRIPTION_ID_VERSION              = 28;
   private static final int INTRODUCED_ATTACHMENT_FILENAME                  = 29;
-  private static final int DATABASE_VERSION                                = 29;
+  private static final int INTRODUCED_MESSAGE_INDEX_VERSION                = 30;
+  private static final int INTRODUCED_KEY_RECORDS_VERSION                  = 31;
+  private static final int DATABASE_VERSION                                = 31;
 
   private static final String DATABASE_NAME    = "messages.db";
   private static final Object lock             = new Object();
@@ -98,6 +101,7 @@ public class DatabaseFactory {
   private final GroupDatabase groupDatabase;
   private final RecipientPreferenceDatabase recipientPreferenceDatabase;
   private final ContactsDatabase contactsDatabase;
+  private final KeyRecordDatabase keyRecordDatabase;
 
   public static DatabaseFactory getInstance(Context context) {
     synchronized (lock) {
@@ -164,6 +168,10 @@ public class DatabaseFactory {
     return getInstance(context).contactsDatabase;
   }
 
+  public static KeyRecordDatabase getKeyRecordDatabase(Context context) {
+    return getInstance(context).keyRecordDatabase;
+  }
+
   private DatabaseFactory(Context context) {
     this.databaseHelper              = new DatabaseHelper(context, DATABASE_NAME, null, DATABASE_VERSION);
     this.sms                         = new SmsDatabase(context, databaseHelper);
@@ -180,6 +188,7 @@ public class DatabaseFactory {
     this.groupDatabase               = new GroupDatabase(context, databaseHelper);
     this.recipientPreferenceDatabase = new RecipientPreferenceDatabase(context, databaseHelper);
     this.contactsDatabase            = new ContactsDatabase(context);
+    this.keyRecordDatabase           = new KeyRecordDatabase(context, databaseHelper);
   }
 
   public void reset(Context context) {
@@ -197,6 +206,7 @@ public class DatabaseFactory {
     this.draftDatabase.reset(databaseHelper);
     this.groupDatabase.reset(databaseHelper);
     this.recipientPreferenceDatabase.reset(databaseHelper);
+    this.keyRecordDatabase.reset(databaseHelper);
     old.close();
 
     this.address.reset(context);
@@ -494,8 +504,11 @@ public class DatabaseFactory {
 
   private static class DatabaseHelper extends SQLiteOpenHelper {
 
+    private final Context context;
+
     public DatabaseHelper(Context context, String name, CursorFactory factory, int version) {
       super(context, name, factory, version);
+      this.context = context;
     }
 
     @Override
@@ -509,6 +522,8 @@ public class DatabaseFactory {
       db.execSQL(DraftDatabase.CREATE_TABLE);
       db.execSQL(GroupDatabase.CREATE_TABLE);
       db.execSQL(RecipientPreferenceDatabase.CREATE_TABLE);
+      db.execSQL(MmsSmsDatabase.CREATE_INDEX_TABLE);
+      db.execSQL(KeyRecordDatabase.CREATE_TABLE);
 
       executeStatements(db, SmsDatabase.CREATE_INDEXS);
       executeStatements(db, MmsDatabase.CREATE_INDEXS);
@@ -517,6 +532,18 @@ public class DatabaseFactory {
       executeStatements(db, MmsAddressDatabase.CREATE_INDEXS);
       executeStatements(db, DraftDatabase.CREATE_INDEXS);
       executeStatements(db, GroupDatabase.CREATE_INDEXS);
+      executeStatements(db, MmsSmsDatabase.CREATE_INDEX_INDEXS);
+      executeStatements(db, MmsSmsDatabase.CREATE_INDEX_TRIGGERS);
+
+      KeyRecordMigrator.migrate(db, context.getFilesDir());
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+      if (!db.isReadOnly() && !SMSSecurePreferences.isLegacyKeyRecordsDeleted(context)) {
+        KeyRecordMigrator.deleteLegacyRecords(context.getFilesDir());
+        SMSSecurePreferences.setLegacyKeyRecordsDeleted(context, true);
+      }
     }
 
     @Override
@@ -829,6 +856,18 @@ public class DatabaseFactory {
         db.execSQL("UPDATE part SET filename = ?;", new String[]{""});
       }
 
+      if (oldVersion < INTRODUCED_MESSAGE_INDEX_VERSION) {
+        db.execSQL(MmsSmsDatabase.CREATE_INDEX_TABLE);
+        executeStatements(db, MmsSmsDatabase.CREATE_INDEX_INDEXS);
+        executeStatements(db, MmsSmsDatabase.CREATE_INDEX_TRIGGERS);
+        executeStatements(db, MmsSmsDatabase.POPULATE_INDEX);
+      }
+
+      if (oldVersion < INTRODUCED_KEY_RECORDS_VERSION) {
+        db.execSQL(KeyRecordDatabase.CREATE_TABLE);
+        KeyRecordMigrator.migrate(db, context.getFilesDir());
+      }
+
       db.setTransactionSuccessful();
       db.endTransaction();
     }
@@ -25,22 +25,23 @@ import android.util.Pair;
 import org.smssecure.smssecure.R;
 import org.smssecure.smssecure.crypto.AsymmetricMasterCipher;
 import org.smssecure.smssecure.crypto.AsymmetricMasterSecret;
+import org.smssecure.smssecure.database.documents.IdentityKeyMismatch;
 import org.smssecure.smssecure.database.model.DisplayRecord;
 import org.smssecure.smssecure.database.model.SmsMessageRecord;
+import org.smssecure.smssecure.recipients.Recipient;
+import org.smssecure.smssecure.recipients.RecipientFactory;
+import org.smssecure.smssecure.recipients.Recipients;
 import org.smssecure.smssecure.sms.IncomingTextMessage;
 import org.smssecure.smssecure.sms.OutgoingTextMessage;
-import org.smssecure.smssecure.util.LRUCache;
 import org.whispersystems.libaxolotl.InvalidMessageException;
 import org.smssecure.smssecure.crypto.MasterCipher;
 import org.smssecure.smssecure.crypto.MasterSecret;
 
-import java.lang.ref.SoftReference;
 import java.util.Collections;
-import java.util.Map;
 
 public class EncryptingSmsDatabase extends SmsDatabase {
 
-  private final PlaintextCache plaintextCache = new PlaintextCache();
+  private final PlaintextCache plaintextCache = PlaintextCache.getInstance();
 
   public EncryptingSmsDatabase(Context context, SQLiteOpenHelper databaseHelper) {
     super(context, databaseHelper);
@@ -52,22 +53,24 @@ public class EncryptingSmsDatabase extends SmsDatabase {
   }
 
   private String getEncryptedBody(MasterSecret masterSecret, String body) {
-    MasterCipher bodyCipher = new MasterCipher(masterSecret);
-    String ciphertext       = bodyCipher.encryptBody(body);
-    plaintextCache.put(ciphertext, body);
-
-    return ciphertext;
+    MasterCipher bodyCipher = MasterCipher.getInstance(masterSecret);
+    return bodyCipher.encryptBody(body);
   }
 
   public long insertMessageOutbox(MasterSecret masterSecret, long threadId,
                                   OutgoingTextMessage message, boolean forceSms,
                                   long timestamp)
   {
-    long type = Types.BASE_OUTBOX_TYPE;
-    message   = message.withBody(getEncryptedBody(masterSecret, message.getMessageBody()));
-    type     |= Types.ENCRYPTION_SYMMETRIC_BIT;
+    long   type       = Types.BASE_OUTBOX_TYPE | Types.ENCRYPTION_SYMMETRIC_BIT;
+    String plaintext  = message.getMessageBody();
+    String ciphertext = getEncryptedBody(masterSecret, plaintext);
+    long   messageId  = insertMessageOutbox(threadId, message.withBody(ciphertext), type, forceSms, timestamp);
 
-    return insertMessageOutbox(threadId, message, type, forceSms, timestamp);
+    if (messageId != -1) {
+      plaintextCache.put(PlaintextCache.SMS, messageId, ciphertext, plaintext);
+    }
+
+    return messageId;
   }
 
   public Pair<Long, Long> insertMessageInbox(MasterSecret masterSecret,
@@ -77,12 +80,21 @@ public class EncryptingSmsDatabase extends SmsDatabase {
 
     if (masterSecret == null && message.isSecureMessage()) {
       type |= Types.ENCRYPTION_REMOTE_BIT;
-    } else {
-      type |= Types.ENCRYPTION_SYMMETRIC_BIT;
-      message = message.withMessageBody(getEncryptedBody(masterSecret, message.getMessageBody()));
+      return insertMessageInbox(message, type);
     }
 
-    return insertMessageInbox(message, type);
+    String plaintext  = message.getMessageBody();
+    String ciphertext = getEncryptedBody(masterSecret, plaintext);
+
+    type |= Types.ENCRYPTION_SYMMETRIC_BIT;
+
+    Pair<Long, Long> messageAndThreadId = insertMessageInbox(message.withMessageBody(ciphertext), type);
+
+    if (messageAndThreadId.first != -1) {
+      plaintextCache.put(PlaintextCache.SMS, messageAndThreadId.first, ciphertext, plaintext);
+    }
+
+    return messageAndThreadId;
   }
 
   public Pair<Long, Long> insertMessageInbox(AsymmetricMasterSecret masterSecret,
@@ -102,19 +114,23 @@ public class EncryptingSmsDatabase extends SmsDatabase {
 
   public Pair<Long, Long> updateBundleMessageBody(MasterSecret masterSecret, long messageId, String body) {
     String encryptedBody = getEncryptedBody(masterSecret, body);
+    plaintextCache.put(PlaintextCache.SMS, messageId, encryptedBody, body);
+
     return updateMessageBodyAndType(messageId, encryptedBody, Types.TOTAL_MASK,
                                     Types.BASE_INBOX_TYPE | Types.ENCRYPTION_SYMMETRIC_BIT | Types.SECURE_MESSAGE_BIT);
   }
 
   public void updateMessageBody(MasterSecret masterSecret, long messageId, String body) {
     String encryptedBody = getEncryptedBody(masterSecret, body);
+    plaintextCache.put(PlaintextCache.SMS, messageId, encryptedBody, body);
+
     updateMessageBodyAndType(messageId, encryptedBody, Types.ENCRYPTION_MASK,
                              Types.ENCRYPTION_SYMMETRIC_BIT);
   }
 
-  public Reader getMessages(MasterSecret masterSecret, int skip, int limit) {
-    Cursor cursor = super.getMessages(skip, limit);
-    return new DecryptingReader(masterSecret, cursor);
+  public ExportReader getExportMessages(MasterSecret masterSecret, long afterId, int limit) {
+    Cursor cursor = super.getExportMessages(afterId, limit);
+    return new ExportReader(masterSecret, cursor);
   }
 
   public Reader getOutgoingMessages(MasterSecret masterSecret) {
@@ -144,15 +160,16 @@ public class EncryptingSmsDatabase extends SmsDatabase {
 
   public class DecryptingReader extends SmsDatabase.Reader {
 
-    private final MasterCipher masterCipher;
+    private final MasterSecret masterSecret;
 
     public DecryptingReader(MasterSecret masterSecret, Cursor cursor) {
       super(cursor);
-      this.masterCipher = new MasterCipher(masterSecret);
+      this.masterSecret = masterSecret;
     }
 
     @Override
     protected DisplayRecord.Body getBody(Cursor cursor) {
+      long id           = cursor.getLong(cursor.getColumnIndexOrThrow(SmsDatabase.ID));
       long type         = cursor.getLong(cursor.getColumnIndexOrThrow(SmsDatabase.TYPE));
       String ciphertext = cursor.getString(cursor.getColumnIndexOrThrow(SmsDatabase.BODY));
 
@@ -162,14 +179,14 @@ public class EncryptingSmsDatabase extends SmsDatabase {
 
       try {
         if (SmsDatabase.Types.isSymmetricEncryption(type)) {
-          String plaintext = plaintextCache.get(ciphertext);
+          String plaintext = plaintextCache.get(PlaintextCache.SMS, id, ciphertext);
 
           if (plaintext != null)
             return new DisplayRecord.Body(plaintext, true);
 
-          plaintext = masterCipher.decryptBody(ciphertext);
+          plaintext = MasterCipher.getInstance(masterSecret).decryptBody(ciphertext);
 
-          plaintextCache.put(ciphertext, plaintext);
+          plaintextCache.put(PlaintextCache.SMS, id, ciphertext, plaintext);
           return new DisplayRecord.Body(plaintext, true);
         } else {
           return new DisplayRecord.Body(ciphertext, true);
@@ -181,27 +198,79 @@ public class EncryptingSmsDatabase extends SmsDatabase {
     }
   }
 
-  private static class PlaintextCache {
-    private static final int MAX_CACHE_SIZE = 2000;
-    private static final Map<String, SoftReference<String>> decryptedBodyCache =
-        Collections.synchronizedMap(new LRUCache<String, SoftReference<String>>(MAX_CACHE_SIZE));
+  /**
+   * Reads messages as backup items, without resolving recipients or going
+   * through the plaintext cache, which an export of every message would
+   * only churn.
+   */
+  public class ExportReader {
+
+    private final Cursor       cursor;
+    private final MasterCipher masterCipher;
+    private final Recipients   unknownRecipients;
+
+    private long lastId = -1;
 
-    public void put(String ciphertext, String plaintext) {
-      decryptedBodyCache.put(ciphertext, new SoftReference<String>(plaintext));
+    private ExportReader(MasterSecret masterSecret, Cursor cursor) {
+      this.cursor            = cursor;
+      this.masterCipher      = MasterCipher.getInstance(masterSecret);
+      this.unknownRecipients = RecipientFactory.getRecipientsFor(context, Recipient.getUnknownRecipient(), true);
     }
 
-    public String get(String ciphertext) {
-      SoftReference<String> plaintextReference = decryptedBodyCache.get(ciphertext);
+    public XmlBackup.XmlBackupItem getNext() {
+      if (cursor == null || !cursor.moveToNext())
+        return null;
 
-      if (plaintextReference != null) {
-        String plaintext = plaintextReference.get();
+      long   id           = cursor.getLong(cursor.getColumnIndexOrThrow(SmsDatabase.ID));
+      String address      = cursor.getString(cursor.getColumnIndexOrThrow(SmsDatabase.ADDRESS));
+      long   dateReceived = cursor.getLong(cursor.getColumnIndexOrThrow(SmsDatabase.NORMALIZED_DATE_RECEIVED));
+      int    status       = cursor.getInt(cursor.getColumnIndexOrThrow(SmsDatabase.STATUS));
+      long   type         = cursor.getLong(cursor.getColumnIndexOrThrow(SmsDatabase.TYPE));
 
-        if (plaintext != null) {
-          return plaintext;
-        }
+      // The record only supplies the display body, which doesn't depend on
+      // the recipient for anything an SMS can be.
+      SmsMessageRecord record = new SmsMessageRecord(context, id, getBody(type), unknownRecipients,
+                                                     unknownRecipients.getPrimaryRecipient(), 1,
+                                                     dateReceived, dateReceived, 0, type, 0, status,
+                                                     Collections.<IdentityKeyMismatch>emptyList(), -1);
+
+      lastId = id;
+
+      return new XmlBackup.XmlBackupItem(0, address != null ? address : unknownRecipients.getPrimaryRecipient().getNumber(),
+                                         dateReceived, Types.translateToSystemBaseType(type),
+                                         null, record.getDisplayBody().toString(), null, 1, status);
+    }
+
+    /**
+     * @return the id of the last message read, or -1 if none has been.
+     */
+    public long getLastId() {
+      return lastId;
+    }
+
+    public int getCount() {
+      if (cursor == null) return 0;
+      else                return cursor.getCount();
+    }
+
+    public void close() {
+      cursor.close();
+    }
+
+    private DisplayRecord.Body getBody(long type) {
+      String body = cursor.getString(cursor.getColumnIndexOrThrow(SmsDatabase.BODY));
+
+      if (body == null) {
+        return new DisplayRecord.Body("", true);
       }
 
-      return null;
+      try {
+        if (Types.isSymmetricEncryption(type)) return new DisplayRecord.Body(masterCipher.decryptBody(body), true);
+        else                                   return new DisplayRecord.Body(body, true);
+      } catch (InvalidMessageException e) {
+        Log.w("EncryptingSmsDatabase", e);
+        return new DisplayRecord.Body(context.getString(R.string.EncryptingSmsDatabase_error_decrypting_message), true);
+      }
     }
   }
 }
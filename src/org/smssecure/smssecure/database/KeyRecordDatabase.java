@@ -0,0 +1,192 @@
+package org.smssecure.smssecure.database;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Stores axolotl sessions, prekeys and signed prekeys as opaque blobs, which
+ * callers encrypt with the master secret before storing.
+ *
+ * Records are keyed by type, recipient id and record id.  For a session the
+ * record id is the device id; prekeys have no recipient and use 0.
+ */
+public class KeyRecordDatabase extends Database {
+
+  static final String TABLE_NAME = "key_records";
+
+  private static final String ID           = "_id";
+  private static final String TYPE         = "type";
+  private static final String RECIPIENT_ID = "recipient_id";
+  private static final String RECORD_ID    = "record_id";
+  private static final String VERSION      = "version";
+  private static final String RECORD       = "record";
+
+  public static final int SESSION        = 1;
+  public static final int PRE_KEY        = 2;
+  public static final int SIGNED_PRE_KEY = 3;
+
+  public static final String CREATE_TABLE = "CREATE TABLE " + TABLE_NAME + " (" + ID + " INTEGER PRIMARY KEY, " +
+                                            TYPE + " INTEGER NOT NULL, " + RECIPIENT_ID + " INTEGER NOT NULL, " +
+                                            RECORD_ID + " INTEGER NOT NULL, " + VERSION + " INTEGER NOT NULL, " +
+                                            RECORD + " BLOB NOT NULL, " +
+                                            "UNIQUE (" + TYPE + ", " + RECIPIENT_ID + ", " + RECORD_ID + ") ON CONFLICT REPLACE);";
+
+  private static final String   RECORD_WHERE    = TYPE + " = ? AND " + RECIPIENT_ID + " = ? AND " + RECORD_ID + " = ?";
+  private static final String   RECIPIENT_WHERE = TYPE + " = ? AND " + RECIPIENT_ID + " = ?";
+  private static final String[] RECORD_COLUMNS  = {RECORD_ID, VERSION, RECORD};
+
+  public KeyRecordDatabase(Context context, SQLiteOpenHelper databaseHelper) {
+    super(context, databaseHelper);
+  }
+
+  public @Nullable Record getRecord(int type, long recipientId, int recordId) {
+    SQLiteDatabase db     = databaseHelper.getReadableDatabase();
+    Cursor         cursor = db.query(TABLE_NAME, RECORD_COLUMNS, RECORD_WHERE,
+                                     getArgs(type, recipientId, recordId), null, null, null);
+
+    try {
+      if (cursor.moveToFirst()) return getRecord(cursor);
+      else                      return null;
+    } finally {
+      cursor.close();
+    }
+  }
+
+  public @NonNull List<Record> getRecords(int type, long recipientId) {
+    SQLiteDatabase db      = databaseHelper.getReadableDatabase();
+    List<Record>   records = new LinkedList<>();
+    Cursor         cursor  = db.query(TABLE_NAME, RECORD_COLUMNS, RECIPIENT_WHERE,
+                                      getArgs(type, recipientId), null, null, null);
+
+    try {
+      while (cursor.moveToNext()) {
+        records.add(getRecord(cursor));
+      }
+    } finally {
+      cursor.close();
+    }
+
+    return records;
+  }
+
+  public @NonNull List<Integer> getRecordIds(int type, long recipientId) {
+    SQLiteDatabase db     = databaseHelper.getReadableDatabase();
+    List<Integer>  ids    = new LinkedList<>();
+    Cursor         cursor = db.query(TABLE_NAME, new String[] {RECORD_ID}, RECIPIENT_WHERE,
+                                     getArgs(type, recipientId), null, null, null);
+
+    try {
+      while (cursor.moveToNext()) {
+        ids.add(cursor.getInt(0));
+      }
+    } finally {
+      cursor.close();
+    }
+
+    return ids;
+  }
+
+  public boolean containsRecord(int type, long recipientId, int recordId) {
+    SQLiteDatabase db     = databaseHelper.getReadableDatabase();
+    Cursor         cursor = db.query(TABLE_NAME, new String[] {ID}, RECORD_WHERE,
+                                     getArgs(type, recipientId, recordId), null, null, null);
+
+    try {
+      return cursor.moveToFirst();
+    } finally {
+      cursor.close();
+    }
+  }
+
+  public void setRecord(int type, long recipientId, @NonNull Record record) {
+    insertRecord(databaseHelper.getWritableDatabase(), type, recipientId, record);
+  }
+
+  /**
+   * Stores a batch of records in one transaction.
+   */
+  public void setRecords(int type, long recipientId, @NonNull List<Record> records) {
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+    db.beginTransaction();
+
+    try {
+      for (Record record : records) {
+        insertRecord(db, type, recipientId, record);
+      }
+
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  public void deleteRecord(int type, long recipientId, int recordId) {
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+    db.delete(TABLE_NAME, RECORD_WHERE, getArgs(type, recipientId, recordId));
+  }
+
+  public void deleteRecords(int type, long recipientId) {
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+    db.delete(TABLE_NAME, RECIPIENT_WHERE, getArgs(type, recipientId));
+  }
+
+  static void insertRecord(SQLiteDatabase db, int type, long recipientId, Record record) {
+    ContentValues values = new ContentValues(5);
+    values.put(TYPE, type);
+    values.put(RECIPIENT_ID, recipientId);
+    values.put(RECORD_ID, record.getRecordId());
+    values.put(VERSION, record.getVersion());
+    values.put(RECORD, record.getRecord());
+
+    db.insert(TABLE_NAME, null, values);
+  }
+
+  private Record getRecord(Cursor cursor) {
+    return new Record(cursor.getInt(cursor.getColumnIndexOrThrow(RECORD_ID)),
+                      cursor.getInt(cursor.getColumnIndexOrThrow(VERSION)),
+                      cursor.getBlob(cursor.getColumnIndexOrThrow(RECORD)));
+  }
+
+  private static String[] getArgs(int type, long recipientId) {
+    return new String[] {String.valueOf(type), String.valueOf(recipientId)};
+  }
+
+  private static String[] getArgs(int type, long recipientId, int recordId) {
+    return new String[] {String.valueOf(type), String.valueOf(recipientId), String.valueOf(recordId)};
+  }
+
+  public static class Record {
+    private final int    recordId;
+    private final int    version;
+    private final byte[] record;
+
+    public Record(int recordId, int version, @NonNull byte[] record) {
+      this.recordId = recordId;
+      this.version  = version;
+      this.record   = record;
+    }
+
+    public int getRecordId() {
+      return recordId;
+    }
+
+    public int getVersion() {
+      return version;
+    }
+
+    /**
+     * @return the record, as encrypted by the caller.
+     */
+    public @NonNull byte[] getRecord() {
+      return record;
+    }
+  }
+}
@@ -0,0 +1,118 @@
+package org.smssecure.smssecure.database;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Moves sessions and prekeys from the file-per-record layout into
+ * {@link KeyRecordDatabase}.  The records are already encrypted and are
+ * copied as they are, so no master secret is needed.
+ *
+ * Migration runs inside the database upgrade, and the files are deleted
+ * once, by the first open that finds the upgrade committed.
+ */
+class KeyRecordMigrator {
+
+  private static final String TAG = KeyRecordMigrator.class.getSimpleName();
+
+  private static final String SESSIONS_DIRECTORY       = "sessions-v2";
+  private static final String PREKEYS_DIRECTORY        = "prekeys";
+  private static final String SIGNED_PREKEYS_DIRECTORY = "signed_prekeys";
+
+  static void migrate(@NonNull SQLiteDatabase db, @NonNull File filesDirectory) {
+    File[] sessions = new File(filesDirectory, SESSIONS_DIRECTORY).listFiles();
+
+    if (sessions != null) {
+      for (File file : sessions) {
+        String[] parts = file.getName().split("[.]", 2);
+
+        try {
+          long recipientId = Long.parseLong(parts[0]);
+          int  deviceId    = parts.length > 1 ? Integer.parseInt(parts[1]) : 1;
+
+          migrateRecord(db, file, KeyRecordDatabase.SESSION, recipientId, deviceId);
+        } catch (NumberFormatException e) {
+          Log.w(TAG, e);
+        }
+      }
+    }
+
+    migrateKeys(db, new File(filesDirectory, PREKEYS_DIRECTORY), KeyRecordDatabase.PRE_KEY);
+    migrateKeys(db, new File(filesDirectory, SIGNED_PREKEYS_DIRECTORY), KeyRecordDatabase.SIGNED_PRE_KEY);
+  }
+
+  /**
+   * Deletes the migrated record files.  Prekey index files are left, since
+   * they are still where the next prekey ids are kept.
+   */
+  static void deleteLegacyRecords(@NonNull File filesDirectory) {
+    File sessionsDirectory = new File(filesDirectory, SESSIONS_DIRECTORY);
+
+    deleteRecordFiles(sessionsDirectory);
+    deleteRecordFiles(new File(filesDirectory, PREKEYS_DIRECTORY));
+    deleteRecordFiles(new File(filesDirectory, SIGNED_PREKEYS_DIRECTORY));
+
+    if (sessionsDirectory.exists() && !sessionsDirectory.delete()) {
+      Log.w(TAG, "Couldn't delete " + sessionsDirectory);
+    }
+  }
+
+  private static void migrateKeys(SQLiteDatabase db, File directory, int type) {
+    File[] files = directory.listFiles();
+
+    if (files == null) return;
+
+    for (File file : files) {
+      Integer keyId = getKeyId(file);
+      if (keyId != null) migrateRecord(db, file, type, 0, keyId);
+    }
+  }
+
+  private static void migrateRecord(SQLiteDatabase db, File file, int type, long recipientId, int recordId) {
+    try {
+      DataInputStream in = new DataInputStream(new FileInputStream(file));
+
+      try {
+        int    version = in.readInt();
+        byte[] record  = new byte[in.readInt()];
+
+        in.readFully(record);
+
+        KeyRecordDatabase.insertRecord(db, type, recipientId, new KeyRecordDatabase.Record(recordId, version, record));
+      } finally {
+        in.close();
+      }
+    } catch (IOException | NegativeArraySizeException e) {
+      Log.w(TAG, "Skipping unreadable record " + file + ": " + e);
+    }
+  }
+
+  private static void deleteRecordFiles(File directory) {
+    File[] files = directory.listFiles();
+
+    if (files == null) return;
+
+    for (File file : files) {
+      boolean record = directory.getName().equals(SESSIONS_DIRECTORY) || getKeyId(file) != null;
+
+      if (record && !file.delete()) {
+        Log.w(TAG, "Couldn't delete " + file);
+      }
+    }
+  }
+
+  private static @Nullable Integer getKeyId(File file) {
+    try {
+      return Integer.parseInt(file.getName());
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+}
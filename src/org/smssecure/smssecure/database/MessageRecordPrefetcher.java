@@ -0,0 +1,227 @@
+package org.smssecure.smssecure.database;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import org.smssecure.smssecure.crypto.MasterSecret;
+import org.smssecure.smssecure.database.model.MessageRecord;
+import org.smssecure.smssecure.util.LRUCache;
+import org.smssecure.smssecure.util.Util;
+
+import java.lang.ref.SoftReference;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Materializes conversation rows into MessageRecords ahead of the adapter, so
+ * that the Base64, HMAC and AES work for a row happens in batches off the UI
+ * thread instead of inside onBindItemViewHolder.
+ *
+ * The first window of a freshly loaded cursor is decrypted on the loader
+ * thread, and records of rows the loader didn't query again are kept across
+ * cursors.  For further windows only the ids of the rows are read from the
+ * adapter's cursor, and the rows are queried again and decrypted on a
+ * background executor as the list scrolls.
+ */
+public class MessageRecordPrefetcher {
+
+  private static final String TAG = MessageRecordPrefetcher.class.getSimpleName();
+
+  private static final int WINDOW_SIZE    = 20;
+  private static final int PREFETCH_SIZE  = 40;
+  private static final int MAX_CACHE_SIZE = 200;
+
+  private static final ExecutorService executor = Util.newSingleThreadedLifoExecutor();
+
+  private final Context                                   context;
+  private final MasterSecret                              masterSecret;
+  private final Map<String, SoftReference<MessageRecord>> cache  = new LRUCache<>(MAX_CACHE_SIZE);
+  private final Map<Cursor, Warmed>                       warmed = new WeakHashMap<>();
+
+  private int generation;
+  private int prefetchedFrom;
+  private int prefetchedTo;
+
+  public MessageRecordPrefetcher(@NonNull Context context, @NonNull MasterSecret masterSecret) {
+    this.context      = context.getApplicationContext();
+    this.masterSecret = masterSecret;
+  }
+
+  /**
+   * Decrypts the first window of a cursor that hasn't been handed to the
+   * adapter yet.  Must be called from the thread that owns the cursor.
+   *
+   * @param freshRows the number of rows, from the start of the cursor, that
+   *                  were queried for it rather than carried over from the
+   *                  previous cursor.  Only these rows are read, and only
+   *                  records of these rows are dropped when the adapter
+   *                  switches to the cursor.
+   */
+  public void warm(@NonNull Cursor cursor, int freshRows) {
+    Map<String, MessageRecord> records   = new HashMap<>();
+    Set<String>                stale     = new HashSet<>();
+    MmsSmsDatabase.Reader      reader    = DatabaseFactory.getMmsSmsDatabase(context).readerFor(cursor, masterSecret);
+    int                        transport = cursor.getColumnIndexOrThrow(MmsSmsDatabase.TRANSPORT);
+    int                        id        = cursor.getColumnIndexOrThrow(MmsSmsColumns.ID);
+
+    int end = Math.min(freshRows, WINDOW_SIZE + PREFETCH_SIZE);
+
+    for (int position=0;position<freshRows && cursor.moveToPosition(position);position++) {
+      if (position < end) {
+        MessageRecord record = reader.getCurrent();
+        records.put(getKey(record), record);
+      } else {
+        stale.add(getKey(cursor.getString(transport), cursor.getLong(id)));
+      }
+    }
+
+    cursor.moveToPosition(-1);
+
+    synchronized (this) {
+      warmed.put(cursor, new Warmed(records, stale));
+    }
+  }
+
+  /**
+   * Called when the adapter switches to a new cursor.  Records of rows that
+   * were queried again for it are dropped, and anything warmed for it
+   * becomes visible.  A cursor that wasn't warmed drops every record.
+   */
+  public synchronized void setCursor(@Nullable Cursor cursor) {
+    generation++;
+    prefetchedFrom = 0;
+    prefetchedTo   = 0;
+
+    Warmed warm = cursor != null ? warmed.remove(cursor) : null;
+
+    if (warm == null) {
+      cache.clear();
+      return;
+    }
+
+    for (String key : warm.stale) {
+      cache.remove(key);
+    }
+
+    for (Map.Entry<String, MessageRecord> entry : warm.records.entrySet()) {
+      cache.put(entry.getKey(), new SoftReference<>(entry.getValue()));
+    }
+
+    prefetchedTo = warm.records.size();
+  }
+
+  public synchronized @Nullable MessageRecord get(@NonNull String transport, long id) {
+    SoftReference<MessageRecord> reference = cache.get(getKey(transport, id));
+    return reference != null ? reference.get() : null;
+  }
+
+  public synchronized void put(@NonNull String transport, long id, @NonNull MessageRecord record) {
+    cache.put(getKey(transport, id), new SoftReference<>(record));
+  }
+
+  /**
+   * Schedules the rows around {@code position} for decryption in the
+   * background, unless they have already been covered.  The cursor is
+   * left at the position it was at on entry.
+   */
+  public void prefetch(@NonNull Cursor cursor, int position) {
+    final int from = Math.max(0, position - WINDOW_SIZE);
+    final int to   = Math.min(cursor.getCount(), position + PREFETCH_SIZE);
+    final int taskGeneration;
+
+    synchronized (this) {
+      if (from >= prefetchedFrom && position + WINDOW_SIZE <= prefetchedTo) return;
+
+      prefetchedFrom = from;
+      prefetchedTo   = to;
+      taskGeneration = generation;
+    }
+
+    final List<Long> smsIds   = new LinkedList<>();
+    final List<Long> mmsIds   = new LinkedList<>();
+    final long       threadId = snapshotIds(cursor, from, to, smsIds, mmsIds);
+
+    if (smsIds.isEmpty() && mmsIds.isEmpty()) return;
+
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        synchronized (MessageRecordPrefetcher.this) {
+          if (generation != taskGeneration) return;
+        }
+
+        Cursor                rows   = DatabaseFactory.getMmsSmsDatabase(context).getConversationMessages(threadId, smsIds, mmsIds);
+        MmsSmsDatabase.Reader reader = DatabaseFactory.getMmsSmsDatabase(context).readerFor(rows, masterSecret);
+        MessageRecord         record;
+
+        try {
+          while ((record = reader.getNext()) != null) {
+            synchronized (MessageRecordPrefetcher.this) {
+              if (generation != taskGeneration) return;
+              cache.put(getKey(record), new SoftReference<>(record));
+            }
+          }
+        } catch (RuntimeException e) {
+          Log.w(TAG, e);
+        } finally {
+          rows.close();
+        }
+      }
+    });
+  }
+
+  /**
+   * Collects the ids of the rows in [from, to) that aren't cached yet.
+   *
+   * @return the thread the rows belong to.
+   */
+  private long snapshotIds(@NonNull Cursor cursor, int from, int to, List<Long> smsIds, List<Long> mmsIds) {
+    int  original  = cursor.getPosition();
+    int  transport = cursor.getColumnIndexOrThrow(MmsSmsDatabase.TRANSPORT);
+    int  id        = cursor.getColumnIndexOrThrow(MmsSmsColumns.ID);
+    int  thread    = cursor.getColumnIndexOrThrow(MmsSmsColumns.THREAD_ID);
+    long threadId  = -1;
+
+    for (int position=from;position<to && cursor.moveToPosition(position);position++) {
+      String rowTransport = cursor.getString(transport);
+      long   rowId        = cursor.getLong(id);
+
+      threadId = cursor.getLong(thread);
+
+      if (get(rowTransport, rowId) != null) continue;
+
+      if (MmsSmsDatabase.MMS_TRANSPORT.equals(rowTransport)) mmsIds.add(rowId);
+      else                                                   smsIds.add(rowId);
+    }
+
+    cursor.moveToPosition(original);
+    return threadId;
+  }
+
+  private static String getKey(@NonNull MessageRecord record) {
+    return getKey(record.isMms() ? MmsSmsDatabase.MMS_TRANSPORT : MmsSmsDatabase.SMS_TRANSPORT, record.getId());
+  }
+
+  private static String getKey(@NonNull String transport, long id) {
+    return transport + id;
+  }
+
+  private static class Warmed {
+    private final Map<String, MessageRecord> records;
+    private final Set<String>                stale;
+
+    private Warmed(Map<String, MessageRecord> records, Set<String> stale) {
+      this.records = records;
+      this.stale   = stale;
+    }
+  }
+}
@@ -37,31 +37,27 @@ import org.smssecure.smssecure.attachments.Attachment;
 import org.smssecure.smssecure.attachments.DatabaseAttachment;
 import org.smssecure.smssecure.crypto.MasterCipher;
 import org.smssecure.smssecure.crypto.MasterSecret;
-import org.smssecure.smssecure.database.documents.IdentityKeyMismatch;
-import org.smssecure.smssecure.database.documents.IdentityKeyMismatchList;
 import org.smssecure.smssecure.database.documents.NetworkFailure;
 import org.smssecure.smssecure.database.documents.NetworkFailureList;
 import org.smssecure.smssecure.database.model.DisplayRecord;
 import org.smssecure.smssecure.database.model.MediaMmsMessageRecord;
 import org.smssecure.smssecure.database.model.MessageRecord;
 import org.smssecure.smssecure.database.model.NotificationMmsMessageRecord;
+import org.smssecure.smssecure.jobs.JobScheduler;
 import org.smssecure.smssecure.jobs.TrimThreadJob;
 import org.smssecure.smssecure.mms.IncomingMediaMessage;
 import org.smssecure.smssecure.mms.OutgoingGroupMediaMessage;
 import org.smssecure.smssecure.mms.OutgoingMediaMessage;
 import org.smssecure.smssecure.mms.OutgoingSecureMediaMessage;
-import org.smssecure.smssecure.mms.SlideDeck;
 import org.smssecure.smssecure.recipients.Recipient;
 import org.smssecure.smssecure.recipients.RecipientFactory;
 import org.smssecure.smssecure.recipients.RecipientFormattingException;
 import org.smssecure.smssecure.recipients.Recipients;
 import org.smssecure.smssecure.util.GroupUtil;
 import org.smssecure.smssecure.util.InvalidNumberException;
-import org.smssecure.smssecure.util.JsonUtils;
 import org.smssecure.smssecure.util.ServiceUtil;
 import org.smssecure.smssecure.util.SMSSecurePreferences;
 import org.smssecure.smssecure.util.Util;
-import org.whispersystems.jobqueue.JobManager;
 import org.whispersystems.libaxolotl.InvalidMessageException;
 import org.whispersystems.libaxolotl.util.guava.Optional;
 
@@ -144,7 +140,7 @@ public class MmsDatabase extends MessagingDatabase {
 
   private static final String RAW_ID_WHERE = TABLE_NAME + "._id = ?";
 
-  private final JobManager jobManager;
+  private final JobScheduler jobManager;
 
   public MmsDatabase(Context context, SQLiteOpenHelper databaseHelper) {
     super(context, databaseHelper);
@@ -293,7 +289,7 @@ public class MmsDatabase extends MessagingDatabase {
                    " SET " + MESSAGE_BOX + " = (" + MESSAGE_BOX + " & " + (Types.TOTAL_MASK - maskOff) + " | " + maskOn + " )" +
                    " WHERE " + ID + " = ?", new String[] {id + ""});
 
-    DatabaseFactory.getThreadDatabase(context).update(getThreadIdForMessage(id), false);
+    DatabaseFactory.getThreadDatabase(context).updateForChange(getThreadIdForMessage(id), MmsSmsDatabase.MMS_TRANSPORT, id, false);
   }
 
   public void markAsOutbox(long messageId) {
@@ -555,7 +551,6 @@ public class MmsDatabase extends MessagingDatabase {
                                         contentValues);
 
     DatabaseFactory.getThreadDatabase(context).setUnread(threadId);
-    DatabaseFactory.getThreadDatabase(context).update(threadId, true);
     notifyConversationListeners(threadId);
     jobManager.add(new TrimThreadJob(context, threadId));
 
@@ -698,7 +693,7 @@ public class MmsDatabase extends MessagingDatabase {
   {
     try {
       if (!TextUtils.isEmpty(body) && Types.isSymmetricEncryption(outboxType)) {
-        MasterCipher masterCipher = new MasterCipher(masterSecret);
+        MasterCipher masterCipher = MasterCipher.getInstance(masterSecret);
         return masterCipher.decryptBody(body);
       } else {
         return body;
@@ -721,28 +716,41 @@ public class MmsDatabase extends MessagingDatabase {
     AttachmentDatabase partsDatabase   = DatabaseFactory.getAttachmentDatabase(context);
     MmsAddressDatabase addressDatabase = DatabaseFactory.getMmsAddressDatabase(context);
 
+    String ciphertext = null;
+
     if (Types.isSymmetricEncryption(contentValues.getAsLong(MESSAGE_BOX))) {
       if (!TextUtils.isEmpty(body)) {
-        contentValues.put(BODY, new MasterCipher(masterSecret).encryptBody(body));
+        ciphertext = MasterCipher.getInstance(masterSecret).encryptBody(body);
+        contentValues.put(BODY, ciphertext);
       }
     }
 
     contentValues.put(PART_COUNT, attachments.size());
 
+    long threadId  = contentValues.getAsLong(THREAD_ID);
+    long messageId = -1;
+
     db.beginTransaction();
     try {
-      long messageId = db.insert(TABLE_NAME, null, contentValues);
+      long insertedId = db.insert(TABLE_NAME, null, contentValues);
+
+      if (ciphertext != null && insertedId != -1) {
+        PlaintextCache.getInstance().put(PlaintextCache.MMS, insertedId, ciphertext, body);
+      }
 
-      addressDatabase.insertAddressesForId(messageId, addresses);
-      partsDatabase.insertAttachmentsForMessage(masterSecret, messageId, attachments);
+      addressDatabase.insertAddressesForId(insertedId, addresses);
+      partsDatabase.insertAttachmentsForMessage(masterSecret, insertedId, attachments);
 
       db.setTransactionSuccessful();
+      messageId = insertedId;
       return messageId;
     } finally {
       db.endTransaction();
 
-      notifyConversationListeners(contentValues.getAsLong(THREAD_ID));
-      DatabaseFactory.getThreadDatabase(context).update(contentValues.getAsLong(THREAD_ID), true);
+      notifyConversationListeners(threadId);
+
+      if (messageId != -1) DatabaseFactory.getThreadDatabase(context).updateForInsert(threadId, MmsSmsDatabase.MMS_TRANSPORT, messageId, true);
+      else                 DatabaseFactory.getThreadDatabase(context).update(threadId, true);
     }
   }
 
@@ -753,9 +761,12 @@ public class MmsDatabase extends MessagingDatabase {
     attachmentDatabase.deleteAttachmentsForMessage(messageId);
     addrDatabase.deleteAddressesForId(messageId);
 
+    boolean wasNewest = DatabaseFactory.getMmsSmsDatabase(context).isNewestInThread(threadId, MmsSmsDatabase.MMS_TRANSPORT, messageId);
+
     SQLiteDatabase database = databaseHelper.getWritableDatabase();
     database.delete(TABLE_NAME, ID_WHERE, new String[] {messageId+""});
-    boolean threadDeleted = DatabaseFactory.getThreadDatabase(context).update(threadId, false);
+    PlaintextCache.getInstance().remove(PlaintextCache.MMS, messageId);
+    boolean threadDeleted = DatabaseFactory.getThreadDatabase(context).updateForDelete(threadId, wasNewest);
     notifyConversationListeners(threadId);
     return threadDeleted;
   }
@@ -880,14 +891,10 @@ public class MmsDatabase extends MessagingDatabase {
 
     private final Cursor       cursor;
     private final MasterSecret masterSecret;
-    private final MasterCipher masterCipher;
 
     public Reader(MasterSecret masterSecret, Cursor cursor) {
       this.cursor       = cursor;
       this.masterSecret = masterSecret;
-
-      if (masterSecret != null) masterCipher = new MasterCipher(masterSecret);
-      else                      masterCipher = null;
     }
 
     public MessageRecord getNext() {
@@ -956,64 +963,36 @@ public class MmsDatabase extends MessagingDatabase {
       String networkDocument    = cursor.getString(cursor.getColumnIndexOrThrow(MmsDatabase.NETWORK_FAILURE));
       int subscriptionId        = cursor.getInt(cursor.getColumnIndexOrThrow(MmsDatabase.SUBSCRIPTION_ID));
 
-      Recipients                recipients      = getRecipientsFor(address);
-      List<IdentityKeyMismatch> mismatches      = getMismatchedIdentities(mismatchDocument);
-      List<NetworkFailure>      networkFailures = getFailures(networkDocument);
-
-      SlideDeck                 slideDeck       = getSlideDeck(cursor);
+      Recipients recipients = getRecipientsFor(address);
+      Attachment attachment = getAttachment(cursor);
 
       return new MediaMmsMessageRecord(context, id, recipients, recipients.getPrimaryRecipient(),
                                        addressDeviceId, dateSent, dateReceived, dateDeliveryReceived,
-                                       threadId, body, slideDeck, partCount, box, mismatches,
-                                       networkFailures, subscriptionId);
+                                       threadId, body, attachment, partCount, box, mismatchDocument,
+                                       networkDocument, subscriptionId);
     }
 
     private Recipients getRecipientsFor(String address) {
-      if (TextUtils.isEmpty(address) || address.equals("insert-address-token")) {
-        return RecipientFactory.getRecipientsFor(context, Recipient.getUnknownRecipient(), true);
-      }
-
-      Recipients recipients =  RecipientFactory.getRecipientsFromString(context, address, true);
-
-      if (recipients == null || recipients.isEmpty()) {
-        return RecipientFactory.getRecipientsFor(context, Recipient.getUnknownRecipient(), true);
-      }
-
-      return recipients;
-    }
-
-    private List<IdentityKeyMismatch> getMismatchedIdentities(String document) {
-      if (!TextUtils.isEmpty(document)) {
-        try {
-          return JsonUtils.fromJson(document, IdentityKeyMismatchList.class).getList();
-        } catch (IOException e) {
-          Log.w(TAG, e);
-        }
-      }
-
-      return new LinkedList<>();
-    }
-
-    private List<NetworkFailure> getFailures(String document) {
-      if (!TextUtils.isEmpty(document)) {
-        try {
-          return JsonUtils.fromJson(document, NetworkFailureList.class).getList();
-        } catch (IOException ioe) {
-          Log.w(TAG, ioe);
-        }
-      }
-
-      return new LinkedList<>();
+      return CursorRecipients.forAddresses(context, cursor, MmsDatabase.ADDRESS).get(cursor, address);
     }
 
     private DisplayRecord.Body getBody(Cursor cursor) {
       try {
+        long id     = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.ID));
         String body = cursor.getString(cursor.getColumnIndexOrThrow(MmsDatabase.BODY));
         long box    = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.MESSAGE_BOX));
 
-        if (!TextUtils.isEmpty(body) && masterCipher != null && Types.isSymmetricEncryption(box)) {
-          return new DisplayRecord.Body(masterCipher.decryptBody(body), true);
-        } else if (!TextUtils.isEmpty(body) && masterCipher == null && Types.isSymmetricEncryption(box)) {
+        if (!TextUtils.isEmpty(body) && masterSecret != null && Types.isSymmetricEncryption(box)) {
+          PlaintextCache plaintextCache = PlaintextCache.getInstance();
+          String         plaintext      = plaintextCache.get(PlaintextCache.MMS, id, body);
+
+          if (plaintext == null) {
+            plaintext = MasterCipher.getInstance(masterSecret).decryptBody(body);
+            plaintextCache.put(PlaintextCache.MMS, id, body, plaintext);
+          }
+
+          return new DisplayRecord.Body(plaintext, true);
+        } else if (!TextUtils.isEmpty(body) && masterSecret == null && Types.isSymmetricEncryption(box)) {
           return new DisplayRecord.Body(body, false);
         } else {
           return new DisplayRecord.Body(body == null ? "" : body, true);
@@ -1024,9 +1003,12 @@ public class MmsDatabase extends MessagingDatabase {
       }
     }
 
-    private SlideDeck getSlideDeck(@NonNull Cursor cursor) {
-      Attachment attachment = DatabaseFactory.getAttachmentDatabase(context).getAttachment(cursor);
-      return new SlideDeck(context, attachment);
+    private @Nullable Attachment getAttachment(@NonNull Cursor cursor) {
+      if (cursor.isNull(cursor.getColumnIndexOrThrow(AttachmentDatabase.ATTACHMENT_ID_ALIAS))) {
+        return null;
+      }
+
+      return DatabaseFactory.getAttachmentDatabase(context).getAttachment(cursor);
     }
 
     public void close() {
@@ -28,9 +28,14 @@ import android.util.Log;
 import org.smssecure.smssecure.attachments.Attachment;
 import org.smssecure.smssecure.crypto.MasterSecret;
 import org.smssecure.smssecure.database.model.MessageRecord;
+import org.smssecure.smssecure.util.Util;
 import org.whispersystems.libaxolotl.util.guava.Optional;
 
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Set;
 
 public class MmsSmsDatabase extends Database {
@@ -41,6 +46,119 @@ public class MmsSmsDatabase extends Database {
   public static final String MMS_TRANSPORT = "mms";
   public static final String SMS_TRANSPORT = "sms";
 
+  /*
+   * The message index is a denormalized timeline of both message tables, so
+   * that a conversation page is one range scan over (thread_id, date_received)
+   * followed by primary key lookups, instead of a UNION over sms and mms with
+   * a correlated attachment subquery per MMS row.  It is maintained by triggers
+   * on the sms, mms and part tables, so every write path keeps it current.
+   */
+  static final String INDEX_TABLE_NAME    = "message_index";
+  static final String INDEX_MESSAGE_ID    = "message_id";
+  static final String INDEX_ATTACHMENT_ID = "first_attachment_id";
+
+  public static final String CREATE_INDEX_TABLE = "CREATE TABLE " + INDEX_TABLE_NAME + " (" +
+    MmsSmsColumns.ID + " INTEGER PRIMARY KEY, " + MmsSmsColumns.THREAD_ID + " INTEGER, " +
+    MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " INTEGER, " + TRANSPORT + " TEXT, " +
+    INDEX_MESSAGE_ID + " INTEGER, " + INDEX_ATTACHMENT_ID + " INTEGER DEFAULT NULL, " +
+    "UNIQUE(" + TRANSPORT + ", " + INDEX_MESSAGE_ID + "));";
+
+  public static final String[] CREATE_INDEX_INDEXS = {
+    "CREATE INDEX IF NOT EXISTS message_index_thread_date_index ON " + INDEX_TABLE_NAME + " (" +
+        MmsSmsColumns.THREAD_ID + ", " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + ", " + TRANSPORT + ", " + INDEX_MESSAGE_ID + ");"
+  };
+
+  private static final String FIRST_ATTACHMENT_FOR = "(SELECT MIN(" + AttachmentDatabase.ROW_ID + ") FROM " + AttachmentDatabase.TABLE_NAME +
+                                                     " WHERE " + AttachmentDatabase.MMS_ID + " = %s)";
+
+  private static final String UPDATE_FIRST_ATTACHMENT = "UPDATE " + INDEX_TABLE_NAME + " SET " + INDEX_ATTACHMENT_ID + " = " +
+                                                        String.format(FIRST_ATTACHMENT_FOR, "%1$s") +
+                                                        " WHERE " + TRANSPORT + " = '" + MMS_TRANSPORT + "' AND " + INDEX_MESSAGE_ID + " = %1$s;";
+
+  public static final String[] CREATE_INDEX_TRIGGERS = {
+    "CREATE TRIGGER IF NOT EXISTS message_index_sms_insert AFTER INSERT ON " + SmsDatabase.TABLE_NAME + " BEGIN " +
+        "INSERT OR REPLACE INTO " + INDEX_TABLE_NAME + " (" + MmsSmsColumns.THREAD_ID + ", " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + ", " + TRANSPORT + ", " + INDEX_MESSAGE_ID + ") " +
+        "VALUES (NEW." + MmsSmsColumns.THREAD_ID + ", NEW." + SmsDatabase.DATE_RECEIVED + ", '" + SMS_TRANSPORT + "', NEW." + MmsSmsColumns.ID + "); END;",
+
+    "CREATE TRIGGER IF NOT EXISTS message_index_sms_update AFTER UPDATE OF " + MmsSmsColumns.THREAD_ID + ", " + SmsDatabase.DATE_RECEIVED + " ON " + SmsDatabase.TABLE_NAME + " BEGIN " +
+        "UPDATE " + INDEX_TABLE_NAME + " SET " + MmsSmsColumns.THREAD_ID + " = NEW." + MmsSmsColumns.THREAD_ID + ", " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " = NEW." + SmsDatabase.DATE_RECEIVED + " " +
+        "WHERE " + TRANSPORT + " = '" + SMS_TRANSPORT + "' AND " + INDEX_MESSAGE_ID + " = NEW." + MmsSmsColumns.ID + "; END;",
+
+    "CREATE TRIGGER IF NOT EXISTS message_index_sms_delete AFTER DELETE ON " + SmsDatabase.TABLE_NAME + " BEGIN " +
+        "DELETE FROM " + INDEX_TABLE_NAME + " WHERE " + TRANSPORT + " = '" + SMS_TRANSPORT + "' AND " + INDEX_MESSAGE_ID + " = OLD." + MmsSmsColumns.ID + "; END;",
+
+    "CREATE TRIGGER IF NOT EXISTS message_index_mms_insert AFTER INSERT ON " + MmsDatabase.TABLE_NAME + " BEGIN " +
+        "INSERT OR REPLACE INTO " + INDEX_TABLE_NAME + " (" + MmsSmsColumns.THREAD_ID + ", " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + ", " + TRANSPORT + ", " + INDEX_MESSAGE_ID + ", " + INDEX_ATTACHMENT_ID + ") " +
+        "VALUES (NEW." + MmsSmsColumns.THREAD_ID + ", NEW." + MmsDatabase.DATE_RECEIVED + ", '" + MMS_TRANSPORT + "', NEW." + MmsSmsColumns.ID + ", " +
+        String.format(FIRST_ATTACHMENT_FOR, "NEW." + MmsSmsColumns.ID) + "); END;",
+
+    "CREATE TRIGGER IF NOT EXISTS message_index_mms_update AFTER UPDATE OF " + MmsSmsColumns.THREAD_ID + ", " + MmsDatabase.DATE_RECEIVED + " ON " + MmsDatabase.TABLE_NAME + " BEGIN " +
+        "UPDATE " + INDEX_TABLE_NAME + " SET " + MmsSmsColumns.THREAD_ID + " = NEW." + MmsSmsColumns.THREAD_ID + ", " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " = NEW." + MmsDatabase.DATE_RECEIVED + " " +
+        "WHERE " + TRANSPORT + " = '" + MMS_TRANSPORT + "' AND " + INDEX_MESSAGE_ID + " = NEW." + MmsSmsColumns.ID + "; END;",
+
+    "CREATE TRIGGER IF NOT EXISTS message_index_mms_delete AFTER DELETE ON " + MmsDatabase.TABLE_NAME + " BEGIN " +
+        "DELETE FROM " + INDEX_TABLE_NAME + " WHERE " + TRANSPORT + " = '" + MMS_TRANSPORT + "' AND " + INDEX_MESSAGE_ID + " = OLD." + MmsSmsColumns.ID + "; END;",
+
+    "CREATE TRIGGER IF NOT EXISTS message_index_part_insert AFTER INSERT ON " + AttachmentDatabase.TABLE_NAME + " BEGIN " +
+        String.format(UPDATE_FIRST_ATTACHMENT, "NEW." + AttachmentDatabase.MMS_ID) + " END;",
+
+    "CREATE TRIGGER IF NOT EXISTS message_index_part_update AFTER UPDATE OF " + AttachmentDatabase.MMS_ID + " ON " + AttachmentDatabase.TABLE_NAME + " BEGIN " +
+        String.format(UPDATE_FIRST_ATTACHMENT, "OLD." + AttachmentDatabase.MMS_ID) + " " +
+        String.format(UPDATE_FIRST_ATTACHMENT, "NEW." + AttachmentDatabase.MMS_ID) + " END;",
+
+    "CREATE TRIGGER IF NOT EXISTS message_index_part_delete AFTER DELETE ON " + AttachmentDatabase.TABLE_NAME + " BEGIN " +
+        String.format(UPDATE_FIRST_ATTACHMENT, "OLD." + AttachmentDatabase.MMS_ID) + " END;"
+  };
+
+  public static final String[] POPULATE_INDEX = {
+    "INSERT OR REPLACE INTO " + INDEX_TABLE_NAME + " (" + MmsSmsColumns.THREAD_ID + ", " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + ", " + TRANSPORT + ", " + INDEX_MESSAGE_ID + ") " +
+        "SELECT " + MmsSmsColumns.THREAD_ID + ", " + SmsDatabase.DATE_RECEIVED + ", '" + SMS_TRANSPORT + "', " + MmsSmsColumns.ID + " FROM " + SmsDatabase.TABLE_NAME + ";",
+
+    "INSERT OR REPLACE INTO " + INDEX_TABLE_NAME + " (" + MmsSmsColumns.THREAD_ID + ", " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + ", " + TRANSPORT + ", " + INDEX_MESSAGE_ID + ", " + INDEX_ATTACHMENT_ID + ") " +
+        "SELECT " + MmsSmsColumns.THREAD_ID + ", " + MmsDatabase.DATE_RECEIVED + ", '" + MMS_TRANSPORT + "', " + MmsDatabase.TABLE_NAME + "." + MmsSmsColumns.ID + ", " +
+        String.format(FIRST_ATTACHMENT_FOR, MmsDatabase.TABLE_NAME + "." + MmsSmsColumns.ID) + " FROM " + MmsDatabase.TABLE_NAME + ";"
+  };
+
+  private static final String[] INDEXED_PROJECTION = {
+      "idx." + INDEX_MESSAGE_ID + " AS " + MmsSmsColumns.ID,
+      "CASE idx." + TRANSPORT + " WHEN '" + SMS_TRANSPORT + "'" +
+          " THEN 'SMS::' || sms." + MmsSmsColumns.ID + " || '::' || sms." + SmsDatabase.DATE_SENT +
+          " ELSE 'MMS::' || mms." + MmsSmsColumns.ID + " || '::' || mms." + MmsDatabase.DATE_SENT +
+          " END AS " + MmsSmsColumns.UNIQUE_ROW_ID,
+      "COALESCE(sms." + MmsSmsColumns.BODY + ", mms." + MmsSmsColumns.BODY + ") AS " + MmsSmsColumns.BODY,
+      "sms." + SmsDatabase.TYPE + " AS " + SmsDatabase.TYPE,
+      "idx." + MmsSmsColumns.THREAD_ID + " AS " + MmsSmsColumns.THREAD_ID,
+      "COALESCE(sms." + MmsSmsColumns.ADDRESS + ", mms." + MmsSmsColumns.ADDRESS + ") AS " + MmsSmsColumns.ADDRESS,
+      "COALESCE(sms." + MmsSmsColumns.ADDRESS_DEVICE_ID + ", mms." + MmsSmsColumns.ADDRESS_DEVICE_ID + ") AS " + MmsSmsColumns.ADDRESS_DEVICE_ID,
+      "sms." + SmsDatabase.SUBJECT + " AS " + SmsDatabase.SUBJECT,
+      "COALESCE(sms." + SmsDatabase.DATE_SENT + ", mms." + MmsDatabase.DATE_SENT + ") AS " + MmsSmsColumns.NORMALIZED_DATE_SENT,
+      "idx." + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " AS " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED,
+      "mms." + MmsDatabase.MESSAGE_TYPE + " AS " + MmsDatabase.MESSAGE_TYPE,
+      "mms." + MmsDatabase.MESSAGE_BOX + " AS " + MmsDatabase.MESSAGE_BOX,
+      "sms." + SmsDatabase.STATUS + " AS " + SmsDatabase.STATUS,
+      "mms." + MmsDatabase.PART_COUNT + " AS " + MmsDatabase.PART_COUNT,
+      "mms." + MmsDatabase.CONTENT_LOCATION + " AS " + MmsDatabase.CONTENT_LOCATION,
+      "mms." + MmsDatabase.TRANSACTION_ID + " AS " + MmsDatabase.TRANSACTION_ID,
+      "mms." + MmsDatabase.MESSAGE_SIZE + " AS " + MmsDatabase.MESSAGE_SIZE,
+      "mms." + MmsDatabase.EXPIRY + " AS " + MmsDatabase.EXPIRY,
+      "mms." + MmsDatabase.STATUS + " AS " + MmsDatabase.STATUS,
+      "COALESCE(sms." + MmsSmsColumns.DATE_DELIVERY_RECEIVED + ", mms." + MmsSmsColumns.DATE_DELIVERY_RECEIVED + ") AS " + MmsSmsColumns.DATE_DELIVERY_RECEIVED,
+      "COALESCE(sms." + MmsSmsColumns.MISMATCHED_IDENTITIES + ", mms." + MmsSmsColumns.MISMATCHED_IDENTITIES + ") AS " + MmsSmsColumns.MISMATCHED_IDENTITIES,
+      "mms." + MmsDatabase.NETWORK_FAILURE + " AS " + MmsDatabase.NETWORK_FAILURE,
+      "COALESCE(sms." + MmsSmsColumns.SUBSCRIPTION_ID + ", mms." + MmsSmsColumns.SUBSCRIPTION_ID + ") AS " + MmsSmsColumns.SUBSCRIPTION_ID,
+      "idx." + TRANSPORT + " AS " + TRANSPORT,
+      "part." + AttachmentDatabase.ROW_ID + " AS " + AttachmentDatabase.ATTACHMENT_ID_ALIAS,
+      "part." + AttachmentDatabase.UNIQUE_ID + " AS " + AttachmentDatabase.UNIQUE_ID,
+      "part." + AttachmentDatabase.MMS_ID + " AS " + AttachmentDatabase.MMS_ID,
+      "part." + AttachmentDatabase.SIZE + " AS " + AttachmentDatabase.SIZE,
+      "part." + AttachmentDatabase.DATA + " AS " + AttachmentDatabase.DATA,
+      "part." + AttachmentDatabase.CONTENT_TYPE + " AS " + AttachmentDatabase.CONTENT_TYPE,
+      "part." + AttachmentDatabase.CONTENT_LOCATION + " AS " + AttachmentDatabase.CONTENT_LOCATION,
+      "part." + AttachmentDatabase.CONTENT_DISPOSITION + " AS " + AttachmentDatabase.CONTENT_DISPOSITION,
+      "part." + AttachmentDatabase.NAME + " AS " + AttachmentDatabase.NAME,
+      "part." + AttachmentDatabase.FILENAME + " AS " + AttachmentDatabase.FILENAME,
+      "part." + AttachmentDatabase.TRANSFER_STATE + " AS " + AttachmentDatabase.TRANSFER_STATE};
+
   private static final String[] PROJECTION = {MmsSmsColumns.ID, MmsSmsColumns.UNIQUE_ROW_ID,
                                               SmsDatabase.BODY, SmsDatabase.TYPE,
                                               MmsSmsColumns.THREAD_ID,
@@ -72,15 +190,97 @@ public class MmsSmsDatabase extends Database {
   }
 
   public Cursor getConversation(long threadId, long limit) {
-    String order     = MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " DESC";
-    String selection = MmsSmsColumns.THREAD_ID + " = " + threadId;
+    SQLiteDatabase db     = databaseHelper.getReadableDatabase();
+    Cursor         cursor = db.rawQuery(buildConversationQuery(null, limit), new String[] {String.valueOf(threadId)});
+
+    setNotifyConverationListeners(cursor, threadId);
+
+    return cursor;
+  }
+
+  /**
+   * Returns the given messages of a thread, in the same form and order as
+   * {@link #getConversation(long, long)}.
+   */
+  Cursor getConversationMessages(long threadId, @NonNull Collection<Long> smsIds, @NonNull Collection<Long> mmsIds) {
+    SQLiteDatabase db        = databaseHelper.getReadableDatabase();
+    StringBuilder  selection = new StringBuilder();
+
+    if (!smsIds.isEmpty()) {
+      selection.append("(idx.").append(TRANSPORT).append(" = '").append(SMS_TRANSPORT).append("' AND idx.")
+               .append(INDEX_MESSAGE_ID).append(" IN (").append(Util.join(Util.toLongArray(smsIds), ",")).append("))");
+    }
+
+    if (!mmsIds.isEmpty()) {
+      if (selection.length() > 0) selection.append(" OR ");
+
+      selection.append("(idx.").append(TRANSPORT).append(" = '").append(MMS_TRANSPORT).append("' AND idx.")
+               .append(INDEX_MESSAGE_ID).append(" IN (").append(Util.join(Util.toLongArray(mmsIds), ",")).append("))");
+    }
+
+    if (selection.length() == 0) selection.append("0");
+
+    return db.rawQuery(buildConversationQuery(selection.toString(), 0), new String[] {String.valueOf(threadId)});
+  }
+
+  /**
+   * Returns the next {@code limit} messages of a thread that are older than
+   * {@code anchor}, in the same form and order as {@link #getConversation(long, long)}.
+   */
+  public Cursor getConversationBefore(long threadId, @NonNull ConversationAnchor anchor, long limit) {
+    SQLiteDatabase db        = databaseHelper.getReadableDatabase();
+    String         selection = buildAnchorSelection("<", "<");
+
+    return db.rawQuery(buildConversationQuery(selection, limit), getSelectionArgs(threadId, anchor));
+  }
+
+  /**
+   * Returns every message of a thread from the newest down to and including
+   * {@code anchor}, so that the newest page of a conversation can be reloaded
+   * without losing messages that arrived since it was first loaded.
+   */
+  public Cursor getConversationSince(long threadId, @NonNull ConversationAnchor anchor) {
+    SQLiteDatabase db        = databaseHelper.getReadableDatabase();
+    String         selection = buildAnchorSelection(">", ">=");
+    Cursor         cursor    = db.rawQuery(buildConversationQuery(selection, 0), getSelectionArgs(threadId, anchor));
 
-    Cursor cursor = queryTables(PROJECTION, selection, order, limit > 0 ? String.valueOf(limit) : null);
     setNotifyConverationListeners(cursor, threadId);
 
     return cursor;
   }
 
+  /**
+   * Returns the messages of a thread older than {@code newer}, down to and
+   * including {@code older}.
+   */
+  public Cursor getConversationBetween(long threadId, @NonNull ConversationAnchor newer, @NonNull ConversationAnchor older) {
+    SQLiteDatabase db        = databaseHelper.getReadableDatabase();
+    String         selection = buildAnchorSelection("<", "<") + " AND " + buildAnchorSelection(">", ">=");
+
+    return db.rawQuery(buildConversationQuery(selection, 0), getSelectionArgs(threadId, newer, older));
+  }
+
+  /**
+   * Counts the messages {@link #getConversationBetween(long, ConversationAnchor, ConversationAnchor)}
+   * would return, from the message index alone.
+   */
+  public int getConversationCountBetween(long threadId, @NonNull ConversationAnchor newer, @NonNull ConversationAnchor older) {
+    SQLiteDatabase db     = databaseHelper.getReadableDatabase();
+    Cursor         cursor = null;
+
+    try {
+      cursor = db.rawQuery("SELECT COUNT(*) FROM " + INDEX_TABLE_NAME + " AS idx" +
+                           " WHERE idx." + MmsSmsColumns.THREAD_ID + " = ?" +
+                           " AND " + buildAnchorSelection("<", "<") + " AND " + buildAnchorSelection(">", ">="),
+                           getSelectionArgs(threadId, newer, older));
+
+      if (cursor != null && cursor.moveToFirst()) return cursor.getInt(0);
+      else                                        return 0;
+    } finally {
+      if (cursor != null) cursor.close();
+    }
+  }
+
   public Cursor getConversation(long threadId) {
     return getConversation(threadId, 0);
   }
@@ -96,10 +296,30 @@ public class MmsSmsDatabase extends Database {
   }
 
   public Cursor getConversationSnippet(long threadId) {
-    String order     = MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " DESC";
-    String selection = MmsSmsColumns.THREAD_ID + " = " + threadId;
+    SQLiteDatabase db = databaseHelper.getReadableDatabase();
+    return db.rawQuery(buildConversationQuery(null, 1), new String[] {String.valueOf(threadId)});
+  }
 
-    return  queryTables(PROJECTION, selection, order, "1");
+  /**
+   * Returns whether a message sorts first in its thread, from the message index
+   * alone, so callers can tell whether a thread's snippet is affected by it.
+   */
+  public boolean isNewestInThread(long threadId, @NonNull String transport, long messageId) {
+    SQLiteDatabase db     = databaseHelper.getReadableDatabase();
+    Cursor         cursor = null;
+
+    try {
+      cursor = db.query(INDEX_TABLE_NAME, new String[] {TRANSPORT, INDEX_MESSAGE_ID},
+                        MmsSmsColumns.THREAD_ID + " = ?", new String[] {String.valueOf(threadId)}, null, null,
+                        MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " DESC, " + TRANSPORT + " DESC, " + INDEX_MESSAGE_ID + " DESC",
+                        "1");
+
+      return cursor != null && cursor.moveToFirst() &&
+             transport.equals(cursor.getString(0)) && cursor.getLong(1) == messageId;
+    } finally {
+      if (cursor != null)
+        cursor.close();
+    }
   }
 
   public Cursor getUnread() {
@@ -109,6 +329,33 @@ public class MmsSmsDatabase extends Database {
     return queryTables(PROJECTION, selection, order, null);
   }
 
+  public Cursor getUnread(long threadId) {
+    String order           = MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " ASC";
+    String selection       = MmsSmsColumns.READ + " = 0 AND " + MmsSmsColumns.THREAD_ID + " = " + threadId;
+
+    return queryTables(PROJECTION, selection, order, null);
+  }
+
+  public Set<Long> getUnreadThreadIds() {
+    SQLiteDatabase db      = databaseHelper.getReadableDatabase();
+    Set<Long>      results = new HashSet<>();
+    Cursor         cursor  = null;
+
+    try {
+      cursor = db.rawQuery("SELECT " + MmsSmsColumns.THREAD_ID + " FROM " + SmsDatabase.TABLE_NAME +
+                           " WHERE " + MmsSmsColumns.READ + " = 0 UNION SELECT " + MmsSmsColumns.THREAD_ID +
+                           " FROM " + MmsDatabase.TABLE_NAME + " WHERE " + MmsSmsColumns.READ + " = 0", null);
+
+      while (cursor != null && cursor.moveToNext()) {
+        results.add(cursor.getLong(0));
+      }
+    } finally {
+      if (cursor != null) cursor.close();
+    }
+
+    return results;
+  }
+
   public int getConversationCount(long threadId) {
     int count = DatabaseFactory.getSmsDatabase(context).getMessageCountForThread(threadId);
     count    += DatabaseFactory.getMmsDatabase(context).getMessageCountForThread(threadId);
@@ -116,6 +363,53 @@ public class MmsSmsDatabase extends Database {
     return count;
   }
 
+  /**
+   * Builds a query for the newest {@code limit} messages of the thread bound to
+   * the first selection argument, resolved through the message index.  An
+   * additional selection on the index columns may narrow the range.
+   */
+  static String buildConversationQuery(@Nullable String selection, long limit) {
+    String order = "idx." + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " DESC, idx." + TRANSPORT + " DESC, idx." + INDEX_MESSAGE_ID + " DESC";
+
+    return "SELECT " + Util.join(INDEXED_PROJECTION, ", ") +
+           " FROM (SELECT * FROM " + INDEX_TABLE_NAME + " AS idx" +
+           " WHERE " + MmsSmsColumns.THREAD_ID + " = ?" + (selection != null ? " AND (" + selection + ")" : "") +
+           " ORDER BY " + order + (limit > 0 ? " LIMIT " + limit : "") + ") AS idx" +
+           " LEFT OUTER JOIN " + SmsDatabase.TABLE_NAME + " AS sms" +
+           " ON idx." + TRANSPORT + " = '" + SMS_TRANSPORT + "' AND sms." + MmsSmsColumns.ID + " = idx." + INDEX_MESSAGE_ID +
+           " LEFT OUTER JOIN " + MmsDatabase.TABLE_NAME + " AS mms" +
+           " ON idx." + TRANSPORT + " = '" + MMS_TRANSPORT + "' AND mms." + MmsSmsColumns.ID + " = idx." + INDEX_MESSAGE_ID +
+           " LEFT OUTER JOIN " + AttachmentDatabase.TABLE_NAME + " AS part" +
+           " ON part." + AttachmentDatabase.ROW_ID + " = idx." + INDEX_ATTACHMENT_ID +
+           " ORDER BY " + order;
+  }
+
+  /**
+   * A keyset comparison against the (date_received, transport_type, message_id)
+   * sort key, expanded rather than written as a row value so that it runs on
+   * every SQLite version we ship against.  The leading inclusive bound on the
+   * date lets the index seek straight to the anchor.
+   */
+  private static String[] getSelectionArgs(long threadId, ConversationAnchor... anchors) {
+    List<String> args = new LinkedList<>();
+    args.add(String.valueOf(threadId));
+
+    for (ConversationAnchor anchor : anchors) {
+      args.addAll(Arrays.asList(anchor.getSelectionArgs()));
+    }
+
+    return args.toArray(new String[args.size()]);
+  }
+
+  private static String buildAnchorSelection(String operator, String idOperator) {
+    String date = "idx." + MmsSmsColumns.NORMALIZED_DATE_RECEIVED;
+    String type = "idx." + TRANSPORT;
+    String id   = "idx." + INDEX_MESSAGE_ID;
+
+    return date + " " + operator + "= ? AND (" + date + " " + operator + " ? OR (" + date + " = ? AND (" +
+           type + " " + operator + " ? OR (" + type + " = ? AND " + id + " " + idOperator + " ?))))";
+  }
+
   private Cursor queryTables(String[] projection, String selection, String order, String limit) {
     String[] mmsProjection = {MmsDatabase.DATE_SENT + " AS " + MmsSmsColumns.NORMALIZED_DATE_SENT,
                               MmsDatabase.DATE_RECEIVED + " AS " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED,
@@ -259,6 +553,45 @@ public class MmsSmsDatabase extends Database {
     return new Reader(cursor);
   }
 
+  /**
+   * The sort key of a conversation row, used to page through a thread
+   * without re-reading the messages that are already loaded.
+   */
+  public static class ConversationAnchor {
+    private final long   dateReceived;
+    private final String transport;
+    private final long   messageId;
+
+    public ConversationAnchor(long dateReceived, @NonNull String transport, long messageId) {
+      this.dateReceived = dateReceived;
+      this.transport    = transport;
+      this.messageId    = messageId;
+    }
+
+    /**
+     * Returns the anchor of the last row of a conversation cursor, or null if
+     * the cursor is empty.  The cursor position is left unchanged.
+     */
+    public static @Nullable ConversationAnchor fromLastRow(@NonNull Cursor cursor) {
+      int position = cursor.getPosition();
+
+      try {
+        if (!cursor.moveToLast()) return null;
+
+        return new ConversationAnchor(cursor.getLong(cursor.getColumnIndexOrThrow(MmsSmsColumns.NORMALIZED_DATE_RECEIVED)),
+                                      cursor.getString(cursor.getColumnIndexOrThrow(TRANSPORT)),
+                                      cursor.getLong(cursor.getColumnIndexOrThrow(MmsSmsColumns.ID)));
+      } finally {
+        cursor.moveToPosition(position);
+      }
+    }
+
+    private String[] getSelectionArgs() {
+      return new String[] {String.valueOf(dateReceived), String.valueOf(dateReceived), String.valueOf(dateReceived),
+                           transport, transport, String.valueOf(messageId)};
+    }
+  }
+
   public class Reader {
 
     private final Cursor                       cursor;
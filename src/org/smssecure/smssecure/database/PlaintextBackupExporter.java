@@ -3,15 +3,19 @@ package org.smssecure.smssecure.database;
 
 import android.content.Context;
 import android.os.Environment;
+import android.util.Log;
 
 import org.smssecure.smssecure.crypto.MasterSecret;
-import org.smssecure.smssecure.database.model.SmsMessageRecord;
 
 import java.io.File;
 import java.io.IOException;
 
 public class PlaintextBackupExporter {
 
+  private static final String TAG = PlaintextBackupExporter.class.getSimpleName();
+
+  private static final int ROW_LIMIT = 500;
+
   public static void exportPlaintextToSd(Context context, MasterSecret masterSecret)
       throws NoExternalStorageException, IOException
   {
@@ -32,35 +36,35 @@ public class PlaintextBackupExporter {
   private static void exportPlaintext(Context context, MasterSecret masterSecret)
       throws IOException
   {
-    int count               = DatabaseFactory.getSmsDatabase(context).getMessageCount();
-    XmlBackup.Writer writer = new XmlBackup.Writer(getPlaintextExportDirectoryPath(), count);
+    int              count     = DatabaseFactory.getSmsDatabase(context).getMessageCount();
+    XmlBackup.Writer writer    = new XmlBackup.Writer(getPlaintextExportDirectoryPath(), count);
+    long             startTime = System.currentTimeMillis();
+    long             lastId    = -1;
+    int              exported  = 0;
 
-
-    SmsMessageRecord record;
-    EncryptingSmsDatabase.Reader reader = null;
-    int skip                            = 0;
-    int ROW_LIMIT                       = 500;
+    EncryptingSmsDatabase.ExportReader reader;
+    XmlBackup.XmlBackupItem            item;
+    int                                pageCount;
 
     do {
-      if (reader != null)
-        reader.close();
+      reader = DatabaseFactory.getEncryptingSmsDatabase(context).getExportMessages(masterSecret, lastId, ROW_LIMIT);
 
-      reader = DatabaseFactory.getEncryptingSmsDatabase(context).getMessages(masterSecret, skip, ROW_LIMIT);
+      try {
+        while ((item = reader.getNext()) != null) {
+          writer.writeItem(item);
+          exported++;
+        }
 
-      while ((record = reader.getNext()) != null) {
-        XmlBackup.XmlBackupItem item =
-            new XmlBackup.XmlBackupItem(0, record.getIndividualRecipient().getNumber(),
-                                        record.getDateReceived(),
-                                        MmsSmsColumns.Types.translateToSystemBaseType(record.getType()),
-                                        null, record.getDisplayBody().toString(), null,
-                                        1, record.getDeliveryStatus());
-
-        writer.writeItem(item);
+        lastId    = reader.getLastId();
+        pageCount = reader.getCount();
+      } finally {
+        reader.close();
       }
-
-      skip += ROW_LIMIT;
-    } while (reader.getCount() > 0);
+    } while (pageCount == ROW_LIMIT);
 
     writer.close();
+
+    long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+    Log.w(TAG, "Exported " + exported + " messages in " + elapsed + "ms (" + (exported * 1000L / elapsed) + "/s)");
   }
 }
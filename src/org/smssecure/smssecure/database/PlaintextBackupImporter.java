@@ -1,22 +1,18 @@
 package org.smssecure.smssecure.database;
 
 import android.content.Context;
-import android.database.sqlite.SQLiteDatabase;
-import android.database.sqlite.SQLiteStatement;
 import android.os.Environment;
 import android.util.Log;
 
-import org.smssecure.smssecure.crypto.MasterCipher;
 import org.smssecure.smssecure.crypto.MasterSecret;
 import org.smssecure.smssecure.recipients.RecipientFactory;
-import org.smssecure.smssecure.recipients.RecipientFormattingException;
 import org.smssecure.smssecure.recipients.Recipients;
 import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.HashMap;
+import java.util.Map;
 
 
 public class PlaintextBackupImporter {
@@ -54,50 +50,39 @@ public class PlaintextBackupImporter {
     throw new NoExternalStorageException();
   }
 
-  private static void importPlaintext(Context context, MasterSecret masterSecret, String path)
+  static void importPlaintext(Context context, MasterSecret masterSecret, String path)
       throws IOException
   {
     Log.w("PlaintextBackupImporter", "importPlaintext()");
-    SmsDatabase    db          = DatabaseFactory.getSmsDatabase(context);
-    SQLiteDatabase transaction = db.beginTransaction();
+    ThreadDatabase    threads   = DatabaseFactory.getThreadDatabase(context);
+    Map<String, Long> threadIds = new HashMap<>();
+    BulkSmsInserter   inserter  = DatabaseFactory.getSmsDatabase(context).createBulkInserter(masterSecret);
+    long              startTime = System.currentTimeMillis();
 
     try {
-      ThreadDatabase threads         = DatabaseFactory.getThreadDatabase(context);
-      XmlBackup      backup          = new XmlBackup(path);
-      MasterCipher   masterCipher    = new MasterCipher(masterSecret);
-      Set<Long>      modifiedThreads = new HashSet<Long>();
+      XmlBackup backup = new XmlBackup(path);
       XmlBackup.XmlBackupItem item;
 
       while ((item = backup.getNext()) != null) {
-        Recipients      recipients = RecipientFactory.getRecipientsFromString(context, item.getAddress(), false);
-        long            threadId   = threads.getThreadIdFor(recipients);
-        SQLiteStatement statement  = db.createInsertStatement(transaction);
-
         if (item.getAddress() == null || item.getAddress().equals("null"))
           continue;
 
         if (!isAppropriateTypeForImport(item.getType()))
           continue;
 
-        addStringToStatement(statement, 1, item.getAddress());
-        addNullToStatement(statement, 2);
-        addLongToStatement(statement, 3, item.getDate());
-        addLongToStatement(statement, 4, item.getDate());
-        addLongToStatement(statement, 5, item.getProtocol());
-        addLongToStatement(statement, 6, item.getRead());
-        addLongToStatement(statement, 7, item.getStatus());
-        addTranslatedTypeToStatement(statement, 8, item.getType());
-        addNullToStatement(statement, 9);
-        addStringToStatement(statement, 10, item.getSubject());
-        addEncryptedStingToStatement(masterCipher, statement, 11, item.getBody());
-        addStringToStatement(statement, 12, item.getServiceCenter());
-        addLongToStatement(statement, 13, threadId);
-        modifiedThreads.add(threadId);
-        statement.execute();
-      }
+        Long threadId = threadIds.get(item.getAddress());
 
-      for (long threadId : modifiedThreads) {
-        threads.update(threadId, true);
+        if (threadId == null) {
+          Recipients recipients = RecipientFactory.getRecipientsFromString(context, item.getAddress(), false);
+          threadId = threads.getThreadIdFor(recipients);
+          threadIds.put(item.getAddress(), threadId);
+        }
+
+        inserter.add(new BulkSmsInserter.Row(item.getAddress(), null, item.getDate(), item.getDate(),
+                                             (long)item.getProtocol(), (long)item.getRead(), (long)item.getStatus(),
+                                             getTranslatedType(item.getType()), null,
+                                             getString(item.getSubject()), getString(item.getBody()),
+                                             getString(item.getServiceCenter()), threadId));
       }
 
       Log.w("PlaintextBackupImporter", "Exited loop");
@@ -105,33 +90,22 @@ public class PlaintextBackupImporter {
       Log.w("PlaintextBackupImporter", e);
       throw new IOException("XML Parsing error!");
     } finally {
-      db.endTransaction(transaction);
-    }
-  }
-
-  private static void addEncryptedStingToStatement(MasterCipher masterCipher, SQLiteStatement statement, int index, String value) {
-    if (value == null || value.equals("null")) {
-      statement.bindNull(index);
-    } else {
-      statement.bindString(index, masterCipher.encryptBody(value));
+      for (long threadId : inserter.finish()) {
+        threads.update(threadId, true);
+      }
     }
-  }
-
-  private static void addTranslatedTypeToStatement(SQLiteStatement statement, int index, int type) {
-    statement.bindLong(index, SmsDatabase.Types.translateFromSystemBaseType(type) | SmsDatabase.Types.ENCRYPTION_SYMMETRIC_BIT);
-  }
 
-  private static void addStringToStatement(SQLiteStatement statement, int index, String value) {
-    if (value == null || value.equals("null")) statement.bindNull(index);
-    else                                       statement.bindString(index, value);
+    Log.w(TAG, "Imported " + inserter.getInsertedCount() + " messages in " +
+               (System.currentTimeMillis() - startTime) + "ms");
   }
 
-  private static void addNullToStatement(SQLiteStatement statement, int index) {
-    statement.bindNull(index);
+  private static long getTranslatedType(int type) {
+    return SmsDatabase.Types.translateFromSystemBaseType(type) | SmsDatabase.Types.ENCRYPTION_SYMMETRIC_BIT;
   }
 
-  private static void addLongToStatement(SQLiteStatement statement, int index, long value) {
-    statement.bindLong(index, value);
+  private static String getString(String value) {
+    if (value == null || value.equals("null")) return null;
+    else                                       return value;
   }
 
   private static boolean isAppropriateTypeForImport(long theirType) {
@@ -0,0 +1,181 @@
+package org.smssecure.smssecure.database;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches decrypted message bodies by table and row id.
+ *
+ * The cache is split into independently locked stripes, each an LRU bounded
+ * by the number of plaintext bytes it holds.  Every entry remembers a cheap
+ * fingerprint of the ciphertext it was decrypted from (its length and the
+ * trailing MAC characters), so a row whose body was rewritten or whose id was
+ * reused is treated as a miss rather than returning stale plaintext.
+ *
+ * The cache must be cleared whenever the master secret is.
+ */
+public class PlaintextCache {
+
+  public static final int SMS = 0;
+  public static final int MMS = 1;
+
+  private static final int STRIPE_BITS       = 4;
+  private static final int STRIPES           = 1 << STRIPE_BITS;
+  private static final int MAX_BYTES         = 1024 * 1024;
+  private static final int ENTRY_OVERHEAD    = 64;
+  private static final int FINGERPRINT_CHARS = 16;
+
+  private static final PlaintextCache instance = new PlaintextCache(MAX_BYTES);
+
+  private final Stripe[]   stripes   = new Stripe[STRIPES];
+  private final AtomicLong hits      = new AtomicLong();
+  private final AtomicLong misses    = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  public static PlaintextCache getInstance() {
+    return instance;
+  }
+
+  PlaintextCache(int maxBytes) {
+    for (int i=0;i<STRIPES;i++) {
+      stripes[i] = new Stripe(maxBytes / STRIPES);
+    }
+  }
+
+  public @Nullable String get(int table, long id, @NonNull String ciphertext) {
+    long   key    = getKey(table, id);
+    Stripe stripe = getStripe(key);
+    Entry  entry;
+
+    synchronized (stripe) {
+      entry = stripe.entries.get(key);
+    }
+
+    if (entry != null && entry.fingerprint == getFingerprint(ciphertext)) {
+      hits.incrementAndGet();
+      return entry.plaintext;
+    }
+
+    misses.incrementAndGet();
+    return null;
+  }
+
+  public void put(int table, long id, @NonNull String ciphertext, @NonNull String plaintext) {
+    long   key    = getKey(table, id);
+    Stripe stripe = getStripe(key);
+    Entry  entry  = new Entry(plaintext, getFingerprint(ciphertext));
+
+    synchronized (stripe) {
+      Entry previous = stripe.entries.put(key, entry);
+
+      if (previous != null) stripe.bytes -= previous.weight;
+      stripe.bytes += entry.weight;
+
+      Iterator<Entry> iterator = stripe.entries.values().iterator();
+
+      while (stripe.bytes > stripe.maxBytes && iterator.hasNext()) {
+        Entry eldest = iterator.next();
+
+        if (eldest == entry) break;
+
+        iterator.remove();
+        stripe.bytes -= eldest.weight;
+        evictions.incrementAndGet();
+      }
+    }
+  }
+
+  public void remove(int table, long id) {
+    long   key    = getKey(table, id);
+    Stripe stripe = getStripe(key);
+
+    synchronized (stripe) {
+      Entry removed = stripe.entries.remove(key);
+      if (removed != null) stripe.bytes -= removed.weight;
+    }
+  }
+
+  public void clear() {
+    for (Stripe stripe : stripes) {
+      synchronized (stripe) {
+        stripe.entries.clear();
+        stripe.bytes = 0;
+      }
+    }
+  }
+
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  public long getEvictionCount() {
+    return evictions.get();
+  }
+
+  public long getSize() {
+    long size = 0;
+
+    for (Stripe stripe : stripes) {
+      synchronized (stripe) {
+        size += stripe.bytes;
+      }
+    }
+
+    return size;
+  }
+
+  @Override
+  public String toString() {
+    return "PlaintextCache[bytes=" + getSize() + ", hits=" + getHitCount() +
+           ", misses=" + getMissCount() + ", evictions=" + getEvictionCount() + "]";
+  }
+
+  private Stripe getStripe(long key) {
+    return stripes[(int)((key * 0x9E3779B97F4A7C15L) >>> (64 - STRIPE_BITS))];
+  }
+
+  private static long getKey(int table, long id) {
+    return (id << 1) | table;
+  }
+
+  private static long getFingerprint(@NonNull String ciphertext) {
+    long fingerprint = ciphertext.length();
+
+    for (int i=Math.max(0, ciphertext.length() - FINGERPRINT_CHARS);i<ciphertext.length();i++) {
+      fingerprint = 31 * fingerprint + ciphertext.charAt(i);
+    }
+
+    return fingerprint;
+  }
+
+  private static class Entry {
+    private final String plaintext;
+    private final long   fingerprint;
+    private final int    weight;
+
+    private Entry(String plaintext, long fingerprint) {
+      this.plaintext   = plaintext;
+      this.fingerprint = fingerprint;
+      this.weight      = plaintext.length() * 2 + ENTRY_OVERHEAD;
+    }
+  }
+
+  private static class Stripe {
+    private final Map<Long, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final int              maxBytes;
+    private       long             bytes;
+
+    private Stripe(int maxBytes) {
+      this.maxBytes = maxBytes;
+    }
+  }
+}
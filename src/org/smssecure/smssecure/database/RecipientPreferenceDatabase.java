@@ -16,6 +16,13 @@ import org.smssecure.smssecure.util.Util;
 import org.whispersystems.libaxolotl.util.guava.Optional;
 
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 
 public class RecipientPreferenceDatabase extends Database {
@@ -90,30 +97,11 @@ public class RecipientPreferenceDatabase extends Database {
                               null, null, null);
 
       if (cursor != null && cursor.moveToNext()) {
-        boolean blocked               = cursor.getInt(cursor.getColumnIndexOrThrow(BLOCK))                == 1;
-        String  notification          = cursor.getString(cursor.getColumnIndexOrThrow(NOTIFICATION));
-        int     vibrateState          = cursor.getInt(cursor.getColumnIndexOrThrow(VIBRATE));
-        long    muteUntil             = cursor.getLong(cursor.getColumnIndexOrThrow(MUTE_UNTIL));
-        String  serializedColor       = cursor.getString(cursor.getColumnIndexOrThrow(COLOR));
-        Uri     notificationUri       = notification == null ? null : Uri.parse(notification);
-        boolean seenInviteReminder    = cursor.getInt(cursor.getColumnIndexOrThrow(SEEN_INVITE_REMINDER)) == 1;
-        int     defaultSubscriptionId = cursor.getInt(cursor.getColumnIndexOrThrow(DEFAULT_SUBSCRIPTION_ID));
-
-        MaterialColor color;
-
-        try {
-          color = serializedColor == null ? null : MaterialColor.fromSerialized(serializedColor);
-        } catch (MaterialColor.UnknownColorException e) {
-          Log.w(TAG, e);
-          color = null;
-        }
+        RecipientsPreferences preferences = getRecipientsPreferences(cursor);
 
-        Log.w(TAG, "Muted until: " + muteUntil);
+        Log.w(TAG, "Muted until: " + preferences.getMuteUntil());
 
-        return Optional.of(new RecipientsPreferences(blocked, muteUntil,
-                                                     VibrateState.fromId(vibrateState),
-                                                     notificationUri, color, seenInviteReminder,
-                                                     defaultSubscriptionId));
+        return Optional.of(preferences);
       }
 
       return Optional.absent();
@@ -122,6 +110,78 @@ public class RecipientPreferenceDatabase extends Database {
     }
   }
 
+  /**
+   * Loads the preferences of many recipient lists in batched queries.
+   *
+   * @return the preferences that exist, keyed by each list's sorted ids
+   *         joined with spaces.
+   */
+  public @NonNull Map<String, RecipientsPreferences> getRecipientsPreferences(@NonNull Collection<long[]> recipients) {
+    Map<String, RecipientsPreferences> results = new HashMap<>();
+    Set<String>                        keys    = new HashSet<>();
+
+    for (long[] ids : recipients) {
+      long[] sorted = ids.clone();
+      Arrays.sort(sorted);
+      keys.add(Util.join(sorted, " "));
+    }
+
+    if (keys.isEmpty()) return results;
+
+    SQLiteDatabase database = databaseHelper.getReadableDatabase();
+
+    for (List<String> partition : Util.partition(new LinkedList<>(keys), 900)) {
+      StringBuilder selection = new StringBuilder(RECIPIENT_IDS + " IN (");
+      Cursor        cursor    = null;
+
+      for (int i=0;i<partition.size();i++) {
+        selection.append(i == 0 ? "?" : ", ?");
+      }
+
+      selection.append(")");
+
+      try {
+        cursor = database.query(TABLE_NAME, null, selection.toString(),
+                                partition.toArray(new String[partition.size()]),
+                                null, null, null);
+
+        while (cursor != null && cursor.moveToNext()) {
+          results.put(cursor.getString(cursor.getColumnIndexOrThrow(RECIPIENT_IDS)),
+                      getRecipientsPreferences(cursor));
+        }
+      } finally {
+        if (cursor != null) cursor.close();
+      }
+    }
+
+    return results;
+  }
+
+  private @NonNull RecipientsPreferences getRecipientsPreferences(@NonNull Cursor cursor) {
+    boolean blocked               = cursor.getInt(cursor.getColumnIndexOrThrow(BLOCK))                == 1;
+    String  notification          = cursor.getString(cursor.getColumnIndexOrThrow(NOTIFICATION));
+    int     vibrateState          = cursor.getInt(cursor.getColumnIndexOrThrow(VIBRATE));
+    long    muteUntil             = cursor.getLong(cursor.getColumnIndexOrThrow(MUTE_UNTIL));
+    String  serializedColor       = cursor.getString(cursor.getColumnIndexOrThrow(COLOR));
+    Uri     notificationUri       = notification == null ? null : Uri.parse(notification);
+    boolean seenInviteReminder    = cursor.getInt(cursor.getColumnIndexOrThrow(SEEN_INVITE_REMINDER)) == 1;
+    int     defaultSubscriptionId = cursor.getInt(cursor.getColumnIndexOrThrow(DEFAULT_SUBSCRIPTION_ID));
+
+    MaterialColor color;
+
+    try {
+      color = serializedColor == null ? null : MaterialColor.fromSerialized(serializedColor);
+    } catch (MaterialColor.UnknownColorException e) {
+      Log.w(TAG, e);
+      color = null;
+    }
+
+    return new RecipientsPreferences(blocked, muteUntil,
+                                     VibrateState.fromId(vibrateState),
+                                     notificationUri, color, seenInviteReminder,
+                                     defaultSubscriptionId);
+  }
+
   public void setColor(Recipients recipients, MaterialColor color) {
     ContentValues values = new ContentValues();
     values.put(COLOR, color.serialize());
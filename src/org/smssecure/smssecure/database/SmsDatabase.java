@@ -28,10 +28,12 @@ import android.util.Log;
 import android.util.Pair;
 
 import org.smssecure.smssecure.ApplicationContext;
+import org.smssecure.smssecure.crypto.MasterSecret;
 import org.smssecure.smssecure.database.documents.IdentityKeyMismatch;
 import org.smssecure.smssecure.database.documents.IdentityKeyMismatchList;
 import org.smssecure.smssecure.database.model.DisplayRecord;
 import org.smssecure.smssecure.database.model.SmsMessageRecord;
+import org.smssecure.smssecure.jobs.JobScheduler;
 import org.smssecure.smssecure.jobs.TrimThreadJob;
 import org.smssecure.smssecure.recipients.Recipient;
 import org.smssecure.smssecure.recipients.RecipientFactory;
@@ -43,10 +45,9 @@ import org.smssecure.smssecure.sms.IncomingTextMessage;
 import org.smssecure.smssecure.sms.OutgoingTextMessage;
 import org.smssecure.smssecure.util.InvalidNumberException;
 import org.smssecure.smssecure.util.JsonUtils;
-import org.whispersystems.jobqueue.JobManager;
 
 import java.io.IOException;
-import java.util.LinkedList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 
@@ -98,7 +99,11 @@ public class SmsDatabase extends MessagingDatabase {
       MISMATCHED_IDENTITIES, SUBSCRIPTION_ID
   };
 
-  private final JobManager jobManager;
+  static final String[] EXPORT_PROJECTION = new String[] {
+      ID, ADDRESS, DATE_RECEIVED + " AS " + NORMALIZED_DATE_RECEIVED, STATUS, TYPE, BODY
+  };
+
+  private final JobScheduler jobManager;
 
   public SmsDatabase(Context context, SQLiteOpenHelper databaseHelper) {
     super(context, databaseHelper);
@@ -119,7 +124,7 @@ public class SmsDatabase extends MessagingDatabase {
 
     long threadId = getThreadIdForMessage(id);
 
-    DatabaseFactory.getThreadDatabase(context).update(threadId, false);
+    DatabaseFactory.getThreadDatabase(context).updateForChange(threadId, MmsSmsDatabase.SMS_TRANSPORT, id, false);
     notifyConversationListeners(threadId);
   }
 
@@ -273,7 +278,7 @@ public class SmsDatabase extends MessagingDatabase {
     db.update(TABLE_NAME, contentValues, ID_WHERE, new String[] {id+""});
 
     long threadId = getThreadIdForMessage(id);
-    DatabaseFactory.getThreadDatabase(context).update(threadId, false);
+    DatabaseFactory.getThreadDatabase(context).updateForChange(threadId, MmsSmsDatabase.SMS_TRANSPORT, id, false);
     notifyConversationListeners(threadId);
   }
 
@@ -308,7 +313,7 @@ public class SmsDatabase extends MessagingDatabase {
 
     long threadId = getThreadIdForMessage(messageId);
 
-    DatabaseFactory.getThreadDatabase(context).update(threadId, true);
+    DatabaseFactory.getThreadDatabase(context).updateForChange(threadId, MmsSmsDatabase.SMS_TRANSPORT, messageId, true);
     notifyConversationListeners(threadId);
     notifyConversationListListeners();
 
@@ -334,7 +339,7 @@ public class SmsDatabase extends MessagingDatabase {
     SQLiteDatabase db           = databaseHelper.getWritableDatabase();
     long           newMessageId = db.insert(TABLE_NAME, null, contentValues);
 
-    DatabaseFactory.getThreadDatabase(context).update(record.getThreadId(), true);
+    updateThreadForInsert(record.getThreadId(), newMessageId, contentValues);
     notifyConversationListeners(record.getThreadId());
 
     jobManager.add(new TrimThreadJob(context, record.getThreadId()));
@@ -419,7 +424,7 @@ public class SmsDatabase extends MessagingDatabase {
       DatabaseFactory.getThreadDatabase(context).setUnread(threadId);
     }
 
-    DatabaseFactory.getThreadDatabase(context).update(threadId, true);
+    updateThreadForInsert(threadId, messageId, values);
     notifyConversationListeners(threadId);
     jobManager.add(new TrimThreadJob(context, threadId));
 
@@ -452,16 +457,34 @@ public class SmsDatabase extends MessagingDatabase {
     SQLiteDatabase db        = databaseHelper.getWritableDatabase();
     long           messageId = db.insert(TABLE_NAME, ADDRESS, contentValues);
 
-    DatabaseFactory.getThreadDatabase(context).update(threadId, true);
+    updateThreadForInsert(threadId, messageId, contentValues);
     notifyConversationListeners(threadId);
     jobManager.add(new TrimThreadJob(context, threadId));
 
     return messageId;
   }
 
-  Cursor getMessages(int skip, int limit) {
+  private void updateThreadForInsert(long threadId, long messageId, ContentValues values) {
+    if (messageId == -1) return;
+
+    Integer status = values.getAsInteger(STATUS);
+
+    DatabaseFactory.getThreadDatabase(context).updateForInsert(threadId, MmsSmsDatabase.SMS_TRANSPORT, messageId,
+                                                               values.getAsString(BODY),
+                                                               values.getAsLong(DATE_SENT),
+                                                               values.getAsLong(DATE_RECEIVED),
+                                                               status != null ? status : Status.STATUS_NONE,
+                                                               values.getAsLong(TYPE), true);
+  }
+
+  /**
+   * Pages through every message in _id order, starting after afterId, with
+   * only the columns a plaintext export writes.
+   */
+  Cursor getExportMessages(long afterId, int limit) {
     SQLiteDatabase db = databaseHelper.getReadableDatabase();
-    return db.query(TABLE_NAME, MESSAGE_PROJECTION, null, null, null, null, ID, skip + "," + limit);
+    return db.query(TABLE_NAME, EXPORT_PROJECTION, ID + " > ?", new String[] {String.valueOf(afterId)},
+                    null, null, ID, String.valueOf(limit));
   }
 
   Cursor getOutgoingMessages() {
@@ -496,8 +519,10 @@ public class SmsDatabase extends MessagingDatabase {
     Log.w("MessageDatabase", "Deleting: " + messageId);
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
     long threadId     = getThreadIdForMessage(messageId);
+    boolean wasNewest = DatabaseFactory.getMmsSmsDatabase(context).isNewestInThread(threadId, MmsSmsDatabase.SMS_TRANSPORT, messageId);
     db.delete(TABLE_NAME, ID_WHERE, new String[] {messageId+""});
-    boolean threadDeleted = DatabaseFactory.getThreadDatabase(context).update(threadId, false);
+    PlaintextCache.getInstance().remove(PlaintextCache.SMS, messageId);
+    boolean threadDeleted = DatabaseFactory.getThreadDatabase(context).updateForDelete(threadId, wasNewest);
     notifyConversationListeners(threadId);
     return threadDeleted;
   }
@@ -538,18 +563,11 @@ public class SmsDatabase extends MessagingDatabase {
     db.delete(TABLE_NAME, null, null);
   }
 
-  /*package*/ SQLiteDatabase beginTransaction() {
-    SQLiteDatabase database = databaseHelper.getWritableDatabase();
-    database.beginTransaction();
-    return database;
+  /*package*/ BulkSmsInserter createBulkInserter(MasterSecret masterSecret) {
+    return new BulkSmsInserter(databaseHelper.getWritableDatabase(), masterSecret);
   }
 
-  /*package*/ void endTransaction(SQLiteDatabase database) {
-    database.setTransactionSuccessful();
-    database.endTransaction();
-  }
-
-  /*package*/ SQLiteStatement createInsertStatement(SQLiteDatabase database) {
+  /*package*/ static SQLiteStatement createInsertStatement(SQLiteDatabase database) {
     return database.compileStatement("INSERT INTO " + TABLE_NAME + " (" + ADDRESS + ", " +
                                                                       PERSON + ", " +
                                                                       DATE_SENT + ", " +
@@ -622,18 +640,11 @@ public class SmsDatabase extends MessagingDatabase {
     }
 
     private Recipients getRecipientsFor(String address) {
-      if (address != null) {
-        Recipients recipients = RecipientFactory.getRecipientsFromString(context, address, true);
-
-        if (recipients == null || recipients.isEmpty()) {
-          return RecipientFactory.getRecipientsFor(context, Recipient.getUnknownRecipient(), true);
-        }
-
-        return recipients;
-      } else {
+      if (address == null) {
         Log.w(TAG, "getRecipientsFor() address is null");
-        return RecipientFactory.getRecipientsFor(context, Recipient.getUnknownRecipient(), true);
       }
+
+      return CursorRecipients.forAddresses(context, cursor, SmsDatabase.ADDRESS).get(cursor, address);
     }
 
     private List<IdentityKeyMismatch> getMismatches(String document) {
@@ -645,7 +656,7 @@ public class SmsDatabase extends MessagingDatabase {
         Log.w(TAG, e);
       }
 
-      return new LinkedList<>();
+      return Collections.emptyList();
     }
 
     protected DisplayRecord.Body getBody(Cursor cursor) {
@@ -18,16 +18,12 @@ package org.smssecure.smssecure.database;
 
 import android.content.Context;
 import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
-import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
 import android.util.Log;
 
-import org.smssecure.smssecure.crypto.MasterCipher;
 import org.smssecure.smssecure.crypto.MasterSecret;
 import org.smssecure.smssecure.recipients.RecipientFactory;
-import org.smssecure.smssecure.recipients.RecipientFormattingException;
 import org.smssecure.smssecure.recipients.Recipients;
 
 import java.util.StringTokenizer;
@@ -36,53 +32,30 @@ public class SmsMigrator {
 
   private static final String TAG = SmsMigrator.class.getSimpleName();
 
-  private static void addEncryptedStringToStatement(Context context, SQLiteStatement statement,
-                                                    Cursor cursor, MasterSecret masterSecret,
-                                                    int index, String key)
-  {
-    int columnIndex = cursor.getColumnIndexOrThrow(key);
-
-    if (cursor.isNull(columnIndex)) {
-      statement.bindNull(index);
-    } else {
-      statement.bindString(index, encrypt(masterSecret, cursor.getString(columnIndex)));
-    }
-  }
+  private static final int PROGRESS_INTERVAL = 100;
 
-  private static void addStringToStatement(SQLiteStatement statement, Cursor cursor,
-                                           int index, String key)
-  {
+  private static String getString(Cursor cursor, String key) {
     int columnIndex = cursor.getColumnIndexOrThrow(key);
 
-    if (cursor.isNull(columnIndex)) {
-      statement.bindNull(index);
-    } else {
-      statement.bindString(index, cursor.getString(columnIndex));
-    }
+    if (cursor.isNull(columnIndex)) return null;
+    else                            return cursor.getString(columnIndex);
   }
 
-  private static void addIntToStatement(SQLiteStatement statement, Cursor cursor,
-                                        int index, String key)
-  {
+  private static Long getLong(Cursor cursor, String key) {
     int columnIndex = cursor.getColumnIndexOrThrow(key);
 
-    if (cursor.isNull(columnIndex)) {
-      statement.bindNull(index);
-    } else {
-      statement.bindLong(index, cursor.getLong(columnIndex));
-    }
+    if (cursor.isNull(columnIndex)) return null;
+    else                            return cursor.getLong(columnIndex);
   }
 
-  private static void addTranslatedTypeToStatement(SQLiteStatement statement, Cursor cursor,
-                                                   int index, String key)
-  {
+  private static long getTranslatedType(Cursor cursor, String key) {
     int columnIndex = cursor.getColumnIndexOrThrow(key);
 
     if (cursor.isNull(columnIndex)) {
-      statement.bindLong(index, SmsDatabase.Types.BASE_INBOX_TYPE | SmsDatabase.Types.ENCRYPTION_SYMMETRIC_BIT);
+      return SmsDatabase.Types.BASE_INBOX_TYPE | SmsDatabase.Types.ENCRYPTION_SYMMETRIC_BIT;
     } else {
       long theirType = cursor.getLong(columnIndex);
-      statement.bindLong(index, SmsDatabase.Types.translateFromSystemBaseType(theirType) | SmsDatabase.Types.ENCRYPTION_SYMMETRIC_BIT);
+      return SmsDatabase.Types.translateFromSystemBaseType(theirType) | SmsDatabase.Types.ENCRYPTION_SYMMETRIC_BIT;
     }
   }
 
@@ -95,24 +68,21 @@ public class SmsMigrator {
            ourType == MmsSmsColumns.Types.BASE_SENT_FAILED_TYPE;
   }
 
-  private static void getContentValuesForRow(Context context, MasterSecret masterSecret,
-                                             Cursor cursor, long threadId,
-                                             SQLiteStatement statement)
-  {
-    addStringToStatement(statement, cursor, 1, SmsDatabase.ADDRESS);
-    addIntToStatement(statement, cursor, 2, SmsDatabase.PERSON);
-    addIntToStatement(statement, cursor, 3, SmsDatabase.DATE_RECEIVED);
-    addIntToStatement(statement, cursor, 4, SmsDatabase.DATE_RECEIVED);
-    addIntToStatement(statement, cursor, 5, SmsDatabase.PROTOCOL);
-    addIntToStatement(statement, cursor, 6, SmsDatabase.READ);
-    addIntToStatement(statement, cursor, 7, SmsDatabase.STATUS);
-    addTranslatedTypeToStatement(statement, cursor, 8, SmsDatabase.TYPE);
-    addIntToStatement(statement, cursor, 9, SmsDatabase.REPLY_PATH_PRESENT);
-    addStringToStatement(statement, cursor, 10, SmsDatabase.SUBJECT);
-    addEncryptedStringToStatement(context, statement, cursor, masterSecret, 11, SmsDatabase.BODY);
-    addStringToStatement(statement, cursor, 12, SmsDatabase.SERVICE_CENTER);
-
-    statement.bindLong(13, threadId);
+  private static BulkSmsInserter.Row getRow(Cursor cursor, long threadId) {
+    long date = cursor.getLong(cursor.getColumnIndexOrThrow(SmsDatabase.DATE_RECEIVED));
+
+    return new BulkSmsInserter.Row(getString(cursor, SmsDatabase.ADDRESS),
+                                   getLong(cursor, SmsDatabase.PERSON),
+                                   date, date,
+                                   getLong(cursor, SmsDatabase.PROTOCOL),
+                                   getLong(cursor, SmsDatabase.READ),
+                                   getLong(cursor, SmsDatabase.STATUS),
+                                   getTranslatedType(cursor, SmsDatabase.TYPE),
+                                   getLong(cursor, SmsDatabase.REPLY_PATH_PRESENT),
+                                   getString(cursor, SmsDatabase.SUBJECT),
+                                   getString(cursor, SmsDatabase.BODY),
+                                   getString(cursor, SmsDatabase.SERVICE_CENTER),
+                                   threadId);
   }
 
   private static String getTheirCanonicalAddress(Context context, String theirRecipientId) {
@@ -157,19 +127,12 @@ public class SmsMigrator {
     else                  return RecipientFactory.getRecipientsFromString(context, sb.toString(), true);
   }
 
-  private static String encrypt(MasterSecret masterSecret, String body)
-  {
-    MasterCipher masterCipher = new MasterCipher(masterSecret);
-    return masterCipher.encryptBody(body);
-  }
-
-  private static void migrateConversation(Context context, MasterSecret masterSecret,
+  private static void migrateConversation(Context context, BulkSmsInserter inserter,
                                           SmsMigrationProgressListener listener,
                                           ProgressDescription progress,
                                           long theirThreadId, long ourThreadId)
   {
-    SmsDatabase ourSmsDatabase = DatabaseFactory.getSmsDatabase(context);
-    Cursor cursor              = null;
+    Cursor cursor = null;
 
     try {
       Uri uri = Uri.parse("content://sms/conversations/" + theirThreadId);
@@ -182,24 +145,17 @@ public class SmsMigrator {
         return;
       }
 
-      SQLiteDatabase transaction = ourSmsDatabase.beginTransaction();
-      SQLiteStatement statement  = ourSmsDatabase.createInsertStatement(transaction);
-
       while (cursor != null && cursor.moveToNext()) {
         int typeColumn = cursor.getColumnIndex(SmsDatabase.TYPE);
 
         if (cursor.isNull(typeColumn) || isAppropriateTypeForMigration(cursor, typeColumn)) {
-          getContentValuesForRow(context, masterSecret, cursor, ourThreadId, statement);
-          statement.execute();
+          inserter.add(getRow(cursor, ourThreadId));
         }
 
-        listener.progressUpdate(new ProgressDescription(progress, cursor.getCount(), cursor.getPosition()));
+        if (cursor.getPosition() % PROGRESS_INTERVAL == 0 || cursor.isLast()) {
+          listener.progressUpdate(new ProgressDescription(progress, cursor.getCount(), cursor.getPosition()));
+        }
       }
-
-      ourSmsDatabase.endTransaction(transaction);
-      DatabaseFactory.getThreadDatabase(context).update(ourThreadId, true);
-      DatabaseFactory.getThreadDatabase(context).notifyConversationListeners(ourThreadId);
-
     } finally {
       if (cursor != null)
         cursor.close();
@@ -213,8 +169,9 @@ public class SmsMigrator {
 //    if (context.getSharedPreferences("SecureSMS", Context.MODE_PRIVATE).getBoolean("migrated", false))
 //      return;
 
-    ThreadDatabase threadDatabase = DatabaseFactory.getThreadDatabase(context);
-    Cursor cursor                 = null;
+    ThreadDatabase  threadDatabase = DatabaseFactory.getThreadDatabase(context);
+    BulkSmsInserter inserter       = DatabaseFactory.getSmsDatabase(context).createBulkInserter(masterSecret);
+    Cursor          cursor         = null;
 
     try {
       Uri threadListUri = Uri.parse("content://mms-sms/conversations?simple=true");
@@ -228,7 +185,7 @@ public class SmsMigrator {
 
         if (ourRecipients != null) {
           long ourThreadId = threadDatabase.getThreadIdFor(ourRecipients);
-          migrateConversation(context, masterSecret,
+          migrateConversation(context, inserter,
                               listener, progress,
                               theirThreadId, ourThreadId);
         }
@@ -239,6 +196,11 @@ public class SmsMigrator {
     } finally {
       if (cursor != null)
         cursor.close();
+
+      for (long threadId : inserter.finish()) {
+        threadDatabase.update(threadId, true);
+        threadDatabase.notifyConversationListeners(threadId);
+      }
     }
 
     context.getSharedPreferences("SecureSMS", Context.MODE_PRIVATE).edit()
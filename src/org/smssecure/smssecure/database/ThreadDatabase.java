@@ -19,10 +19,10 @@ package org.smssecure.smssecure.database;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
-import android.database.MergeCursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.net.Uri;
+import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.text.TextUtils;
 import android.util.Log;
@@ -38,12 +38,11 @@ import org.smssecure.smssecure.mms.SlideDeck;
 import org.smssecure.smssecure.recipients.Recipient;
 import org.smssecure.smssecure.recipients.RecipientFactory;
 import org.smssecure.smssecure.recipients.Recipients;
-import org.smssecure.smssecure.util.Util;
+import org.smssecure.smssecure.util.SMSSecurePreferences;
 import org.whispersystems.libaxolotl.InvalidMessageException;
 
 import java.util.Arrays;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 
@@ -131,17 +130,8 @@ public class ThreadDatabase extends Database {
 
   private void updateThread(long threadId, long count, String body, @Nullable Uri attachment,
                             long date, int status, long type, boolean unarchive)  {
-    ContentValues contentValues = new ContentValues(6);
-    contentValues.put(DATE, date - date % 1000);
+    ContentValues contentValues = getSnippetValues(body, attachment, date, status, type, unarchive);
     contentValues.put(MESSAGE_COUNT, count);
-    contentValues.put(SNIPPET, body);
-    contentValues.put(SNIPPET_URI, attachment == null ? null : attachment.toString());
-    contentValues.put(SNIPPET_TYPE, type);
-    contentValues.put(STATUS, status);
-
-    if (unarchive) {
-      contentValues.put(ARCHIVED, 0);
-    }
 
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
     db.update(TABLE_NAME, contentValues, ID + " = ?", new String[] {threadId + ""});
@@ -219,9 +209,11 @@ public class ThreadDatabase extends Database {
     Cursor cursor = null;
 
     try {
-      cursor = DatabaseFactory.getMmsSmsDatabase(context).getConversation(threadId);
+      if (length <= 0) return;
 
-      if (cursor != null && length > 0 && cursor.getCount() > length) {
+      cursor = DatabaseFactory.getMmsSmsDatabase(context).getConversation(threadId, length + 1);
+
+      if (cursor != null && cursor.getCount() > length) {
         Log.w("ThreadDatabase", "Cursor count is greater than length!");
         cursor.moveToPosition(length - 1);
 
@@ -287,31 +279,24 @@ public class ThreadDatabase extends Database {
     if (filter == null || filter.size() == 0)
       return null;
 
-    List<Long> rawRecipientIds = DatabaseFactory.getAddressDatabase(context).getCanonicalAddressIds(filter);
+    Set<Long> recipientIds = DatabaseFactory.getAddressDatabase(context).getExistingCanonicalAddressIds(filter);
 
-    if (rawRecipientIds == null || rawRecipientIds.size() == 0)
+    if (recipientIds.isEmpty())
       return null;
 
-    SQLiteDatabase   db                      = databaseHelper.getReadableDatabase();
-    List<List<Long>> partitionedRecipientIds = Util.partition(rawRecipientIds, 900);
-    List<Cursor>     cursors                 = new LinkedList<>();
+    // The ids are our own longs, so they're inlined rather than bound to stay
+    // clear of the bind parameter limit and keep this a single indexed query.
+    StringBuilder selection = new StringBuilder(RECIPIENT_IDS + " IN (");
 
-    for (List<Long> recipientIds : partitionedRecipientIds) {
-      String   selection      = RECIPIENT_IDS + " = ?";
-      String[] selectionArgs  = new String[recipientIds.size()];
+    for (long recipientId : recipientIds) {
+      selection.append('\'').append(recipientId).append("',");
+    }
 
-      for (int i=0;i<recipientIds.size()-1;i++)
-        selection += (" OR " + RECIPIENT_IDS + " = ?");
+    selection.setCharAt(selection.length() - 1, ')');
 
-      int i= 0;
-      for (long id : recipientIds) {
-        selectionArgs[i++] = String.valueOf(id);
-      }
-
-      cursors.add(db.query(TABLE_NAME, null, selection, selectionArgs, null, null, DATE + " DESC"));
-    }
+    SQLiteDatabase db     = databaseHelper.getReadableDatabase();
+    Cursor         cursor = db.query(TABLE_NAME, null, selection.toString(), null, null, null, DATE + " DESC");
 
-    Cursor cursor = cursors.size() > 1 ? new MergeCursor(cursors.toArray(new Cursor[cursors.size()])) : cursors.get(0);
     setNotifyConverationListListeners(cursor);
     return cursor;
   }
@@ -493,6 +478,121 @@ public class ThreadDatabase extends Database {
     }
   }
 
+  /**
+   * Brings a thread's summary up to date after a message was inserted into it.
+   * The message count is bumped in place, and the snippet is only re-read if
+   * the new message is the newest one in the conversation.
+   */
+  public void updateForInsert(long threadId, @NonNull String transport, long messageId, boolean unarchive) {
+    incrementMessageCount(threadId, 1, unarchive);
+
+    if (DatabaseFactory.getMmsSmsDatabase(context).isNewestInThread(threadId, transport, messageId)) {
+      updateSnippetFromConversation(threadId, unarchive);
+    }
+
+    notifyConversationListListeners();
+  }
+
+  /**
+   * Like {@link #updateForInsert(long, String, long, boolean)}, for a message
+   * whose snippet fields the caller already has, so nothing is read back.
+   */
+  public void updateForInsert(long threadId, @NonNull String transport, long messageId,
+                              @Nullable String body, long dateSent, long dateReceived,
+                              int status, long type, boolean unarchive)
+  {
+    incrementMessageCount(threadId, 1, unarchive);
+
+    if (DatabaseFactory.getMmsSmsDatabase(context).isNewestInThread(threadId, transport, messageId)) {
+      long date = SMSSecurePreferences.showSentTime(context) ? dateSent : dateReceived;
+      setSnippet(threadId, body, null, date, status, type, unarchive);
+    }
+
+    notifyConversationListListeners();
+  }
+
+  /**
+   * Refreshes a thread's summary after one of its messages changed, which only
+   * matters if the snippet was taken from that message.
+   */
+  public void updateForChange(long threadId, @NonNull String transport, long messageId, boolean unarchive) {
+    if (DatabaseFactory.getMmsSmsDatabase(context).isNewestInThread(threadId, transport, messageId)) {
+      updateSnippetFromConversation(threadId, unarchive);
+      notifyConversationListListeners();
+    } else if (unarchive) {
+      unarchiveConversation(threadId);
+    }
+  }
+
+  /**
+   * Brings a thread's summary up to date after a message was deleted from it.
+   * Only deleting the newest message requires the summary to be recomputed.
+   *
+   * @param wasNewest whether the deleted message was the newest in the thread,
+   *                  as determined before it was deleted.
+   * @return true if the thread was deleted because it is now empty.
+   */
+  public boolean updateForDelete(long threadId, boolean wasNewest) {
+    if (wasNewest) {
+      return update(threadId, false);
+    }
+
+    incrementMessageCount(threadId, -1, false);
+    notifyConversationListListeners();
+    return false;
+  }
+
+  private void incrementMessageCount(long threadId, int delta, boolean unarchive) {
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+    db.execSQL("UPDATE " + TABLE_NAME + " SET " + MESSAGE_COUNT + " = " + MESSAGE_COUNT + " + ?" +
+               (unarchive ? ", " + ARCHIVED + " = 0" : "") + " WHERE " + ID + " = ?",
+               new String[] {String.valueOf(delta), String.valueOf(threadId)});
+  }
+
+  private void setSnippet(long threadId, String body, @Nullable Uri attachment,
+                          long date, int status, long type, boolean unarchive)
+  {
+    ContentValues contentValues = getSnippetValues(body, attachment, date, status, type, unarchive);
+
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+    db.update(TABLE_NAME, contentValues, ID_WHERE, new String[] {threadId + ""});
+  }
+
+  private ContentValues getSnippetValues(String body, @Nullable Uri attachment,
+                                         long date, int status, long type, boolean unarchive)
+  {
+    ContentValues contentValues = new ContentValues(7);
+    contentValues.put(DATE, date - date % 1000);
+    contentValues.put(SNIPPET, body);
+    contentValues.put(SNIPPET_URI, attachment == null ? null : attachment.toString());
+    contentValues.put(SNIPPET_TYPE, type);
+    contentValues.put(STATUS, status);
+
+    if (unarchive) {
+      contentValues.put(ARCHIVED, 0);
+    }
+
+    return contentValues;
+  }
+
+  private void updateSnippetFromConversation(long threadId, boolean unarchive) {
+    MmsSmsDatabase        mmsSmsDatabase = DatabaseFactory.getMmsSmsDatabase(context);
+    MmsSmsDatabase.Reader reader         = null;
+
+    try {
+      reader = mmsSmsDatabase.readerFor(mmsSmsDatabase.getConversationSnippet(threadId));
+      MessageRecord record;
+
+      if (reader != null && (record = reader.getNext()) != null) {
+        setSnippet(threadId, record.getBody().getBody(), getAttachmentUriFor(record),
+                   record.getTimestamp(), record.getDeliveryStatus(), record.getType(), unarchive);
+      }
+    } finally {
+      if (reader != null)
+        reader.close();
+    }
+  }
+
   private @Nullable Uri getAttachmentUriFor(MessageRecord record) {
     if (!record.isMms() || record.isMmsNotification() || record.isGroupAction()) return null;
 
@@ -537,7 +637,7 @@ public class ThreadDatabase extends Database {
     public ThreadRecord getCurrent() {
       long       threadId    = cursor.getLong(cursor.getColumnIndexOrThrow(ThreadDatabase.ID));
       String     recipientId = cursor.getString(cursor.getColumnIndexOrThrow(ThreadDatabase.RECIPIENT_IDS));
-      Recipients recipients  = RecipientFactory.getRecipientsForIds(context, recipientId, true);
+      Recipients recipients  = CursorRecipients.forRecipientIds(context, cursor, ThreadDatabase.RECIPIENT_IDS).get(cursor, recipientId);
 
       DisplayRecord.Body body = getPlaintextBody(cursor);
       long date               = cursor.getLong(cursor.getColumnIndexOrThrow(ThreadDatabase.DATE));
@@ -1,7 +1,5 @@
 package org.smssecure.smssecure.database;
 
-import android.text.TextUtils;
-
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlPullParserFactory;
@@ -9,10 +7,9 @@ import org.xmlpull.v1.XmlPullParserFactory;
 import java.io.BufferedWriter;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.io.OutputStreamWriter;
 
 public class XmlBackup {
 
@@ -152,12 +149,12 @@ public class XmlBackup {
     private static final String  OPEN_ATTRIBUTE  = "=\"";
     private static final String  CLOSE_ATTRIBUTE = "\" ";
 
-    private static final Pattern PATTERN         = Pattern.compile("[^\u0020-\uD7FF]");
+    private static final int     BUFFER_SIZE     = 64 * 1024;
 
     private final BufferedWriter bufferedWriter;
 
     public Writer(String path, int count) throws IOException {
-      bufferedWriter = new BufferedWriter(new FileWriter(path, false));
+      bufferedWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(path, false), "UTF-8"), BUFFER_SIZE);
 
       bufferedWriter.write(XML_HEADER);
       bufferedWriter.newLine();
@@ -167,29 +164,42 @@ public class XmlBackup {
     }
 
     public void writeItem(XmlBackupItem item) throws IOException {
-      StringBuilder stringBuilder = new StringBuilder();
-
-      stringBuilder.append(OPEN_TAG_SMS);
-      appendAttribute(stringBuilder, PROTOCOL, item.getProtocol());
-      appendAttribute(stringBuilder, ADDRESS, escapeXML(item.getAddress()));
-      appendAttribute(stringBuilder, DATE, item.getDate());
-      appendAttribute(stringBuilder, TYPE, item.getType());
-      appendAttribute(stringBuilder, SUBJECT, escapeXML(item.getSubject()));
-      appendAttribute(stringBuilder, BODY, escapeXML(item.getBody()));
-      appendAttribute(stringBuilder, TOA, "null");
-      appendAttribute(stringBuilder, SC_TOA, "null");
-      appendAttribute(stringBuilder, SERVICE_CENTER, item.getServiceCenter());
-      appendAttribute(stringBuilder, READ, item.getRead());
-      appendAttribute(stringBuilder, STATUS, item.getStatus());
-      appendAttribute(stringBuilder, LOCKED, 0);
-      stringBuilder.append(CLOSE_EMPTYTAG);
-
       bufferedWriter.newLine();
-      bufferedWriter.write(stringBuilder.toString());
+      bufferedWriter.write(OPEN_TAG_SMS);
+      writeAttribute(PROTOCOL, item.getProtocol());
+      writeEscapedAttribute(ADDRESS, item.getAddress());
+      writeAttribute(DATE, item.getDate());
+      writeAttribute(TYPE, item.getType());
+      writeEscapedAttribute(SUBJECT, item.getSubject());
+      writeEscapedAttribute(BODY, item.getBody());
+      writeAttribute(TOA, "null");
+      writeAttribute(SC_TOA, "null");
+      writeAttribute(SERVICE_CENTER, item.getServiceCenter());
+      writeAttribute(READ, item.getRead());
+      writeAttribute(STATUS, item.getStatus());
+      writeAttribute(LOCKED, 0);
+      bufferedWriter.write(CLOSE_EMPTYTAG);
+    }
+
+    private void writeAttribute(String name, long value) throws IOException {
+      writeAttribute(name, String.valueOf(value));
     }
 
-    private <T> void appendAttribute(StringBuilder stringBuilder, String name, T value) {
-      stringBuilder.append(name).append(OPEN_ATTRIBUTE).append(value).append(CLOSE_ATTRIBUTE);
+    private void writeAttribute(String name, String value) throws IOException {
+      bufferedWriter.write(name);
+      bufferedWriter.write(OPEN_ATTRIBUTE);
+      bufferedWriter.write(String.valueOf(value));
+      bufferedWriter.write(CLOSE_ATTRIBUTE);
+    }
+
+    private void writeEscapedAttribute(String name, String value) throws IOException {
+      bufferedWriter.write(name);
+      bufferedWriter.write(OPEN_ATTRIBUTE);
+
+      if (value == null) bufferedWriter.write("null");
+      else               writeEscaped(value);
+
+      bufferedWriter.write(CLOSE_ATTRIBUTE);
     }
 
     public void close() throws IOException {
@@ -198,26 +208,34 @@ public class XmlBackup {
       bufferedWriter.close();
     }
 
-    private String escapeXML(String s) {
-      if (TextUtils.isEmpty(s)) return s;
-
-      Matcher matcher = PATTERN.matcher( s.replace("&",  "&amp;")
-                                          .replace("<",  "&lt;")
-                                          .replace(">",  "&gt;")
-                                          .replace("\"", "&quot;")
-                                          .replace("'",  "&apos;"));
-      StringBuffer st = new StringBuffer();
-
-      while (matcher.find()) {
-        String escaped="";
-        for (char ch: matcher.group(0).toCharArray()) {
-          escaped += ("&#" + ((int) ch) + ";");
+    /**
+     * Writes the markup characters as entities, and anything outside
+     * U+0020 to U+D7FF as a character reference, one per char.
+     */
+    private void writeEscaped(String s) throws IOException {
+      int start = 0;
+
+      for (int i=0;i<s.length();i++) {
+        char   ch      = s.charAt(i);
+        String escaped;
+
+        switch (ch) {
+          case '&':  escaped = "&amp;";  break;
+          case '<':  escaped = "&lt;";   break;
+          case '>':  escaped = "&gt;";   break;
+          case '"':  escaped = "&quot;"; break;
+          case '\'': escaped = "&apos;"; break;
+          default:
+            if (ch >= '\u0020' && ch <= '\uD7FF') continue;
+            escaped = "&#" + (int)ch + ";";
         }
-        matcher.appendReplacement(st, escaped);
+
+        bufferedWriter.write(s, start, i - start);
+        bufferedWriter.write(escaped);
+        start = i + 1;
       }
-      matcher.appendTail(st);
-      return st.toString();
-    }
 
+      bufferedWriter.write(s, start, s.length() - start);
+    }
   }
 }
@@ -61,6 +61,11 @@ public class ConversationListLoader extends AbstractCursorLoader {
 
   private Cursor getFilteredConversationList(String filter) {
     List<String> numbers = ContactAccessor.getInstance().getNumbersForThreadSearchFilter(context, filter);
+
+    // Typing restarts this loader on every keystroke, which cancels the
+    // search in flight.  Don't keep working on a filter nobody will see.
+    if (isLoadInBackgroundCanceled()) return null;
+
     return DatabaseFactory.getThreadDatabase(context).getFilteredConversationList(numbers);
   }
 }
@@ -1,27 +1,259 @@
 package org.smssecure.smssecure.database.loaders;
 
 import android.content.Context;
+import android.database.ContentObserver;
 import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.database.DataSetObserver;
+import android.database.MergeCursor;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 import org.smssecure.smssecure.database.DatabaseFactory;
+import org.smssecure.smssecure.database.MessageRecordPrefetcher;
+import org.smssecure.smssecure.database.MmsSmsDatabase;
+import org.smssecure.smssecure.database.MmsSmsDatabase.ConversationAnchor;
 import org.smssecure.smssecure.util.AbstractCursorLoader;
 
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Loads the newest page of a conversation, and older pages one at a time
+ * through {@link #loadOlderPage()}.
+ *
+ * Older pages are queried once and kept, and every cursor the loader
+ * delivers is a merge of the newest page, queried again on each load, with
+ * the kept pages.  The kept pages are only queried again when the message
+ * index shows that messages were added to or removed from their range.
+ */
 public class ConversationLoader extends AbstractCursorLoader {
-  private final long threadId;
-  private       long limit;
+  private final long                              threadId;
+  private final @Nullable MessageRecordPrefetcher prefetcher;
+  private final long                              limit;
+
+  private final Map<Cursor, Integer> references = new IdentityHashMap<>();
+  private final List<Cursor>         pages      = new LinkedList<>();
 
-  public ConversationLoader(Context context, long threadId, long limit) {
+  private @Nullable ConversationAnchor headAnchor;
+  private @Nullable ConversationAnchor oldestAnchor;
+  private           boolean            olderPageRequested;
+  private           boolean            olderPagesExhausted;
+
+  public ConversationLoader(Context context, long threadId, long limit,
+                            @Nullable MessageRecordPrefetcher prefetcher)
+  {
     super(context);
-    this.threadId = threadId;
-    this.limit  = limit;
+    this.threadId   = threadId;
+    this.limit      = limit;
+    this.prefetcher = prefetcher;
   }
 
   public boolean hasLimit() {
     return limit > 0;
   }
 
+  public synchronized boolean hasOlderPages() {
+    return !pages.isEmpty();
+  }
+
+  public synchronized boolean isOlderPagesExhausted() {
+    return olderPagesExhausted;
+  }
+
+  /**
+   * Reloads with one more page of older messages appended.  Loads already
+   * in flight are superseded.
+   */
+  public void loadOlderPage() {
+    synchronized (this) {
+      olderPageRequested = true;
+    }
+
+    forceLoad();
+  }
+
   @Override
   public Cursor getCursor() {
-    return DatabaseFactory.getMmsSmsDatabase(context).getConversation(threadId, limit);
+    MmsSmsDatabase database = DatabaseFactory.getMmsSmsDatabase(context);
+    Cursor         head;
+    boolean        pageRequested;
+
+    synchronized (this) {
+      pageRequested      = olderPageRequested;
+      olderPageRequested = false;
+    }
+
+    if (headAnchor == null) {
+      head = database.getConversation(threadId, limit);
+      if (hasLimit()) headAnchor = ConversationAnchor.fromLastRow(head);
+    } else {
+      head = database.getConversationSince(threadId, headAnchor);
+    }
+
+    int freshRows = head.getCount();
+
+    if (hasOlderPages() && database.getConversationCountBetween(threadId, headAnchor, oldestAnchor) != getPagesCount()) {
+      freshRows += reloadPages(database);
+    }
+
+    if (pageRequested && headAnchor != null) {
+      appendPage(database);
+    }
+
+    Cursor cursor = mergePages(head);
+
+    if (prefetcher != null) {
+      prefetcher.warm(cursor, freshRows);
+    }
+
+    return cursor;
+  }
+
+  @Override
+  protected void onReset() {
+    super.onReset();
+
+    synchronized (this) {
+      for (Cursor page : pages) release(page);
+
+      pages.clear();
+      headAnchor          = null;
+      oldestAnchor        = null;
+      olderPagesExhausted = false;
+    }
+  }
+
+  private int reloadPages(MmsSmsDatabase database) {
+    Cursor             reloaded = database.getConversationBetween(threadId, headAnchor, oldestAnchor);
+    ConversationAnchor end      = ConversationAnchor.fromLastRow(reloaded);
+
+    synchronized (this) {
+      for (Cursor page : pages) release(page);
+
+      pages.clear();
+      oldestAnchor = end;
+
+      if (end != null) {
+        pages.add(reloaded);
+        acquire(reloaded);
+      }
+    }
+
+    if (end == null) {
+      reloaded.close();
+      return 0;
+    }
+
+    return reloaded.getCount();
+  }
+
+  private void appendPage(MmsSmsDatabase database) {
+    ConversationAnchor anchor = oldestAnchor != null ? oldestAnchor : headAnchor;
+    Cursor             page   = database.getConversationBefore(threadId, anchor, limit);
+    ConversationAnchor end    = ConversationAnchor.fromLastRow(page);
+
+    synchronized (this) {
+      olderPagesExhausted = page.getCount() < limit;
+
+      if (end != null) {
+        pages.add(page);
+        acquire(page);
+        oldestAnchor = end;
+      }
+    }
+
+    if (end == null) page.close();
+  }
+
+  private synchronized int getPagesCount() {
+    int count = 0;
+
+    for (Cursor page : pages) count += page.getCount();
+
+    return count;
+  }
+
+  private synchronized Cursor mergePages(Cursor head) {
+    if (pages.isEmpty()) return head;
+
+    Cursor[] cursors = new Cursor[pages.size() + 1];
+    int      index   = 0;
+
+    cursors[index++] = head;
+
+    for (Cursor page : pages) {
+      cursors[index++] = new PageReference(page);
+    }
+
+    return new MergeCursor(cursors);
+  }
+
+  private void acquire(Cursor page) {
+    synchronized (references) {
+      Integer count = references.get(page);
+      references.put(page, count == null ? 1 : count + 1);
+    }
+  }
+
+  private void release(Cursor page) {
+    synchronized (references) {
+      Integer count = references.get(page);
+
+      if (count == null || count <= 1) {
+        references.remove(page);
+        page.close();
+      } else {
+        references.put(page, count - 1);
+      }
+    }
+  }
+
+  /**
+   * An older page as it appears in one delivered cursor.  The page is shared
+   * with the cursors delivered after it, so it is only closed once the last
+   * of them is, and observers are left to the newest page, which is never
+   * shared.
+   */
+  private class PageReference extends CursorWrapper {
+
+    private final    Cursor  page;
+    private volatile boolean closed;
+
+    PageReference(@NonNull Cursor page) {
+      super(page);
+      this.page = page;
+      acquire(page);
+    }
+
+    @Override
+    public void close() {
+      if (!closed) {
+        closed = true;
+        release(page);
+      }
+    }
+
+    @Override
+    public boolean isClosed() {
+      return closed || super.isClosed();
+    }
+
+    @Override
+    public void deactivate() {}
+
+    @Override
+    public void registerContentObserver(ContentObserver observer) {}
+
+    @Override
+    public void unregisterContentObserver(ContentObserver observer) {}
+
+    @Override
+    public void registerDataSetObserver(DataSetObserver observer) {}
+
+    @Override
+    public void unregisterDataSetObserver(DataSetObserver observer) {}
   }
 }
@@ -18,23 +18,37 @@ package org.smssecure.smssecure.database.model;
 
 import android.content.Context;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.text.SpannableString;
+import android.text.TextUtils;
+import android.util.Log;
 
 import org.smssecure.smssecure.R;
+import org.smssecure.smssecure.attachments.Attachment;
 import org.smssecure.smssecure.database.MmsDatabase;
 import org.smssecure.smssecure.database.SmsDatabase.Status;
+import org.smssecure.smssecure.database.documents.Document;
 import org.smssecure.smssecure.database.documents.IdentityKeyMismatch;
+import org.smssecure.smssecure.database.documents.IdentityKeyMismatchList;
 import org.smssecure.smssecure.database.documents.NetworkFailure;
+import org.smssecure.smssecure.database.documents.NetworkFailureList;
 import org.smssecure.smssecure.mms.SlideDeck;
 import org.smssecure.smssecure.recipients.Recipient;
 import org.smssecure.smssecure.recipients.Recipients;
+import org.smssecure.smssecure.util.JsonUtils;
 
+import java.io.IOException;
+import java.util.Collections;
 import java.util.List;
 
 /**
  * Represents the message record model for MMS messages that contain
  * media (ie: they've been downloaded).
  *
+ * The slide deck and the mismatch and network failure documents are only
+ * decoded when they're first asked for, since most records are bound
+ * without them ever being looked at.
+ *
  * @author Moxie Marlinspike
  *
  */
@@ -44,31 +58,64 @@ public class MediaMmsMessageRecord extends MessageRecord {
 
   private final Context context;
   private final int partCount;
-  private final @NonNull SlideDeck slideDeck;
+
+  private @Nullable Attachment                attachment;
+  private @Nullable String                    mismatchDocument;
+  private @Nullable String                    networkDocument;
+  private @Nullable SlideDeck                 slideDeck;
+  private @Nullable List<IdentityKeyMismatch> mismatches;
+  private @Nullable List<NetworkFailure>      networkFailures;
 
   public MediaMmsMessageRecord(Context context, long id, Recipients recipients,
                                Recipient individualRecipient, int recipientDeviceId,
                                long dateSent, long dateReceived, long dateDeliveryReceived,
                                long threadId, Body body,
-                               @NonNull SlideDeck slideDeck,
+                               @Nullable Attachment attachment,
                                int partCount, long mailbox,
-                               List<IdentityKeyMismatch> mismatches,
-                               List<NetworkFailure> failures, int subscriptionId)
+                               @Nullable String mismatchDocument,
+                               @Nullable String networkDocument, int subscriptionId)
   {
     super(context, id, body, recipients, individualRecipient, recipientDeviceId, dateSent,
-          dateReceived, threadId, Status.STATUS_NONE, dateDeliveryReceived, mailbox, mismatches, failures, subscriptionId);
+          dateReceived, threadId, Status.STATUS_NONE, dateDeliveryReceived, mailbox, null, null, subscriptionId);
 
-    this.context   = context.getApplicationContext();
-    this.partCount = partCount;
-    this.slideDeck = slideDeck;
+    this.context          = context.getApplicationContext();
+    this.partCount        = partCount;
+    this.attachment       = attachment;
+    this.mismatchDocument = mismatchDocument;
+    this.networkDocument  = networkDocument;
   }
 
-  public @NonNull SlideDeck getSlideDeck() {
+  public synchronized @NonNull SlideDeck getSlideDeck() {
+    if (slideDeck == null) {
+      slideDeck  = attachment != null ? new SlideDeck(context, attachment) : new SlideDeck();
+      attachment = null;
+    }
+
     return slideDeck;
   }
 
+  @Override
+  public synchronized List<IdentityKeyMismatch> getIdentityKeyMismatches() {
+    if (mismatches == null) {
+      mismatches       = getDocumentList(mismatchDocument, IdentityKeyMismatchList.class);
+      mismatchDocument = null;
+    }
+
+    return mismatches;
+  }
+
+  @Override
+  public synchronized List<NetworkFailure> getNetworkFailures() {
+    if (networkFailures == null) {
+      networkFailures = getDocumentList(networkDocument, NetworkFailureList.class);
+      networkDocument = null;
+    }
+
+    return networkFailures;
+  }
+
   public boolean containsMediaSlide() {
-    return slideDeck.containsMediaSlide();
+    return getSlideDeck().containsMediaSlide();
   }
 
   public int getPartCount() {
@@ -103,4 +150,17 @@ public class MediaMmsMessageRecord extends MessageRecord {
 
     return super.getDisplayBody();
   }
+
+  private static <T> List<T> getDocumentList(@Nullable String document, Class<? extends Document<T>> type) {
+    if (!TextUtils.isEmpty(document)) {
+      try {
+        List<T> list = JsonUtils.fromJson(document, type).getList();
+        if (list != null) return list;
+      } catch (IOException e) {
+        Log.w(TAG, e);
+      }
+    }
+
+    return Collections.emptyList();
+  }
 }
@@ -133,6 +133,7 @@ public abstract class MessageRecord extends DisplayRecord {
   }
 
   public boolean isIdentityMismatchFailure() {
+    List<IdentityKeyMismatch> mismatches = getIdentityKeyMismatches();
     return mismatches != null && !mismatches.isEmpty();
   }
 
@@ -177,6 +178,7 @@ public abstract class MessageRecord extends DisplayRecord {
   }
 
   public boolean hasNetworkFailures() {
+    List<NetworkFailure> networkFailures = getNetworkFailures();
     return networkFailures != null && !networkFailures.isEmpty();
   }
 
@@ -0,0 +1,10 @@
+package org.smssecure.smssecure.jobs;
+
+/**
+ * Marks a job that nothing user-visible waits on, which runs on the
+ * background consumers so it can't hold up sending and receiving.
+ *
+ * @see JobScheduler
+ */
+public interface BackgroundJob {
+}
@@ -8,8 +8,12 @@ import org.whispersystems.jobqueue.dependencies.ContextDependent;
 
 public abstract class ContextJob extends Job implements ContextDependent {
 
+  private static final long serialVersionUID = 1627905472932594333L;
+
   protected transient Context context;
 
+  private transient long queuedAt = System.currentTimeMillis();
+
   protected ContextJob(Context context, JobParameters parameters) {
     super(parameters);
     this.context = context;
@@ -22,4 +26,20 @@ public abstract class ContextJob extends Job implements ContextDependent {
   protected Context getContext() {
     return context;
   }
+
+  @Override
+  public final void onRun() throws Exception {
+    long started = System.currentTimeMillis();
+    long wait    = queuedAt > 0 ? started - queuedAt : -1;
+
+    queuedAt = 0;
+
+    try {
+      onRunJob();
+    } finally {
+      JobStatistics.onJobRun(getClass(), wait, System.currentTimeMillis() - started);
+    }
+  }
+
+  protected abstract void onRunJob() throws Exception;
 }
@@ -0,0 +1,47 @@
+package org.smssecure.smssecure.jobs;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.whispersystems.jobqueue.EncryptionKeys;
+import org.whispersystems.jobqueue.Job;
+import org.whispersystems.jobqueue.JobManager;
+
+/**
+ * Splits jobs between two job managers with their own consumer threads, so
+ * that sending and receiving never queue behind downloads and trimming.
+ *
+ * Jobs that must run in order share a group id, and jobs in different
+ * groups run in parallel.  Incoming messages are grouped by sender, so
+ * one sender's messages are decrypted in the order they arrived.
+ *
+ * @see BackgroundJob
+ */
+public class JobScheduler {
+
+  private final JobManager foreground;
+  private final JobManager background;
+
+  public JobScheduler(@NonNull JobManager foreground, @NonNull JobManager background) {
+    this.foreground = foreground;
+    this.background = background;
+  }
+
+  public void add(Job job) {
+    if (job instanceof BackgroundJob) background.add(job);
+    else                              foreground.add(job);
+  }
+
+  public void setEncryptionKeys(EncryptionKeys keys) {
+    foreground.setEncryptionKeys(keys);
+    background.setEncryptionKeys(keys);
+  }
+
+  /**
+   * @return the group for jobs that handle messages from {@code sender}, or
+   *         null if the sender is unknown.
+   */
+  public static @Nullable String getSenderGroupId(@Nullable String sender) {
+    return sender == null ? null : "sms-receive:" + sender;
+  }
+}
@@ -0,0 +1,123 @@
+package org.smssecure.smssecure.jobs;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Queue-wait and run times of jobs, by job class, since the process started.
+ *
+ * A job's wait runs from its creation to its first run, so it includes any
+ * time spent waiting on requirements.  Jobs restored from disk have no
+ * wait recorded, and retries only add to the run time.
+ *
+ * The statistics are logged when a debug log is submitted.
+ */
+public class JobStatistics {
+
+  private static final String TAG = JobStatistics.class.getSimpleName();
+
+  private static final Map<String, Entry> entries = new HashMap<>();
+
+  static void onJobRun(@NonNull Class<?> jobClass, long wait, long run) {
+    synchronized (entries) {
+      Entry entry = entries.get(jobClass.getSimpleName());
+
+      if (entry == null) {
+        entry = new Entry(jobClass.getSimpleName());
+        entries.put(entry.getName(), entry);
+      }
+
+      entry.add(wait, run);
+    }
+  }
+
+  public static @NonNull List<Entry> getEntries() {
+    synchronized (entries) {
+      List<Entry> results = new LinkedList<>();
+
+      for (Entry entry : entries.values()) {
+        results.add(new Entry(entry));
+      }
+
+      return results;
+    }
+  }
+
+  public static void log() {
+    for (Entry entry : getEntries()) {
+      Log.w(TAG, entry.toString());
+    }
+  }
+
+  public static class Entry {
+    private final String name;
+
+    private int  runs;
+    private int  waits;
+    private long totalWait;
+    private long maxWait;
+    private long totalRun;
+    private long maxRun;
+
+    private Entry(String name) {
+      this.name = name;
+    }
+
+    private Entry(Entry entry) {
+      this.name      = entry.name;
+      this.runs      = entry.runs;
+      this.waits     = entry.waits;
+      this.totalWait = entry.totalWait;
+      this.maxWait   = entry.maxWait;
+      this.totalRun  = entry.totalRun;
+      this.maxRun    = entry.maxRun;
+    }
+
+    private void add(long wait, long run) {
+      if (wait >= 0) {
+        waits++;
+        totalWait += wait;
+        maxWait    = Math.max(maxWait, wait);
+      }
+
+      runs++;
+      totalRun += run;
+      maxRun    = Math.max(maxRun, run);
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public int getRunCount() {
+      return runs;
+    }
+
+    public long getAverageWait() {
+      return waits == 0 ? 0 : totalWait / waits;
+    }
+
+    public long getMaxWait() {
+      return maxWait;
+    }
+
+    public long getAverageRun() {
+      return runs == 0 ? 0 : totalRun / runs;
+    }
+
+    public long getMaxRun() {
+      return maxRun;
+    }
+
+    @Override
+    public String toString() {
+      return name + ": " + runs + " runs, wait avg " + getAverageWait() + "ms max " + maxWait + "ms, " +
+             "run avg " + getAverageRun() + "ms max " + maxRun + "ms";
+    }
+  }
+}
@@ -41,6 +41,7 @@ import org.whispersystems.libaxolotl.NoSessionException;
 import org.whispersystems.libaxolotl.util.guava.Optional;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.LinkedList;
 import java.util.List;
 import java.net.URI;
@@ -55,7 +56,9 @@ import ws.com.google.android.mms.pdu.PduPart;
 import ws.com.google.android.mms.pdu.PduHeaders;
 import ws.com.google.android.mms.pdu.RetrieveConf;
 
-public class MmsDownloadJob extends MasterSecretJob {
+public class MmsDownloadJob extends MasterSecretJob implements BackgroundJob {
+
+  private static final long serialVersionUID = 1467242364750179310L;
 
   private static final String TAG = MmsDownloadJob.class.getSimpleName();
 
@@ -207,14 +210,15 @@ public class MmsDownloadJob extends MasterSecretJob {
       PduBody media = PartParser.getSupportedMediaParts(retrieved.getBody());
 
       for (int i=0;i<media.getPartsNum();i++) {
-        PduPart part = media.getPart(i);
+        PduPart    part = media.getPart(i);
+        ByteBuffer data = part.getDataBuffer();
 
-        if (part.getData() != null) {
-          Uri uri = provider.createUri(part.getData());
+        if (data != null) {
+          Uri uri = provider.createUri(data);
           String potentialFilename = part.getFilename() != null ? Util.toIsoString(part.getFilename()) : null;
           attachments.add(new UriAttachment(uri, Util.toIsoString(part.getContentType()),
                                             AttachmentDatabase.TRANSFER_PROGRESS_DONE,
-                                            part.getData().length, potentialFilename));
+                                            data.remaining(), potentialFilename));
         }
       }
     }
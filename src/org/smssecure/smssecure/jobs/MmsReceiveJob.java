@@ -44,7 +44,7 @@ public class MmsReceiveJob extends ContextJob {
   }
 
   @Override
-  public void onRun() {
+  protected void onRunJob() {
     if (data == null) {
       Log.w(TAG, "Received NULL pdu, ignoring...");
       return;
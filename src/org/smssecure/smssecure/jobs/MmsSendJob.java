@@ -1,6 +1,7 @@
 package org.smssecure.smssecure.jobs;
 
 import android.content.Context;
+import android.net.Uri;
 import android.text.TextUtils;
 import android.util.Log;
 
@@ -19,6 +20,7 @@ import org.smssecure.smssecure.mms.MmsSendResult;
 import org.smssecure.smssecure.mms.OutgoingMediaMessage;
 import org.smssecure.smssecure.mms.PartAuthority;
 import org.smssecure.smssecure.notifications.MessageNotifier;
+import org.smssecure.smssecure.providers.MmsBodyProvider;
 import org.smssecure.smssecure.recipients.Recipient;
 import org.smssecure.smssecure.recipients.Recipients;
 import org.smssecure.smssecure.recipients.RecipientFormattingException;
@@ -35,6 +37,8 @@ import org.whispersystems.jobqueue.requirements.NetworkRequirement;
 import org.whispersystems.libaxolotl.NoSessionException;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Arrays;
 import java.util.List;
 
@@ -92,9 +96,17 @@ public class MmsSendJob extends SendJob {
 
       validateDestinations(message, pdu);
 
-      final byte[]        pduBytes = getPduBytes(masterSecret, pdu);
-      final SendConf      sendConf = new CompatMmsConnection(context).send(pduBytes, message.getSubscriptionId());
-      final MmsSendResult result   = getSendResult(sendConf, pdu, upgradedSecure);
+      final MmsBodyProvider.Pointer pduPointer = MmsBodyProvider.makeTemporaryPointer(context);
+      final SendConf                sendConf;
+
+      try {
+        writePdu(pdu, pduPointer);
+        sendConf = new CompatMmsConnection(context).send(pduPointer, message.getSubscriptionId());
+      } finally {
+        pduPointer.close();
+      }
+
+      final MmsSendResult result = getSendResult(sendConf, pdu, upgradedSecure);
 
       if (result.isUpgradedSecure()) {
         database.markAsSecure(messageId);
@@ -124,8 +136,8 @@ public class MmsSendJob extends SendJob {
     notifyMediaMessageDeliveryFailed(context, messageId);
   }
 
-  private byte[] getPduBytes(MasterSecret masterSecret, SendReq message)
-      throws IOException, UndeliverableMessageException, InsecureFallbackApprovalException
+  private void writePdu(SendReq message, MmsBodyProvider.Pointer pointer)
+      throws IOException, UndeliverableMessageException
   {
     String number = TelephonyUtil.getManager(context).getLine1Number();
 
@@ -135,13 +147,15 @@ public class MmsSendJob extends SendJob {
       message.setFrom(new EncodedStringValue(number));
     }
 
-    byte[] pduBytes = new PduComposer(context, message).make();
+    OutputStream out = pointer.getOutputStream();
 
-    if (pduBytes == null) {
-      throw new UndeliverableMessageException("PDU composition failed, null payload");
+    try {
+      if (new PduComposer(context, message).make(out) == -1) {
+        throw new UndeliverableMessageException("PDU composition failed, null payload");
+      }
+    } finally {
+      out.close();
     }
-
-    return pduBytes;
   }
 
   private MmsSendResult getSendResult(SendConf conf, SendReq message, boolean upgradedSecure)
@@ -233,7 +247,7 @@ public class MmsSendJob extends SendJob {
         if (attachment.getDataUri() == null) throw new IOException("Assertion failed, attachment for outgoing MMS has no data!");
 
         PduPart part = new PduPart();
-        part.setData(Util.readFully(PartAuthority.getAttachmentStream(context, masterSecret, attachment.getDataUri())));
+        part.setDataSource(new AttachmentDataSource(masterSecret, attachment.getDataUri()));
         part.setContentType(Util.toIsoBytes(attachment.getContentType()));
         if (MediaUtil.isFile(attachment) && attachment.getFileName() != null) {
           part.setFilename(Util.toIsoBytes(attachment.getFileName()));
@@ -251,6 +265,21 @@ public class MmsSendJob extends SendJob {
     return sendReq;
   }
 
+  private class AttachmentDataSource implements PduPart.DataSource {
+    private final MasterSecret masterSecret;
+    private final Uri          dataUri;
+
+    private AttachmentDataSource(MasterSecret masterSecret, Uri dataUri) {
+      this.masterSecret = masterSecret;
+      this.dataUri      = dataUri;
+    }
+
+    @Override
+    public InputStream openStream() throws IOException {
+      return PartAuthority.getAttachmentStream(context, masterSecret, dataUri);
+    }
+  }
+
   private void notifyMediaMessageDeliveryFailed(Context context, long messageId) {
     long       threadId   = DatabaseFactory.getMmsDatabase(context).getThreadIdForMessage(messageId);
     Recipients recipients = DatabaseFactory.getThreadDatabase(context).getRecipientsForThreadId(threadId);
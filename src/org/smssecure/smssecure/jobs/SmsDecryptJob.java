@@ -1,6 +1,7 @@
 package org.smssecure.smssecure.jobs;
 
 import android.content.Context;
+import android.support.annotation.Nullable;
 import android.util.Log;
 
 import org.smssecure.smssecure.crypto.AsymmetricMasterCipher;
@@ -39,23 +40,26 @@ import java.io.IOException;
 
 public class SmsDecryptJob extends MasterSecretJob {
 
+  private static final long serialVersionUID = -1354659971338111879L;
+
   private static final String TAG = SmsDecryptJob.class.getSimpleName();
 
   private final long    messageId;
   private final boolean manualOverride;
 
-  public SmsDecryptJob(Context context, long messageId, boolean manualOverride) {
+  public SmsDecryptJob(Context context, long messageId, @Nullable String sender, boolean manualOverride) {
     super(context, JobParameters.newBuilder()
                                 .withPersistence()
                                 .withRequirement(new MasterSecretRequirement(context))
+                                .withGroupId(JobScheduler.getSenderGroupId(sender))
                                 .create());
 
     this.messageId = messageId;
     this.manualOverride = manualOverride;
   }
 
-  public SmsDecryptJob(Context context, long messageId) {
-    this(context, messageId, false);
+  public SmsDecryptJob(Context context, long messageId, @Nullable String sender) {
+    this(context, messageId, sender, false);
   }
 
   @Override
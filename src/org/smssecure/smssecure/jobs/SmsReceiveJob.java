@@ -1,6 +1,7 @@
 package org.smssecure.smssecure.jobs;
 
 import android.content.Context;
+import android.support.annotation.Nullable;
 import android.telephony.SmsMessage;
 import android.util.Log;
 import android.util.Pair;
@@ -38,6 +39,7 @@ public class SmsReceiveJob extends ContextJob {
     super(context, JobParameters.newBuilder()
                                 .withPersistence()
                                 .withWakeLock(true)
+                                .withGroupId(JobScheduler.getSenderGroupId(getSender(pdus)))
                                 .create());
 
     this.pdus           = pdus;
@@ -48,7 +50,7 @@ public class SmsReceiveJob extends ContextJob {
   public void onAdded() {}
 
   @Override
-  public void onRun() {
+  protected void onRunJob() {
     Optional<IncomingTextMessage> message = assembleMessageFragments(pdus, subscriptionId);
 
     if (message.isPresent() && !isBlocked(message.get())) {
@@ -95,12 +97,19 @@ public class SmsReceiveJob extends ContextJob {
     if (masterSecret == null || message.isSecureMessage() || message.isKeyExchange() || message.isEndSession()) {
       ApplicationContext.getInstance(context)
                         .getJobManager()
-                        .add(new SmsDecryptJob(context, messageAndThreadId.first));
+                        .add(new SmsDecryptJob(context, messageAndThreadId.first, message.getSender()));
     }
 
     return messageAndThreadId;
   }
 
+  private static @Nullable String getSender(Object[] pdus) {
+    if (pdus == null || pdus.length == 0) return null;
+
+    SmsMessage message = SmsMessage.createFromPdu((byte[]) pdus[0]);
+    return message != null ? message.getDisplayOriginatingAddress() : null;
+  }
+
   private Optional<IncomingTextMessage> assembleMessageFragments(Object[] pdus, int subscriptionId) {
     List<IncomingTextMessage> messages = new LinkedList<>();
 
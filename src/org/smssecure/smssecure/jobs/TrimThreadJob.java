@@ -21,19 +21,16 @@ import android.util.Log;
 
 import org.smssecure.smssecure.database.DatabaseFactory;
 import org.smssecure.smssecure.util.SMSSecurePreferences;
-import org.whispersystems.jobqueue.Job;
 import org.whispersystems.jobqueue.JobParameters;
 
-public class TrimThreadJob extends Job {
+public class TrimThreadJob extends ContextJob implements BackgroundJob {
 
   private static final String TAG = TrimThreadJob.class.getSimpleName();
 
-  private final Context context;
-  private final long    threadId;
+  private final long threadId;
 
   public TrimThreadJob(Context context, long threadId) {
-    super(JobParameters.newBuilder().withGroupId(TrimThreadJob.class.getSimpleName()).create());
-    this.context  = context;
+    super(context, JobParameters.newBuilder().withGroupId(TrimThreadJob.class.getSimpleName()).create());
     this.threadId = threadId;
   }
 
@@ -43,7 +40,7 @@ public class TrimThreadJob extends Job {
   }
 
   @Override
-  public void onRun() {
+  protected void onRunJob() {
     boolean trimmingEnabled   = SMSSecurePreferences.isThreadLengthTrimmingEnabled(context);
     int     threadLengthLimit = SMSSecurePreferences.getThreadTrimLength(context);
 
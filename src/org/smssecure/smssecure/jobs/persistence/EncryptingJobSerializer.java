@@ -2,6 +2,7 @@ package org.smssecure.smssecure.jobs.persistence;
 
 import org.smssecure.smssecure.crypto.MasterCipher;
 import org.smssecure.smssecure.crypto.MasterSecret;
+import org.smssecure.smssecure.util.Base64;
 import org.smssecure.smssecure.util.ParcelUtil;
 import org.whispersystems.jobqueue.EncryptionKeys;
 import org.whispersystems.jobqueue.Job;
@@ -9,47 +10,120 @@ import org.whispersystems.jobqueue.persistence.JavaJobSerializer;
 import org.whispersystems.jobqueue.persistence.JobSerializer;
 import org.whispersystems.libaxolotl.InvalidMessageException;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
 
+/**
+ * Serializes jobs as VERSION_PREFIX || Base64(payload), where the payload
+ * is the serialized job, encrypted with MasterCipher when the job has
+ * encryption keys.
+ *
+ * The payload is still Java serialization: a job's parameters and
+ * requirements live in private state of the jobqueue library, so they
+ * can't be written in a format of our own.
+ *
+ * Jobs used to be Base64 encoded once by the Java serializer and again by
+ * MasterCipher.encryptBody(), and are still read in that format.
+ *
+ * The MasterSecret decoded from a job's encryption keys is cached until
+ * {@link #clearCache()} is called when the key is cleared.
+ */
 public class EncryptingJobSerializer implements JobSerializer {
 
-  private final JavaJobSerializer delegate;
+  private static final String VERSION_PREFIX = "2:";
+  private static final Object CACHE_LOCK     = new Object();
+
+  private static byte[]       cachedKeys;
+  private static MasterSecret cachedMasterSecret;
+
+  private final JavaJobSerializer legacy;
 
   public EncryptingJobSerializer() {
-    this.delegate = new JavaJobSerializer();
+    this.legacy = new JavaJobSerializer();
   }
 
   @Override
   public String serialize(Job job) throws IOException {
-    String plaintext = delegate.serialize(job);
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    ObjectOutputStream    oos  = new ObjectOutputStream(baos);
 
-    if (job.getEncryptionKeys() != null) {
-      MasterSecret masterSecret = ParcelUtil.deserialize(job.getEncryptionKeys().getEncoded(),
-                                                         MasterSecret.CREATOR);
-      MasterCipher masterCipher = new MasterCipher(masterSecret);
+    oos.writeObject(job);
+    oos.close();
+
+    byte[] payload = baos.toByteArray();
 
-      return masterCipher.encryptBody(plaintext);
-    } else {
-      return plaintext;
+    if (job.getEncryptionKeys() != null) {
+      payload = MasterCipher.getInstance(getMasterSecret(job.getEncryptionKeys())).encryptBytes(payload);
     }
+
+    return VERSION_PREFIX + Base64.encodeBytes(payload);
   }
 
   @Override
   public Job deserialize(EncryptionKeys keys, boolean encrypted, String serialized) throws IOException {
+    if (!serialized.startsWith(VERSION_PREFIX)) {
+      return deserializeLegacy(keys, encrypted, serialized);
+    }
+
+    try {
+      byte[] payload = Base64.decode(serialized.substring(VERSION_PREFIX.length()));
+
+      if (encrypted) {
+        payload = MasterCipher.getInstance(getMasterSecret(keys)).decryptBytes(payload);
+      }
+
+      ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(payload));
+
+      try {
+        return (Job)ois.readObject();
+      } finally {
+        ois.close();
+      }
+    } catch (InvalidMessageException | ClassNotFoundException | ClassCastException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private Job deserializeLegacy(EncryptionKeys keys, boolean encrypted, String serialized) throws IOException {
     try {
       String plaintext;
 
       if (encrypted) {
-        MasterSecret masterSecret = ParcelUtil.deserialize(keys.getEncoded(), MasterSecret.CREATOR);
-        MasterCipher masterCipher = new MasterCipher(masterSecret);
-        plaintext = masterCipher.decryptBody(serialized);
+        plaintext = MasterCipher.getInstance(getMasterSecret(keys)).decryptBody(serialized);
       } else {
         plaintext = serialized;
       }
 
-      return delegate.deserialize(keys, encrypted, plaintext);
+      return legacy.deserialize(keys, encrypted, plaintext);
     } catch (InvalidMessageException e) {
       throw new IOException(e);
     }
   }
+
+  /**
+   * Drops the cached MasterSecret.  Called when the master secret is cleared.
+   */
+  public static void clearCache() {
+    synchronized (CACHE_LOCK) {
+      cachedKeys         = null;
+      cachedMasterSecret = null;
+    }
+  }
+
+  private MasterSecret getMasterSecret(EncryptionKeys keys) {
+    byte[] encoded = keys.getEncoded();
+
+    synchronized (CACHE_LOCK) {
+      if (cachedMasterSecret == null || !Arrays.equals(cachedKeys, encoded)) {
+        cachedMasterSecret = ParcelUtil.deserialize(encoded, MasterSecret.CREATOR);
+        cachedKeys         = encoded;
+      }
+
+      return cachedMasterSecret;
+    }
+  }
 }
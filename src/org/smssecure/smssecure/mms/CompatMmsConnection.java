@@ -7,6 +7,7 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
+import org.smssecure.smssecure.providers.MmsBodyProvider;
 import org.smssecure.smssecure.transport.UndeliverableMessageException;
 
 import java.io.IOException;
@@ -26,16 +27,16 @@ public class CompatMmsConnection implements OutgoingMmsConnection, IncomingMmsCo
 
   @Nullable
   @Override
-  public SendConf send(@NonNull byte[] pduBytes, int subscriptionId)
+  public SendConf send(@NonNull MmsBodyProvider.Pointer pdu, int subscriptionId)
       throws UndeliverableMessageException
   {
     if (VERSION.SDK_INT >= VERSION_CODES.LOLLIPOP) {
       Log.w(TAG, "Sending via Lollipop API");
-      return new OutgoingLollipopMmsConnection(context).send(pduBytes, subscriptionId);
+      return new OutgoingLollipopMmsConnection(context).send(pdu, subscriptionId);
     } else {
       try {
         Log.w(TAG, "Sending via legacy connection");
-        return new OutgoingLegacyMmsConnection(context).send(pduBytes, subscriptionId);
+        return new OutgoingLegacyMmsConnection(context).send(pdu, subscriptionId);
       } catch (UndeliverableMessageException | ApnUnavailableException e) {
         throw new UndeliverableMessageException(e);
       }
@@ -0,0 +1,71 @@
+package org.smssecure.smssecure.mms;
+
+import android.support.annotation.NonNull;
+
+import com.bumptech.glide.load.ResourceDecoder;
+import com.bumptech.glide.load.engine.Resource;
+
+import org.smssecure.smssecure.crypto.MasterCipher;
+import org.smssecure.smssecure.crypto.MasterSecret;
+import org.whispersystems.libaxolotl.InvalidMessageException;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Decrypts a disk cache entry written by {@link EncryptedCacheEncoder}, and
+ * decodes it with another decoder.
+ */
+public class EncryptedCacheDecoder<T> implements ResourceDecoder<File, T> {
+
+  private final MasterSecret                    masterSecret;
+  private final ResourceDecoder<InputStream, T> delegate;
+
+  public EncryptedCacheDecoder(@NonNull MasterSecret masterSecret,
+                               @NonNull ResourceDecoder<InputStream, T> delegate)
+  {
+    this.masterSecret = masterSecret;
+    this.delegate     = delegate;
+  }
+
+  @Override
+  public Resource<T> decode(File source, int width, int height) throws IOException {
+    long length = source.length();
+
+    if (length <= EncryptedDiskCache.MAGIC.length || length > Integer.MAX_VALUE) {
+      throw new IOException("Bad cache entry length: " + length);
+    }
+
+    byte[]          entry = new byte[(int)length];
+    DataInputStream in    = new DataInputStream(new FileInputStream(source));
+
+    try {
+      in.readFully(entry);
+    } finally {
+      in.close();
+    }
+
+    if (!Arrays.equals(EncryptedDiskCache.MAGIC, Arrays.copyOf(entry, EncryptedDiskCache.MAGIC.length))) {
+      throw new IOException("Not an encrypted cache entry");
+    }
+
+    try {
+      byte[] ciphertext = Arrays.copyOfRange(entry, EncryptedDiskCache.MAGIC.length, entry.length);
+      byte[] plaintext  = MasterCipher.getInstance(masterSecret).decryptBytes(ciphertext);
+
+      return delegate.decode(new ByteArrayInputStream(plaintext), width, height);
+    } catch (InvalidMessageException e) {
+      throw new IOException(e);
+    }
+  }
+
+  @Override
+  public String getId() {
+    return "EncryptedCacheDecoder." + delegate.getId();
+  }
+}
@@ -0,0 +1,56 @@
+package org.smssecure.smssecure.mms;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.bumptech.glide.load.ResourceEncoder;
+import com.bumptech.glide.load.engine.Resource;
+
+import org.smssecure.smssecure.crypto.MasterCipher;
+import org.smssecure.smssecure.crypto.MasterSecret;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes a resource for the disk cache with another encoder, and writes it
+ * encrypted under the master secret.
+ *
+ * @see EncryptedCacheDecoder
+ */
+public class EncryptedCacheEncoder<T> implements ResourceEncoder<T> {
+
+  private static final String TAG = EncryptedCacheEncoder.class.getSimpleName();
+
+  private final MasterSecret       masterSecret;
+  private final ResourceEncoder<T> delegate;
+
+  public EncryptedCacheEncoder(@NonNull MasterSecret masterSecret, @NonNull ResourceEncoder<T> delegate) {
+    this.masterSecret = masterSecret;
+    this.delegate     = delegate;
+  }
+
+  @Override
+  public boolean encode(Resource<T> data, OutputStream os) {
+    ByteArrayOutputStream plaintext = new ByteArrayOutputStream();
+
+    if (!delegate.encode(data, plaintext)) {
+      return false;
+    }
+
+    try {
+      os.write(EncryptedDiskCache.MAGIC);
+      os.write(MasterCipher.getInstance(masterSecret).encryptBytes(plaintext.toByteArray()));
+      return true;
+    } catch (IOException e) {
+      Log.w(TAG, e);
+      return false;
+    }
+  }
+
+  @Override
+  public String getId() {
+    return "EncryptedCacheEncoder." + delegate.getId();
+  }
+}
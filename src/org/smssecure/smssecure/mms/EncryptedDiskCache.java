@@ -0,0 +1,114 @@
+package org.smssecure.smssecure.mms;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.bumptech.glide.load.Key;
+import com.bumptech.glide.load.engine.cache.DiskCache;
+import com.bumptech.glide.load.engine.cache.DiskLruCacheWrapper;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Glide's size-bounded LRU disk cache, restricted to entries encrypted by
+ * {@link EncryptedCacheEncoder}.
+ *
+ * Glide hands the cache an opaque writer, so an entry can only be checked
+ * once it has been written.  Every request must therefore either encrypt
+ * its entries or use {@link com.bumptech.glide.load.engine.DiskCacheStrategy#NONE}.
+ * An unencrypted entry that slips through is discarded rather than
+ * committed, as a last line of defence.
+ *
+ * Entries stay readable across passphrase changes, since the master secret
+ * itself doesn't change.
+ */
+public class EncryptedDiskCache implements DiskCache {
+
+  private static final String TAG = EncryptedDiskCache.class.getSimpleName();
+
+  private static final String DIRECTORY  = "encrypted_image_cache";
+  private static final int    CACHE_SIZE = 50 * 1024 * 1024;
+
+  static final byte[] MAGIC = {'S', 'M', 'S', 'S', 'I', 'M', 'G', 1};
+
+  private final DiskCache delegate;
+
+  private EncryptedDiskCache(@NonNull DiskCache delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public File get(Key key) {
+    return delegate.get(key);
+  }
+
+  @Override
+  public void put(Key key, final Writer writer) {
+    delegate.put(key, new Writer() {
+      @Override
+      public boolean write(File file) {
+        if (!writer.write(file)) return false;
+
+        if (!isEncrypted(file)) {
+          Log.w(TAG, "Refusing to cache an unencrypted entry");
+          return false;
+        }
+
+        return true;
+      }
+    });
+  }
+
+  @Override
+  public void delete(Key key) {
+    delegate.delete(key);
+  }
+
+  @Override
+  public void clear() {
+    delegate.clear();
+  }
+
+  static boolean isEncrypted(@NonNull File file) {
+    try {
+      InputStream in = new FileInputStream(file);
+
+      try {
+        for (byte b : MAGIC) {
+          if (in.read() != (b & 0xFF)) return false;
+        }
+
+        return true;
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      Log.w(TAG, e);
+      return false;
+    }
+  }
+
+  public static class Factory implements DiskCache.Factory {
+    private final Context context;
+
+    public Factory(@NonNull Context context) {
+      this.context = context.getApplicationContext();
+    }
+
+    @Override
+    public DiskCache build() {
+      File directory = new File(context.getCacheDir(), DIRECTORY);
+
+      if (!directory.mkdirs() && !directory.isDirectory()) {
+        Log.w(TAG, "Couldn't create " + directory);
+        return null;
+      }
+
+      return new EncryptedDiskCache(DiskLruCacheWrapper.get(directory, CACHE_SIZE));
+    }
+  }
+}
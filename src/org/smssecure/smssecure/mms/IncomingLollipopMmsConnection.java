@@ -27,10 +27,11 @@ import android.telephony.SmsManager;
 import android.util.Log;
 
 import org.smssecure.smssecure.providers.MmsBodyProvider;
-import org.smssecure.smssecure.util.Util;
 
-import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.concurrent.TimeoutException;
 
 import ws.com.google.android.mms.MmsException;
@@ -84,11 +85,10 @@ public class IncomingLollipopMmsConnection extends LollipopMmsConnection impleme
 
       waitForResult();
 
-      ByteArrayOutputStream baos = new ByteArrayOutputStream();
-      Util.copy(pointer.getInputStream(), baos);
+      ByteBuffer pdu = map(pointer);
       pointer.close();
 
-      return (RetrieveConf) new PduParser(baos.toByteArray()).parse();
+      return (RetrieveConf) new PduParser(pdu).parse();
     } catch (IOException | TimeoutException e) {
       Log.w(TAG, e);
       throw new MmsException(e);
@@ -96,4 +96,20 @@ public class IncomingLollipopMmsConnection extends LollipopMmsConnection impleme
       endTransaction();
     }
   }
+
+  /**
+   * Maps the downloaded pdu rather than reading it onto the heap.  The
+   * mapping stays valid after the file is deleted, and parsed parts are
+   * slices of it.
+   */
+  private static ByteBuffer map(MmsBodyProvider.Pointer pointer) throws IOException {
+    FileInputStream in = new FileInputStream(pointer.getFile());
+
+    try {
+      FileChannel channel = in.getChannel();
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    } finally {
+      in.close();
+    }
+  }
 }
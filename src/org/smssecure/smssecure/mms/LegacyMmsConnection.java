@@ -23,6 +23,7 @@ import android.text.TextUtils;
 import android.util.Log;
 
 import org.apache.http.Header;
+import org.apache.http.HttpEntity;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.CredentialsProvider;
@@ -46,6 +47,7 @@ import org.whispersystems.libaxolotl.util.guava.Optional;
 
 import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.InvocationTargetException;
@@ -150,6 +152,25 @@ public abstract class LegacyMmsConnection {
   }
 
   protected static byte[] parseResponse(InputStream is) throws IOException {
+    return parseResponse(is, -1);
+  }
+
+  /**
+   * Reads a response of a known length straight into an array of that size,
+   * rather than growing a buffer and copying it out again.  The length is
+   * the server's claim, so it's only trusted up to the MMS size limit, and a
+   * missing or larger length falls back to a growing buffer.
+   */
+  protected static byte[] parseResponse(InputStream is, long contentLength) throws IOException {
+    if (contentLength >= 0 && contentLength <= MmsMediaConstraints.getMaxMmsPref()) {
+      byte[] response = new byte[(int)contentLength];
+      new DataInputStream(is).readFully(response);
+
+      Log.w(TAG, "Received full server response, " + response.length + " bytes");
+
+      return response;
+    }
+
     InputStream           in   = new BufferedInputStream(is);
     ByteArrayOutputStream baos = new ByteArrayOutputStream();
     Util.copy(in, baos);
@@ -197,7 +218,8 @@ public abstract class LegacyMmsConnection {
       Log.w(TAG, "* response code: " + response.getStatusLine());
 
       if (response.getStatusLine().getStatusCode() == 200) {
-        return parseResponse(response.getEntity().getContent());
+        HttpEntity entity = response.getEntity();
+        return parseResponse(entity.getContent(), entity.getContentLength());
       }
     } catch (NullPointerException npe) {
       // TODO determine root cause
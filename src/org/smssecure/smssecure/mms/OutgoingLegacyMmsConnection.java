@@ -25,11 +25,14 @@ import android.support.annotation.Nullable;
 import android.util.Log;
 
 import org.apache.http.Header;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpHost;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.HttpPostHC4;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.entity.ByteArrayEntityHC4;
+import org.apache.http.entity.FileEntityHC4;
+import org.smssecure.smssecure.providers.MmsBodyProvider;
 import org.smssecure.smssecure.transport.UndeliverableMessageException;
 
 import java.io.IOException;
@@ -45,7 +48,7 @@ public class OutgoingLegacyMmsConnection extends LegacyMmsConnection implements
     super(context);
   }
 
-  private HttpUriRequest constructRequest(byte[] pduBytes, boolean useProxy)
+  private HttpUriRequest constructRequest(HttpEntity pdu, boolean useProxy)
       throws IOException
   {
     try {
@@ -54,7 +57,7 @@ public class OutgoingLegacyMmsConnection extends LegacyMmsConnection implements
         request.addHeader(header);
       }
 
-      request.setEntity(new ByteArrayEntityHC4(pduBytes));
+      request.setEntity(pdu);
       if (useProxy) {
         HttpHost proxy = new HttpHost(apn.getProxy(), apn.getPort());
         request.setConfig(RequestConfig.custom().setProxy(proxy).build());
@@ -68,18 +71,21 @@ public class OutgoingLegacyMmsConnection extends LegacyMmsConnection implements
   public void sendNotificationReceived(byte[] pduBytes, boolean usingMmsRadio, boolean useProxyIfAvailable)
       throws IOException
   {
-    sendBytes(pduBytes, usingMmsRadio, useProxyIfAvailable);
+    sendBytes(new ByteArrayEntityHC4(pduBytes), usingMmsRadio, useProxyIfAvailable);
   }
 
   @Override
-  public @Nullable SendConf send(@NonNull byte[] pduBytes, int subscriptionId) throws UndeliverableMessageException {
+  public @Nullable SendConf send(@NonNull MmsBodyProvider.Pointer pdu, int subscriptionId) throws UndeliverableMessageException {
+    // A file entity is repeatable, so the body is streamed from disk on every attempt.
+    HttpEntity pduEntity = new FileEntityHC4(pdu.getFile());
+
     try {
       MmsRadio radio = MmsRadio.getInstance(context);
 
       if (isDirectConnect()) {
         Log.w(TAG, "Sending MMS directly without radio change...");
         try {
-          return send(pduBytes, false, false);
+          return send(pduEntity, false, false);
         } catch (IOException e) {
           Log.w(TAG, e);
         }
@@ -90,7 +96,7 @@ public class OutgoingLegacyMmsConnection extends LegacyMmsConnection implements
 
       try {
         try {
-          return send(pduBytes, true, true);
+          return send(pduEntity, true, true);
         } catch (IOException e) {
           Log.w(TAG, e);
         }
@@ -98,7 +104,7 @@ public class OutgoingLegacyMmsConnection extends LegacyMmsConnection implements
         Log.w(TAG, "Sending MMS with radio change and without proxy...");
 
         try {
-          return send(pduBytes, true, false);
+          return send(pduEntity, true, false);
         } catch (IOException ioe) {
           Log.w(TAG, ioe);
           throw new UndeliverableMessageException(ioe);
@@ -114,25 +120,25 @@ public class OutgoingLegacyMmsConnection extends LegacyMmsConnection implements
 
   }
 
-  private SendConf send(byte[] pduBytes, boolean useMmsRadio, boolean useProxyIfAvailable)  throws IOException {
-    byte[] response = sendBytes(pduBytes, useMmsRadio, useProxyIfAvailable);
+  private SendConf send(HttpEntity pdu, boolean useMmsRadio, boolean useProxyIfAvailable)  throws IOException {
+    byte[] response = sendBytes(pdu, useMmsRadio, useProxyIfAvailable);
     return (SendConf) new PduParser(response).parse();
   }
 
-  private byte[] sendBytes(byte[] pduBytes, boolean useMmsRadio, boolean useProxyIfAvailable) throws IOException {
+  private byte[] sendBytes(HttpEntity pdu, boolean useMmsRadio, boolean useProxyIfAvailable) throws IOException {
     final boolean useProxy   = useProxyIfAvailable && apn.hasProxy();
     final String  targetHost = useProxy
                              ? apn.getProxy()
                              : Uri.parse(apn.getMmsc()).getHost();
 
-    Log.w(TAG, "Sending MMS of length: " + pduBytes.length
+    Log.w(TAG, "Sending MMS of length: " + pdu.getContentLength()
                + (useMmsRadio ? ", using mms radio" : "")
                + (useProxy ? ", using proxy" : ""));
 
     try {
       if (checkRouteToHost(context, targetHost, useMmsRadio)) {
         Log.w(TAG, "got successful route to host " + targetHost);
-        byte[] response = execute(constructRequest(pduBytes, useProxy));
+        byte[] response = execute(constructRequest(pdu, useProxy));
         if (response != null) return response;
       }
     } catch (IOException ioe) {
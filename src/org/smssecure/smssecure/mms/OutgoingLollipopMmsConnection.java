@@ -28,10 +28,7 @@ import android.util.Log;
 
 import org.smssecure.smssecure.providers.MmsBodyProvider;
 import org.smssecure.smssecure.transport.UndeliverableMessageException;
-import org.smssecure.smssecure.util.Util;
 
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
 import java.util.concurrent.TimeoutException;
 
 import ws.com.google.android.mms.pdu.PduParser;
@@ -59,14 +56,11 @@ public class OutgoingLollipopMmsConnection extends LollipopMmsConnection impleme
 
   @Override
   @TargetApi(VERSION_CODES.LOLLIPOP)
-  public @Nullable synchronized SendConf send(@NonNull byte[] pduBytes, int subscriptionId)
+  public @Nullable synchronized SendConf send(@NonNull MmsBodyProvider.Pointer pdu, int subscriptionId)
       throws UndeliverableMessageException
   {
     beginTransaction();
     try {
-      MmsBodyProvider.Pointer pointer = MmsBodyProvider.makeTemporaryPointer(getContext());
-      Util.copy(new ByteArrayInputStream(pduBytes), pointer.getOutputStream());
-
       SmsManager smsManager;
 
       if (VERSION.SDK_INT >= 22 && subscriptionId != -1) {
@@ -76,7 +70,7 @@ public class OutgoingLollipopMmsConnection extends LollipopMmsConnection impleme
       }
 
       smsManager.sendMultimediaMessage(getContext(),
-                                       pointer.getUri(),
+                                       pdu.getUri(),
                                        null,
                                        null,
                                        getPendingIntent());
@@ -84,14 +78,13 @@ public class OutgoingLollipopMmsConnection extends LollipopMmsConnection impleme
       waitForResult();
 
       Log.w(TAG, "MMS broadcast received and processed.");
-      pointer.close();
 
       if (response == null) {
         throw new UndeliverableMessageException("Null response.");
       }
 
       return (SendConf) new PduParser(response).parse();
-    } catch (IOException | TimeoutException e) {
+    } catch (TimeoutException e) {
       throw new UndeliverableMessageException(e);
     } finally {
       endTransaction();
@@ -4,8 +4,6 @@ import android.content.Context;
 
 import com.bumptech.glide.Glide;
 import com.bumptech.glide.GlideBuilder;
-import com.bumptech.glide.load.engine.cache.DiskCache;
-import com.bumptech.glide.load.engine.cache.DiskCacheAdapter;
 import com.bumptech.glide.module.GlideModule;
 
 import org.smssecure.smssecure.mms.AttachmentStreamUriLoader.AttachmentModel;
@@ -17,7 +15,7 @@ import java.io.InputStream;
 public class SMSSecureGlideModule implements GlideModule {
   @Override
   public void applyOptions(Context context, GlideBuilder builder) {
-    builder.setDiskCache(new NoopDiskCacheFactory());
+    builder.setDiskCache(new EncryptedDiskCache.Factory(context));
   }
 
   @Override
@@ -26,11 +24,4 @@ public class SMSSecureGlideModule implements GlideModule {
     glide.register(ContactPhotoUri.class, InputStream.class, new ContactPhotoUriLoader.Factory());
     glide.register(AttachmentModel.class, InputStream.class, new AttachmentStreamUriLoader.Factory());
   }
-
-  public static class NoopDiskCacheFactory implements DiskCache.Factory {
-    @Override
-    public DiskCache build() {
-      return new DiskCacheAdapter();
-    }
-  }
 }
@@ -39,7 +39,7 @@ public class MarkReadReceiver extends MasterSecretBroadcastReceiver {
             DatabaseFactory.getThreadDatabase(context).setRead(threadId);
           }
 
-          MessageNotifier.updateNotification(context, masterSecret);
+          MessageNotifier.updateNotificationForReadThreads(context, masterSecret, threadIds);
           return null;
         }
       }.execute();
@@ -43,6 +43,8 @@ import org.smssecure.smssecure.ConversationActivity;
 import org.smssecure.smssecure.R;
 import org.smssecure.smssecure.crypto.MasterSecret;
 import org.smssecure.smssecure.database.DatabaseFactory;
+import org.smssecure.smssecure.database.MmsDatabase;
+import org.smssecure.smssecure.database.MmsSmsColumns;
 import org.smssecure.smssecure.database.MmsSmsDatabase;
 import org.smssecure.smssecure.database.SmsDatabase;
 import org.smssecure.smssecure.database.ThreadDatabase;
@@ -56,13 +58,25 @@ import org.smssecure.smssecure.service.KeyCachingService;
 import org.smssecure.smssecure.util.SpanUtil;
 import org.smssecure.smssecure.util.SMSSecurePreferences;
 
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 /**
  * Handles posting system notifications for new messages.
  *
+ * The unread messages are kept in a {@link NotificationState} that is read
+ * from the database once, and afterwards only re-reads the threads an update
+ * is about.  Updates run in order on one thread, and new messages arriving
+ * in a burst are posted together.
  *
  * @author Moxie Marlinspike
  */
@@ -78,6 +92,23 @@ public class MessageNotifier {
 
   public static final String EXTRA_VOICE_REPLY = "extra_voice_reply";
 
+  private static final long DEBOUNCE_MILLIS = 250;
+
+  private static final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+  private static final Set<Long>          pendingThreads        = new HashSet<>();
+  private static final Set<Long>          pendingRemovedThreads = new HashSet<>();
+  private static       boolean            pendingRefresh;
+  private static       boolean            pendingLocked;
+  private static       MasterSecret       pendingMasterSecret;
+  private static       int                pendingFlags;
+  private static       int                pendingReminderCount;
+  private static       ScheduledFuture<?> pendingUpdate;
+
+  // Only touched on the executor.
+  private static NotificationState notificationState;
+  private static boolean           notificationStateDecrypted;
+
   public static void setVisibleThread(long threadId) {
     visibleThread = threadId;
   }
@@ -136,7 +167,33 @@ public class MessageNotifier {
       return;
     }
 
-    updateNotification(context, masterSecret, flags, 0);
+    scheduleUpdate(context, masterSecret, null, null, true, flags, 0, 0);
+  }
+
+  /**
+   * Updates the notification after threads were read, deleted or archived,
+   * dropping them from what's notified without re-reading any thread.
+   */
+  public static void updateNotificationForReadThreads(Context context, MasterSecret masterSecret, long... threadIds) {
+    if (!SMSSecurePreferences.isNotificationsEnabled(context)) {
+      return;
+    }
+
+    scheduleUpdate(context, masterSecret, null, threadIds, false, MNF_LIGHTS_KEEP, 0, 0);
+  }
+
+  /**
+   * Updates the notification after threads were made unread or unmuted,
+   * re-reading just those threads without sounding a new notification.
+   */
+  public static void updateNotificationForThreads(Context context, MasterSecret masterSecret, long... threadIds) {
+    if (!SMSSecurePreferences.isNotificationsEnabled(context)) {
+      return;
+    }
+
+    for (long threadId : threadIds) {
+      scheduleUpdate(context, masterSecret, threadId, null, false, MNF_LIGHTS_KEEP, 0, 0);
+    }
   }
 
   public static void updateNotification(Context context, MasterSecret masterSecret) {
@@ -163,27 +220,98 @@ public class MessageNotifier {
     if (isVisible) {
       sendInThreadNotification(context, threads.getRecipientsForThreadId(threadId));
     } else {
-      updateNotification(context, masterSecret, MNF_DEFAULTS, 0);
+      scheduleUpdate(context, masterSecret, threadId, null, false, MNF_DEFAULTS, 0, DEBOUNCE_MILLIS);
     }
   }
 
-  private static void updateNotification(Context context, MasterSecret masterSecret, int flags, int reminderCount) {
-    Cursor telcoCursor = null;
-    Cursor pushCursor  = null;
+  /**
+   * Queues a notification update, merging it into one that's already queued.
+   *
+   * @param threadId a thread to re-read, or null.
+   * @param removedThreadIds threads to drop without re-reading them, or null.
+   * @param refresh whether to re-read every thread that is notified or has
+   *                unread messages, when the caller doesn't know which
+   *                threads changed.
+   */
+  private static synchronized void scheduleUpdate(final Context context, @Nullable MasterSecret masterSecret,
+                                                  @Nullable Long threadId, @Nullable long[] removedThreadIds,
+                                                  boolean refresh, int flags, int reminderCount, long delay)
+  {
+    if (threadId != null)     pendingThreads.add(threadId);
+
+    if (removedThreadIds != null) {
+      for (long removedThreadId : removedThreadIds) pendingRemovedThreads.add(removedThreadId);
+    }
+
+    if (masterSecret != null) pendingMasterSecret = masterSecret;
+    else                      pendingLocked       = true;
+
+    pendingRefresh      |= refresh;
+    pendingFlags        |= flags;
+    pendingReminderCount = reminderCount;
+
+    if (pendingUpdate == null) {
+      pendingUpdate = executor.schedule(new Runnable() {
+        @Override
+        public void run() {
+          runUpdate(context.getApplicationContext());
+        }
+      }, delay, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private static void runUpdate(Context context) {
+    Set<Long>    threads;
+    Set<Long>    removedThreads;
+    boolean      refresh;
+    MasterSecret masterSecret;
+    int          flags;
+    int          reminderCount;
+
+    synchronized (MessageNotifier.class) {
+      threads        = new HashSet<>(pendingThreads);
+      removedThreads = new HashSet<>(pendingRemovedThreads);
+      refresh        = pendingRefresh;
+      masterSecret   = pendingLocked ? null : pendingMasterSecret;
+      flags          = pendingFlags;
+      reminderCount  = pendingReminderCount;
+
+      pendingThreads.clear();
+      pendingRemovedThreads.clear();
+      pendingRefresh      = false;
+      pendingLocked       = false;
+      pendingMasterSecret = null;
+      pendingFlags        = 0;
+      pendingUpdate       = null;
+    }
 
     try {
-      telcoCursor = DatabaseFactory.getMmsSmsDatabase(context).getUnread();
+      if (notificationState == null || notificationStateDecrypted != (masterSecret != null)) {
+        notificationState          = constructNotificationState(context, masterSecret);
+        notificationStateDecrypted = masterSecret != null;
+      } else {
+        if (refresh) {
+          threads.addAll(notificationState.getThreadIds());
+          threads.addAll(DatabaseFactory.getMmsSmsDatabase(context).getUnreadThreadIds());
+        }
 
-      if ((telcoCursor == null || telcoCursor.isAfterLast()) &&
-          (pushCursor == null || pushCursor.isAfterLast()))
-      {
+        removedThreads.removeAll(threads);
+
+        for (long threadId : removedThreads) {
+          notificationState.removeThreadNotifications(threadId);
+        }
+
+        for (long threadId : threads) {
+          updateThreadNotifications(context, masterSecret, notificationState, threadId);
+        }
+      }
+
+      if (notificationState.isEmpty()) {
         cancelNotification(context);
         clearReminder(context);
         return;
       }
 
-      NotificationState notificationState = constructNotificationState(context, masterSecret, telcoCursor);
-
       if (notificationState.hasMultipleThreads()) {
         sendMultipleThreadNotification(context, notificationState, flags);
       } else {
@@ -193,9 +321,9 @@ public class MessageNotifier {
       if (newNotificationRequested(flags)) {
         scheduleReminder(context, reminderCount);
       }
-    } finally {
-      if (telcoCursor != null) telcoCursor.close();
-      if (pushCursor != null)  pushCursor.close();
+    } catch (RuntimeException e) {
+      Log.w(TAG, e);
+      notificationState = null;
     }
   }
 
@@ -335,51 +463,121 @@ public class MessageNotifier {
     ringtone.play();
   }
 
+  /**
+   * Reads every unread message, which is only needed when there's no state
+   * yet, or the master secret it was read with has come or gone.
+   */
   private static NotificationState constructNotificationState(Context context,
-                                                              MasterSecret masterSecret,
-                                                              Cursor cursor)
+                                                              @Nullable MasterSecret masterSecret)
   {
-    NotificationState notificationState = new NotificationState();
-    MessageRecord record;
-    MmsSmsDatabase.Reader reader;
-
-    if (masterSecret == null) reader = DatabaseFactory.getMmsSmsDatabase(context).readerFor(cursor);
-    else                      reader = DatabaseFactory.getMmsSmsDatabase(context).readerFor(cursor, masterSecret);
-
-    while ((record = reader.getNext()) != null) {
-      Recipient    recipient        = record.getIndividualRecipient();
-      Recipients   recipients       = record.getRecipients();
-      long         threadId         = record.getThreadId();
-      CharSequence body             = record.getDisplayBody();
-      Recipients   threadRecipients = null;
-      SlideDeck    slideDeck        = null;
-      long         timestamp        = record.getTimestamp();
-
-      if (threadId != -1) {
-        threadRecipients = DatabaseFactory.getThreadDatabase(context).getRecipientsForThreadId(threadId);
-      }
+    NotificationState     notificationState = new NotificationState();
+    Map<Long, Recipients> threadRecipients  = new HashMap<>();
+    Cursor                cursor            = DatabaseFactory.getMmsSmsDatabase(context).getUnread();
+    MmsSmsDatabase.Reader reader            = readerFor(context, cursor, masterSecret);
 
-      if (SmsDatabase.Types.isDecryptInProgressType(record.getType()) || !record.getBody().isPlaintext()) {
-        body = SpanUtil.italic(context.getString(R.string.MessageNotifier_encrypted_message));
-      } else if (record.isMms() && TextUtils.isEmpty(body)) {
-        body = SpanUtil.italic(context.getString(R.string.MessageNotifier_media_message));
-        slideDeck = ((MediaMmsMessageRecord)record).getSlideDeck();
-      } else if (record.isMms() && !record.isMmsNotification()) {
-        String message      = context.getString(R.string.MessageNotifier_media_message_with_text, body);
-        int    italicLength = message.length() - body.length();
-        body = SpanUtil.italic(message, italicLength);
-        slideDeck = ((MediaMmsMessageRecord)record).getSlideDeck();
-      }
+    try {
+      while (cursor != null && cursor.moveToNext()) {
+        long       threadId   = cursor.getLong(cursor.getColumnIndexOrThrow(MmsSmsColumns.THREAD_ID));
+        Recipients recipients = null;
+
+        if (threadId != -1) {
+          if (threadRecipients.containsKey(threadId)) {
+            recipients = threadRecipients.get(threadId);
+          } else {
+            recipients = DatabaseFactory.getThreadDatabase(context).getRecipientsForThreadId(threadId);
+            threadRecipients.put(threadId, recipients);
+          }
+        }
 
-      if (threadRecipients == null || !threadRecipients.isMuted()) {
-        notificationState.addNotification(new NotificationItem(recipient, recipients, threadRecipients, threadId, body, timestamp, slideDeck));
+        if (recipients == null || !recipients.isMuted()) {
+          notificationState.addNotification(getKey(cursor), getNotificationItem(context, reader.getCurrent(), recipients));
+        }
       }
+    } finally {
+      if (cursor != null) reader.close();
     }
 
-    reader.close();
     return notificationState;
   }
 
+  /**
+   * Re-reads one thread's unread messages, decrypting only the ones that
+   * aren't already notified as they are now.
+   */
+  private static void updateThreadNotifications(Context context, @Nullable MasterSecret masterSecret,
+                                                NotificationState notificationState, long threadId)
+  {
+    Recipients                              threadRecipients = DatabaseFactory.getThreadDatabase(context).getRecipientsForThreadId(threadId);
+    LinkedHashMap<String, NotificationItem> items            = new LinkedHashMap<>();
+
+    if (threadRecipients == null || !threadRecipients.isMuted()) {
+      Map<String, NotificationItem> notified = notificationState.getThreadNotifications(threadId);
+      Cursor                        cursor   = DatabaseFactory.getMmsSmsDatabase(context).getUnread(threadId);
+      MmsSmsDatabase.Reader         reader   = readerFor(context, cursor, masterSecret);
+
+      try {
+        while (cursor != null && cursor.moveToNext()) {
+          String           key  = getKey(cursor);
+          NotificationItem item = notified.get(key);
+
+          if (item == null) {
+            item = getNotificationItem(context, reader.getCurrent(), threadRecipients);
+          }
+
+          items.put(key, item);
+        }
+      } finally {
+        if (cursor != null) reader.close();
+      }
+    }
+
+    notificationState.setThreadNotifications(threadId, items);
+  }
+
+  private static MmsSmsDatabase.Reader readerFor(Context context, Cursor cursor, @Nullable MasterSecret masterSecret) {
+    if (masterSecret == null) return DatabaseFactory.getMmsSmsDatabase(context).readerFor(cursor);
+    else                      return DatabaseFactory.getMmsSmsDatabase(context).readerFor(cursor, masterSecret);
+  }
+
+  /**
+   * @return a key for the message that changes whenever what it displays would.
+   */
+  private static String getKey(Cursor cursor) {
+    String body = cursor.getString(cursor.getColumnIndexOrThrow(SmsDatabase.BODY));
+
+    return cursor.getString(cursor.getColumnIndexOrThrow(MmsSmsColumns.UNIQUE_ROW_ID)) + ":" +
+           cursor.getString(cursor.getColumnIndexOrThrow(SmsDatabase.TYPE)) + ":" +
+           cursor.getString(cursor.getColumnIndexOrThrow(MmsDatabase.MESSAGE_BOX)) + ":" +
+           cursor.getString(cursor.getColumnIndexOrThrow(MmsDatabase.MESSAGE_TYPE)) + ":" +
+           cursor.getString(cursor.getColumnIndexOrThrow(MmsDatabase.PART_COUNT)) + ":" +
+           (body != null ? body.hashCode() : 0);
+  }
+
+  private static NotificationItem getNotificationItem(Context context, MessageRecord record,
+                                                      @Nullable Recipients threadRecipients)
+  {
+    Recipient    recipient  = record.getIndividualRecipient();
+    Recipients   recipients = record.getRecipients();
+    long         threadId   = record.getThreadId();
+    CharSequence body       = record.getDisplayBody();
+    SlideDeck    slideDeck  = null;
+    long         timestamp  = record.getTimestamp();
+
+    if (SmsDatabase.Types.isDecryptInProgressType(record.getType()) || !record.getBody().isPlaintext()) {
+      body = SpanUtil.italic(context.getString(R.string.MessageNotifier_encrypted_message));
+    } else if (record.isMms() && TextUtils.isEmpty(body)) {
+      body = SpanUtil.italic(context.getString(R.string.MessageNotifier_media_message));
+      slideDeck = ((MediaMmsMessageRecord)record).getSlideDeck();
+    } else if (record.isMms() && !record.isMmsNotification()) {
+      String message      = context.getString(R.string.MessageNotifier_media_message_with_text, body);
+      int    italicLength = message.length() - body.length();
+      body = SpanUtil.italic(message, italicLength);
+      slideDeck = ((MediaMmsMessageRecord)record).getSlideDeck();
+    }
+
+    return new NotificationItem(recipient, recipients, threadRecipients, threadId, body, timestamp, slideDeck);
+  }
+
   private static void scheduleReminder(Context context, int count) {
     if (count >= SMSSecurePreferences.getRepeatAlertsCount(context)) {
       return;
@@ -413,7 +611,7 @@ public class MessageNotifier {
         protected Void doInBackground(Void... params) {
           MasterSecret masterSecret  = KeyCachingService.getMasterSecret(context);
           int          reminderCount = intent.getIntExtra("reminder_count", 0);
-          MessageNotifier.updateNotification(context, masterSecret, MNF_DEFAULTS, reminderCount + 1);
+          MessageNotifier.scheduleUpdate(context, masterSecret, null, null, false, MNF_DEFAULTS, reminderCount + 1, 0);
 
           return null;
         }
@@ -4,6 +4,7 @@ import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
+import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
@@ -12,27 +13,75 @@ import org.smssecure.smssecure.ConversationPopupActivity;
 import org.smssecure.smssecure.database.RecipientPreferenceDatabase.VibrateState;
 import org.smssecure.smssecure.recipients.Recipients;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+/**
+ * The unread messages that are notified, kept per thread so that a thread
+ * can be replaced on its own when it gets a new message or is read.
+ */
 public class NotificationState {
 
-  private final LinkedList<NotificationItem> notifications = new LinkedList<>();
-  private final Set<Long>                    threads       = new HashSet<>();
+  private final Map<Long, LinkedHashMap<String, NotificationItem>> threadNotifications = new HashMap<>();
+  private final Set<Long>                                          threads             = threadNotifications.keySet();
 
-  private int notificationCount = 0;
+  private LinkedList<NotificationItem> notifications;
 
-  public void addNotification(NotificationItem item) {
-    notifications.addFirst(item);
-    threads.add(item.getThreadId());
-    notificationCount++;
+  public void addNotification(String key, NotificationItem item) {
+    LinkedHashMap<String, NotificationItem> items = threadNotifications.get(item.getThreadId());
+
+    if (items == null) {
+      items = new LinkedHashMap<>();
+      threadNotifications.put(item.getThreadId(), items);
+    }
+
+    items.put(key, item);
+    notifications = null;
+  }
+
+  /**
+   * @return the thread's notifications, oldest first, keyed as they were added.
+   */
+  public @NonNull Map<String, NotificationItem> getThreadNotifications(long threadId) {
+    Map<String, NotificationItem> items = threadNotifications.get(threadId);
+    return items != null ? items : Collections.<String, NotificationItem>emptyMap();
+  }
+
+  /**
+   * Replaces a thread's notifications, or removes the thread when there are none.
+   */
+  public void setThreadNotifications(long threadId, @NonNull LinkedHashMap<String, NotificationItem> items) {
+    if (items.isEmpty()) threadNotifications.remove(threadId);
+    else                 threadNotifications.put(threadId, items);
+
+    notifications = null;
+  }
+
+  public void removeThreadNotifications(long threadId) {
+    if (threadNotifications.remove(threadId) != null) {
+      notifications = null;
+    }
+  }
+
+  public @NonNull Set<Long> getThreadIds() {
+    return new HashSet<>(threads);
+  }
+
+  public boolean isEmpty() {
+    return threads.isEmpty();
   }
 
   public @Nullable Uri getRingtone() {
-    if (!notifications.isEmpty()) {
-      Recipients recipients = notifications.getFirst().getRecipients();
+    if (!isEmpty()) {
+      Recipients recipients = getNotifications().get(0).getRecipients();
 
       if (recipients != null) {
         return recipients.getRingtone();
@@ -43,8 +92,8 @@ public class NotificationState {
   }
 
   public VibrateState getVibrate() {
-    if (!notifications.isEmpty()) {
-      Recipients recipients = notifications.getFirst().getRecipients();
+    if (!isEmpty()) {
+      Recipients recipients = getNotifications().get(0).getRecipients();
 
       if (recipients != null) {
         return recipients.getVibrate();
@@ -63,10 +112,37 @@ public class NotificationState {
   }
 
   public int getMessageCount() {
-    return notificationCount;
+    int count = 0;
+
+    for (Map<String, NotificationItem> items : threadNotifications.values()) {
+      count += items.size();
+    }
+
+    return count;
   }
 
+  /**
+   * @return every notification, newest first.
+   */
   public List<NotificationItem> getNotifications() {
+    if (notifications == null) {
+      notifications = new LinkedList<>();
+
+      for (Map<String, NotificationItem> items : threadNotifications.values()) {
+        List<NotificationItem> newestFirst = new ArrayList<>(items.values());
+        Collections.reverse(newestFirst);
+        notifications.addAll(newestFirst);
+      }
+
+      Collections.sort(notifications, new Comparator<NotificationItem>() {
+        @Override
+        public int compare(NotificationItem lhs, NotificationItem rhs) {
+          long difference = rhs.getTimestamp() - lhs.getTimestamp();
+          return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+        }
+      });
+    }
+
     return notifications;
   }
 
@@ -16,6 +16,7 @@ import android.support.v4.app.RemoteInput;
 import android.text.SpannableStringBuilder;
 
 import com.bumptech.glide.Glide;
+import com.bumptech.glide.load.engine.DiskCacheStrategy;
 
 import org.smssecure.smssecure.R;
 import org.smssecure.smssecure.crypto.MasterSecret;
@@ -217,6 +218,7 @@ public class SingleRecipientNotificationBuilder extends AbstractNotificationBuil
       return Glide.with(context)
                   .load(new DecryptableStreamUriLoader.DecryptableUri(masterSecret, uri))
                   .asBitmap()
+                  .diskCacheStrategy(DiskCacheStrategy.NONE)
                   .into(500, 500)
                   .get();
     } catch (InterruptedException | ExecutionException e) {
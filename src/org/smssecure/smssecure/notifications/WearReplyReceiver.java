@@ -78,7 +78,7 @@ public class WearReplyReceiver extends MasterSecretBroadcastReceiver {
           }
 
           DatabaseFactory.getThreadDatabase(context).setRead(threadId);
-          MessageNotifier.updateNotification(context, masterSecret);
+          MessageNotifier.updateNotificationForReadThreads(context, masterSecret, threadId);
 
           return null;
         }
@@ -18,7 +18,9 @@ package org.smssecure.smssecure.protocol;
 
 
 import org.smssecure.smssecure.util.Base64;
+import org.smssecure.smssecure.util.LRUCache;
 
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
@@ -38,29 +40,71 @@ public abstract class WirePrefix {
   private static final int PREFIX_BYTES    = 3;
   public  static final int PREFIX_SIZE     = 4;
 
+  public static final int TYPE_NONE         = 0;
+  public static final int TYPE_SECURE       = 1;
+  public static final int TYPE_KEY_EXCHANGE = 2;
+  public static final int TYPE_PREKEY       = 3;
+  public static final int TYPE_END_SESSION  = 4;
+
+  private static final char[] TYPE_TAGS  = {'M', 'K', 'P', 'E'};
+  private static final int[]  TYPE_CODES = {TYPE_SECURE, TYPE_KEY_EXCHANGE, TYPE_PREKEY, TYPE_END_SESSION};
+
+  private static final LRUCache<String, Integer> RECENT_TYPES = new LRUCache<>(16);
+
+  private static final ThreadLocal<PrefixDigest> PREFIX_DIGEST = new ThreadLocal<PrefixDigest>() {
+    @Override
+    protected PrefixDigest initialValue() {
+      return new PrefixDigest();
+    }
+  };
+
   public abstract String calculatePrefix(String message);
 
   public static boolean isKeyExchange(String message) {
-    return verifyPrefix("?TSK", message);
+    return getWireType(message) == TYPE_KEY_EXCHANGE;
   }
 
   public static boolean isEncryptedMessage(String message) {
-    return verifyPrefix("?TSM", message);
+    return getWireType(message) == TYPE_SECURE;
   }
 
   public static boolean isPreKeyBundle(String message) {
-    return verifyPrefix("?TSP", message);
+    return getWireType(message) == TYPE_PREKEY;
   }
 
   public static boolean isEndSession(String message) {
-    return verifyPrefix("?TSE", message);
+    return getWireType(message) == TYPE_END_SESSION;
   }
 
   public static boolean isPrefixedMessage(String message) {
-    return isEncryptedMessage(message) ||
-           isKeyExchange(message)      ||
-           isPreKeyBundle(message)     ||
-           isEndSession(message);
+    return getWireType(message) != TYPE_NONE;
+  }
+
+  /**
+   * Classifies a message body in a single pass.  Bodies that can't be
+   * prefixed wire messages (anything that isn't entirely Base64) are
+   * rejected without hashing, and the result for recent bodies is
+   * remembered since the same SMS is classified by the listener, the
+   * receive job and the multipart handler in turn.
+   *
+   * @return One of the TYPE_* constants.
+   */
+  public static int getWireType(String message) {
+    if (message == null || message.length() <= PREFIX_SIZE || !isBase64(message))
+      return TYPE_NONE;
+
+    synchronized (RECENT_TYPES) {
+      Integer cached = RECENT_TYPES.get(message);
+      if (cached != null) return cached;
+    }
+
+    int type = calculateWireType(message);
+
+    synchronized (RECENT_TYPES) {
+      RECENT_TYPES.put(message, type);
+    }
+
+    return type;
   }
 
   public static String calculateKeyExchangePrefix(String message) {
@@ -79,33 +123,47 @@ public abstract class WirePrefix {
     return calculatePrefix(("?TSE" + message).getBytes(), PREFIX_BYTES);
   }
 
-  private static boolean verifyPrefix(String prefixType, String message) {
-    if (message.length() <= PREFIX_SIZE)
-      return false;
+  private static int calculateWireType(String message) {
+    // The hashed input is "?TS" + type tag + body, so build it once and
+    // only swap the tag between candidates.
+    byte[] input = new byte[message.length()];
+    input[0] = '?';
+    input[1] = 'T';
+    input[2] = 'S';
 
-    String prefix           = message.substring(0, PREFIX_SIZE);
-    message                 = message.substring(PREFIX_SIZE);
+    for (int i=PREFIX_SIZE;i<message.length();i++) {
+      input[i] = (byte)message.charAt(i);
+    }
 
-    String calculatedPrefix = calculatePrefix((prefixType + message).getBytes(), PREFIX_BYTES);
+    for (int i=0;i<TYPE_TAGS.length;i++) {
+      input[3] = (byte)TYPE_TAGS[i];
 
-    assert(calculatedPrefix.length() == PREFIX_SIZE);
+      String calculatedPrefix = calculatePrefix(input, PREFIX_BYTES);
 
-    return prefix.equals(calculatedPrefix);
+      if (message.regionMatches(0, calculatedPrefix, 0, PREFIX_SIZE)) {
+        return TYPE_CODES[i];
+      }
+    }
+
+    return TYPE_NONE;
   }
 
-  private static String calculatePrefix(byte[] message, int byteCount) {
-    try {
-      MessageDigest md     = MessageDigest.getInstance("SHA1");
-      byte[] runningDigest = message;
+  private static boolean isBase64(String message) {
+    for (int i=0;i<message.length();i++) {
+      char c = message.charAt(i);
 
-      for (int i=0;i<HASH_ITERATIONS;i++) {
-        runningDigest = md.digest(runningDigest);
+      if (!((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') ||
+            (c >= '0' && c <= '9') || c == '+' || c == '/'))
+      {
+        return false;
       }
-
-      return Base64.encodeBytes(runningDigest, 0, byteCount);
-    } catch (NoSuchAlgorithmException e) {
-      throw new AssertionError(e);
     }
+
+    return true;
+  }
+
+  private static String calculatePrefix(byte[] message, int byteCount) {
+    return Base64.encodeBytes(PREFIX_DIGEST.get().digest(message), 0, byteCount);
   }
 
   public static String calculateEncryptedMmsSubject() {
@@ -132,4 +190,34 @@ public abstract class WirePrefix {
     String calculatedPrefix = calculatePrefix(postfix.getBytes(), 6);
     return calculatedPrefix.equals(prefix);
   }
+
+  private static class PrefixDigest {
+    private final MessageDigest md;
+    private final byte[]        runningDigest;
+
+    PrefixDigest() {
+      try {
+        this.md            = MessageDigest.getInstance("SHA1");
+        this.runningDigest = new byte[md.getDigestLength()];
+      } catch (NoSuchAlgorithmException e) {
+        throw new AssertionError(e);
+      }
+    }
+
+    byte[] digest(byte[] message) {
+      try {
+        md.update(message);
+        md.digest(runningDigest, 0, runningDigest.length);
+
+        for (int i=1;i<HASH_ITERATIONS;i++) {
+          md.update(runningDigest);
+          md.digest(runningDigest, 0, runningDigest.length);
+        }
+
+        return runningDigest;
+      } catch (DigestException e) {
+        throw new AssertionError(e);
+      }
+    }
+  }
 }
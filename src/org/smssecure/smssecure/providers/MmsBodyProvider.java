@@ -50,9 +50,9 @@ public class MmsBodyProvider extends ContentProvider {
   }
 
 
-  private File getFile(Uri uri) {
+  private static File getFile(Context context, Uri uri) {
     long id = Long.parseLong(uri.getPathSegments().get(1));
-    return new File(getContext().getCacheDir(), id + ".mmsbody");
+    return new File(context.getCacheDir(), id + ".mmsbody");
   }
 
   @Override
@@ -62,7 +62,7 @@ public class MmsBodyProvider extends ContentProvider {
     switch (uriMatcher.match(uri)) {
     case SINGLE_ROW:
       Log.w(TAG, "Fetching message body for a single row...");
-      File tmpFile = getFile(uri);
+      File tmpFile = getFile(getContext(), uri);
 
       final int fileMode;
       switch (mode) {
@@ -84,7 +84,7 @@ public class MmsBodyProvider extends ContentProvider {
   public int delete(Uri uri, String arg1, String[] arg2) {
     switch (uriMatcher.match(uri)) {
     case SINGLE_ROW:
-      return getFile(uri).delete() ? 1 : 0;
+      return getFile(getContext(), uri).delete() ? 1 : 0;
     }
     return 0;
   }
@@ -133,6 +133,10 @@ public class MmsBodyProvider extends ContentProvider {
       return context.getContentResolver().openInputStream(uri);
     }
 
+    public File getFile() {
+      return MmsBodyProvider.getFile(context, uri);
+    }
+
     public void close() {
       context.getContentResolver().delete(uri, null, null);
     }
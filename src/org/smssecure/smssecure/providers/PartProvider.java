@@ -27,16 +27,25 @@ import android.support.annotation.NonNull;
 import android.util.Log;
 
 import org.smssecure.smssecure.attachments.AttachmentId;
+import org.smssecure.smssecure.attachments.DatabaseAttachment;
 import org.smssecure.smssecure.crypto.MasterSecret;
 import org.smssecure.smssecure.database.DatabaseFactory;
 import org.smssecure.smssecure.mms.PartUriParser;
 import org.smssecure.smssecure.service.KeyCachingService;
+import org.smssecure.smssecure.util.MediaUtil;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class PartProvider extends ContentProvider {
   private static final String TAG = PartProvider.class.getSimpleName();
@@ -44,6 +53,14 @@ public class PartProvider extends ContentProvider {
   private static final String CONTENT_URI_STRING = "content://org.smssecure.provider.smssecure/part";
   private static final Uri    CONTENT_URI        = Uri.parse(CONTENT_URI_STRING);
   private static final int    SINGLE_ROW         = 1;
+  private static final int    MAX_STREAMS        = 4;
+
+  /**
+   * Decrypts parts into pipes.  A worker is held for as long as its reader
+   * takes, so once they are all busy further parts go through temp files.
+   */
+  private static final ExecutorService streamExecutor = new ThreadPoolExecutor(0, MAX_STREAMS, 30, TimeUnit.SECONDS,
+                                                                               new SynchronousQueue<Runnable>());
 
   private static final UriMatcher uriMatcher;
 
@@ -66,21 +83,110 @@ public class PartProvider extends ContentProvider {
   @SuppressWarnings("ConstantConditions")
   private File copyPartToTemporaryFile(MasterSecret masterSecret, AttachmentId attachmentId) throws IOException {
     InputStream in        = DatabaseFactory.getAttachmentDatabase(getContext()).getAttachmentStream(masterSecret, attachmentId);
+
+    if (in == null) {
+      throw new FileNotFoundException("No stream for " + attachmentId);
+    }
+
     File tmpDir           = getContext().getDir("tmp", 0);
     File tmpFile          = File.createTempFile("test", ".jpg", tmpDir);
     FileOutputStream fout = new FileOutputStream(tmpFile);
 
-    byte[] buffer         = new byte[512];
+    byte[] buffer         = new byte[8192];
     int read;
 
     while ((read = in.read(buffer)) != -1)
       fout.write(buffer, 0, read);
 
     in.close();
+    fout.close();
 
     return tmpFile;
   }
 
+  private ParcelFileDescriptor openTemporaryFile(MasterSecret masterSecret, AttachmentId attachmentId, long start)
+      throws IOException
+  {
+    File                 tmpFile = copyPartToTemporaryFile(masterSecret, attachmentId);
+    ParcelFileDescriptor pdf     = ParcelFileDescriptor.open(tmpFile, ParcelFileDescriptor.MODE_READ_ONLY);
+
+    if (!tmpFile.delete()) {
+      Log.w(TAG, "Failed to delete temp file.");
+    }
+
+    Log.w(TAG, "Temp file first byte after " + (System.currentTimeMillis() - start) + "ms");
+    return pdf;
+  }
+
+  /**
+   * Decrypts the part into a pipe on a worker thread, so the reader can
+   * start before the part is decrypted and no plaintext is written to disk.
+   * Pipes can't seek.
+   */
+  private ParcelFileDescriptor openPipe(MasterSecret masterSecret, final AttachmentId attachmentId, final long start)
+      throws IOException
+  {
+    final InputStream in = DatabaseFactory.getAttachmentDatabase(getContext()).getAttachmentStream(masterSecret, attachmentId);
+
+    if (in == null) {
+      throw new FileNotFoundException("No stream for " + attachmentId);
+    }
+
+    final ParcelFileDescriptor[] pipe = ParcelFileDescriptor.createPipe();
+
+    try {
+      streamExecutor.execute(new Runnable() {
+        @Override
+        public void run() {
+          OutputStream out = new ParcelFileDescriptor.AutoCloseOutputStream(pipe[1]);
+
+          try {
+            byte[]  buffer = new byte[8192];
+            boolean first  = true;
+            int     read;
+
+            while ((read = in.read(buffer)) != -1) {
+              out.write(buffer, 0, read);
+
+              if (first) {
+                Log.w(TAG, "Pipe first byte after " + (System.currentTimeMillis() - start) + "ms");
+                first = false;
+              }
+            }
+          } catch (IOException e) {
+            Log.w(TAG, "Stopped streaming " + attachmentId + ": " + e.getMessage());
+          } finally {
+            close(in);
+            close(out);
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      close(in);
+      close(pipe[0]);
+      close(pipe[1]);
+      throw e;
+    }
+
+    return pipe[0];
+  }
+
+  /**
+   * Audio and video players seek, which a pipe can't do.
+   */
+  private boolean requiresSeekableDescriptor(AttachmentId attachmentId) {
+    DatabaseAttachment attachment = DatabaseFactory.getAttachmentDatabase(getContext()).getAttachment(attachmentId);
+    return attachment == null || MediaUtil.isAudio(attachment) || MediaUtil.isVideo(attachment);
+  }
+
+  private static void close(Closeable closeable) {
+    try {
+      closeable.close();
+    } catch (IOException e) {
+      Log.w(TAG, e);
+    }
+  }
+
   @Override
   public ParcelFileDescriptor openFile(@NonNull Uri uri, @NonNull String mode) throws FileNotFoundException {
     MasterSecret masterSecret = KeyCachingService.getMasterSecret(getContext());
@@ -95,15 +201,20 @@ public class PartProvider extends ContentProvider {
     case SINGLE_ROW:
       Log.w(TAG, "Parting out a single row...");
       try {
-        PartUriParser        partUri = new PartUriParser(uri);
-        File                 tmpFile = copyPartToTemporaryFile(masterSecret, partUri.getPartId());
-        ParcelFileDescriptor pdf     = ParcelFileDescriptor.open(tmpFile, ParcelFileDescriptor.MODE_READ_ONLY);
+        PartUriParser partUri = new PartUriParser(uri);
+        AttachmentId  partId  = partUri.getPartId();
+        long          start   = System.currentTimeMillis();
 
-        if (!tmpFile.delete()) {
-          Log.w(TAG, "Failed to delete temp file.");
+        if (requiresSeekableDescriptor(partId)) {
+          return openTemporaryFile(masterSecret, partId, start);
         }
 
-        return pdf;
+        try {
+          return openPipe(masterSecret, partId, start);
+        } catch (RejectedExecutionException e) {
+          Log.w(TAG, "All stream workers busy, falling back to a temp file.");
+          return openTemporaryFile(masterSecret, partId, start);
+        }
       } catch (IOException ioe) {
         Log.w(TAG, ioe);
         throw new FileNotFoundException("Error opening file");
@@ -111,7 +111,7 @@ public class PersistentBlobProvider {
   public @NonNull InputStream getStream(MasterSecret masterSecret, long id) throws IOException {
     final byte[] cached = cache.get(id);
     return cached != null ? new ByteArrayInputStream(cached)
-                          : new DecryptingPartInputStream(getFile(id), masterSecret);
+                          : DecryptingPartInputStream.createFor(getFile(id), masterSecret);
   }
 
   private File getFile(long id) {
@@ -12,13 +12,14 @@ import org.smssecure.smssecure.crypto.DecryptingPartInputStream;
 import org.smssecure.smssecure.crypto.EncryptingPartOutputStream;
 import org.smssecure.smssecure.crypto.MasterSecret;
 import org.smssecure.smssecure.recipients.Recipients;
+import org.smssecure.smssecure.util.ByteBufferInputStream;
 import org.smssecure.smssecure.util.Util;
 
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.Arrays;
@@ -33,7 +34,7 @@ public class SingleUseBlobProvider {
   public  static final String PATH        = "memory/*/#";
   private static final Uri    CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/memory");
 
-  private final Map<Long, byte[]> cache = new HashMap<>();
+  private final Map<Long, ByteBuffer> cache = new HashMap<>();
 
   private static final SingleUseBlobProvider instance = new SingleUseBlobProvider();
 
@@ -43,7 +44,15 @@ public class SingleUseBlobProvider {
 
   private SingleUseBlobProvider() {}
 
-  public synchronized Uri createUri(@NonNull byte[] blob) {
+  public Uri createUri(@NonNull byte[] blob) {
+    return createUri(ByteBuffer.wrap(blob));
+  }
+
+  /**
+   * The blob is streamed from the buffer without being copied, so the
+   * buffer mustn't change until the stream has been read.
+   */
+  public synchronized Uri createUri(@NonNull ByteBuffer blob) {
     try {
       long id = Math.abs(SecureRandom.getInstance("SHA1PRNG").nextLong());
       cache.put(id, blob);
@@ -56,10 +65,10 @@ public class SingleUseBlobProvider {
   }
 
   public synchronized @NonNull InputStream getStream(long id) throws IOException {
-    byte[] cached = cache.get(id);
+    ByteBuffer cached = cache.get(id);
     cache.remove(id);
 
-    if (cached != null) return new ByteArrayInputStream(cached);
+    if (cached != null) return new ByteBufferInputStream(cached);
     else                throw new IOException("ID not found: " + id);
 
   }
@@ -19,6 +19,8 @@ package org.smssecure.smssecure.recipients;
 import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.Build;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
 import android.provider.ContactsContract.Contacts;
 import android.provider.ContactsContract.PhoneLookup;
 import android.support.annotation.NonNull;
@@ -35,27 +37,35 @@ import org.smssecure.smssecure.database.DatabaseFactory;
 import org.smssecure.smssecure.database.GroupDatabase;
 import org.smssecure.smssecure.database.RecipientPreferenceDatabase.RecipientsPreferences;
 import org.smssecure.smssecure.util.GroupUtil;
-import org.smssecure.smssecure.util.LRUCache;
 import org.smssecure.smssecure.util.ListenableFutureTask;
+import org.smssecure.smssecure.util.LongObjectCache;
 import org.smssecure.smssecure.util.Util;
 import org.whispersystems.libaxolotl.util.guava.Optional;
 
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class RecipientProvider {
 
   private static final String TAG = RecipientProvider.class.getSimpleName();
 
-  private static final RecipientCache  recipientCache         = new RecipientCache();
-  private static final RecipientsCache recipientsCache        = new RecipientsCache();
-  private static final ExecutorService asyncRecipientResolver = Util.newSingleThreadedLifoExecutor();
+  private static final RecipientCache           recipientCache         = new RecipientCache();
+  private static final RecipientsCache          recipientsCache        = new RecipientsCache();
+  private static final ExecutorService          asyncRecipientResolver = Util.newSingleThreadedLifoExecutor();
+  private static final ScheduledExecutorService batchTimer             = Executors.newSingleThreadScheduledExecutor();
+
+  private static final long BATCH_WINDOW_MILLIS = 50;
 
   private static final String[] CALLER_ID_PROJECTION = new String[] {
     PhoneLookup.DISPLAY_NAME,
@@ -64,12 +74,24 @@ public class RecipientProvider {
     PhoneLookup.NUMBER
   };
 
+  private static final String[] PHONE_PROJECTION = new String[] {
+    Phone.DISPLAY_NAME,
+    Phone.LOOKUP_KEY,
+    Phone.CONTACT_ID,
+    Phone.NUMBER,
+    Phone.NORMALIZED_NUMBER
+  };
+
   private static final Map<String, RecipientDetails> STATIC_DETAILS = new HashMap<String, RecipientDetails>() {{
     put("262966", new RecipientDetails("Amazon", "262966", null,
                                        ContactPhotoFactory.getDefaultGroupPhoto(),
                                        ContactColors.UNKNOWN_COLOR));
   }};
 
+  private final List<PendingDetails>     pendingDetails     = new LinkedList<>();
+  private final List<PendingPreferences> pendingPreferences = new LinkedList<>();
+  private       boolean                  batchScheduled     = false;
+
   Recipient getRecipient(Context context, long recipientId, boolean asynchronous) {
     Recipient cachedRecipient = recipientCache.get(recipientId);
     if (cachedRecipient != null && !cachedRecipient.isStale()) return cachedRecipient;
@@ -87,7 +109,7 @@ public class RecipientProvider {
   }
 
   Recipients getRecipients(Context context, long[] recipientIds, boolean asynchronous) {
-    Recipients cachedRecipients = recipientsCache.get(new RecipientIds(recipientIds));
+    Recipients cachedRecipients = recipientsCache.get(recipientIds);
     if (cachedRecipients != null && !cachedRecipients.isStale()) return cachedRecipients;
 
     List<Recipient> recipientList = new LinkedList<>();
@@ -99,7 +121,7 @@ public class RecipientProvider {
     if (asynchronous) cachedRecipients = new Recipients(recipientList, cachedRecipients, getRecipientsPreferencesAsync(context, recipientIds));
     else              cachedRecipients = new Recipients(recipientList, getRecipientsPreferencesSync(context, recipientIds));
 
-    recipientsCache.set(new RecipientIds(recipientIds), cachedRecipients);
+    recipientsCache.set(recipientIds, cachedRecipients);
     return cachedRecipients;
   }
 
@@ -108,20 +130,18 @@ public class RecipientProvider {
     recipientsCache.reset();
   }
 
-  private @NonNull ListenableFutureTask<RecipientDetails> getRecipientDetailsAsync(final Context context,
-                                                                                   final long recipientId,
-                                                                                   final @NonNull String number)
+  private @NonNull ListenableFutureTask<RecipientDetails> getRecipientDetailsAsync(Context context,
+                                                                                   long recipientId,
+                                                                                   @NonNull String number)
   {
-    Callable<RecipientDetails> task = new Callable<RecipientDetails>() {
-      @Override
-      public RecipientDetails call() throws Exception {
-        return getRecipientDetailsSync(context, recipientId, number);
-      }
-    };
+    PendingDetails pending = new PendingDetails(context, recipientId, number);
 
-    ListenableFutureTask<RecipientDetails> future = new ListenableFutureTask<>(task);
-    asyncRecipientResolver.submit(future);
-    return future;
+    synchronized (this) {
+      pendingDetails.add(pending);
+      scheduleBatch(context);
+    }
+
+    return pending.future;
   }
 
   private @NonNull RecipientDetails getRecipientDetailsSync(Context context, long recipientId, @NonNull String number) {
@@ -132,9 +152,14 @@ public class RecipientProvider {
   private @NonNull RecipientDetails getIndividualRecipientDetails(Context context, long recipientId, @NonNull String number) {
     Optional<RecipientsPreferences> preferences = DatabaseFactory.getRecipientPreferenceDatabase(context).getRecipientsPreferences(new long[]{recipientId});
     MaterialColor                   color       = preferences.isPresent() ? preferences.get().getColor() : null;
-    Uri                             uri         = Uri.withAppendedPath(PhoneLookup.CONTENT_FILTER_URI, Uri.encode(number));
-    Cursor                          cursor      = context.getContentResolver().query(uri, CALLER_ID_PROJECTION,
-                                                                                     null, null, null);
+
+    return getIndividualRecipientDetails(context, number, color);
+  }
+
+  private @NonNull RecipientDetails getIndividualRecipientDetails(Context context, @NonNull String number, @Nullable MaterialColor color) {
+    Uri    uri    = Uri.withAppendedPath(PhoneLookup.CONTENT_FILTER_URI, Uri.encode(number));
+    Cursor cursor = context.getContentResolver().query(uri, CALLER_ID_PROJECTION,
+                                                       null, null, null);
 
     try {
       if (cursor != null && cursor.moveToFirst()) {
@@ -178,17 +203,164 @@ public class RecipientProvider {
                           .orNull();
   }
 
-  private ListenableFutureTask<RecipientsPreferences> getRecipientsPreferencesAsync(final Context context, final long[] recipientIds) {
-    ListenableFutureTask<RecipientsPreferences> task = new ListenableFutureTask<>(new Callable<RecipientsPreferences>() {
+  private ListenableFutureTask<RecipientsPreferences> getRecipientsPreferencesAsync(Context context, long[] recipientIds) {
+    PendingPreferences pending = new PendingPreferences(context, recipientIds);
+
+    synchronized (this) {
+      pendingPreferences.add(pending);
+      scheduleBatch(context);
+    }
+
+    return pending.future;
+  }
+
+  /**
+   * Asynchronous lookups are queued for a short window, so that binding a
+   * screenful of rows resolves its recipients with a few batched queries
+   * instead of two provider queries per recipient.  The window is timed off
+   * the main thread, so a busy UI doesn't hold lookups back.
+   */
+  private void scheduleBatch(final Context context) {
+    if (batchScheduled) return;
+
+    batchScheduled = true;
+
+    batchTimer.schedule(new Runnable() {
       @Override
-      public RecipientsPreferences call() throws Exception {
-        return getRecipientsPreferencesSync(context, recipientIds);
+      public void run() {
+        asyncRecipientResolver.execute(new Runnable() {
+          @Override
+          public void run() {
+            resolvePending(context.getApplicationContext());
+          }
+        });
       }
-    });
+    }, BATCH_WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+  }
 
-    asyncRecipientResolver.execute(task);
+  private void resolvePending(Context context) {
+    List<PendingDetails>     details;
+    List<PendingPreferences> preferences;
 
-    return task;
+    synchronized (this) {
+      details        = new LinkedList<>(pendingDetails);
+      preferences    = new LinkedList<>(pendingPreferences);
+      batchScheduled = false;
+
+      pendingDetails.clear();
+      pendingPreferences.clear();
+    }
+
+    try {
+      resolveBatch(context, details, preferences);
+    } catch (RuntimeException e) {
+      Log.w(TAG, e);
+    } finally {
+      for (PendingDetails pending : details)         pending.future.run();
+      for (PendingPreferences pending : preferences) pending.future.run();
+    }
+  }
+
+  private void resolveBatch(Context context, List<PendingDetails> details, List<PendingPreferences> preferences) {
+    List<long[]> recipientIds = new LinkedList<>();
+    Set<String>  numbers      = new HashSet<>();
+
+    for (PendingDetails pending : details) {
+      recipientIds.add(new long[] {pending.recipientId});
+
+      if (!GroupUtil.isEncodedGroup(pending.number)) {
+        numbers.add(pending.number);
+      }
+    }
+
+    for (PendingPreferences pending : preferences) {
+      recipientIds.add(pending.recipientIds);
+    }
+
+    Map<String, RecipientsPreferences> preferencesMap = DatabaseFactory.getRecipientPreferenceDatabase(context)
+                                                                       .getRecipientsPreferences(recipientIds);
+    Map<String, RecipientDetails>      contacts       = getContactDetails(context, numbers);
+
+    Log.w(TAG, "Resolved batch of " + details.size() + " recipients, " + preferences.size() + " preferences");
+
+    for (PendingPreferences pending : preferences) {
+      long[] sortedIds = pending.recipientIds.clone();
+      Arrays.sort(sortedIds);
+
+      pending.setResult(preferencesMap.get(Util.join(sortedIds, " ")));
+    }
+
+    for (PendingDetails pending : details) {
+      if (GroupUtil.isEncodedGroup(pending.number)) continue;
+
+      RecipientsPreferences recipientPreferences = preferencesMap.get(String.valueOf(pending.recipientId));
+      MaterialColor         color                = recipientPreferences != null ? recipientPreferences.getColor() : null;
+      RecipientDetails      contact              = contacts.get(pending.number);
+
+      if (contact != null) {
+        pending.setResult(new RecipientDetails(contact.name, contact.number, contact.contactUri, contact.avatar, color));
+      } else {
+        pending.setResult(getIndividualRecipientDetails(context, pending.number, color));
+      }
+    }
+  }
+
+  /**
+   * Matches numbers against the contacts' phone numbers in batched queries.
+   * This only finds exact matches, numbers without one still need a
+   * {@link PhoneLookup}, which matches loosely.
+   */
+  private @NonNull Map<String, RecipientDetails> getContactDetails(Context context, Set<String> numbers) {
+    Map<String, RecipientDetails> results    = new HashMap<>();
+    boolean                       normalized = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN;
+
+    if (numbers.isEmpty()) return results;
+
+    for (List<String> partition : Util.partition(new LinkedList<>(numbers), 450)) {
+      String       placeholders = getPlaceholders(partition.size());
+      String       selection    = Phone.NUMBER + " IN (" + placeholders + ")";
+      String[]     projection   = normalized ? PHONE_PROJECTION : Arrays.copyOf(PHONE_PROJECTION, 4);
+      List<String> args         = new LinkedList<>(partition);
+
+      if (normalized) {
+        selection += " OR " + Phone.NORMALIZED_NUMBER + " IN (" + placeholders + ")";
+        args.addAll(partition);
+      }
+
+      Cursor cursor = context.getContentResolver().query(Phone.CONTENT_URI, projection, selection,
+                                                         args.toArray(new String[args.size()]), null);
+
+      try {
+        while (cursor != null && cursor.moveToNext()) {
+          String number = numbers.contains(cursor.getString(3)) || !normalized ? cursor.getString(3) : cursor.getString(4);
+
+          if (!numbers.contains(number) || results.containsKey(number)) continue;
+
+          Uri          contactUri   = Contacts.getLookupUri(cursor.getLong(2), cursor.getString(1));
+          String       name         = cursor.getString(3).equals(cursor.getString(0)) ? null : cursor.getString(0);
+          ContactPhoto contactPhoto = ContactPhotoFactory.getContactPhoto(context,
+                                                                          Uri.withAppendedPath(Contacts.CONTENT_URI, cursor.getLong(2) + ""),
+                                                                          name);
+
+          results.put(number, new RecipientDetails(cursor.getString(0), cursor.getString(3), contactUri, contactPhoto, null));
+        }
+      } finally {
+        if (cursor != null)
+          cursor.close();
+      }
+    }
+
+    return results;
+  }
+
+  private static String getPlaceholders(int count) {
+    StringBuilder placeholders = new StringBuilder();
+
+    for (int i=0;i<count;i++) {
+      placeholders.append(i == 0 ? "?" : ", ?");
+    }
+
+    return placeholders.toString();
   }
 
   public static class RecipientDetails {
@@ -210,36 +382,70 @@ public class RecipientProvider {
     }
   }
 
-  private static class RecipientIds {
-    private final long[] ids;
+  private static abstract class Pending<T> implements Callable<T> {
+    protected final ListenableFutureTask<T> future = new ListenableFutureTask<>(this);
+
+    private boolean resolved;
+    private T       result;
+
+    protected void setResult(T result) {
+      this.result   = result;
+      this.resolved = true;
+    }
+
+    @Override
+    public T call() throws Exception {
+      return resolved ? result : resolve();
+    }
+
+    protected abstract T resolve() throws Exception;
+  }
+
+  private class PendingDetails extends Pending<RecipientDetails> {
+    private final Context context;
+    private final long    recipientId;
+    private final String  number;
+
+    private PendingDetails(Context context, long recipientId, String number) {
+      this.context     = context.getApplicationContext();
+      this.recipientId = recipientId;
+      this.number      = number;
+    }
 
-    private RecipientIds(long[] ids) {
-      this.ids = ids;
+    @Override
+    protected RecipientDetails resolve() {
+      return getRecipientDetailsSync(context, recipientId, number);
     }
+  }
+
+  private class PendingPreferences extends Pending<RecipientsPreferences> {
+    private final Context context;
+    private final long[]  recipientIds;
 
-    public boolean equals(Object other) {
-      if (other == null || !(other instanceof RecipientIds)) return false;
-      return Arrays.equals(this.ids, ((RecipientIds) other).ids);
+    private PendingPreferences(Context context, long[] recipientIds) {
+      this.context      = context.getApplicationContext();
+      this.recipientIds = recipientIds;
     }
 
-    public int hashCode() {
-      return Arrays.hashCode(ids);
+    @Override
+    protected RecipientsPreferences resolve() {
+      return getRecipientsPreferencesSync(context, recipientIds);
     }
   }
 
   private static class RecipientCache {
 
-    private final Map<Long,Recipient> cache = new LRUCache<>(1000);
+    private final LongObjectCache<Recipient> cache = new LongObjectCache<>(1000);
 
-    public synchronized Recipient get(long recipientId) {
+    public Recipient get(long recipientId) {
       return cache.get(recipientId);
     }
 
-    public synchronized void set(long recipientId, Recipient recipient) {
+    public void set(long recipientId, Recipient recipient) {
       cache.put(recipientId, recipient);
     }
 
-    public synchronized void reset() {
+    public void reset() {
       for (Recipient recipient : cache.values()) {
         recipient.setStale();
       }
@@ -247,21 +453,49 @@ public class RecipientProvider {
 
   }
 
+  /**
+   * Keyed by a 64-bit hash of the id array so that lookups don't allocate a
+   * key.  Each entry keeps its ids, and a lookup whose ids don't match the
+   * entry's (a hash collision) is treated as a miss.
+   */
   private static class RecipientsCache {
 
-    private final Map<RecipientIds,Recipients> cache = new LRUCache<>(1000);
+    private final LongObjectCache<Entry> cache = new LongObjectCache<>(1000);
 
-    public synchronized Recipients get(RecipientIds ids) {
-      return cache.get(ids);
+    public Recipients get(long[] ids) {
+      Entry entry = cache.get(hash(ids));
+
+      if (entry != null && Arrays.equals(entry.ids, ids)) return entry.recipients;
+      else                                                return null;
+    }
+
+    public void set(long[] ids, Recipients recipients) {
+      cache.put(hash(ids), new Entry(ids.clone(), recipients));
+    }
+
+    public void reset() {
+      for (Entry entry : cache.values()) {
+        entry.recipients.setStale();
+      }
     }
 
-    public synchronized void set(RecipientIds ids, Recipients recipients) {
-      cache.put(ids, recipients);
+    private static long hash(long[] ids) {
+      long hash = ids.length;
+
+      for (long id : ids) {
+        hash = (hash ^ id) * 0x100000001B3L;
+      }
+
+      return hash;
     }
 
-    public synchronized void reset() {
-      for (Recipients recipients : cache.values()) {
-        recipients.setStale();
+    private static class Entry {
+      private final long[]     ids;
+      private final Recipients recipients;
+
+      private Entry(long[] ids, Recipients recipients) {
+        this.ids        = ids;
+        this.recipients = recipients;
       }
     }
 
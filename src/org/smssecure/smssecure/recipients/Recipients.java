@@ -320,7 +320,7 @@ public class Recipients implements Iterable<Recipient>, RecipientModifiedListene
     }
   }
 
-  boolean isStale() {
+  public boolean isStale() {
     return stale;
   }
 
@@ -32,14 +32,20 @@ import android.support.v4.app.NotificationCompat;
 import android.util.Log;
 import android.widget.RemoteViews;
 
+import com.bumptech.glide.Glide;
+
 import org.smssecure.smssecure.ApplicationContext;
 import org.smssecure.smssecure.ConversationListActivity;
 import org.smssecure.smssecure.DatabaseUpgradeActivity;
 import org.smssecure.smssecure.DummyActivity;
 import org.smssecure.smssecure.R;
 import org.smssecure.smssecure.crypto.InvalidPassphraseException;
+import org.smssecure.smssecure.crypto.MasterCipher;
 import org.smssecure.smssecure.crypto.MasterSecret;
 import org.smssecure.smssecure.crypto.MasterSecretUtil;
+import org.smssecure.smssecure.crypto.storage.SMSSecureSessionStore;
+import org.smssecure.smssecure.database.PlaintextCache;
+import org.smssecure.smssecure.jobs.persistence.EncryptingJobSerializer;
 import org.smssecure.smssecure.notifications.MessageNotifier;
 import org.smssecure.smssecure.util.DynamicLanguage;
 import org.smssecure.smssecure.util.ParcelUtil;
@@ -95,6 +101,14 @@ public class KeyCachingService extends Service {
     return masterSecret;
   }
 
+  /**
+   * Whether the master secret has been cleared, without unlocking it the way
+   * {@link #getMasterSecret(Context)} does when the passphrase is disabled.
+   */
+  public static synchronized boolean isLocked(Context context) {
+    return masterSecret == null && !SMSSecurePreferences.isPasswordDisabled(context);
+  }
+
   public void setMasterSecret(final MasterSecret masterSecret) {
     synchronized (KeyCachingService.class) {
       KeyCachingService.masterSecret = masterSecret;
@@ -190,6 +204,11 @@ public class KeyCachingService extends Service {
   private void handleClearKey() {
     Log.w("KeyCachingService", "handleClearKey()");
     KeyCachingService.masterSecret = null;
+    MasterCipher.clearInstances();
+    PlaintextCache.getInstance().clear();
+    SMSSecureSessionStore.clearCache();
+    EncryptingJobSerializer.clearCache();
+    Glide.get(this).clearMemory();
     stopForeground(true);
 
     Intent intent = new Intent(CLEAR_KEY_EVENT);
@@ -200,6 +219,7 @@ public class KeyCachingService extends Service {
     new AsyncTask<Void, Void, Void>() {
       @Override
       protected Void doInBackground(Void... params) {
+        Glide.get(KeyCachingService.this).clearDiskCache();
         MessageNotifier.updateNotification(KeyCachingService.this, null);
         return null;
       }
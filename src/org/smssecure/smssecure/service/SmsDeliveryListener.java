@@ -7,8 +7,8 @@ import android.telephony.SmsMessage;
 import android.util.Log;
 
 import org.smssecure.smssecure.ApplicationContext;
+import org.smssecure.smssecure.jobs.JobScheduler;
 import org.smssecure.smssecure.jobs.SmsSentJob;
-import org.whispersystems.jobqueue.JobManager;
 
 public class SmsDeliveryListener extends BroadcastReceiver {
 
@@ -19,7 +19,7 @@ public class SmsDeliveryListener extends BroadcastReceiver {
 
   @Override
   public void onReceive(Context context, Intent intent) {
-    JobManager jobManager = ApplicationContext.getInstance(context).getJobManager();
+    JobScheduler jobManager = ApplicationContext.getInstance(context).getJobManager();
     long       messageId  = intent.getLongExtra("message_id", -1);
 
     switch (intent.getAction()) {
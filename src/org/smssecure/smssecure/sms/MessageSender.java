@@ -28,6 +28,7 @@ import org.smssecure.smssecure.database.MmsDatabase;
 import org.smssecure.smssecure.database.NotInDirectoryException;
 import org.smssecure.smssecure.database.ThreadDatabase;
 import org.smssecure.smssecure.database.model.MessageRecord;
+import org.smssecure.smssecure.jobs.JobScheduler;
 import org.smssecure.smssecure.jobs.MmsSendJob;
 import org.smssecure.smssecure.jobs.SmsSendJob;
 import org.smssecure.smssecure.mms.OutgoingMediaMessage;
@@ -37,7 +38,6 @@ import org.smssecure.smssecure.util.GroupUtil;
 import org.smssecure.smssecure.util.InvalidNumberException;
 import org.smssecure.smssecure.util.SMSSecurePreferences;
 import org.smssecure.smssecure.util.Util;
-import org.whispersystems.jobqueue.JobManager;
 import org.whispersystems.libaxolotl.util.guava.Optional;
 
 import java.io.IOException;
@@ -122,13 +122,13 @@ public class MessageSender {
   private static void sendMediaMessage(Context context, long messageId)
       throws MmsException
   {
-    JobManager jobManager = ApplicationContext.getInstance(context).getJobManager();
+    JobScheduler jobManager = ApplicationContext.getInstance(context).getJobManager();
     jobManager.add(new MmsSendJob(context, messageId));
   }
 
   private static void sendTextMessage(Context context, Recipients recipients, long messageId)
   {
-    JobManager jobManager = ApplicationContext.getInstance(context).getJobManager();
+    JobScheduler jobManager = ApplicationContext.getInstance(context).getJobManager();
     jobManager.add(new SmsSendJob(context, messageId, recipients.getPrimaryRecipient().getName()));
   }
 }
@@ -22,10 +22,10 @@ public class MultipartSmsTransportMessage {
   public static final int MULTI_MESSAGE_MULTIPART_OVERHEAD       = 3;
   public static final int FIRST_MULTI_MESSAGE_MULTIPART_OVERHEAD = 2;
 
-  public static final int WIRETYPE_SECURE      = 1;
-  public static final int WIRETYPE_KEY         = 2;
-  public static final int WIRETYPE_PREKEY      = 3;
-  public static final int WIRETYPE_END_SESSION = 4;
+  public static final int WIRETYPE_SECURE      = WirePrefix.TYPE_SECURE;
+  public static final int WIRETYPE_KEY         = WirePrefix.TYPE_KEY_EXCHANGE;
+  public static final int WIRETYPE_PREKEY      = WirePrefix.TYPE_PREKEY;
+  public static final int WIRETYPE_END_SESSION = WirePrefix.TYPE_END_SESSION;
 
   private static final int VERSION_OFFSET    = 0;
   private static final int MULTIPART_OFFSET  = 1;
@@ -39,10 +39,10 @@ public class MultipartSmsTransportMessage {
     this.message         = message;
     this.decodedMessage  = Base64.decodeWithoutPadding(message.getMessageBody().substring(WirePrefix.PREFIX_SIZE));
 
-    if      (WirePrefix.isEncryptedMessage(message.getMessageBody())) wireType = WIRETYPE_SECURE;
-    else if (WirePrefix.isPreKeyBundle(message.getMessageBody()))     wireType = WIRETYPE_PREKEY;
-    else if (WirePrefix.isEndSession(message.getMessageBody()))       wireType = WIRETYPE_END_SESSION;
-    else                                                              wireType = WIRETYPE_KEY;
+    int type = WirePrefix.getWireType(message.getMessageBody());
+
+    if (type == WirePrefix.TYPE_NONE) wireType = WIRETYPE_KEY;
+    else                              wireType = type;
 
     Log.w(TAG, "Decoded message with version: " + getCurrentVersion());
   }
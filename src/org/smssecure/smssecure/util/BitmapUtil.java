@@ -105,6 +105,11 @@ public class BitmapUtil {
     if (result == null) {
       throw new BitmapDecodingException("unable to transform Bitmap");
     }
+
+    if (result != resource) {
+      resource.recycle();
+    }
+
     return result.get();
   }
 
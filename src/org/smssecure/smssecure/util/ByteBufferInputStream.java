@@ -0,0 +1,48 @@
+package org.smssecure.smssecure.util;
+
+import android.support.annotation.NonNull;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads a ByteBuffer, from its position to its limit, without copying it.
+ */
+public class ByteBufferInputStream extends InputStream {
+
+  private final ByteBuffer buffer;
+
+  public ByteBufferInputStream(@NonNull ByteBuffer buffer) {
+    this.buffer = buffer.duplicate();
+  }
+
+  @Override
+  public int read() {
+    if (!buffer.hasRemaining()) return -1;
+    return buffer.get() & 0xFF;
+  }
+
+  @Override
+  public int read(@NonNull byte[] bytes, int offset, int length) {
+    if (length == 0)            return 0;
+    if (!buffer.hasRemaining()) return -1;
+
+    length = Math.min(length, buffer.remaining());
+    buffer.get(bytes, offset, length);
+
+    return length;
+  }
+
+  @Override
+  public long skip(long count) {
+    int skipped = (int)Math.max(0, Math.min(count, buffer.remaining()));
+    buffer.position(buffer.position() + skipped);
+
+    return skipped;
+  }
+
+  @Override
+  public int available() {
+    return buffer.remaining();
+  }
+}
@@ -0,0 +1,219 @@
+package org.smssecure.smssecure.util;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * An open-addressing map from primitive longs to objects, for caches that are
+ * read far more often than they are written.
+ *
+ * Lookups take no lock and allocate nothing: they linearly probe a volatile
+ * slot array whose slots hold immutable entries.  Writers are serialized.  A
+ * bounded cache evicts using the CLOCK algorithm, which approximates LRU with
+ * a single reference bit per entry.
+ *
+ * A lookup that races with a removal may miss an entry that is present, which
+ * a cache can tolerate.
+ */
+public class LongObjectCache<V> {
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private final int maxSize;
+
+  private volatile Entry<V>[] table;
+  private          int        size;
+  private          int        clockHand;
+
+  public LongObjectCache() {
+    this.maxSize = 0;
+    this.table   = newTable(INITIAL_CAPACITY);
+  }
+
+  /**
+   * @param maxSize the number of entries beyond which the cache evicts.
+   */
+  public LongObjectCache(int maxSize) {
+    if (maxSize <= 0) throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+
+    this.maxSize = maxSize;
+    this.table   = newTable(getCapacityFor(maxSize));
+  }
+
+  public @Nullable V get(long key) {
+    Entry<V>[] table = this.table;
+    int        mask  = table.length - 1;
+
+    for (int i=hash(key) & mask;;i=(i + 1) & mask) {
+      Entry<V> entry = table[i];
+
+      if (entry == null) return null;
+
+      if (entry.key == key) {
+        entry.referenced = true;
+        return entry.value;
+      }
+    }
+  }
+
+  public synchronized void put(long key, @NonNull V value) {
+    Entry<V>[] table = this.table;
+    int        mask  = table.length - 1;
+
+    for (int i=hash(key) & mask;;i=(i + 1) & mask) {
+      Entry<V> entry = table[i];
+
+      if (entry == null) break;
+
+      if (entry.key == key) {
+        table[i] = new Entry<>(key, value);
+        return;
+      }
+    }
+
+    if      (maxSize > 0 && size >= maxSize)        evict();
+    else if (size + 1 > getThreshold(table.length)) resize(table.length * 2);
+
+    insert(this.table, new Entry<>(key, value));
+    size++;
+  }
+
+  public synchronized void remove(long key) {
+    Entry<V>[] table = this.table;
+    int        mask  = table.length - 1;
+
+    for (int i=hash(key) & mask;;i=(i + 1) & mask) {
+      Entry<V> entry = table[i];
+
+      if (entry == null) return;
+
+      if (entry.key == key) {
+        removeAt(table, i);
+        return;
+      }
+    }
+  }
+
+  public synchronized void clear() {
+    table     = newTable(maxSize > 0 ? getCapacityFor(maxSize) : INITIAL_CAPACITY);
+    size      = 0;
+    clockHand = 0;
+  }
+
+  public synchronized int size() {
+    return size;
+  }
+
+  /**
+   * @return a snapshot of the values currently in the cache.
+   */
+  public synchronized @NonNull List<V> values() {
+    List<V> values = new LinkedList<>();
+
+    for (Entry<V> entry : table) {
+      if (entry != null) values.add(entry.value);
+    }
+
+    return values;
+  }
+
+  private void evict() {
+    Entry<V>[] table = this.table;
+    int        mask  = table.length - 1;
+
+    for (;;clockHand=(clockHand + 1) & mask) {
+      Entry<V> entry = table[clockHand];
+
+      if (entry == null) continue;
+
+      if (entry.referenced) {
+        entry.referenced = false;
+      } else {
+        removeAt(table, clockHand);
+        return;
+      }
+    }
+  }
+
+  private void removeAt(Entry<V>[] table, int index) {
+    int mask = table.length - 1;
+
+    table[index] = null;
+    size--;
+
+    for (int i=(index + 1) & mask;;i=(i + 1) & mask) {
+      Entry<V> entry = table[i];
+
+      if (entry == null) return;
+
+      int home = hash(entry.key) & mask;
+
+      if (index <= i ? (index < home && home <= i) : (index < home || home <= i)) {
+        continue;
+      }
+
+      table[index] = entry;
+      table[i]     = null;
+      index        = i;
+    }
+  }
+
+  private void resize(int capacity) {
+    Entry<V>[] resized = newTable(capacity);
+
+    for (Entry<V> entry : table) {
+      if (entry != null) insert(resized, entry);
+    }
+
+    table     = resized;
+    clockHand = 0;
+  }
+
+  private static <V> void insert(Entry<V>[] table, Entry<V> entry) {
+    int mask = table.length - 1;
+    int i    = hash(entry.key) & mask;
+
+    while (table[i] != null) {
+      i = (i + 1) & mask;
+    }
+
+    table[i] = entry;
+  }
+
+  private static int hash(long key) {
+    return (int)((key * 0x9E3779B97F4A7C15L) >>> 32);
+  }
+
+  private static int getThreshold(int capacity) {
+    return capacity / 2;
+  }
+
+  private static int getCapacityFor(int maxSize) {
+    int capacity = INITIAL_CAPACITY;
+
+    while (getThreshold(capacity) < maxSize) {
+      capacity *= 2;
+    }
+
+    return capacity;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <V> Entry<V>[] newTable(int capacity) {
+    return (Entry<V>[])new Entry[capacity];
+  }
+
+  private static class Entry<V> {
+    private final long    key;
+    private final V       value;
+    private       boolean referenced;
+
+    private Entry(long key, V value) {
+      this.key   = key;
+      this.value = value;
+    }
+  }
+}
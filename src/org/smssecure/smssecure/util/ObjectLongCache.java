@@ -0,0 +1,150 @@
+package org.smssecure.smssecure.util;
+
+import android.support.annotation.NonNull;
+
+/**
+ * An open-addressing map from objects to primitive longs, the counterpart of
+ * {@link LongObjectCache} for reverse lookups.  Lookups take no lock and don't
+ * box; writers are serialized.  The map is unbounded.
+ *
+ * A lookup that races with a removal may miss an entry that is present, which
+ * a cache can tolerate.
+ */
+public class ObjectLongCache<K> {
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private volatile Entry<K>[] table = newTable(INITIAL_CAPACITY);
+  private          int        size;
+
+  /**
+   * @return the value mapped to {@code key}, or {@code missing} if there is none.
+   */
+  public long get(@NonNull K key, long missing) {
+    Entry<K>[] table = this.table;
+    int        mask  = table.length - 1;
+    int        hash  = hash(key);
+
+    for (int i=hash & mask;;i=(i + 1) & mask) {
+      Entry<K> entry = table[i];
+
+      if (entry == null)                               return missing;
+      if (entry.hash == hash && entry.key.equals(key)) return entry.value;
+    }
+  }
+
+  public synchronized void put(@NonNull K key, long value) {
+    Entry<K>[] table = this.table;
+    int        mask  = table.length - 1;
+    int        hash  = hash(key);
+
+    for (int i=hash & mask;;i=(i + 1) & mask) {
+      Entry<K> entry = table[i];
+
+      if (entry == null) break;
+
+      if (entry.hash == hash && entry.key.equals(key)) {
+        table[i] = new Entry<>(key, hash, value);
+        return;
+      }
+    }
+
+    if (size + 1 > table.length / 2) {
+      resize(table.length * 2);
+    }
+
+    insert(this.table, new Entry<>(key, hash, value));
+    size++;
+  }
+
+  public synchronized void remove(@NonNull K key) {
+    Entry<K>[] table = this.table;
+    int        mask  = table.length - 1;
+    int        hash  = hash(key);
+
+    for (int index=hash & mask;;index=(index + 1) & mask) {
+      Entry<K> entry = table[index];
+
+      if (entry == null) return;
+
+      if (entry.hash == hash && entry.key.equals(key)) {
+        removeAt(table, index);
+        return;
+      }
+    }
+  }
+
+  public synchronized void clear() {
+    table = newTable(INITIAL_CAPACITY);
+    size  = 0;
+  }
+
+  public synchronized int size() {
+    return size;
+  }
+
+  private void removeAt(Entry<K>[] table, int index) {
+    int mask = table.length - 1;
+
+    table[index] = null;
+    size--;
+
+    for (int i=(index + 1) & mask;;i=(i + 1) & mask) {
+      Entry<K> entry = table[i];
+
+      if (entry == null) return;
+
+      int home = entry.hash & mask;
+
+      if (index <= i ? (index < home && home <= i) : (index < home || home <= i)) {
+        continue;
+      }
+
+      table[index] = entry;
+      table[i]     = null;
+      index        = i;
+    }
+  }
+
+  private void resize(int capacity) {
+    Entry<K>[] resized = newTable(capacity);
+
+    for (Entry<K> entry : table) {
+      if (entry != null) insert(resized, entry);
+    }
+
+    table = resized;
+  }
+
+  private static <K> void insert(Entry<K>[] table, Entry<K> entry) {
+    int mask = table.length - 1;
+    int i    = entry.hash & mask;
+
+    while (table[i] != null) {
+      i = (i + 1) & mask;
+    }
+
+    table[i] = entry;
+  }
+
+  private static int hash(Object key) {
+    return key.hashCode() * 0x9E3779B9;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <K> Entry<K>[] newTable(int capacity) {
+    return (Entry<K>[])new Entry[capacity];
+  }
+
+  private static class Entry<K> {
+    private final K    key;
+    private final int  hash;
+    private final long value;
+
+    private Entry(K key, int hash, long value) {
+      this.key   = key;
+      this.hash  = hash;
+      this.value = value;
+    }
+  }
+}
@@ -96,6 +96,8 @@ public class SMSSecurePreferences {
   private static final String MEDIA_DOWNLOAD_PREF              = "pref_media_download";
   private static final String MEDIA_DOWNLOAD_ROAMING_PREF      = "pref_media_download_roaming";
 
+  private static final String LEGACY_KEY_RECORDS_DELETED_PREF  = "pref_legacy_key_records_deleted";
+
   public static NotificationPrivacyPreference getNotificationPrivacy(Context context) {
     return new NotificationPrivacyPreference(getStringPreference(context, NOTIFICATION_PRIVACY_PREF, "all"));
   }
@@ -510,6 +512,14 @@ public class SMSSecurePreferences {
     return getBooleanPreference(context, MEDIA_DOWNLOAD_ROAMING_PREF, false);
   }
 
+  public static boolean isLegacyKeyRecordsDeleted(Context context) {
+    return getBooleanPreference(context, LEGACY_KEY_RECORDS_DELETED_PREF, false);
+  }
+
+  public static void setLegacyKeyRecordsDeleted(Context context, boolean deleted) {
+    setBooleanPreference(context, LEGACY_KEY_RECORDS_DELETED_PREF, deleted);
+  }
+
   public static long getLastPushReminderTime(Context context) {
     return getLongPreference(context, PUSH_REGISTRATION_REMINDER_PREF, 0L);
   }
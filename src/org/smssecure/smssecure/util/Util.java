@@ -56,6 +56,7 @@ import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
@@ -95,13 +96,23 @@ public class Util {
   }
 
   public static ExecutorService newSingleThreadedLifoExecutor() {
-    ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingLifoQueue<Runnable>());
+    return newLifoExecutor(1);
+  }
+
+  /**
+   * @return an executor with a fixed number of low priority threads, which
+   *         runs the most recently submitted task first.
+   */
+  public static ExecutorService newLifoExecutor(int threads) {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingLifoQueue<Runnable>());
 
-    executor.execute(new Runnable() {
+    executor.setThreadFactory(new ThreadFactory() {
       @Override
-      public void run() {
+      public Thread newThread(@NonNull Runnable runnable) {
+        Thread thread = new Thread(runnable);
 //        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
-        Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
       }
     });
 
@@ -232,6 +243,17 @@ public class Util {
     return results;
   }
 
+  public static long[] toLongArray(Collection<Long> values) {
+    long[] results = new long[values.size()];
+    int    index   = 0;
+
+    for (long value : values) {
+      results[index++] = value;
+    }
+
+    return results;
+  }
+
   public static List<String> split(String source, String delimiter) {
     List<String> results = new LinkedList<>();
 
@@ -19,6 +19,7 @@ package ws.com.google.android.mms.pdu;
 
 import android.content.ContentResolver;
 import android.content.Context;
+import android.net.Uri;
 import android.text.TextUtils;
 import android.util.Log;
 
@@ -26,8 +27,11 @@ import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
 
 public class PduComposer {
     /**
@@ -112,6 +116,12 @@ public class PduComposer {
      */
     private PduHeaders mPduHeader = null;
 
+    /**
+     * Part data left out of mMessage, to be read while writing the
+     * message out. Null unless composing into a stream.
+     */
+    private List<DeferredPart> mDeferredParts = null;
+
     /**
      * Map of all content type
      */
@@ -149,38 +159,68 @@ public class PduComposer {
      *         the PDU is invalid.
      */
     public byte[] make() {
+        if (compose() != PDU_COMPOSE_SUCCESS) {
+            return null;
+        }
+
+        Log.w("PduComposer", "Returning: " + mMessage.size() + " bytes...");
+
+        return mMessage.toByteArray();
+    }
+
+    /**
+     * Make the message and write it to a stream. Part data that is set
+     * as a data source or Uri isn't buffered, it is read once to measure
+     * it and again while writing, so memory use doesn't grow with the
+     * size of the parts.
+     *
+     * @param out the stream to write the message to
+     * @return the number of bytes written, or -1 if the PDU is invalid.
+     * @throws IOException if writing, or reading part data, fails
+     */
+    public long make(OutputStream out) throws IOException {
+        mDeferredParts = new LinkedList<DeferredPart>();
+
+        if (compose() != PDU_COMPOSE_SUCCESS) {
+            return -1;
+        }
+
+        byte[] message = mMessage.toByteArray();
+        int    offset  = 0;
+        long   written = 0;
+
+        for (DeferredPart part : mDeferredParts) {
+            out.write(message, offset, part.offset - offset);
+            written += part.offset - offset;
+            written += part.writeTo(out);
+            offset   = part.offset;
+        }
+
+        out.write(message, offset, message.length - offset);
+        written += message.length - offset;
+
+        Log.w("PduComposer", "Wrote: " + written + " bytes...");
+
+        return written;
+    }
+
+    private int compose() {
         // Get Message-type.
         int type = mPdu.getMessageType();
 
         /* make the message */
         switch (type) {
             case PduHeaders.MESSAGE_TYPE_SEND_REQ:
-                if (makeSendReqPdu() != PDU_COMPOSE_SUCCESS) {
-                    return null;
-                }
-                break;
+                return makeSendReqPdu();
             case PduHeaders.MESSAGE_TYPE_NOTIFYRESP_IND:
-                if (makeNotifyResp() != PDU_COMPOSE_SUCCESS) {
-                    return null;
-                }
-                break;
+                return makeNotifyResp();
             case PduHeaders.MESSAGE_TYPE_ACKNOWLEDGE_IND:
-                if (makeAckInd() != PDU_COMPOSE_SUCCESS) {
-                    return null;
-                }
-                break;
+                return makeAckInd();
             case PduHeaders.MESSAGE_TYPE_READ_REC_IND:
-                if (makeReadRecInd() != PDU_COMPOSE_SUCCESS) {
-                    return null;
-                }
-                break;
+                return makeReadRecInd();
             default:
-                return null;
+                return PDU_COMPOSE_CONTENT_ERROR;
         }
-
-        Log.w("PduComposer", "Returning: " + mMessage.size() + " bytes...");
-
-        return mMessage.toByteArray();
     }
 
     /**
@@ -991,21 +1031,29 @@ public class PduComposer {
             int headerLength = attachment.getLength();
 
             int dataLength = 0; // Just for safety...
-            byte[] partData = part.getData();
+            byte[] partData = part.getDataReference();
+            DeferredPart deferred = null;
 
             if (partData != null) {
                 arraycopy(partData, 0, partData.length);
                 dataLength = partData.length;
             } else {
-                InputStream cr;
+                InputStream cr = null;
                 try {
-                    byte[] buffer = new byte[PDU_COMPOSER_BLOCK_SIZE];
-                    cr = mResolver.openInputStream(part.getDataUri());
-                    int len = 0;
-                    while ((len = cr.read(buffer)) != -1) {
-                        mMessage.write(buffer, 0, len);
-                        mPosition += len;
-                        dataLength += len;
+                    PduPart.DataSource source = getDataSource(part);
+
+                    if (mDeferredParts != null) {
+                        deferred = new DeferredPart(source);
+                        dataLength = deferred.length;
+                    } else {
+                        byte[] buffer = new byte[PDU_COMPOSER_BLOCK_SIZE];
+                        cr = source.openStream();
+                        int len = 0;
+                        while ((len = cr.read(buffer)) != -1) {
+                            mMessage.write(buffer, 0, len);
+                            mPosition += len;
+                            dataLength += len;
+                        }
                     }
                 } catch (FileNotFoundException e) {
                     return PDU_COMPOSE_CONTENT_ERROR;
@@ -1013,10 +1061,14 @@ public class PduComposer {
                     return PDU_COMPOSE_CONTENT_ERROR;
                 } catch (RuntimeException e) {
                     return PDU_COMPOSE_CONTENT_ERROR;
+                } finally {
+                    closeQuietly(cr);
                 }
             }
 
-            if (dataLength != (attachment.getLength() - headerLength)) {
+            int bufferedLength = deferred == null ? dataLength : 0;
+
+            if (bufferedLength != (attachment.getLength() - headerLength)) {
                 throw new RuntimeException("BUG: Length sanity check failed");
             }
 
@@ -1024,11 +1076,102 @@ public class PduComposer {
             appendUintvarInteger(headerLength);
             appendUintvarInteger(dataLength);
             mStack.copy();
+
+            if (deferred != null) {
+                // The data goes right after the part headers just copied.
+                deferred.offset = mMessage.size();
+                mPosition += dataLength;
+                mDeferredParts.add(deferred);
+            }
         }
 
         return PDU_COMPOSE_SUCCESS;
     }
 
+    private PduPart.DataSource getDataSource(PduPart part) {
+        if (part.getDataSource() != null) {
+            return part.getDataSource();
+        }
+
+        final Uri uri = part.getDataUri();
+
+        return new PduPart.DataSource() {
+            @Override
+            public InputStream openStream() throws IOException {
+                InputStream in = mResolver.openInputStream(uri);
+
+                if (in == null) {
+                    throw new FileNotFoundException("No stream for " + uri);
+                }
+
+                return in;
+            }
+        };
+    }
+
+    private static void closeQuietly(InputStream in) {
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException e) {
+                Log.w("PduComposer", e);
+            }
+        }
+    }
+
+    /**
+     * Part data that is written straight from its source.
+     */
+    static private class DeferredPart {
+        private final PduPart.DataSource source;
+        private final int length;
+        private int offset;
+
+        DeferredPart(PduPart.DataSource source) throws IOException {
+            this.source = source;
+            this.length = measure(source);
+        }
+
+        long writeTo(OutputStream out) throws IOException {
+            byte[] buffer = new byte[PDU_COMPOSER_BLOCK_SIZE];
+            InputStream in = source.openStream();
+            long written = 0;
+
+            try {
+                int len;
+                while ((len = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, len);
+                    written += len;
+                }
+            } finally {
+                closeQuietly(in);
+            }
+
+            if (written != length) {
+                throw new IOException("Part data changed while composing: " + written + " != " + length);
+            }
+
+            return written;
+        }
+
+        private static int measure(PduPart.DataSource source) throws IOException {
+            byte[] buffer = new byte[PDU_COMPOSER_BLOCK_SIZE];
+            InputStream in = source.openStream();
+            int length = 0;
+
+            try {
+                int len;
+                while ((len = in.read(buffer)) != -1) {
+                    length += len;
+                }
+            } finally {
+                closeQuietly(in);
+            }
+
+            return length;
+        }
+    }
+
     /**
      *  Record current message informations.
      */
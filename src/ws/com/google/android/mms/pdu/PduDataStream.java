@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2007-2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ws.com.google.android.mms.pdu;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A read cursor over pdu data held in a ByteBuffer, which may be a heap
+ * buffer or a mapped file. It reads like a ByteArrayInputStream, and can
+ * also hand out regions of the data as slices without copying them.
+ */
+class PduDataStream {
+    /**
+     * The pdu data. Its position is the read position.
+     */
+    private final ByteBuffer mBuffer;
+
+    /**
+     * Position to go back to on reset().
+     */
+    private int mMark;
+
+    PduDataStream(ByteBuffer buffer) {
+        mBuffer = buffer.slice();
+        mMark = 0;
+    }
+
+    int read() {
+        if (!mBuffer.hasRemaining()) {
+            return -1;
+        }
+
+        return mBuffer.get() & 0xFF;
+    }
+
+    int read(byte[] buffer, int offset, int length) {
+        if (!mBuffer.hasRemaining()) {
+            return -1;
+        }
+
+        length = Math.min(length, mBuffer.remaining());
+        mBuffer.get(buffer, offset, length);
+        return length;
+    }
+
+    /**
+     * Take the next bytes as a slice sharing this stream's data.
+     *
+     * @param length the number of bytes wanted
+     * @return a slice of at most length bytes
+     */
+    ByteBuffer slice(int length) {
+        length = Math.min(length, mBuffer.remaining());
+
+        ByteBuffer slice = mBuffer.slice();
+        slice.limit(length);
+        mBuffer.position(mBuffer.position() + length);
+
+        return slice;
+    }
+
+    int available() {
+        return mBuffer.remaining();
+    }
+
+    void mark(int readLimit) {
+        mMark = mBuffer.position();
+    }
+
+    void reset() {
+        mBuffer.position(mMark);
+    }
+}
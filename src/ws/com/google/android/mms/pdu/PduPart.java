@@ -19,6 +19,9 @@ package ws.com.google.android.mms.pdu;
 
 import android.net.Uri;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -119,6 +122,16 @@ public class PduPart {
       */
      private byte[] mPartData = null;
 
+     /**
+      * Part data that are a region of a larger buffer, such as a parsed pdu.
+      */
+     private ByteBuffer mDataBuffer = null;
+
+     /**
+      * Source of the part data.
+      */
+     private DataSource mDataSource = null;
+
      private static final String TAG = "PduPart";
 
      /**
@@ -140,6 +153,34 @@ public class PduPart {
 
          mPartData = new byte[data.length];
          System.arraycopy(data, 0, mPartData, 0, data.length);
+         mDataBuffer = null;
+     }
+
+     /**
+      * Set part data without copying them. The buffer's content from its
+      * position to its limit are the data, and mustn't change afterwards.
+      *
+      * @param data the data
+      */
+     public void setDataBuffer(ByteBuffer data) {
+         mDataBuffer = data.slice();
+         mPartData = null;
+     }
+
+     /**
+      * @return A read-only view of the part data, or null if the data
+      *         wasn't set or the data is stored as Uri or data source.
+      */
+     public ByteBuffer getDataBuffer() {
+         if (mDataBuffer != null) {
+             return mDataBuffer.asReadOnlyBuffer();
+         }
+
+         if (mPartData != null) {
+             return ByteBuffer.wrap(mPartData).asReadOnlyBuffer();
+         }
+
+         return null;
      }
 
      /**
@@ -148,6 +189,12 @@ public class PduPart {
       * @see #getDataUri
       */
      public byte[] getData() {
+         if (mPartData == null && mDataBuffer != null) {
+             byte[] byteArray = new byte[mDataBuffer.remaining()];
+             mDataBuffer.duplicate().get(byteArray);
+             return byteArray;
+         }
+
          if(mPartData == null) {
             return null;
          }
@@ -157,6 +204,31 @@ public class PduPart {
          return byteArray;
      }
 
+     /**
+      * The part data without copying, for the composer.
+      */
+     byte[] getDataReference() {
+         return mPartData != null ? mPartData : getData();
+     }
+
+     /**
+      * Set data source. The data are read from the source each time
+      * the part is composed, instead of being held in memory.
+      *
+      * @param source the data source
+      */
+     public void setDataSource(DataSource source) {
+         mDataSource = source;
+     }
+
+     /**
+      * @return The source of the part data or null if the data wasn't
+      *         set or the data is stored as byte array or Uri.
+      */
+     public DataSource getDataSource() {
+         return mDataSource;
+     }
+
      /**
       * Set data uri. The data are stored as Uri.
       *
@@ -398,4 +470,11 @@ public class PduPart {
             return new String(location);
         }
     }
+
+     /**
+      * Opens a fresh stream over the part data each time it is called.
+      */
+     public interface DataSource {
+         InputStream openStream() throws IOException;
+     }
 }
@@ -0,0 +1,154 @@
+package org.smssecure.smssecure.database;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import org.smssecure.smssecure.SMSSecureTestCase;
+import org.smssecure.smssecure.crypto.MasterCipher;
+import org.smssecure.smssecure.crypto.MasterSecret;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BulkSmsInserterTest extends SMSSecureTestCase {
+  private static final String TAG = BulkSmsInserterTest.class.getSimpleName();
+
+  private static final int MESSAGE_COUNT = 100000;
+  private static final int SENDER_COUNT  = 200;
+
+  private SQLiteDatabase db;
+  private MasterSecret   masterSecret;
+  private File           backup;
+
+  public void setUp() throws Exception {
+    super.setUp();
+    db           = SQLiteDatabase.create(null);
+    masterSecret = new MasterSecret(new SecretKeySpec(new byte[16], "AES"),
+                                    new SecretKeySpec(new byte[16], "HmacSHA1"));
+    backup       = new File(getInstrumentation().getTargetContext().getCacheDir(), "benchmark_backup.xml");
+
+    db.execSQL(SmsDatabase.CREATE_TABLE);
+    db.execSQL(MmsDatabase.CREATE_TABLE);
+    db.execSQL(AttachmentDatabase.CREATE_TABLE);
+    db.execSQL(MmsSmsDatabase.CREATE_INDEX_TABLE);
+
+    for (String statement : SmsDatabase.CREATE_INDEXS) db.execSQL(statement);
+    for (String statement : MmsSmsDatabase.CREATE_INDEX_INDEXS) db.execSQL(statement);
+    for (String statement : MmsSmsDatabase.CREATE_INDEX_TRIGGERS) db.execSQL(statement);
+
+    XmlBackup.Writer writer = new XmlBackup.Writer(backup.getAbsolutePath(), MESSAGE_COUNT);
+
+    for (int i=0;i<MESSAGE_COUNT;i++) {
+      writer.writeItem(new XmlBackup.XmlBackupItem(0, "+1555555" + String.format("%04d", i % SENDER_COUNT), i,
+                                                   1 + i % 2, null, "Synthetic message body number " + i,
+                                                   null, 1, -1));
+    }
+
+    writer.close();
+  }
+
+  public void tearDown() throws Exception {
+    db.close();
+    backup.delete();
+  }
+
+  public void testBatchedImportMatchesRowAtATime() throws Exception {
+    long rowTime = importRowAtATime();
+    db.execSQL("DELETE FROM " + SmsDatabase.TABLE_NAME);
+
+    long batchTime = importBatched();
+    assertThat(DatabaseUtils.queryNumEntries(db, SmsDatabase.TABLE_NAME)).isEqualTo(MESSAGE_COUNT);
+
+    Cursor cursor = db.query(SmsDatabase.TABLE_NAME, new String[] {SmsDatabase.BODY, SmsDatabase.DATE_RECEIVED},
+                             null, null, null, null, SmsDatabase.DATE_RECEIVED, "1000");
+
+    try {
+      MasterCipher masterCipher = MasterCipher.getInstance(masterSecret);
+
+      while (cursor.moveToNext()) {
+        assertThat(masterCipher.decryptBody(cursor.getString(0))).isEqualTo("Synthetic message body number " + cursor.getLong(1));
+      }
+    } finally {
+      cursor.close();
+    }
+
+    Log.w(TAG, "Imported " + MESSAGE_COUNT + " messages, row at a time: " + rowTime + "ms, batched: " + batchTime + "ms");
+  }
+
+  private long importRowAtATime() throws Exception {
+    long         start        = System.currentTimeMillis();
+    XmlBackup    parser       = new XmlBackup(backup.getAbsolutePath());
+    MasterCipher masterCipher = MasterCipher.getInstance(masterSecret);
+
+    XmlBackup.XmlBackupItem item;
+
+    db.beginTransaction();
+
+    try {
+      while ((item = parser.getNext()) != null) {
+        SQLiteStatement statement = SmsDatabase.createInsertStatement(db);
+
+        statement.bindString(1, item.getAddress());
+        statement.bindNull(2);
+        statement.bindLong(3, item.getDate());
+        statement.bindLong(4, item.getDate());
+        statement.bindLong(5, item.getProtocol());
+        statement.bindLong(6, item.getRead());
+        statement.bindLong(7, item.getStatus());
+        statement.bindLong(8, SmsDatabase.Types.translateFromSystemBaseType(item.getType()));
+        statement.bindNull(9);
+        statement.bindNull(10);
+        statement.bindString(11, masterCipher.encryptBody(item.getBody()));
+        statement.bindNull(12);
+        statement.bindLong(13, getThreadId(item.getAddress()));
+        statement.execute();
+      }
+
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+
+    return System.currentTimeMillis() - start;
+  }
+
+  private long importBatched() throws Exception {
+    long              start     = System.currentTimeMillis();
+    XmlBackup         parser    = new XmlBackup(backup.getAbsolutePath());
+    BulkSmsInserter   inserter  = new BulkSmsInserter(db, masterSecret);
+    Map<String, Long> threadIds = new HashMap<>();
+
+    XmlBackup.XmlBackupItem item;
+
+    while ((item = parser.getNext()) != null) {
+      Long threadId = threadIds.get(item.getAddress());
+
+      if (threadId == null) {
+        threadId = getThreadId(item.getAddress());
+        threadIds.put(item.getAddress(), threadId);
+      }
+
+      inserter.add(new BulkSmsInserter.Row(item.getAddress(), null, item.getDate(), item.getDate(),
+                                           (long)item.getProtocol(), (long)item.getRead(), (long)item.getStatus(),
+                                           SmsDatabase.Types.translateFromSystemBaseType(item.getType()),
+                                           null, null, item.getBody(), null, threadId));
+    }
+
+    assertThat(inserter.finish()).hasSize(SENDER_COUNT);
+    assertThat(inserter.getInsertedCount()).isEqualTo(MESSAGE_COUNT);
+
+    return System.currentTimeMillis() - start;
+  }
+
+  private long getThreadId(String address) {
+    return Long.parseLong(address.substring(address.length() - 4));
+  }
+}
@@ -0,0 +1,146 @@
+package org.smssecure.smssecure.database;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import org.smssecure.smssecure.SMSSecureTestCase;
+import org.smssecure.smssecure.database.model.MessageRecord;
+import org.smssecure.smssecure.recipients.RecipientFactory;
+import org.smssecure.smssecure.recipients.Recipients;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CursorRecipientsTest extends SMSSecureTestCase {
+  private static final String TAG = CursorRecipientsTest.class.getSimpleName();
+
+  private static final int  MESSAGE_COUNT    = 1000;
+  private static final int  GROUP_SIZE       = 20;
+  private static final long SINGLE_THREAD_ID = 1;
+  private static final long GROUP_THREAD_ID  = 2;
+
+  private Context        context;
+  private SQLiteDatabase db;
+
+  public void setUp() throws Exception {
+    super.setUp();
+    context = getInstrumentation().getTargetContext();
+    db      = SQLiteDatabase.create(null);
+
+    db.execSQL(SmsDatabase.CREATE_TABLE);
+
+    SQLiteStatement statement = SmsDatabase.createInsertStatement(db);
+
+    db.beginTransaction();
+
+    try {
+      for (int i=0;i<MESSAGE_COUNT;i++) {
+        insert(statement, "+15555550000", i, SINGLE_THREAD_ID);
+        insert(statement, "+155555501" + String.format("%02d", i % GROUP_SIZE), i, GROUP_THREAD_ID);
+      }
+
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+      statement.close();
+    }
+  }
+
+  public void tearDown() throws Exception {
+    db.close();
+  }
+
+  public void testSingleRecipientThread() throws Exception {
+    assertThat(materialize(SINGLE_THREAD_ID)).hasSize(1);
+  }
+
+  public void testGroupThread() throws Exception {
+    assertThat(materialize(GROUP_THREAD_ID)).hasSize(GROUP_SIZE);
+  }
+
+  public void testStaleRecipientsAreResolvedAgain() throws Exception {
+    Cursor cursor = getThread(SINGLE_THREAD_ID);
+
+    try {
+      SmsDatabase.Reader reader = DatabaseFactory.getSmsDatabase(context).readerFor(cursor);
+      Recipients         before = reader.getNext().getRecipients();
+
+      RecipientFactory.clearCache();
+
+      Recipients after = reader.getNext().getRecipients();
+
+      assertThat(after).isNotSameAs(before);
+      assertThat(after.isStale()).isFalse();
+    } finally {
+      cursor.close();
+    }
+  }
+
+  private Set<Recipients> materialize(long threadId) {
+    long perRowTime = resolvePerRow(threadId);
+    long start      = System.currentTimeMillis();
+    Cursor cursor   = getThread(threadId);
+
+    Set<Recipients> recipients = Collections.newSetFromMap(new IdentityHashMap<Recipients, Boolean>());
+
+    try {
+      SmsDatabase.Reader reader = DatabaseFactory.getSmsDatabase(context).readerFor(cursor);
+      MessageRecord      record;
+      int                count  = 0;
+
+      while ((record = reader.getNext()) != null) {
+        recipients.add(record.getRecipients());
+        count++;
+      }
+
+      assertThat(count).isEqualTo(MESSAGE_COUNT);
+    } finally {
+      cursor.close();
+    }
+
+    Log.w(TAG, "Materialized " + MESSAGE_COUNT + " records of thread " + threadId + ", " +
+               "resolving per row: " + perRowTime + "ms, " +
+               "per cursor: " + (System.currentTimeMillis() - start) + "ms");
+
+    return recipients;
+  }
+
+  private long resolvePerRow(long threadId) {
+    long   start  = System.currentTimeMillis();
+    Cursor cursor = getThread(threadId);
+
+    try {
+      while (cursor.moveToNext()) {
+        RecipientFactory.getRecipientsFromString(context, cursor.getString(cursor.getColumnIndexOrThrow(SmsDatabase.ADDRESS)), true);
+      }
+    } finally {
+      cursor.close();
+    }
+
+    return System.currentTimeMillis() - start;
+  }
+
+  private Cursor getThread(long threadId) {
+    return db.rawQuery("SELECT *, " + SmsDatabase.DATE_RECEIVED + " AS " + SmsDatabase.NORMALIZED_DATE_RECEIVED +
+                       " FROM " + SmsDatabase.TABLE_NAME + " WHERE " + SmsDatabase.THREAD_ID + " = ?" +
+                       " ORDER BY " + SmsDatabase.DATE_RECEIVED,
+                       new String[] {String.valueOf(threadId)});
+  }
+
+  private void insert(SQLiteStatement statement, String address, long date, long threadId) {
+    statement.clearBindings();
+    statement.bindString(1, address);
+    statement.bindLong(3, date);
+    statement.bindLong(4, date);
+    statement.bindLong(8, SmsDatabase.Types.BASE_INBOX_TYPE);
+    statement.bindString(11, "Message " + date);
+    statement.bindLong(13, threadId);
+    statement.execute();
+  }
+}
@@ -0,0 +1,112 @@
+package org.smssecure.smssecure.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.smssecure.smssecure.SMSSecureTestCase;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class KeyRecordMigratorTest extends SMSSecureTestCase {
+
+  private SQLiteDatabase db;
+  private File           directory;
+
+  public void setUp() throws Exception {
+    super.setUp();
+    db        = SQLiteDatabase.create(null);
+    directory = new File(getInstrumentation().getTargetContext().getCacheDir(), "key-records-test");
+
+    db.execSQL(KeyRecordDatabase.CREATE_TABLE);
+    assertThat(directory.mkdirs() || directory.isDirectory()).isTrue();
+  }
+
+  public void tearDown() throws Exception {
+    db.close();
+    KeyRecordMigrator.deleteLegacyRecords(directory);
+    new File(directory, "prekeys/index.dat").delete();
+    new File(directory, "prekeys").delete();
+    new File(directory, "signed_prekeys").delete();
+    directory.delete();
+  }
+
+  public void testMigratesAllRecordTypes() throws Exception {
+    writeRecord("sessions-v2", "5", 2, new byte[] {1, 2, 3});
+    writeRecord("sessions-v2", "5.2", 2, new byte[] {4});
+    writeRecord("sessions-v2", "6", 1, new byte[] {5});
+    writeRecord("prekeys", "10", 1, new byte[] {6});
+    writeRecord("prekeys", "index.dat", 1, new byte[] {7});
+    writeRecord("signed_prekeys", "3", 1, new byte[] {8});
+
+    KeyRecordMigrator.migrate(db, directory);
+
+    assertThat(getRecord(KeyRecordDatabase.SESSION, 5, 1)).isEqualTo(new byte[] {1, 2, 3});
+    assertThat(getRecord(KeyRecordDatabase.SESSION, 5, 2)).isEqualTo(new byte[] {4});
+    assertThat(getRecord(KeyRecordDatabase.SESSION, 6, 1)).isEqualTo(new byte[] {5});
+    assertThat(getRecord(KeyRecordDatabase.PRE_KEY, 0, 10)).isEqualTo(new byte[] {6});
+    assertThat(getRecord(KeyRecordDatabase.SIGNED_PRE_KEY, 0, 3)).isEqualTo(new byte[] {8});
+    assertThat(count()).isEqualTo(5);
+
+    KeyRecordMigrator.deleteLegacyRecords(directory);
+
+    assertThat(new File(directory, "sessions-v2").exists()).isFalse();
+    assertThat(new File(directory, "prekeys/10").exists()).isFalse();
+    assertThat(new File(directory, "prekeys/index.dat").exists()).isTrue();
+  }
+
+  public void testSkipsTruncatedRecords() throws Exception {
+    File file = new File(directory, "sessions-v2/7");
+    file.getParentFile().mkdirs();
+
+    DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+    out.writeInt(2);
+    out.writeInt(100);
+    out.write(new byte[10]);
+    out.close();
+
+    KeyRecordMigrator.migrate(db, directory);
+
+    assertThat(count()).isEqualTo(0);
+  }
+
+  private void writeRecord(String type, String name, int version, byte[] record) throws IOException {
+    File file = new File(directory, type + "/" + name);
+    file.getParentFile().mkdirs();
+
+    DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+    out.writeInt(version);
+    out.writeInt(record.length);
+    out.write(record);
+    out.close();
+  }
+
+  private byte[] getRecord(int type, long recipientId, int recordId) {
+    Cursor cursor = db.query(KeyRecordDatabase.TABLE_NAME, new String[] {"record"},
+                             "type = ? AND recipient_id = ? AND record_id = ?",
+                             new String[] {String.valueOf(type), String.valueOf(recipientId), String.valueOf(recordId)},
+                             null, null, null);
+
+    try {
+      assertThat(cursor.moveToFirst()).isTrue();
+      return cursor.getBlob(0);
+    } finally {
+      cursor.close();
+    }
+  }
+
+  private int count() {
+    Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM " + KeyRecordDatabase.TABLE_NAME, null);
+
+    try {
+      cursor.moveToFirst();
+      return cursor.getInt(0);
+    } finally {
+      cursor.close();
+    }
+  }
+}
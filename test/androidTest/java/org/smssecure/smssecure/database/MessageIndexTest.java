@@ -0,0 +1,220 @@
+package org.smssecure.smssecure.database;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import org.smssecure.smssecure.SMSSecureTestCase;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MessageIndexTest extends SMSSecureTestCase {
+  private static final String TAG = MessageIndexTest.class.getSimpleName();
+
+  private static final int  MESSAGE_COUNT = 100000;
+  private static final int  THREAD_COUNT  = 50;
+  private static final int  PAGE_SIZE     = 100;
+  private static final int  ITERATIONS    = 20;
+  private static final long THREAD_ID     = 7;
+
+  private static final String UNION_QUERY =
+      "SELECT * FROM (" +
+      "SELECT _id, date AS date_received, 'sms' AS transport_type, NULL AS attachment_id FROM sms WHERE thread_id = ? " +
+      "UNION " +
+      "SELECT mms._id AS _id, date_received, 'mms' AS transport_type, part._id AS attachment_id FROM mms " +
+      "LEFT OUTER JOIN part ON part._id = (SELECT part._id FROM part WHERE part.mid = mms._id LIMIT 1) " +
+      "WHERE thread_id = ? " +
+      "ORDER BY date_received DESC LIMIT " + PAGE_SIZE + ")";
+
+  private SQLiteDatabase db;
+
+  public void setUp() throws Exception {
+    super.setUp();
+    db = SQLiteDatabase.create(null);
+
+    db.execSQL(SmsDatabase.CREATE_TABLE);
+    db.execSQL(MmsDatabase.CREATE_TABLE);
+    db.execSQL(AttachmentDatabase.CREATE_TABLE);
+    db.execSQL(MmsSmsDatabase.CREATE_INDEX_TABLE);
+
+    for (String statement : SmsDatabase.CREATE_INDEXS) db.execSQL(statement);
+    for (String statement : MmsDatabase.CREATE_INDEXS) db.execSQL(statement);
+    for (String statement : AttachmentDatabase.CREATE_INDEXS) db.execSQL(statement);
+    for (String statement : MmsSmsDatabase.CREATE_INDEX_INDEXS) db.execSQL(statement);
+    for (String statement : MmsSmsDatabase.CREATE_INDEX_TRIGGERS) db.execSQL(statement);
+  }
+
+  public void tearDown() throws Exception {
+    db.close();
+  }
+
+  public void testTriggersMaintainIndex() throws Exception {
+    long sms = insertSms(THREAD_ID, 1000);
+    long mms = insertMms(THREAD_ID, 2000);
+
+    assertThat(getAttachmentId(mms)).isNull();
+
+    long first  = insertPart(mms);
+    long second = insertPart(mms);
+
+    assertThat(getAttachmentId(mms)).isEqualTo(first);
+
+    db.delete(AttachmentDatabase.TABLE_NAME, AttachmentDatabase.ROW_ID + " = ?", new String[] {String.valueOf(first)});
+    assertThat(getAttachmentId(mms)).isEqualTo(second);
+
+    ContentValues values = new ContentValues();
+    values.put(MmsSmsColumns.THREAD_ID, THREAD_ID + 1);
+    db.update(SmsDatabase.TABLE_NAME, values, MmsSmsColumns.ID + " = ?", new String[] {String.valueOf(sms)});
+
+    assertThat(getConversationIds(THREAD_ID)).containsExactly("mms" + mms);
+    assertThat(getConversationIds(THREAD_ID + 1)).containsExactly("sms" + sms);
+
+    db.delete(MmsDatabase.TABLE_NAME, MmsSmsColumns.ID + " = ?", new String[] {String.valueOf(mms)});
+    assertThat(getConversationIds(THREAD_ID)).isEmpty();
+  }
+
+  public void testIndexedQueryMatchesUnion() throws Exception {
+    populate();
+
+    Set<String> expected = new HashSet<>();
+    Cursor      cursor   = db.rawQuery(UNION_QUERY, new String[] {String.valueOf(THREAD_ID), String.valueOf(THREAD_ID)});
+
+    try {
+      while (cursor.moveToNext()) {
+        expected.add(cursor.getString(2) + cursor.getLong(0) + ":" + cursor.getString(3));
+      }
+    } finally {
+      cursor.close();
+    }
+
+    Set<String> actual = new HashSet<>();
+    cursor = db.rawQuery(MmsSmsDatabase.buildConversationQuery(null, PAGE_SIZE), new String[] {String.valueOf(THREAD_ID)});
+
+    try {
+      while (cursor.moveToNext()) {
+        actual.add(cursor.getString(cursor.getColumnIndexOrThrow(MmsSmsDatabase.TRANSPORT)) +
+                   cursor.getLong(cursor.getColumnIndexOrThrow(MmsSmsColumns.ID)) + ":" +
+                   cursor.getString(cursor.getColumnIndexOrThrow(AttachmentDatabase.ATTACHMENT_ID_ALIAS)));
+      }
+    } finally {
+      cursor.close();
+    }
+
+    assertThat(actual).hasSize(PAGE_SIZE);
+    assertThat(actual).isEqualTo(expected);
+  }
+
+  public void testConversationPageLatency() throws Exception {
+    populate();
+
+    String[] unionArgs   = new String[] {String.valueOf(THREAD_ID), String.valueOf(THREAD_ID)};
+    String[] indexedArgs = new String[] {String.valueOf(THREAD_ID)};
+    String   indexed     = MmsSmsDatabase.buildConversationQuery(null, PAGE_SIZE);
+
+    long unionTime   = time(UNION_QUERY, unionArgs);
+    long indexedTime = time(indexed, indexedArgs);
+
+    Log.w(TAG, "Conversation page over " + MESSAGE_COUNT + " messages, union: " +
+               unionTime / ITERATIONS + "us, indexed: " + indexedTime / ITERATIONS + "us");
+  }
+
+  private long time(String query, String[] args) {
+    long start = System.nanoTime();
+
+    for (int i=0;i<ITERATIONS;i++) {
+      Cursor cursor = db.rawQuery(query, args);
+      while (cursor.moveToNext());
+      cursor.close();
+    }
+
+    return (System.nanoTime() - start) / 1000;
+  }
+
+  private void populate() {
+    Random random = new Random(0);
+
+    db.beginTransaction();
+
+    try {
+      for (int i=0;i<MESSAGE_COUNT;i++) {
+        long threadId = random.nextInt(THREAD_COUNT);
+        long date     = random.nextInt(Integer.MAX_VALUE);
+
+        if (random.nextInt(5) != 0) {
+          insertSms(threadId, date);
+        } else {
+          long mms = insertMms(threadId, date);
+
+          for (int j=random.nextInt(3);j>0;j--) {
+            insertPart(mms);
+          }
+        }
+      }
+
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  private long insertSms(long threadId, long date) {
+    ContentValues values = new ContentValues();
+    values.put(MmsSmsColumns.THREAD_ID, threadId);
+    values.put(SmsDatabase.DATE_RECEIVED, date);
+    values.put(SmsDatabase.DATE_SENT, date);
+    values.put(MmsSmsColumns.BODY, "body");
+
+    return db.insert(SmsDatabase.TABLE_NAME, null, values);
+  }
+
+  private long insertMms(long threadId, long date) {
+    ContentValues values = new ContentValues();
+    values.put(MmsSmsColumns.THREAD_ID, threadId);
+    values.put(MmsDatabase.DATE_RECEIVED, date);
+    values.put(MmsDatabase.DATE_SENT, date);
+
+    return db.insert(MmsDatabase.TABLE_NAME, null, values);
+  }
+
+  private long insertPart(long mmsId) {
+    ContentValues values = new ContentValues();
+    values.put(AttachmentDatabase.MMS_ID, mmsId);
+    values.put(AttachmentDatabase.UNIQUE_ID, System.nanoTime());
+
+    return db.insert(AttachmentDatabase.TABLE_NAME, null, values);
+  }
+
+  private Long getAttachmentId(long mmsId) {
+    Cursor cursor = db.query(MmsSmsDatabase.INDEX_TABLE_NAME, new String[] {MmsSmsDatabase.INDEX_ATTACHMENT_ID},
+                             MmsSmsDatabase.TRANSPORT + " = ? AND " + MmsSmsDatabase.INDEX_MESSAGE_ID + " = ?",
+                             new String[] {MmsSmsDatabase.MMS_TRANSPORT, String.valueOf(mmsId)}, null, null, null);
+
+    try {
+      assertThat(cursor.moveToFirst()).isTrue();
+      return cursor.isNull(0) ? null : cursor.getLong(0);
+    } finally {
+      cursor.close();
+    }
+  }
+
+  private Set<String> getConversationIds(long threadId) {
+    Set<String> ids    = new HashSet<>();
+    Cursor      cursor = db.rawQuery(MmsSmsDatabase.buildConversationQuery(null, 0), new String[] {String.valueOf(threadId)});
+
+    try {
+      while (cursor.moveToNext()) {
+        ids.add(cursor.getString(cursor.getColumnIndexOrThrow(MmsSmsDatabase.TRANSPORT)) +
+                cursor.getLong(cursor.getColumnIndexOrThrow(MmsSmsColumns.ID)));
+      }
+    } finally {
+      cursor.close();
+    }
+
+    return ids;
+  }
+}
@@ -0,0 +1,97 @@
+package org.smssecure.smssecure.jobs.persistence;
+
+import org.smssecure.smssecure.SMSSecureTestCase;
+import org.smssecure.smssecure.crypto.MasterCipher;
+import org.smssecure.smssecure.crypto.MasterSecret;
+import org.smssecure.smssecure.util.ParcelUtil;
+import org.whispersystems.jobqueue.EncryptionKeys;
+import org.whispersystems.jobqueue.Job;
+import org.whispersystems.jobqueue.JobParameters;
+import org.whispersystems.jobqueue.persistence.JavaJobSerializer;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class EncryptingJobSerializerTest extends SMSSecureTestCase {
+
+  private MasterSecret            masterSecret;
+  private EncryptionKeys          keys;
+  private EncryptingJobSerializer serializer;
+
+  public void setUp() throws Exception {
+    super.setUp();
+    masterSecret = new MasterSecret(new SecretKeySpec(new byte[16], "AES"),
+                                    new SecretKeySpec(new byte[16], "HmacSHA1"));
+    keys         = new EncryptionKeys(ParcelUtil.serialize(masterSecret));
+    serializer   = new EncryptingJobSerializer();
+  }
+
+  public void tearDown() throws Exception {
+    EncryptingJobSerializer.clearCache();
+  }
+
+  public void testRoundTripsPlaintextJob() throws Exception {
+    String serialized = serializer.serialize(new TestJob("hello"));
+
+    assertThat(serialized).startsWith("2:");
+    assertThat(((TestJob)serializer.deserialize(null, false, serialized)).value).isEqualTo("hello");
+  }
+
+  public void testRoundTripsEncryptedJob() throws Exception {
+    TestJob job = new TestJob("secret");
+    job.setEncryptionKeys(keys);
+
+    String serialized = serializer.serialize(job);
+
+    assertThat(serialized).startsWith("2:");
+    assertThat(serialized).doesNotContain("secret");
+    assertThat(((TestJob)serializer.deserialize(keys, true, serialized)).value).isEqualTo("secret");
+  }
+
+  public void testDecodesAfterCacheCleared() throws Exception {
+    TestJob job = new TestJob("cleared");
+    job.setEncryptionKeys(keys);
+
+    String serialized = serializer.serialize(job);
+    EncryptingJobSerializer.clearCache();
+
+    assertThat(((TestJob)serializer.deserialize(keys, true, serialized)).value).isEqualTo("cleared");
+  }
+
+  public void testReadsLegacyPlaintextJob() throws Exception {
+    String serialized = new JavaJobSerializer().serialize(new TestJob("legacy"));
+
+    assertThat(((TestJob)serializer.deserialize(null, false, serialized)).value).isEqualTo("legacy");
+  }
+
+  public void testReadsLegacyEncryptedJob() throws Exception {
+    String serialized = new MasterCipher(masterSecret).encryptBody(new JavaJobSerializer().serialize(new TestJob("legacy")));
+
+    assertThat(((TestJob)serializer.deserialize(keys, true, serialized)).value).isEqualTo("legacy");
+  }
+
+  private static class TestJob extends Job {
+
+    private final String value;
+
+    TestJob(String value) {
+      super(JobParameters.newBuilder().withPersistence().create());
+      this.value = value;
+    }
+
+    @Override
+    public void onAdded() {}
+
+    @Override
+    public void onRun() {}
+
+    @Override
+    public boolean onShouldRetry(Exception exception) {
+      return false;
+    }
+
+    @Override
+    public void onCanceled() {}
+  }
+}
@@ -6,6 +6,12 @@ import org.powermock.core.classloader.annotations.PowerMockIgnore;
 import org.smssecure.smssecure.BaseUnitTest;
 import org.whispersystems.libaxolotl.InvalidMessageException;
 
+import java.util.Arrays;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
 @PowerMockIgnore("javax.crypto.*")
 public class MasterCipherTest extends BaseUnitTest {
   private MasterCipher masterCipher;
@@ -21,4 +27,38 @@ public class MasterCipherTest extends BaseUnitTest {
   public void testEncryptBytesWithZeroBody() throws Exception {
     masterCipher.decryptBytes(new byte[]{});
   }
+
+  @Test
+  public void testEncryptDecryptBody() throws Exception {
+    assertEquals("Hello, world", masterCipher.decryptBody(masterCipher.encryptBody("Hello, world")));
+  }
+
+  @Test
+  public void testDecryptIntoBuffer() throws Exception {
+    byte[] plaintext = new byte[100];
+    Arrays.fill(plaintext, (byte)0x42);
+
+    byte[] encrypted = masterCipher.encryptBytes(plaintext);
+    byte[] offset    = new byte[encrypted.length + 8];
+    System.arraycopy(encrypted, 0, offset, 4, encrypted.length);
+
+    byte[] decrypted = new byte[masterCipher.getMaxDecryptedSize(encrypted.length)];
+    int    length    = masterCipher.decryptBytes(offset, 4, encrypted.length, decrypted);
+
+    assertEquals(plaintext.length, length);
+    assertTrue(Arrays.equals(plaintext, Arrays.copyOf(decrypted, length)));
+  }
+
+  @Test(expected = InvalidMessageException.class)
+  public void testDecryptBytesWithBadMac() throws Exception {
+    byte[] encrypted = masterCipher.encryptBytes(new byte[32]);
+    encrypted[encrypted.length - 1] ^= 0x01;
+
+    masterCipher.decryptBytes(encrypted);
+  }
+
+  @Test
+  public void testThreadInstanceReused() throws Exception {
+    assertSame(MasterCipher.getInstance(masterSecret), MasterCipher.getInstance(masterSecret));
+  }
 }
@@ -0,0 +1,184 @@
+package org.smssecure.smssecure.crypto;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.smssecure.smssecure.BaseUnitTest;
+import org.smssecure.smssecure.util.Util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+@PowerMockIgnore("javax.crypto.*")
+public class SeekableDecryptingChannelTest extends BaseUnitTest {
+  private static final int CHUNK_SIZE = 1024;
+
+  private File file;
+
+  @Before
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    file = File.createTempFile("part", ".mms");
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+  }
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    int[] sizes = {0, 1, CHUNK_SIZE - 1, CHUNK_SIZE, CHUNK_SIZE + 1, 3 * CHUNK_SIZE + CHUNK_SIZE / 2};
+
+    for (int size : sizes) {
+      byte[] plaintext = write(size);
+
+      assertTrue(SeekableDecryptingChannel.isSeekable(file));
+      assertTrue(Arrays.equals(plaintext, readFully(DecryptingPartInputStream.createFor(file, masterSecret))));
+    }
+  }
+
+  @Test
+  public void testRandomSeeks() throws Exception {
+    byte[]                    plaintext = write(10 * CHUNK_SIZE + 17);
+    SeekableDecryptingChannel channel   = new SeekableDecryptingChannel(file, masterSecret);
+    Random                    random    = new Random(0);
+    byte[]                    buffer    = new byte[CHUNK_SIZE * 2];
+
+    assertEquals(plaintext.length, channel.size());
+
+    for (int i=0;i<200;i++) {
+      int position = random.nextInt(plaintext.length);
+      int length   = 1 + random.nextInt(buffer.length - 1);
+
+      channel.position(position);
+
+      int read = channel.read(buffer, 0, length);
+
+      assertTrue(read > 0);
+      assertEquals(position + read, channel.position());
+      assertTrue(Arrays.equals(Arrays.copyOfRange(plaintext, position, position + read),
+                               Arrays.copyOf(buffer, read)));
+    }
+
+    channel.position(plaintext.length);
+    assertEquals(-1, channel.read(buffer, 0, buffer.length));
+
+    channel.close();
+  }
+
+  @Test
+  public void testSkipSeeks() throws Exception {
+    byte[]      plaintext = write(5 * CHUNK_SIZE);
+    InputStream in        = DecryptingPartInputStream.createFor(file, masterSecret);
+
+    assertEquals(3 * CHUNK_SIZE + 5, in.skip(3 * CHUNK_SIZE + 5));
+    assertTrue(Arrays.equals(Arrays.copyOfRange(plaintext, 3 * CHUNK_SIZE + 5, plaintext.length), readFully(in)));
+    assertEquals(0, in.skip(10));
+  }
+
+  @Test
+  public void testTamperedChunkFails() throws Exception {
+    write(4 * CHUNK_SIZE);
+
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    raf.seek(ChunkedPartFormat.HEADER_LENGTH + 2 * (CHUNK_SIZE + ChunkedPartFormat.MAC_LENGTH) + 10);
+    raf.write(raf.read() ^ 0x01);
+    raf.close();
+
+    SeekableDecryptingChannel channel = new SeekableDecryptingChannel(file, masterSecret);
+    byte[]                    buffer  = new byte[CHUNK_SIZE];
+
+    channel.position(CHUNK_SIZE);
+    assertEquals(CHUNK_SIZE, channel.read(buffer, 0, buffer.length));
+
+    try {
+      channel.read(buffer, 0, buffer.length);
+      fail();
+    } catch (IOException e) {
+      // expected
+    }
+
+    channel.close();
+  }
+
+  @Test
+  public void testTruncatedAtChunkBoundaryFails() throws Exception {
+    write(4 * CHUNK_SIZE);
+
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    raf.setLength(ChunkedPartFormat.HEADER_LENGTH + 2 * (CHUNK_SIZE + ChunkedPartFormat.MAC_LENGTH));
+    raf.close();
+
+    try {
+      readFully(DecryptingPartInputStream.createFor(file, masterSecret));
+      fail();
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testLegacyPartIsStillReadable() throws Exception {
+    byte[] plaintext = new byte[10000];
+    new Random(0).nextBytes(plaintext);
+
+    Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+    Mac    mac    = Mac.getInstance("HmacSHA1");
+
+    cipher.init(Cipher.ENCRYPT_MODE, masterSecret.getEncryptionKey());
+    mac.init(masterSecret.getMacKey());
+
+    byte[] iv         = cipher.getIV();
+    byte[] ciphertext = cipher.doFinal(plaintext);
+
+    mac.update(iv);
+
+    OutputStream out = new FileOutputStream(file);
+    out.write(iv);
+    out.write(ciphertext);
+    out.write(mac.doFinal(ciphertext));
+    out.close();
+
+    assertTrue(!SeekableDecryptingChannel.isSeekable(file));
+    assertTrue(Arrays.equals(plaintext, readFully(DecryptingPartInputStream.createFor(file, masterSecret))));
+  }
+
+  private byte[] write(int size) throws IOException {
+    byte[] plaintext = new byte[size];
+    new Random(size).nextBytes(plaintext);
+
+    OutputStream out = new EncryptingPartOutputStream(file, masterSecret, CHUNK_SIZE);
+
+    for (int offset=0;offset<size;offset+=333) {
+      out.write(plaintext, offset, Math.min(333, size - offset));
+    }
+
+    out.close();
+
+    return plaintext;
+  }
+
+  private byte[] readFully(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Util.copy(in, out);
+
+    return out.toByteArray();
+  }
+}
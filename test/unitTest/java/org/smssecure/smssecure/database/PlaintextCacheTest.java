@@ -0,0 +1,57 @@
+package org.smssecure.smssecure.database;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+public class PlaintextCacheTest {
+
+  @Test
+  public void testKeyedByTableAndId() throws Exception {
+    PlaintextCache cache = new PlaintextCache(64 * 1024);
+    cache.put(PlaintextCache.SMS, 1, "ciphertext", "plaintext");
+
+    assertEquals("plaintext", cache.get(PlaintextCache.SMS, 1, "ciphertext"));
+    assertNull(cache.get(PlaintextCache.MMS, 1, "ciphertext"));
+    assertNull(cache.get(PlaintextCache.SMS, 2, "ciphertext"));
+    assertEquals(1, cache.getHitCount());
+    assertEquals(2, cache.getMissCount());
+  }
+
+  @Test
+  public void testRewrittenCiphertextMisses() throws Exception {
+    PlaintextCache cache = new PlaintextCache(64 * 1024);
+    cache.put(PlaintextCache.SMS, 1, "first ciphertext", "first");
+
+    assertNull(cache.get(PlaintextCache.SMS, 1, "second ciphertext"));
+  }
+
+  @Test
+  public void testBoundedByBytes() throws Exception {
+    PlaintextCache cache = new PlaintextCache(16 * 1024);
+
+    for (int i=0;i<1000;i++) {
+      cache.put(PlaintextCache.SMS, i, "ciphertext" + i, "a moderately long plaintext body " + i);
+    }
+
+    assertTrue(cache.getSize() <= 16 * 1024);
+    assertTrue(cache.getEvictionCount() > 0);
+    assertEquals("a moderately long plaintext body 999", cache.get(PlaintextCache.SMS, 999, "ciphertext999"));
+  }
+
+  @Test
+  public void testClearAndRemove() throws Exception {
+    PlaintextCache cache = new PlaintextCache(64 * 1024);
+    cache.put(PlaintextCache.SMS, 1, "one", "1");
+    cache.put(PlaintextCache.MMS, 2, "two", "2");
+
+    cache.remove(PlaintextCache.SMS, 1);
+    assertNull(cache.get(PlaintextCache.SMS, 1, "one"));
+
+    cache.clear();
+    assertNull(cache.get(PlaintextCache.MMS, 2, "two"));
+    assertEquals(0, cache.getSize());
+  }
+}
@@ -0,0 +1,80 @@
+package org.smssecure.smssecure.database;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class XmlBackupWriterTest {
+
+  private File file;
+
+  @Before
+  public void setUp() throws Exception {
+    file = File.createTempFile("backup", ".xml");
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+  }
+
+  @Test
+  public void testEscapesAttributes() throws Exception {
+    XmlBackup.Writer writer = new XmlBackup.Writer(file.getAbsolutePath(), 1);
+    writer.writeItem(new XmlBackup.XmlBackupItem(0, "+15555550100", 1000, 1, null,
+                                                 "a<b & \"c\" 'd'>\ne\uD83D\uDE00", null, 1, -1));
+    writer.close();
+
+    String xml = read();
+
+    assertTrue(xml.contains("<smses count=\"1\">"));
+    assertTrue(xml.contains(" <sms protocol=\"0\" address=\"+15555550100\" date=\"1000\" type=\"1\" subject=\"null\" " +
+                            "body=\"a&lt;b &amp; &quot;c&quot; &apos;d&apos;&gt;&#10;e&#55357;&#56832;\" " +
+                            "toa=\"null\" sc_toa=\"null\" service_center=\"null\" read=\"1\" status=\"-1\" locked=\"0\" />"));
+    assertTrue(xml.endsWith("</smses>"));
+  }
+
+  @Test
+  public void testWritesEveryItem() throws Exception {
+    XmlBackup.Writer writer = new XmlBackup.Writer(file.getAbsolutePath(), 10000);
+
+    for (int i=0;i<10000;i++) {
+      writer.writeItem(new XmlBackup.XmlBackupItem(0, "+1555555" + i, i, 2, null, "body " + i, null, 1, 0));
+    }
+
+    writer.close();
+
+    String xml   = read();
+    int    count = 0;
+
+    for (int index = xml.indexOf("<sms "); index != -1; index = xml.indexOf("<sms ", index + 1)) {
+      count++;
+    }
+
+    assertEquals(10000, count);
+    assertTrue(xml.contains("body=\"body 9999\""));
+  }
+
+  private String read() throws IOException {
+    InputStream           in  = new FileInputStream(file);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[]                buf = new byte[4096];
+    int                   read;
+
+    while ((read = in.read(buf)) != -1) {
+      out.write(buf, 0, read);
+    }
+
+    in.close();
+    return new String(out.toByteArray(), "UTF-8");
+  }
+}
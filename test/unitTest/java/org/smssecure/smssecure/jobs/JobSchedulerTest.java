@@ -0,0 +1,63 @@
+package org.smssecure.smssecure.jobs;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.whispersystems.jobqueue.EncryptionKeys;
+import org.whispersystems.jobqueue.Job;
+import org.whispersystems.jobqueue.JobManager;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class JobSchedulerTest {
+
+  private JobManager   foreground;
+  private JobManager   background;
+  private JobScheduler scheduler;
+
+  @Before
+  public void setUp() {
+    foreground = mock(JobManager.class);
+    background = mock(JobManager.class);
+    scheduler  = new JobScheduler(foreground, background);
+  }
+
+  @Test
+  public void testBackgroundJobsRunInBackground() {
+    Job job = mock(TrimThreadJob.class);
+
+    scheduler.add(job);
+
+    verify(background).add(job);
+    verify(foreground, never()).add(job);
+  }
+
+  @Test
+  public void testOtherJobsRunInForeground() {
+    Job job = mock(Job.class);
+
+    scheduler.add(job);
+
+    verify(foreground).add(job);
+    verify(background, never()).add(job);
+  }
+
+  @Test
+  public void testEncryptionKeysReachBothManagers() {
+    EncryptionKeys keys = new EncryptionKeys(new byte[] {1, 2, 3});
+
+    scheduler.setEncryptionKeys(keys);
+
+    verify(foreground).setEncryptionKeys(keys);
+    verify(background).setEncryptionKeys(keys);
+  }
+
+  @Test
+  public void testSenderGroupId() {
+    assertEquals("sms-receive:+15555550100", JobScheduler.getSenderGroupId("+15555550100"));
+    assertNull(JobScheduler.getSenderGroupId(null));
+  }
+}
@@ -0,0 +1,48 @@
+package org.smssecure.smssecure.jobs;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+
+public class JobStatisticsTest {
+
+  @Test
+  public void testAggregatesByJobClass() {
+    JobStatistics.onJobRun(FirstJob.class, 10, 100);
+    JobStatistics.onJobRun(FirstJob.class, 30, 300);
+    JobStatistics.onJobRun(FirstJob.class, -1, 200);
+
+    JobStatistics.Entry entry = getEntry(FirstJob.class);
+
+    assertNotNull(entry);
+    assertEquals(3, entry.getRunCount());
+    assertEquals(20, entry.getAverageWait());
+    assertEquals(30, entry.getMaxWait());
+    assertEquals(200, entry.getAverageRun());
+    assertEquals(300, entry.getMaxRun());
+  }
+
+  @Test
+  public void testEntriesAreSnapshots() {
+    JobStatistics.onJobRun(SecondJob.class, 0, 50);
+
+    JobStatistics.Entry entry = getEntry(SecondJob.class);
+    JobStatistics.onJobRun(SecondJob.class, 0, 50);
+
+    assertNotNull(entry);
+    assertEquals(1, entry.getRunCount());
+    assertEquals(2, getEntry(SecondJob.class).getRunCount());
+  }
+
+  private JobStatistics.Entry getEntry(Class<?> jobClass) {
+    for (JobStatistics.Entry entry : JobStatistics.getEntries()) {
+      if (entry.getName().equals(jobClass.getSimpleName())) return entry;
+    }
+
+    return null;
+  }
+
+  private static class FirstJob {}
+  private static class SecondJob {}
+}
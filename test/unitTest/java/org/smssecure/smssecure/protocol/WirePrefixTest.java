@@ -0,0 +1,50 @@
+package org.smssecure.smssecure.protocol;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+public class WirePrefixTest {
+
+  private static final String BODY = "AwEBYWJjZGVmZ2hpamtsbW5vcHFyc3R1dnd4eXo+/";
+
+  @Test
+  public void testWireTypes() throws Exception {
+    assertEquals(WirePrefix.TYPE_SECURE,
+                 WirePrefix.getWireType(new SecureMessageWirePrefix().calculatePrefix(BODY) + BODY));
+    assertEquals(WirePrefix.TYPE_KEY_EXCHANGE,
+                 WirePrefix.getWireType(new KeyExchangeWirePrefix().calculatePrefix(BODY) + BODY));
+    assertEquals(WirePrefix.TYPE_PREKEY,
+                 WirePrefix.getWireType(new PrekeyBundleWirePrefix().calculatePrefix(BODY) + BODY));
+    assertEquals(WirePrefix.TYPE_END_SESSION,
+                 WirePrefix.getWireType(new EndSessionWirePrefix().calculatePrefix(BODY) + BODY));
+  }
+
+  @Test
+  public void testPrefixedMessage() throws Exception {
+    String message = new SecureMessageWirePrefix().calculatePrefix(BODY) + BODY;
+
+    assertTrue(WirePrefix.isPrefixedMessage(message));
+    assertTrue(WirePrefix.isEncryptedMessage(message));
+    assertFalse(WirePrefix.isKeyExchange(message));
+    assertFalse(WirePrefix.isPreKeyBundle(message));
+    assertFalse(WirePrefix.isEndSession(message));
+  }
+
+  @Test
+  public void testUnprefixedMessages() throws Exception {
+    assertEquals(WirePrefix.TYPE_NONE, WirePrefix.getWireType(null));
+    assertEquals(WirePrefix.TYPE_NONE, WirePrefix.getWireType(""));
+    assertEquals(WirePrefix.TYPE_NONE, WirePrefix.getWireType("AAAA"));
+    assertEquals(WirePrefix.TYPE_NONE, WirePrefix.getWireType("See you at 8?"));
+    assertEquals(WirePrefix.TYPE_NONE, WirePrefix.getWireType("AAAA" + BODY));
+  }
+
+  @Test
+  public void testEncryptedMmsSubject() throws Exception {
+    assertTrue(WirePrefix.isEncryptedMmsSubject(WirePrefix.calculateEncryptedMmsSubject()));
+    assertFalse(WirePrefix.isEncryptedMmsSubject("Holiday pictures"));
+  }
+}
@@ -0,0 +1,99 @@
+package org.smssecure.smssecure.util;
+
+import org.junit.Test;
+import org.smssecure.smssecure.BaseUnitTest;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LongObjectCacheTest extends BaseUnitTest {
+
+  @Test public void testPutGetRemove() {
+    LongObjectCache<String> cache = new LongObjectCache<>();
+
+    for (long i=0;i<1000;i++) {
+      cache.put(i * 31, "v" + i);
+    }
+
+    assertEquals(1000, cache.size());
+
+    for (long i=0;i<1000;i+=2) {
+      cache.remove(i * 31);
+    }
+
+    assertEquals(500, cache.size());
+
+    for (long i=0;i<1000;i++) {
+      if (i % 2 == 0) assertNull(cache.get(i * 31));
+      else            assertEquals("v" + i, cache.get(i * 31));
+    }
+  }
+
+  @Test public void testReplace() {
+    LongObjectCache<String> cache = new LongObjectCache<>();
+
+    cache.put(-1, "first");
+    cache.put(-1, "second");
+
+    assertEquals(1, cache.size());
+    assertEquals("second", cache.get(-1));
+  }
+
+  @Test public void testBoundedEvictsUnreferenced() {
+    LongObjectCache<String> cache = new LongObjectCache<>(10);
+
+    for (long i=0;i<10;i++) {
+      cache.put(i, "v" + i);
+    }
+
+    cache.get(0);
+    cache.put(10, "v10");
+
+    assertEquals(10, cache.size());
+    assertEquals("v0", cache.get(0));
+    assertEquals("v10", cache.get(10));
+
+    for (long i=11;i<1000;i++) {
+      cache.put(i, "v" + i);
+      assertTrue(cache.size() <= 10);
+    }
+
+    assertEquals("v999", cache.get(999));
+  }
+
+  @Test public void testRandomOperationsMatchModel() {
+    LongObjectCache<Long>   cache  = new LongObjectCache<>();
+    ObjectLongCache<String> names  = new ObjectLongCache<>();
+    Map<Long, Long>         model  = new HashMap<>();
+    Random                  random = new Random(0);
+
+    for (int i=0;i<20000;i++) {
+      long key = random.nextInt(500);
+
+      if (random.nextBoolean()) {
+        cache.put(key, (long)i);
+        names.put("k" + key, i);
+        model.put(key, (long)i);
+      } else {
+        cache.remove(key);
+        names.remove("k" + key);
+        model.remove(key);
+      }
+    }
+
+    assertEquals(model.size(), cache.size());
+    assertEquals(model.size(), names.size());
+
+    for (long key=0;key<500;key++) {
+      Long expected = model.get(key);
+
+      assertEquals(expected, cache.get(key));
+      assertEquals(expected == null ? -1L : expected, names.get("k" + key, -1L));
+    }
+  }
+}
@@ -0,0 +1,93 @@
+package ws.com.google.android.mms.pdu;
+
+import org.junit.Test;
+import org.smssecure.smssecure.BaseUnitTest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import ws.com.google.android.mms.ContentType;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PduComposerTest extends BaseUnitTest {
+
+  @Test public void testStreamingMatchesBuffered() throws Exception {
+    byte[]  data    = new byte[300 * 1024];
+    SendReq sendReq = createSendReq(new ArraySource(data));
+
+    new Random(0).nextBytes(data);
+
+    byte[]                buffered = new PduComposer(context, sendReq).make();
+    ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+    long                  written  = new PduComposer(context, sendReq).make(streamed);
+
+    assertEquals(buffered.length, written);
+    assertTrue(Arrays.equals(buffered, streamed.toByteArray()));
+  }
+
+  @Test public void testStreamingFailsWhenSourceChanges() throws Exception {
+    final byte[][] data = new byte[][] {new byte[1024]};
+
+    SendReq sendReq = createSendReq(new PduPart.DataSource() {
+      @Override
+      public InputStream openStream() throws IOException {
+        InputStream in = new ByteArrayInputStream(data[0]);
+        data[0] = new byte[2048];
+        return in;
+      }
+    });
+
+    try {
+      new PduComposer(context, sendReq).make(new ByteArrayOutputStream());
+      fail();
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  private SendReq createSendReq(PduPart.DataSource source) {
+    SendReq sendReq = new SendReq();
+    PduBody body    = new PduBody();
+
+    sendReq.addTo(new EncodedStringValue("+14155550123"));
+    sendReq.setDate(1234567890L);
+
+    PduPart text = new PduPart();
+    text.setData("Hello".getBytes());
+    text.setCharset(CharacterSets.UTF_8);
+    text.setContentType(ContentType.TEXT_PLAIN.getBytes());
+    text.setContentId("text".getBytes());
+    text.setName("text".getBytes());
+    body.addPart(text);
+
+    PduPart image = new PduPart();
+    image.setDataSource(source);
+    image.setContentType(ContentType.IMAGE_JPEG.getBytes());
+    image.setContentId("image".getBytes());
+    image.setName("image".getBytes());
+    body.addPart(image);
+
+    sendReq.setBody(body);
+    return sendReq;
+  }
+
+  private static class ArraySource implements PduPart.DataSource {
+    private final byte[] data;
+
+    private ArraySource(byte[] data) {
+      this.data = data;
+    }
+
+    @Override
+    public InputStream openStream() {
+      return new ByteArrayInputStream(data);
+    }
+  }
+}
@@ -0,0 +1,112 @@
+package ws.com.google.android.mms.pdu;
+
+import android.util.Log;
+
+import org.junit.Test;
+import org.smssecure.smssecure.BaseUnitTest;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import ws.com.google.android.mms.ContentType;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class PduParserTest extends BaseUnitTest {
+  private static final String TAG = PduParserTest.class.getSimpleName();
+
+  private static final int PART_COUNT = 8;
+  private static final int PART_SIZE  = 256 * 1024;
+  private static final int ITERATIONS = 20;
+
+  @Test public void testBufferMatchesArray() throws Exception {
+    byte[][] data = createData(3, 64 * 1024);
+    byte[]   pdu  = new PduComposer(context, createSendReq(data)).make();
+
+    SendReq fromArray  = (SendReq) new PduParser(pdu).parse();
+    SendReq fromBuffer = (SendReq) new PduParser(ByteBuffer.wrap(pdu)).parse();
+
+    assertNotNull(fromArray);
+    assertNotNull(fromBuffer);
+    assertEquals(data.length, fromBuffer.getBody().getPartsNum());
+
+    for (int i=0;i<data.length;i++) {
+      PduPart    part   = fromBuffer.getBody().getPartByContentId("<image" + i + ">");
+      ByteBuffer buffer = part.getDataBuffer();
+      byte[]     copy   = new byte[buffer.remaining()];
+
+      buffer.get(copy);
+
+      assertTrue(Arrays.equals(data[i], copy));
+      assertTrue(Arrays.equals(data[i], part.getData()));
+      assertTrue(Arrays.equals(data[i], fromArray.getBody().getPartByContentId("<image" + i + ">").getData()));
+    }
+  }
+
+  @Test public void testBufferIsReadOnlyView() throws Exception {
+    byte[][]   data   = createData(1, 1024);
+    ByteBuffer pdu    = ByteBuffer.wrap(new PduComposer(context, createSendReq(data)).make());
+    SendReq    parsed = (SendReq) new PduParser(pdu).parse();
+    ByteBuffer buffer = parsed.getBody().getPart(0).getDataBuffer();
+
+    assertTrue(buffer.isReadOnly());
+    assertEquals(data[0].length, buffer.remaining());
+    assertEquals(data[0][0], buffer.get(0));
+  }
+
+  @Test public void testParseThroughput() throws Exception {
+    byte[] pdu = new PduComposer(context, createSendReq(createData(PART_COUNT, PART_SIZE))).make();
+
+    long arrayTime  = 0;
+    long bufferTime = 0;
+
+    for (int i=0;i<ITERATIONS;i++) {
+      long start = System.nanoTime();
+      new PduParser(pdu).parse();
+      arrayTime += System.nanoTime() - start;
+
+      start = System.nanoTime();
+      new PduParser(ByteBuffer.wrap(pdu)).parse();
+      bufferTime += System.nanoTime() - start;
+    }
+
+    Log.w(TAG, "Parsed " + pdu.length + " byte pdu, copying: " + arrayTime / ITERATIONS / 1000 +
+               "us, sliced: " + bufferTime / ITERATIONS / 1000 + "us");
+  }
+
+  private byte[][] createData(int count, int size) {
+    Random   random = new Random(0);
+    byte[][] data   = new byte[count][size];
+
+    for (byte[] part : data) {
+      random.nextBytes(part);
+    }
+
+    return data;
+  }
+
+  private SendReq createSendReq(byte[][] data) {
+    SendReq sendReq = new SendReq();
+    PduBody body    = new PduBody();
+
+    sendReq.addTo(new EncodedStringValue("+14155550123"));
+    sendReq.setFrom(new EncodedStringValue("+14155550124"));
+    sendReq.setTransactionId("T1234".getBytes());
+    sendReq.setDate(1234567890L);
+
+    for (int i=0;i<data.length;i++) {
+      PduPart part = new PduPart();
+      part.setData(data[i]);
+      part.setContentType(ContentType.IMAGE_JPEG.getBytes());
+      part.setContentId(("image" + i).getBytes());
+      part.setName(("image" + i).getBytes());
+      body.addPart(part);
+    }
+
+    sendReq.setBody(body);
+    return sendReq;
+  }
+}